@@ -0,0 +1,265 @@
+package com.github.christiangda.storm.metrics;
+
+import okhttp3.OkHttpClient;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Realistic metrics of a bolt task, as Storm hands them to the consumer, for the benchmarks
+ */
+final class BenchmarkFixtures {
+
+    static final String TOPOLOGY_NAME = "benchmark-topology";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Sender configuration of an encoder mode
+     *
+     * @param mode legacy, compact or wide
+     * @return configuration
+     */
+    static Map<Object, Object> config(String mode) {
+        final Map<Object, Object> config = new HashMap<>();
+        config.put(Config.TOPOLOGY_NAME, TOPOLOGY_NAME);
+        config.put(InfluxDBSender.KEY_INFLUXDB_TRANSPORT, "udp");
+        config.put(InfluxDBSender.KEY_INFLUXDB_URL, "localhost:8089");
+        config.put(InfluxDBSender.KEY_INFLUXDB_COMPACT_SCHEMA_ENABLE, "compact".equals(mode) || "wide".equals(mode));
+        config.put(InfluxDBSender.KEY_INFLUXDB_WIDE_POINTS_ENABLE, "wide".equals(mode));
+        return config;
+    }
+
+    /**
+     * Sender writing to a transport that discards the records
+     *
+     * @param config sender configuration
+     * @return sender
+     */
+    static InfluxDBSender discardingSender(Map<Object, Object> config) {
+        return new DiscardingSender(config);
+    }
+
+    /**
+     * Flattened data points, as the consumer hands them to the sender
+     *
+     * @param dataPoints data points of a tick
+     * @return sender that recorded the flattened names and values
+     */
+    static RecordingSender flatten(List<IMetricsConsumer.DataPoint> dataPoints) {
+        final RecordingSender sender = new RecordingSender(config("legacy"));
+        final InfluxDBMetricsConsumer consumer = consumer(sender);
+        for (IMetricsConsumer.DataPoint dataPoint : dataPoints) {
+            consumer.processDataPoint(dataPoint.name, dataPoint.value, 0);
+        }
+        return sender;
+    }
+
+    /**
+     * Consumer using the given sender
+     *
+     * @param sender sender
+     * @return prepared consumer
+     */
+    static InfluxDBMetricsConsumer consumer(InfluxDBSender sender) {
+        final InfluxDBMetricsConsumer consumer = new FixedSenderConsumer(sender);
+        consumer.prepare(config("legacy"), null, null, null);
+        return consumer;
+    }
+
+    static Map<String, String> tags() {
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("ComponentId", "split-bolt");
+        tags.put("Topology", TOPOLOGY_NAME);
+        return tags;
+    }
+
+    static Map<String, Object> fields() {
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put("Timestamp", String.valueOf(System.currentTimeMillis() / 1000));
+        fields.put("UpdateIntervalSecs", "60");
+        fields.put("TaskId", "42");
+        fields.put("WorkerHost", "worker-1.example.com");
+        fields.put("WorkerPort", "6700");
+        return fields;
+    }
+
+    static IMetricsConsumer.TaskInfo taskInfo() {
+        return new IMetricsConsumer.TaskInfo("worker-1.example.com", 6700, "split-bolt", 42, System.currentTimeMillis() / 1000, 60);
+    }
+
+    /**
+     * Data points of one metrics tick of a bolt task
+     *
+     * @param inputStreams number of upstream component streams, it grows with the topology size
+     * @return data points, including nested maps per stream
+     */
+    static List<IMetricsConsumer.DataPoint> dataPoints(int inputStreams) {
+        final List<IMetricsConsumer.DataPoint> dataPoints = new ArrayList<>();
+
+        dataPoints.add(new IMetricsConsumer.DataPoint("__ack-count", perInputStream(inputStreams, 1200L)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__fail-count", perInputStream(inputStreams, 3L)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__execute-count", perInputStream(inputStreams, 1203L)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__execute-latency", perInputStream(inputStreams, 0.35d)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__process-latency", perInputStream(inputStreams, 1.25d)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__emit-count", perOutputStream(1200L)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__transfer-count", perOutputStream(1200L)));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__sendqueue", queue()));
+        dataPoints.add(new IMetricsConsumer.DataPoint("__receive", queue()));
+
+        final Map<String, Object> heap = new LinkedHashMap<>();
+        heap.put("unusedBytes", 21474836L);
+        heap.put("virtualFreeBytes", 42949672L);
+        heap.put("initBytes", 268435456L);
+        heap.put("committedBytes", 536870912L);
+        heap.put("maxBytes", 1073741824L);
+        heap.put("usedBytes", 515396075L);
+        dataPoints.add(new IMetricsConsumer.DataPoint("memory/heap", heap));
+
+        final Map<String, Object> gc = new LinkedHashMap<>();
+        gc.put("count", 154L);
+        gc.put("timeMs", 1821L);
+        dataPoints.add(new IMetricsConsumer.DataPoint("GC/PSScavenge", gc));
+
+        // custom metric, nested two levels
+        final Map<String, Object> partitions = new LinkedHashMap<>();
+        for (int partition = 0; partition < 8; partition++) {
+            final Map<String, Object> offsets = new LinkedHashMap<>();
+            offsets.put("latestTimeOffset", 1000000L + partition);
+            offsets.put("latestEmittedOffset", 999000L + partition);
+            offsets.put("spoutLag", 1000L);
+            partitions.put(String.valueOf(partition), offsets);
+        }
+        dataPoints.add(new IMetricsConsumer.DataPoint("kafkaOffset", partitions));
+
+        dataPoints.add(new IMetricsConsumer.DataPoint("uptimeSecs", 86400));
+        dataPoints.add(new IMetricsConsumer.DataPoint("startTimeSecs", 1500000000L));
+        dataPoints.add(new IMetricsConsumer.DataPoint("state", "running"));
+
+        return dataPoints;
+    }
+
+    private static Map<String, Object> perInputStream(int inputStreams, Object value) {
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < inputStreams; i++) {
+            values.put("component-" + (i / 2) + ":" + ((i % 2 == 0) ? "default" : "stream-" + i), value);
+        }
+        return values;
+    }
+
+    private static Map<String, Object> perOutputStream(Object value) {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("default", value);
+        values.put("__ack_init", value);
+        values.put("__ack_ack", value);
+        values.put("__metrics", value);
+        return values;
+    }
+
+    private static Map<String, Object> queue() {
+        final Map<String, Object> queue = new LinkedHashMap<>();
+        queue.put("arrival_rate_secs", 2400.5d);
+        queue.put("overflow", 0L);
+        queue.put("read_pos", 1032842L);
+        queue.put("write_pos", 1032845L);
+        queue.put("sojourn_time_ms", 1.2d);
+        queue.put("capacity", 1024L);
+        queue.put("population", 3L);
+        return queue;
+    }
+
+    /*
+     * Named classes rather than anonymous ones: the consumer and the sender log with getClass().getSimpleName()
+     * and it is not as cheap for anonymous classes
+     */
+
+    /**
+     * Consumer using a sender created beforehand
+     */
+    static final class FixedSenderConsumer extends InfluxDBMetricsConsumer {
+
+        private final InfluxDBSender sender;
+
+        FixedSenderConsumer(InfluxDBSender sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        InfluxDBSender makeInfluxDBSender(Map<Object, Object> config) {
+            return this.sender;
+        }
+    }
+
+    /**
+     * Sender writing to a transport that discards the records
+     */
+    static final class DiscardingSender extends InfluxDBSender {
+
+        DiscardingSender(Map<Object, Object> config) {
+            super(config);
+        }
+
+        @Override
+        Transport makeTransport(String url, OkHttpClient client, CircuitBreaker circuitBreaker) {
+            return new DiscardingTransport();
+        }
+    }
+
+    /**
+     * Sender that only records the data points it is given
+     */
+    static final class RecordingSender extends InfluxDBSender {
+
+        final List<String> names = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+
+        RecordingSender(Map<Object, Object> config) {
+            super(config);
+        }
+
+        @Override
+        Transport makeTransport(String url, OkHttpClient client, CircuitBreaker circuitBreaker) {
+            return new DiscardingTransport();
+        }
+
+        @Override
+        public void prepareDataPoint(String name, Object value) {
+            this.names.add(name);
+            this.values.add(value);
+        }
+
+        int clear() {
+            final int size = this.names.size();
+            this.names.clear();
+            this.values.clear();
+            return size;
+        }
+    }
+
+    /**
+     * Transport that only counts the bytes written
+     */
+    static final class DiscardingTransport implements Transport {
+
+        long bytes;
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            this.bytes += length;
+        }
+
+        @Override
+        public void createDatabase() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
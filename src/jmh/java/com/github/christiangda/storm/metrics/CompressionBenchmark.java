@@ -0,0 +1,131 @@
+package com.github.christiangda.storm.metrics;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CPU versus bytes of the request body compression, on the line protocol batch of several tasks ticks.
+ * <p>
+ * The {@code bytes} counters report the input and compressed bytes per second, their ratio is the compression
+ * ratio. {@code jdk_gzip} is the {@link GZIPOutputStream} into a buffer the transport used before, as a baseline.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @State(Scope.Thread)
+    public static class Batch {
+
+        // tasks ticks in the batch, 1 is below the default compression threshold on small topologies
+        @Param({"1", "50"})
+        int tasks;
+
+        @Param({"jdk_gzip", "gzip", "zstd"})
+        String codec;
+
+        @Param({"1", "6", "9"})
+        int level;
+
+        byte[] data;
+        int length;
+        Compressor compressor;
+        LineBuffer jdkBuffer;
+        final Buffer body = new Buffer();
+
+        @Setup
+        public void setUp() {
+            final BenchmarkFixtures.RecordingSender sender = BenchmarkFixtures.flatten(BenchmarkFixtures.dataPoints(20));
+            final LineProtocolEncoder encoder = new LineProtocolEncoder("storm-", 64 * 1024, false);
+            final Map<String, Object> fields = BenchmarkFixtures.fields();
+            final long timestamp = System.currentTimeMillis();
+
+            for (int task = 0; task < this.tasks; task++) {
+                fields.put("TaskId", String.valueOf(task));
+                encoder.setTags(BenchmarkFixtures.tags());
+                encoder.setFields(fields);
+                for (int i = 0; i < sender.names.size(); i++) {
+                    final Object value = sender.values.get(i);
+                    if (value instanceof String) {
+                        encoder.encodeString(sender.names.get(i), (String) value, timestamp);
+                    } else if (value instanceof Boolean) {
+                        encoder.encodeBoolean(sender.names.get(i), (Boolean) value, timestamp);
+                    } else {
+                        encoder.encodeNumber(sender.names.get(i), ((Number) value).doubleValue() + task, timestamp);
+                    }
+                }
+            }
+            sender.closeConnection();
+
+            this.data = encoder.getBuffer().toByteArray();
+            this.length = this.data.length;
+            switch (this.codec) {
+                case "zstd":
+                    this.compressor = new ZstdCompressor(this.level);
+                    break;
+                case "gzip":
+                    this.compressor = new GzipCompressor(this.level);
+                    break;
+                default:
+                    this.jdkBuffer = new LineBuffer(64 * 1024);
+                    break;
+            }
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        public long inputBytes;
+        public long compressedBytes;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            this.inputBytes = 0;
+            this.compressedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public long compress(Batch batch, Bytes bytes) throws IOException {
+        final long compressed;
+
+        if (batch.compressor != null) {
+            batch.compressor.compress(batch.data, 0, batch.length, batch.body);
+            compressed = batch.body.size();
+            batch.body.clear();
+        } else {
+            // GZIPOutputStream has no level, it always uses the default one
+            batch.jdkBuffer.reset();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(batch.jdkBuffer)) {
+                gzip.write(batch.data, 0, batch.length);
+            }
+            compressed = batch.jdkBuffer.size();
+        }
+
+        bytes.inputBytes += batch.length;
+        bytes.compressedBytes += compressed;
+        return compressed;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.christiangda.storm.metrics;
+
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics tick of a bolt task through the consumer: the whole tick and the flattening of the nested data points
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InfluxDBMetricsConsumerBenchmark {
+
+    @State(Scope.Thread)
+    public static class Tick {
+
+        // upstream component streams of the task, it grows with the topology size
+        @Param({"2", "20", "200"})
+        int inputStreams;
+
+        IMetricsConsumer.TaskInfo taskInfo;
+        List<IMetricsConsumer.DataPoint> dataPoints;
+
+        @Setup
+        public void setUp() {
+            this.taskInfo = BenchmarkFixtures.taskInfo();
+            this.dataPoints = BenchmarkFixtures.dataPoints(this.inputStreams);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sending {
+
+        @Param({"legacy", "compact", "wide"})
+        String mode;
+
+        InfluxDBMetricsConsumer consumer;
+
+        @Setup
+        public void setUp() {
+            this.consumer = BenchmarkFixtures.consumer(BenchmarkFixtures.discardingSender(BenchmarkFixtures.config(this.mode)));
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.consumer.cleanup();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Flattening {
+
+        BenchmarkFixtures.RecordingSender sender;
+        InfluxDBMetricsConsumer consumer;
+
+        @Setup
+        public void setUp() {
+            this.sender = new BenchmarkFixtures.RecordingSender(BenchmarkFixtures.config("legacy"));
+            this.consumer = BenchmarkFixtures.consumer(this.sender);
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.consumer.cleanup();
+        }
+    }
+
+    @Benchmark
+    public void handleDataPoints(Tick tick, Sending sending) {
+        sending.consumer.handleDataPoints(tick.taskInfo, tick.dataPoints);
+    }
+
+    @Benchmark
+    public int processDataPoint(Tick tick, Flattening flattening) {
+        for (IMetricsConsumer.DataPoint dataPoint : tick.dataPoints) {
+            flattening.consumer.processDataPoint(dataPoint.name, dataPoint.value, 0);
+        }
+        return flattening.sender.clear();
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.christiangda.storm.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flattened data points of a tick through the sender, and through the line protocol encoder alone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InfluxDBSenderBenchmark {
+
+    @State(Scope.Thread)
+    public static class Points {
+
+        // upstream component streams of the task, it grows with the topology size
+        @Param({"2", "20", "200"})
+        int inputStreams;
+
+        String[] names;
+        Object[] values;
+
+        @Setup
+        public void setUp() {
+            final BenchmarkFixtures.RecordingSender sender = BenchmarkFixtures.flatten(BenchmarkFixtures.dataPoints(this.inputStreams));
+            this.names = sender.names.toArray(new String[0]);
+            this.values = sender.values.toArray();
+            sender.closeConnection();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sending {
+
+        @Param({"legacy", "compact", "wide"})
+        String mode;
+
+        InfluxDBSender sender;
+
+        @Setup
+        public void setUp() {
+            this.sender = BenchmarkFixtures.discardingSender(BenchmarkFixtures.config(this.mode));
+            this.sender.setTags(BenchmarkFixtures.tags());
+            this.sender.setFields(BenchmarkFixtures.fields());
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.sender.closeConnection();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Encoding {
+
+        @Param({"false", "true"})
+        boolean nativeIntegers;
+
+        LineProtocolEncoder encoder;
+
+        @Setup
+        public void setUp() {
+            this.encoder = new LineProtocolEncoder("storm-", 64 * 1024, this.nativeIntegers);
+            this.encoder.setTags(BenchmarkFixtures.tags());
+            this.encoder.setFields(BenchmarkFixtures.fields());
+        }
+    }
+
+    /**
+     * Type dispatch and encoding of every data point, the tick is then sent to a transport discarding it
+     */
+    @Benchmark
+    public void prepareDataPoint(Points points, Sending sending) {
+        for (int i = 0; i < points.names.length; i++) {
+            sending.sender.prepareDataPoint(points.names[i], points.values[i]);
+        }
+        sending.sender.sendPoints();
+    }
+
+    /**
+     * Serialization of the tick to line protocol
+     */
+    @Benchmark
+    public int serialize(Points points, Encoding encoding) {
+        final LineProtocolEncoder encoder = encoding.encoder;
+        final long timestamp = System.currentTimeMillis();
+
+        encoder.reset();
+        for (int i = 0; i < points.names.length; i++) {
+            final Object value = points.values[i];
+            if (value instanceof String) {
+                encoder.encodeString(points.names[i], (String) value, timestamp);
+            } else if (value instanceof Boolean) {
+                encoder.encodeBoolean(points.names[i], (Boolean) value, timestamp);
+            } else if (encoding.nativeIntegers && LineProtocolEncoder.isInteger(value)) {
+                encoder.encodeInteger(points.names[i], ((Number) value).longValue(), timestamp);
+            } else {
+                encoder.encodeNumber(points.names[i], ((Number) value).doubleValue(), timestamp);
+            }
+        }
+        return encoder.getBuffer().size();
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded in-memory queue drained by background writer threads.
+ * <p>
+ * The producer side ({@link #offer(Object)}) never waits on the sink, it only waits on the queue
+ * when the overflow policy is {@link OverflowPolicy#BLOCK}, and then at most for the configured timeout.
+ * The counters are given in points, the weigher tells how many points every queued item holds.
+ * The points rejected or evicted because the queue is full are also handed to the overflow listener.
+ * </p>
+ *
+ * @param <T> type of the queued items
+ */
+class AsyncWriter<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncWriter.class);
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    /**
+     * What to do when the queue is full
+     */
+    enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK;
+
+        static OverflowPolicy fromString(String value) {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * Destination of the drained items
+     *
+     * @param <T> type of the items
+     */
+    interface Sink<T> {
+        void write(List<T> items) throws Exception;
+    }
+
+    private final BlockingQueue<T> queue;
+    private final Sink<T> sink;
+    private final ToIntFunction<T> weigher;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final int maxBatchSize;
+    private final List<Thread> writers = new ArrayList<>();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong reportedEnqueued = new AtomicLong();
+    private final AtomicLong reportedWritten = new AtomicLong();
+    private final AtomicLong reportedDropped = new AtomicLong();
+
+    private volatile IntConsumer overflowListener = points -> {
+    };
+    private volatile boolean running = false;
+
+    AsyncWriter(Sink<T> sink, ToIntFunction<T> weigher, int capacity, int writerThreads, OverflowPolicy overflowPolicy, long blockTimeoutMs, int maxBatchSize) {
+        this("influxdb-async-writer", sink, weigher, capacity, writerThreads, overflowPolicy, blockTimeoutMs, maxBatchSize);
+    }
+
+    AsyncWriter(String name, Sink<T> sink, ToIntFunction<T> weigher, int capacity, int writerThreads, OverflowPolicy overflowPolicy, long blockTimeoutMs, int maxBatchSize) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sink = sink;
+        this.weigher = weigher;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.maxBatchSize = maxBatchSize;
+
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(this::drainLoop, name + "-" + i);
+            writer.setDaemon(true);
+            this.writers.add(writer);
+        }
+    }
+
+    /**
+     * Start the writer threads
+     */
+    void start() {
+        this.running = true;
+        for (Thread writer : this.writers) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Stop the writer threads, waiting for them to drain what is left in the queue
+     *
+     * @param timeoutMs maximum time to wait per writer thread
+     */
+    void stop(long timeoutMs) {
+        this.running = false;
+        for (Thread writer : this.writers) {
+            try {
+                writer.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if (!this.queue.isEmpty()) {
+            LOG.warn("{}: Stopped with {} items still queued, they will be lost", this.getClass().getSimpleName(), this.queue.size());
+            this.dropped.addAndGet(this.weigh(this.queue));
+            this.queue.clear();
+        }
+    }
+
+    /**
+     * Hand an item to the writer threads applying the overflow policy when the queue is full
+     *
+     * @param item item to be written
+     * @return true if the item was queued
+     */
+    boolean offer(T item) {
+        boolean queued;
+
+        switch (this.overflowPolicy) {
+            case DROP_OLDEST:
+                queued = this.queue.offer(item);
+                while (!queued) {
+                    T oldest = this.queue.poll();
+                    if (oldest != null) {
+                        this.overflowed(this.weigher.applyAsInt(oldest));
+                    }
+                    queued = this.queue.offer(item);
+                }
+                break;
+            case BLOCK:
+                try {
+                    queued = this.queue.offer(item, this.blockTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                queued = this.queue.offer(item);
+                break;
+        }
+
+        if (queued) {
+            this.enqueued.addAndGet(this.weigher.applyAsInt(item));
+        } else {
+            this.overflowed(this.weigher.applyAsInt(item));
+        }
+        return queued;
+    }
+
+    private void overflowed(int points) {
+        this.dropped.addAndGet(points);
+        this.overflowListener.accept(points);
+    }
+
+    /**
+     * Listener told of the points rejected or evicted because the queue is full
+     *
+     * @param overflowListener listener taking the number of points
+     */
+    void setOverflowListener(IntConsumer overflowListener) {
+        this.overflowListener = overflowListener;
+    }
+
+    private void drainLoop() {
+        final List<T> batch = new ArrayList<>(this.maxBatchSize);
+
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                T first = this.queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.maxBatchSize - 1);
+
+                this.sink.write(batch);
+                this.written.addAndGet(this.weigh(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOG.warn("{}: Unable to write {} items, they will be lost. Exception = {}", this.getClass().getSimpleName(), batch.size(), e);
+                this.dropped.addAndGet(this.weigh(batch));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private long weigh(Iterable<T> items) {
+        long points = 0;
+        for (T item : items) {
+            points += this.weigher.applyAsInt(item);
+        }
+        return points;
+    }
+
+    long getEnqueuedCount() {
+        return this.enqueued.get();
+    }
+
+    long getWrittenCount() {
+        return this.written.get();
+    }
+
+    long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * Points enqueued, written and dropped since the last call, the cumulative counters are left untouched
+     *
+     * @return counters of the interval
+     */
+    Map<String, Object> getValuesAndReset() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("async-enqueued-points", sinceReported(this.enqueued, this.reportedEnqueued));
+        values.put("async-written-points", sinceReported(this.written, this.reportedWritten));
+        values.put("async-dropped-points", sinceReported(this.dropped, this.reportedDropped));
+        return values;
+    }
+
+    static long sinceReported(AtomicLong counter, AtomicLong reported) {
+        final long current = counter.get();
+        return current - reported.getAndSet(current);
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Limit of the number of series written per metric family and per topology, against the dynamic streams and
+ * metric maps that make the series cardinality of InfluxDB explode.
+ * <p>
+ * The family is the first segment of the flattened metric name (the measurement in wide points mode). The 64 bits
+ * keys of the series admitted are kept in exact sets, bounded by the limits, so an admitted series is written as long
+ * as it keeps coming, and a new series is only taken for an admitted one if their keys collide (see
+ * {@link DeltaSuppressor#seriesKey(String, int, String)}). A point of a new series beyond a limit is rejected,
+ * or collapsed into the {@code __other} series of its family. Every family
+ * estimates its distinct series, admitted or not, with a {@link HyperLogLog}, and the families with the most points
+ * over the limits are tracked with a {@link SpaceSaving} top-K. At most {@value #MAX_FAMILIES} families are
+ * tracked, the points of the ones beyond are handled as over the limits.
+ * </p>
+ * <p>
+ * Like the {@link EncodedCache}, the admitted series are kept in two generations: every {@code idleMs}
+ * (see {@link #expire(long)}) the previous one is dropped, with the series that did not come since, and the current
+ * one takes its place, so the series of the streams and tasks gone free their place in the limits after two periods
+ * at most. The estimators are reset at the same time, they count the series of the current period.
+ * </p>
+ */
+class CardinalityGuard {
+
+    static final String OTHER = "__other";
+    static final int MAX_FAMILIES = 4096;
+
+    private static final int FAMILY_PRECISION = 8;
+    private static final int SERIES_PRECISION = 12;
+
+    /**
+     * What happens to a point
+     */
+    enum Decision {
+        ADMIT,
+        COLLAPSE,
+        REJECT
+    }
+
+    /**
+     * What to do with the points of the series over the limits
+     */
+    enum OverflowAction {
+        REJECT,
+        COLLAPSE;
+
+        static OverflowAction fromString(String value) {
+            return OverflowAction.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final int maxSeries;
+    private final int maxSeriesPerFamily;
+    private final OverflowAction overflowAction;
+    private final long idleMs;
+
+    // Series admitted in this period, and the ones of the last period that did not come again yet
+    private KeySet admitted = new KeySet();
+    private KeySet previous = new KeySet();
+    private int previousSize = 0;
+    private long rotationTime = 0;
+
+    private final Map<String, Family> families = new HashMap<>();
+    private HyperLogLog series = new HyperLogLog(SERIES_PRECISION);
+    private final SpaceSaving<String> offenders;
+    private long rejectedPoints = 0;
+    private long collapsedPoints = 0;
+
+    /**
+     * @param maxSeries          maximum number of series of the topology, as seen by this consumer
+     * @param maxSeriesPerFamily maximum number of series of a metric family
+     * @param overflowAction     what to do with the points of the series over the limits
+     * @param topK               number of families over the limits reported
+     * @param idleMs             time after which the series that did not come are forgotten, for two generations
+     */
+    CardinalityGuard(int maxSeries, int maxSeriesPerFamily, OverflowAction overflowAction, int topK, long idleMs) {
+        this.maxSeries = maxSeries;
+        this.maxSeriesPerFamily = maxSeriesPerFamily;
+        this.overflowAction = overflowAction;
+        this.offenders = new SpaceSaving<>(topK);
+        this.idleMs = idleMs;
+    }
+
+    /**
+     * Decide what happens to a point
+     *
+     * @param seriesKey   key of the series, see {@link DeltaSuppressor#seriesKey(String, int, String)}
+     * @param name        flattened metric name
+     * @param collapsible whether the value can be added to the {@code __other} series (numbers only)
+     * @return decision
+     */
+    synchronized Decision admit(long seriesKey, String name, boolean collapsible) {
+        final long key = (seriesKey == 0) ? 1 : seriesKey;
+        final long hash = DeltaSuppressor.mix(key);
+        if (this.admitted.contains(key, hash)) {
+            return Decision.ADMIT;
+        }
+
+        final String familyName = family(name);
+        Family family = this.families.get(familyName);
+        if (family == null && this.families.size() < MAX_FAMILIES) {
+            family = new Family();
+            this.families.put(familyName, family);
+        }
+
+        this.series.add(hash);
+        if (family != null) {
+            family.series.add(hash);
+            if (family.previous > 0 && this.previous.contains(key, hash)) {
+                // admitted in the last period, it keeps its place
+                this.previousSize -= 1;
+                family.previous -= 1;
+                family.admitted += 1;
+                this.admitted.insert(key, hash);
+                return Decision.ADMIT;
+            }
+            if (this.getAdmittedSeries() < this.maxSeries && family.admitted + family.previous < this.maxSeriesPerFamily) {
+                family.admitted += 1;
+                this.admitted.insert(key, hash);
+                return Decision.ADMIT;
+            }
+        }
+
+        this.offenders.offer(familyName, 1);
+        if (collapsible && this.overflowAction == OverflowAction.COLLAPSE) {
+            this.collapsedPoints += 1;
+            return Decision.COLLAPSE;
+        }
+        this.rejectedPoints += 1;
+        return Decision.REJECT;
+    }
+
+    /**
+     * @param name flattened metric name
+     * @return first segment of the name
+     */
+    static String family(String name) {
+        final int end = name.indexOf('.');
+        return (end < 0) ? name : name.substring(0, end);
+    }
+
+    /**
+     * @param name flattened metric name
+     * @return name of the {@code __other} series of the family of the metric
+     */
+    static String collapsedName(String name) {
+        return family(name) + "." + OTHER;
+    }
+
+    /**
+     * Forget the series that did not come for two periods, and reset the estimators, every {@code idleMs}
+     *
+     * @param now current time in milliseconds
+     */
+    synchronized void expire(long now) {
+        if (this.rotationTime == 0) {
+            this.rotationTime = now;
+        } else if (now - this.rotationTime >= this.idleMs) {
+            this.rotate();
+            this.rotationTime = now;
+        }
+    }
+
+    private void rotate() {
+        this.previous = this.admitted;
+        this.previousSize = this.admitted.size;
+        this.admitted = new KeySet();
+
+        final Iterator<Family> tracked = this.families.values().iterator();
+        while (tracked.hasNext()) {
+            final Family family = tracked.next();
+            if (family.admitted == 0) {
+                tracked.remove();
+            } else {
+                family.previous = family.admitted;
+                family.admitted = 0;
+                family.series = new HyperLogLog(FAMILY_PRECISION);
+            }
+        }
+        this.series = new HyperLogLog(SERIES_PRECISION);
+    }
+
+    /**
+     * @return number of series admitted in this period and in the last one
+     */
+    synchronized int getAdmittedSeries() {
+        return this.admitted.size + this.previousSize;
+    }
+
+    /**
+     * @param family metric family
+     * @return estimated number of distinct series of the family, -1 when it is not tracked
+     */
+    synchronized long getEstimatedSeries(String family) {
+        final Family tracked = this.families.get(family);
+        return (tracked != null) ? tracked.series.estimate() : -1;
+    }
+
+    /**
+     * Admitted series, estimated distinct series, points rejected and collapsed since the last call,
+     * and the families with the most points over the limits since the last call, with their estimated series
+     *
+     * @return metric values
+     */
+    synchronized Map<String, Object> getValuesAndReset() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("series", this.getAdmittedSeries());
+        values.put("series-estimate", this.series.estimate());
+        values.put("rejected-points", this.rejectedPoints);
+        values.put("collapsed-points", this.collapsedPoints);
+
+        final Map<String, Object> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> offender : this.offenders.getTop().entrySet()) {
+            top.put(offender.getKey() + ".overflow-points", offender.getValue());
+            final Family family = this.families.get(offender.getKey());
+            if (family != null) {
+                top.put(offender.getKey() + ".series-estimate", family.series.estimate());
+            }
+        }
+        values.put("top-offenders", top);
+
+        this.rejectedPoints = 0;
+        this.collapsedPoints = 0;
+        this.offenders.clear();
+        return values;
+    }
+
+    /**
+     * Series of a metric family
+     */
+    private static final class Family {
+
+        private HyperLogLog series = new HyperLogLog(FAMILY_PRECISION);
+        // admitted in this period, and admitted in the last one but not come again yet
+        private int admitted = 0;
+        private int previous = 0;
+    }
+
+    /**
+     * Open addressing set of series keys, 0 marks a free slot
+     */
+    private static final class KeySet {
+
+        private long[] keys = new long[1024];
+        private int size = 0;
+
+        private boolean contains(long key, long hash) {
+            final int mask = this.keys.length - 1;
+            for (int i = (int) hash & mask; this.keys[i] != 0; i = (i + 1) & mask) {
+                if (this.keys[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void insert(long key, long hash) {
+            if ((this.size + 1) * 2 > this.keys.length) {
+                final long[] previous = this.keys;
+                this.keys = new long[previous.length << 1];
+                for (long admittedKey : previous) {
+                    if (admittedKey != 0) {
+                        this.place(admittedKey, DeltaSuppressor.mix(admittedKey));
+                    }
+                }
+            }
+            this.place(key, hash);
+            this.size += 1;
+        }
+
+        private void place(long key, long hash) {
+            final int mask = this.keys.length - 1;
+            int i = (int) hash & mask;
+            while (this.keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            this.keys[i] = key;
+        }
+    }
+}
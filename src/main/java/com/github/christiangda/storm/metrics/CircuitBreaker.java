@@ -0,0 +1,90 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stop sending requests to an InfluxDB server that keeps failing.
+ * <p>
+ * After {@code failureThreshold} consecutive failed writes the breaker opens and every write is rejected
+ * without reaching the server. Once {@code openMs} have passed it lets one trial write through (half open):
+ * if it succeeds the breaker closes, otherwise it opens again.
+ * </p>
+ */
+class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedTime = 0;
+    private boolean trialInFlight = false;
+
+    CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    /**
+     * Tell whether a write can be sent to the server
+     *
+     * @return false when the breaker is open
+     */
+    synchronized boolean allowRequest() {
+        switch (this.state) {
+            case OPEN:
+                if (System.currentTimeMillis() - this.openedTime < this.openMs) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if (this.trialInFlight) {
+                    return false;
+                }
+                this.trialInFlight = true;
+                return true;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (this.state != State.CLOSED) {
+            LOG.info("{}: Circuit of {} is closed again", this.getClass().getSimpleName(), this.name);
+        }
+        this.state = State.CLOSED;
+        this.consecutiveFailures = 0;
+        this.trialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        this.consecutiveFailures += 1;
+        this.trialInFlight = false;
+
+        if (this.state == State.HALF_OPEN || (this.failureThreshold > 0 && this.consecutiveFailures >= this.failureThreshold)) {
+            if (this.state != State.OPEN) {
+                LOG.warn("{}: Opening circuit of {} after {} failed writes", this.getClass().getSimpleName(), this.name, this.consecutiveFailures);
+            }
+            this.state = State.OPEN;
+            this.openedTime = System.currentTimeMillis();
+        }
+    }
+
+    synchronized State getState() {
+        return this.state;
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.christiangda.storm.metrics;
+
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of the write request bodies, streamed into the HTTP connection
+ */
+interface Compressor {
+
+    /**
+     * Available codecs
+     */
+    enum Codec {
+        NONE,
+        GZIP,
+        // needs zstd-jni in the classpath
+        ZSTD;
+
+        static Codec fromString(String value) {
+            return Codec.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    // Level of the codec used when none is configured
+    int DEFAULT_LEVEL = -1;
+
+    /**
+     * @return value of the Content-Encoding header
+     */
+    String getEncoding();
+
+    /**
+     * Compress the records into the request body
+     *
+     * @param data   records
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param sink   request body
+     * @throws IOException when the body could not be written
+     */
+    void compress(byte[] data, int offset, int length, BufferedSink sink) throws IOException;
+
+    /**
+     * Compress the records of several buffers, in order, into the request body
+     *
+     * @param records records, the buffers are not modified
+     * @param sink    request body
+     * @throws IOException when the body could not be written
+     */
+    void compress(ByteBuffer[] records, BufferedSink sink) throws IOException;
+}
@@ -0,0 +1,128 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of the consumer itself: data points received, dropped and suppressed,
+ * time spent flattening and sending them, and size of the batches
+ */
+class ConsumerStats {
+
+    /**
+     * Why a data point was not written
+     */
+    enum DropReason {
+        NULL_VALUE("null"),
+        NAN_OR_INFINITE("nan"),
+        UNSUPPORTED_TYPE("unsupported-type"),
+        DEPTH_EXCEEDED("depth-exceeded"),
+        FILTERED("filtered"),
+        CARDINALITY("cardinality"),
+        QUEUE_OVERFLOW("queue-overflow");
+
+        private final String metricName;
+
+        DropReason(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private final AtomicLong pointsReceived = new AtomicLong();
+    private final AtomicLong pointsEncoded = new AtomicLong();
+    private final AtomicLong pointsSuppressed = new AtomicLong();
+    private final AtomicLong[] pointsDropped = new AtomicLong[DropReason.values().length];
+    private final Histogram flattenTimeUs = new Histogram();
+    private final Histogram sendTimeUs = new Histogram();
+    private final Histogram batchPoints = new Histogram();
+    private final Histogram batchBytes = new Histogram();
+
+    ConsumerStats() {
+        for (int i = 0; i < this.pointsDropped.length; i++) {
+            this.pointsDropped[i] = new AtomicLong();
+        }
+    }
+
+    void received(int dataPoints) {
+        this.pointsReceived.addAndGet(dataPoints);
+    }
+
+    void dropped(DropReason reason) {
+        this.pointsDropped[reason.ordinal()].incrementAndGet();
+    }
+
+    void dropped(DropReason reason, long dataPoints) {
+        this.pointsDropped[reason.ordinal()].addAndGet(dataPoints);
+    }
+
+    void suppressed() {
+        this.pointsSuppressed.incrementAndGet();
+    }
+
+    void flattened(long nanos) {
+        this.flattenTimeUs.record(nanos / 1000);
+    }
+
+    void sent(long nanos) {
+        this.sendTimeUs.record(nanos / 1000);
+    }
+
+    void batch(int points, int bytes) {
+        this.pointsEncoded.addAndGet(points);
+        this.batchPoints.record(points);
+        this.batchBytes.record(bytes);
+    }
+
+    long getPointsReceived() {
+        return this.pointsReceived.get();
+    }
+
+    long getPointsEncoded() {
+        return this.pointsEncoded.get();
+    }
+
+    long getPointsSuppressed() {
+        return this.pointsSuppressed.get();
+    }
+
+    long getPointsDropped(DropReason reason) {
+        return this.pointsDropped[reason.ordinal()].get();
+    }
+
+    long getPointsDroppedAndReset(DropReason reason) {
+        return this.pointsDropped[reason.ordinal()].getAndSet(0);
+    }
+
+    Histogram getFlattenTimeUs() {
+        return this.flattenTimeUs;
+    }
+
+    Histogram getSendTimeUs() {
+        return this.sendTimeUs;
+    }
+
+    Histogram getBatchPoints() {
+        return this.batchPoints;
+    }
+
+    /**
+     * Counters and histogram summaries since the last call
+     *
+     * @return metric values
+     */
+    Map<String, Object> getValuesAndReset() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("points-received", this.pointsReceived.getAndSet(0));
+        values.put("points-encoded", this.pointsEncoded.getAndSet(0));
+        values.put("points-suppressed", this.pointsSuppressed.getAndSet(0));
+        for (DropReason reason : DropReason.values()) {
+            values.put("dropped-" + reason.metricName, this.pointsDropped[reason.ordinal()].getAndSet(0));
+        }
+        values.put("flatten-time-us", this.flattenTimeUs.getValuesAndReset());
+        values.put("send-time-us", this.sendTimeUs.getValuesAndReset());
+        values.put("batch-points", this.batchPoints.getValuesAndReset());
+        values.put("batch-bytes", this.batchBytes.getValuesAndReset());
+        return values;
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Decompose nested {@link Map} data points into {@code name.key} values, without recursion.
+ * <p>
+ * The composite names are interned in a bounded LRU cache keyed by (parent name, child key), so the names
+ * of Storm's per-stream maps are built once instead of on every metrics tick, and the kind of a value
+ * (scalar, map or unsupported) is resolved once per class.
+ * It is not thread safe, every consumer has its own.
+ * </p>
+ */
+class DataPointFlattener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataPointFlattener.class);
+
+    private enum Kind {
+        SCALAR,
+        MAP,
+        UNSUPPORTED
+    }
+
+    private static final ClassValue<Kind> KINDS = new ClassValue<Kind>() {
+        @Override
+        protected Kind computeValue(Class<?> type) {
+            if (String.class == type || Boolean.class == type || Number.class.isAssignableFrom(type)) {
+                return Kind.SCALAR;
+            }
+            return Map.class.isAssignableFrom(type) ? Kind.MAP : Kind.UNSUPPORTED;
+        }
+    };
+
+    private final int maxDepth;
+    private final ConsumerStats consumerStats;
+    private final Map<NameKey, String> names;
+    private final NameKey probe = new NameKey(null, null);
+
+    // stack of the maps being walked, it never goes deeper than maxDepth + 1
+    private final String[] frameNames;
+    private final Iterator<?>[] frameEntries;
+    private final int[] frameDepths;
+
+    /**
+     * @param maxDepth      maximum number of nested maps, the values nested deeper are dropped
+     * @param nameCacheSize maximum number of composite names kept, the least recently used are evicted
+     * @param consumerStats stats where the dropped values are counted
+     */
+    DataPointFlattener(int maxDepth, final int nameCacheSize, ConsumerStats consumerStats) {
+        this.maxDepth = Math.max(maxDepth, 0);
+        this.consumerStats = consumerStats;
+        this.names = new LinkedHashMap<NameKey, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NameKey, String> eldest) {
+                return size() > nameCacheSize;
+            }
+        };
+        this.frameNames = new String[this.maxDepth + 1];
+        this.frameEntries = new Iterator<?>[this.maxDepth + 1];
+        this.frameDepths = new int[this.maxDepth + 1];
+    }
+
+    /**
+     * Hand every scalar value of the data point to the sink, named after its path in the nested maps
+     *
+     * @param name  dataPoint name
+     * @param value dataPoint value
+     * @param depth number of maps the value is already nested in
+     * @param sink  receiver of the names and scalar values
+     */
+    void flatten(String name, Object value, int depth, BiConsumer<String, Object> sink) {
+        if (value == null) {
+            LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), name);
+            this.consumerStats.dropped(ConsumerStats.DropReason.NULL_VALUE);
+            return;
+        }
+
+        int top = this.visit(name, value, Math.max(depth, 0), sink, -1);
+
+        while (top >= 0) {
+            final Iterator<?> entries = this.frameEntries[top];
+            if (!entries.hasNext()) {
+                this.frameNames[top] = null;
+                this.frameEntries[top] = null;
+                top -= 1;
+                continue;
+            }
+
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entries.next();
+            final String parent = this.frameNames[top];
+            if (entry.getValue() == null) {
+                LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), parent);
+                this.consumerStats.dropped(ConsumerStats.DropReason.NULL_VALUE);
+                continue;
+            }
+            top = this.visit(this.compositeName(parent, entry.getKey()), entry.getValue(), this.frameDepths[top], sink, top);
+        }
+    }
+
+    /**
+     * @return the new top of the stack, one more when the value is a map
+     */
+    private int visit(String name, Object value, int depth, BiConsumer<String, Object> sink, int top) {
+        if (depth > this.maxDepth) {
+            LOG.warn("{}: Too Many Nested values in DataPoint named = {}", this.getClass().getSimpleName(), name);
+            this.consumerStats.dropped(ConsumerStats.DropReason.DEPTH_EXCEEDED);
+            return top;
+        }
+
+        switch (KINDS.get(value.getClass())) {
+            case SCALAR:
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("{}: Processing dataPoint: [ name: '{}', value: '{}' ]", this.getClass().getSimpleName(), name, value);
+                }
+                sink.accept(name, value);
+                return top;
+            case MAP:
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("{}: Processing dataPoint<Map> {} ...", this.getClass().getSimpleName(), name);
+                }
+                this.frameNames[top + 1] = name;
+                this.frameEntries[top + 1] = ((Map<?, ?>) value).entrySet().iterator();
+                this.frameDepths[top + 1] = depth + 1;
+                return top + 1;
+            case UNSUPPORTED:
+            default:
+                LOG.warn("{}: Discarding dataPoint: {}, unsupported type = {}", this.getClass().getSimpleName(), name, value.getClass().getName());
+                this.consumerStats.dropped(ConsumerStats.DropReason.UNSUPPORTED_TYPE);
+                return top;
+        }
+    }
+
+    /**
+     * Interned {@code parent.key} name
+     */
+    String compositeName(String parent, Object key) {
+        this.probe.parent = parent;
+        this.probe.key = key;
+        String name = this.names.get(this.probe);
+        if (name == null) {
+            name = parent + "." + key;
+            this.names.put(new NameKey(parent, key), name);
+        }
+        this.probe.parent = null;
+        this.probe.key = null;
+        return name;
+    }
+
+    int getCachedNames() {
+        return this.names.size();
+    }
+
+    /**
+     * Cache key, mutable only for the lookup probe so a hit does not allocate
+     */
+    private static final class NameKey {
+
+        private String parent;
+        private Object key;
+
+        NameKey(String parent, Object key) {
+            this.parent = parent;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof NameKey)) {
+                return false;
+            }
+            final NameKey that = (NameKey) other;
+            return Objects.equals(this.parent, that.parent) && Objects.equals(this.key, that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(this.parent) + Objects.hashCode(this.key);
+        }
+    }
+}
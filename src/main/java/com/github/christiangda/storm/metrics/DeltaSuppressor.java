@@ -0,0 +1,152 @@
+package com.github.christiangda.storm.metrics;
+
+/**
+ * Change detection of the series values, to skip the points whose value is unchanged or zero.
+ * <p>
+ * The last value sent of every series is kept in a fixed size, set associative table of primitive arrays:
+ * a series key selects a set of {@value #WAYS} entries, and when the set is full the least recently seen entry
+ * is evicted, so the memory does not grow with the number of series. A suppressed series is still sent once
+ * every {@code heartbeatIntervals} intervals, and a series seen for the first time (or again after being evicted)
+ * is always sent.
+ * It is not thread safe, every consumer has its own.
+ * </p>
+ */
+class DeltaSuppressor {
+
+    static final int WAYS = 8;
+
+    private final boolean suppressZeros;
+    private final int heartbeatIntervals;
+    private final int setMask;
+
+    private final long[] keys;
+    private final long[] values;
+    private final long[] lastSeen;
+    private final int[] suppressed;
+    private final boolean[] used;
+    private long clock = 0;
+
+    /**
+     * @param maxSeries          maximum number of series tracked, rounded up to a power of two
+     * @param heartbeatIntervals a suppressed series is sent again after this many intervals
+     * @param suppressZeros      skip the zero values too, even when they changed
+     */
+    DeltaSuppressor(int maxSeries, int heartbeatIntervals, boolean suppressZeros) {
+        int sets = Integer.highestOneBit(Math.max(maxSeries / WAYS, 1) - 1) << 1;
+        if (sets <= 0) {
+            sets = 1;
+        }
+        this.setMask = sets - 1;
+        this.heartbeatIntervals = Math.max(heartbeatIntervals, 1);
+        this.suppressZeros = suppressZeros;
+
+        final int capacity = sets * WAYS;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.lastSeen = new long[capacity];
+        this.suppressed = new int[capacity];
+        this.used = new boolean[capacity];
+    }
+
+    /**
+     * Record the value of a series and tell whether it has to be sent
+     *
+     * @param series series key, see {@link #seriesKey(String, int, String)}
+     * @param value  value of the series in this interval
+     * @return false when the point can be skipped
+     */
+    boolean shouldSend(long series, Object value) {
+        final long valueKey = valueKey(value);
+        final int base = (int) (mix(series) & this.setMask) * WAYS;
+        this.clock += 1;
+
+        int victim = base;
+        for (int i = base; i < base + WAYS; i++) {
+            if (this.used[i] && this.keys[i] == series) {
+                this.lastSeen[i] = this.clock;
+
+                final boolean skippable = this.values[i] == valueKey || (this.suppressZeros && isZero(value));
+                if (skippable && this.suppressed[i] + 1 < this.heartbeatIntervals) {
+                    this.suppressed[i] += 1;
+                    return false;
+                }
+                this.values[i] = valueKey;
+                this.suppressed[i] = 0;
+                return true;
+            }
+            if (!this.used[victim]) {
+                continue;
+            }
+            if (!this.used[i] || this.lastSeen[i] < this.lastSeen[victim]) {
+                victim = i;
+            }
+        }
+
+        this.used[victim] = true;
+        this.keys[victim] = series;
+        this.values[victim] = valueKey;
+        this.lastSeen[victim] = this.clock;
+        this.suppressed[victim] = 0;
+        return true;
+    }
+
+    /**
+     * 64 bits key of the series of a metric of a task.
+     * <p>
+     * The component and metric names are hashed with FNV-1a 64 bits, the component hash and the task id are
+     * mixed, then the mixed name hash is folded in and mixed again, so two series only share a key by chance
+     * (about one pair in 2^64), even when their names have the same {@link String#hashCode()}.
+     * </p>
+     *
+     * @param component component id
+     * @param taskId    task id
+     * @param name      metric name
+     * @return series key
+     */
+    static long seriesKey(String component, int taskId, String name) {
+        final long task = mix(mix(fnv1a(component)) ^ (taskId & 0xFFFFFFFFL));
+        return mix(task ^ mix(fnv1a(name)));
+    }
+
+    /**
+     * FNV-1a 64 bits hash of the chars of a string
+     */
+    static long fnv1a(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    int getCapacity() {
+        return this.keys.length;
+    }
+
+    private static long valueKey(Object value) {
+        if (value instanceof Number) {
+            return Double.doubleToLongBits(((Number) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return value.hashCode();
+    }
+
+    private static boolean isZero(Object value) {
+        return value instanceof Number && ((Number) value).doubleValue() == 0;
+    }
+
+    /**
+     * murmur3 64 bits finalizer
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
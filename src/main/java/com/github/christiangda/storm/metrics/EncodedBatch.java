@@ -0,0 +1,38 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.List;
+
+/**
+ * Line protocol records of one metrics tick, copied out of the encoder buffer to be queued
+ */
+final class EncodedBatch {
+
+    private final byte[] data;
+    private final int points;
+
+    EncodedBatch(byte[] data, int points) {
+        this.data = data;
+        this.points = points;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int getPoints() {
+        return points;
+    }
+
+    /**
+     * Copy the records of several batches into one buffer
+     *
+     * @param batches batches to merge
+     * @param merged  reusable buffer, reset before copying
+     */
+    static void merge(List<EncodedBatch> batches, LineBuffer merged) {
+        merged.reset();
+        for (EncodedBatch batch : batches) {
+            merged.write(batch.getData(), 0, batch.getData().length);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded cache of escaped and UTF-8 encoded elements, like measurement names and tag sets, which come back
+ * on every metrics tick.
+ * <p>
+ * The entries live in two generations: a lookup hits the current one, or moves the entry from the previous one.
+ * Every {@code idleMs} (see {@link #expire(long)}), or when the current generation is full, the previous one is
+ * dropped and the current one takes its place. So the entries of the tasks and metrics gone after a rebalance are
+ * evicted after two periods at most, while a hit does no bookkeeping at all.
+ * It is not thread safe, every encoder has its own.
+ * </p>
+ *
+ * @param <K> element, it must not be modified once cached
+ */
+final class EncodedCache<K> {
+
+    private final int maxEntries;
+    private final long idleMs;
+    private final BiConsumer<LineBuffer, K> encoding;
+    private final LineBuffer scratch = new LineBuffer(128);
+
+    private Map<K, byte[]> current = new HashMap<>();
+    private Map<K, byte[]> previous = new HashMap<>();
+    private long rotationTime = 0;
+
+    /**
+     * @param maxEntries maximum number of entries of a generation
+     * @param idleMs     time after which the entries that were not used are evicted, for two generations
+     * @param encoding   writes the escaped and encoded element
+     */
+    EncodedCache(int maxEntries, long idleMs, BiConsumer<LineBuffer, K> encoding) {
+        this.maxEntries = Math.max(maxEntries, 1);
+        this.idleMs = idleMs;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Encoded element, encoded on a miss
+     *
+     * @param element element
+     * @return escaped UTF-8 bytes, shared, they must not be modified
+     */
+    byte[] get(K element) {
+        byte[] encoded = this.current.get(element);
+        if (encoded == null) {
+            encoded = this.previous.remove(element);
+            if (encoded == null) {
+                this.scratch.reset();
+                this.encoding.accept(this.scratch, element);
+                encoded = this.scratch.toByteArray();
+            }
+            if (this.current.size() >= this.maxEntries) {
+                this.rotate();
+            }
+            this.current.put(element, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Start a new generation when the current one is older than the idle time
+     *
+     * @param now current time in milliseconds
+     */
+    void expire(long now) {
+        if (this.rotationTime == 0) {
+            this.rotationTime = now;
+        } else if (now - this.rotationTime >= this.idleMs) {
+            this.rotate();
+            this.rotationTime = now;
+        }
+    }
+
+    private void rotate() {
+        final Map<K, byte[]> dropped = this.previous;
+        dropped.clear();
+        this.previous = this.current;
+        this.current = dropped;
+    }
+
+    int size() {
+        return this.current.size() + this.previous.size();
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One InfluxDB server of a multi-endpoint configuration, with its own queue and writer threads,
+ * so a slow or unavailable server does not hold back the others
+ */
+class Endpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Endpoint.class);
+
+    private static final int MERGE_BUFFER_INITIAL_CAPACITY = 64 * 1024;
+
+    private final String url;
+    private final Transport transport;
+    private final AsyncWriter<EncodedBatch> writer;
+    private final ThreadLocal<LineBuffer> mergeBuffer = ThreadLocal.withInitial(() -> new LineBuffer(MERGE_BUFFER_INITIAL_CAPACITY));
+
+    private volatile boolean databaseWasCreated = false;
+
+    Endpoint(int index, String url, Transport transport, int capacity, int writerThreads,
+             AsyncWriter.OverflowPolicy overflowPolicy, long blockTimeoutMs, int maxBatchSize) {
+        this.url = url;
+        this.transport = transport;
+        this.writer = new AsyncWriter<>("influxdb-endpoint-" + index + "-writer", this::write, EncodedBatch::getPoints,
+                capacity, writerThreads, overflowPolicy, blockTimeoutMs, maxBatchSize);
+    }
+
+    void start() {
+        this.writer.start();
+    }
+
+    void stop(long timeoutMs) {
+        this.writer.stop(timeoutMs);
+        this.transport.close();
+    }
+
+    /**
+     * Queue a batch for this endpoint
+     *
+     * @param batch batch to be written
+     * @return true if the batch was queued
+     */
+    boolean offer(EncodedBatch batch) {
+        return this.writer.offer(batch);
+    }
+
+    private void write(List<EncodedBatch> batches) throws IOException {
+        if (!this.databaseWasCreated) {
+            this.transport.createDatabase();
+            this.databaseWasCreated = true;
+        }
+
+        if (batches.size() == 1) {
+            final byte[] data = batches.get(0).getData();
+            this.transport.write(data, 0, data.length);
+            return;
+        }
+
+        final LineBuffer merged = this.mergeBuffer.get();
+        EncodedBatch.merge(batches, merged);
+
+        LOG.debug("{}: Writing {} batches to {}", this.getClass().getSimpleName(), batches.size(), this.url);
+
+        this.transport.write(merged.array(), 0, merged.size());
+    }
+
+    String getUrl() {
+        return this.url;
+    }
+
+    AsyncWriter<EncodedBatch> getWriter() {
+        return this.writer;
+    }
+}
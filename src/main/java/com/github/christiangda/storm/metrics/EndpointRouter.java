@@ -0,0 +1,179 @@
+package com.github.christiangda.storm.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Distribute the encoded batches among several InfluxDB endpoints.
+ * <p>
+ * {@link RoutingStrategy#ROUND_ROBIN} sends every batch to the next endpoint,
+ * {@link RoutingStrategy#CONSISTENT_HASH} splits the batch by series (measurement and tag set) so a series
+ * always lands on the same endpoint, and {@link RoutingStrategy#FAN_OUT} sends every batch to all the endpoints.
+ * It is only used from the thread that flushes the encoder.
+ * </p>
+ */
+class EndpointRouter {
+
+    private static final int VIRTUAL_NODES_PER_ENDPOINT = 128;
+    private static final int SHARD_BUFFER_INITIAL_CAPACITY = 16 * 1024;
+
+    /**
+     * How the batches are distributed
+     */
+    enum RoutingStrategy {
+        ROUND_ROBIN,
+        CONSISTENT_HASH,
+        FAN_OUT;
+
+        static RoutingStrategy fromString(String value) {
+            return RoutingStrategy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final RoutingStrategy strategy;
+    private int next = 0;
+
+    // Consistent hashing ring, sorted by hash
+    private final int[] ringHashes;
+    private final int[] ringEndpoints;
+    private final LineBuffer[] shards;
+    private final int[] shardPoints;
+
+    EndpointRouter(List<Endpoint> endpoints, RoutingStrategy strategy) {
+        this.endpoints = endpoints;
+        this.strategy = strategy;
+
+        final long[] ring = new long[endpoints.size() * VIRTUAL_NODES_PER_ENDPOINT];
+        for (int i = 0; i < endpoints.size(); i++) {
+            for (int node = 0; node < VIRTUAL_NODES_PER_ENDPOINT; node++) {
+                byte[] key = (endpoints.get(i).getUrl() + "#" + node).getBytes(StandardCharsets.UTF_8);
+                // hash in the high bits, endpoint in the low bits, so sorting keeps them together
+                ring[i * VIRTUAL_NODES_PER_ENDPOINT + node] = ((long) hash(key, 0, key.length) << 32) | i;
+            }
+        }
+        Arrays.sort(ring);
+
+        this.ringHashes = new int[ring.length];
+        this.ringEndpoints = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            this.ringHashes[i] = (int) (ring[i] >> 32);
+            this.ringEndpoints[i] = (int) ring[i];
+        }
+
+        this.shards = new LineBuffer[endpoints.size()];
+        this.shardPoints = new int[endpoints.size()];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new LineBuffer(SHARD_BUFFER_INITIAL_CAPACITY);
+        }
+    }
+
+    void start() {
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.start();
+        }
+    }
+
+    void stop(long timeoutMs) {
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.stop(timeoutMs);
+        }
+    }
+
+    /**
+     * Queue line protocol records on the endpoints chosen by the routing strategy
+     *
+     * @param data   line protocol records, separated by new lines
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param points number of records
+     */
+    void route(byte[] data, int offset, int length, int points) {
+        switch (this.strategy) {
+            case FAN_OUT:
+                // the batch is not modified after being queued, all the endpoints can share it
+                final EncodedBatch batch = new EncodedBatch(Arrays.copyOfRange(data, offset, offset + length), points);
+                for (Endpoint endpoint : this.endpoints) {
+                    endpoint.offer(batch);
+                }
+                break;
+            case CONSISTENT_HASH:
+                this.routeBySeries(data, offset, length);
+                break;
+            case ROUND_ROBIN:
+            default:
+                this.endpoints.get(this.next).offer(new EncodedBatch(Arrays.copyOfRange(data, offset, offset + length), points));
+                this.next = (this.next + 1) % this.endpoints.size();
+                break;
+        }
+    }
+
+    private void routeBySeries(byte[] data, int offset, int length) {
+        final int end = offset + length;
+        int lineStart = offset;
+
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+
+            int shard = this.endpointOf(hash(data, lineStart, seriesKeyEnd(data, lineStart, lineEnd) - lineStart));
+            this.shards[shard].write(data, lineStart, Math.min(lineEnd + 1, end) - lineStart);
+            this.shardPoints[shard] += 1;
+            lineStart = lineEnd + 1;
+        }
+
+        for (int i = 0; i < this.shards.length; i++) {
+            if (this.shardPoints[i] > 0) {
+                this.endpoints.get(i).offer(new EncodedBatch(this.shards[i].toByteArray(), this.shardPoints[i]));
+                this.shards[i].reset();
+                this.shardPoints[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * The series key is the measurement and the tag set, everything before the first not escaped space
+     */
+    static int seriesKeyEnd(byte[] data, int lineStart, int lineEnd) {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (data[i] == '\\') {
+                i++;
+            } else if (data[i] == ' ') {
+                return i;
+            }
+        }
+        return lineEnd;
+    }
+
+    int endpointOf(int hash) {
+        int position = Arrays.binarySearch(this.ringHashes, hash);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return this.ringEndpoints[position % this.ringHashes.length];
+    }
+
+    /**
+     * FNV-1a with the murmur3 finalizer for a better spread on the ring
+     */
+    static int hash(byte[] data, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i];
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    List<Endpoint> getEndpoints() {
+        return this.endpoints;
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Batch size and flush interval tuned while running, from the write latency, the backpressure of the server
+ * and the depth of the write queues.
+ * <p>
+ * The delay of a point is about the time it waits in the batch, plus the time taken to write the batches queued
+ * before it, plus the write latency. The flush interval is what is left of the target delay once the smoothed
+ * write latency of the queued batches and of its own is taken out. Like TCP congestion control, the batch size
+ * grows by a quarter after every write taking less than a quarter of the target, shrinks by a fifth after a write
+ * taking more than half of it, and is halved when a write fails or is throttled. A 429 or 503 answer also holds
+ * the flushes back for its {@code Retry-After} time, or one flush interval.
+ * </p>
+ */
+class FlushScheduler implements WriteStats.Listener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlushScheduler.class);
+
+    static final long MIN_FLUSH_INTERVAL_MS = 100;
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final int minPoints;
+    private final int maxPoints;
+    private final long targetDelayMs;
+    private final IntSupplier queueDepth;
+
+    // Guarded by this
+    private int batchPoints;
+    private long flushIntervalMs;
+    private double latencyMs = 0;
+    private long pausedUntil = 0;
+    private long adjustments = 0;
+
+    /**
+     * @param minPoints     smallest batch size
+     * @param maxPoints     largest batch size
+     * @param targetDelayMs maximum delay between the collection of a point and its write
+     * @param queueDepth    batches waiting to be written
+     */
+    FlushScheduler(int minPoints, int maxPoints, long targetDelayMs, IntSupplier queueDepth) {
+        this.maxPoints = Math.max(maxPoints, 1);
+        this.minPoints = Math.max(1, Math.min(minPoints, this.maxPoints));
+        this.targetDelayMs = Math.max(targetDelayMs, MIN_FLUSH_INTERVAL_MS);
+        this.queueDepth = queueDepth;
+        this.batchPoints = Math.max(this.minPoints, this.maxPoints / 4);
+        this.flushIntervalMs = this.targetDelayMs;
+    }
+
+    /**
+     * @return number of points that triggers a flush
+     */
+    synchronized int getBatchPoints() {
+        return this.batchPoints;
+    }
+
+    /**
+     * @return maximum time a point waits in the batch
+     */
+    synchronized long getFlushIntervalMs() {
+        return this.flushIntervalMs;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return true while the server asked to hold the writes back
+     */
+    synchronized boolean isPaused(long now) {
+        return now < this.pausedUntil;
+    }
+
+    @Override
+    public synchronized void succeeded(int bytes, long nanos) {
+        final double writeMs = nanos / 1e6;
+        this.latencyMs = (this.latencyMs == 0) ? writeMs : this.latencyMs + LATENCY_SMOOTHING * (writeMs - this.latencyMs);
+
+        final double writeDelayMs = this.latencyMs * (1 + this.queueDepth.getAsInt());
+        if (writeDelayMs < this.targetDelayMs / 4.0) {
+            this.resize(this.batchPoints + Math.max(1, this.batchPoints / 4));
+        } else if (writeDelayMs > this.targetDelayMs / 2.0) {
+            this.resize(this.batchPoints - this.batchPoints / 5);
+        }
+        this.flushIntervalMs = Math.max(MIN_FLUSH_INTERVAL_MS, Math.min(this.targetDelayMs, (long) (this.targetDelayMs - writeDelayMs)));
+    }
+
+    @Override
+    public synchronized void attemptFailed(int statusCode, long nanos) {
+        // 4xx are errors of the request, 429 and 503 are handled as throttling
+        if (statusCode == WriteStats.NO_STATUS || (statusCode >= 500 && statusCode != 503)) {
+            this.resize(this.batchPoints / 2);
+        }
+    }
+
+    @Override
+    public synchronized void throttled(long retryAfterMs) {
+        this.resize(this.batchPoints / 2);
+        this.pausedUntil = System.currentTimeMillis() + ((retryAfterMs > 0) ? retryAfterMs : this.flushIntervalMs);
+
+        LOG.debug("{}: Server is throttling the writes, holding them back for {} ms with batches of {} points",
+                this.getClass().getSimpleName(), this.pausedUntil - System.currentTimeMillis(), this.batchPoints);
+    }
+
+    private void resize(int points) {
+        final int resized = Math.max(this.minPoints, Math.min(points, this.maxPoints));
+        if (resized != this.batchPoints) {
+            this.batchPoints = resized;
+            this.adjustments += 1;
+        }
+    }
+
+    /**
+     * Current batch size and flush interval, smoothed write latency, remaining throttling time,
+     * and number of batch size changes since the last call
+     *
+     * @return metric values
+     */
+    synchronized Map<String, Object> getValuesAndReset() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("batch-target-points", this.batchPoints);
+        values.put("flush-interval-ms", this.flushIntervalMs);
+        values.put("write-latency-ms", Math.round(this.latencyMs));
+        values.put("throttle-ms", Math.max(0, this.pausedUntil - System.currentTimeMillis()));
+        values.put("batch-adjustments", this.adjustments);
+        this.adjustments = 0;
+        return values;
+    }
+}
@@ -0,0 +1,238 @@
+package com.github.christiangda.storm.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Encode data points as Graphite plaintext records straight into a reusable {@link LineBuffer}.
+ * <p>
+ * Every record is {@code <prefix><name>;<tag>=<value>... <value> <timestamp>}, with the tags in the Graphite 1.1
+ * format and the timestamp in seconds. The tag set of a task is encoded once (see {@link #setTags(Map)}).
+ * Graphite only stores numbers: booleans are written as {@code 1} or {@code 0}, text values are skipped, and so are
+ * the common fields of the task, the compact schema keeps the task metadata as tags. A point with several fields
+ * is written as one record per field, named {@code <name>.<field>}.
+ * </p>
+ * <p>
+ * With a cache size, the sanitized metric names and tag sets are kept across tasks and ticks (see {@link EncodedCache}).
+ * </p>
+ */
+class GraphiteEncoder implements MetricEncoder {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final String DEFAULT_FIELD = "value";
+
+    private final LineBuffer buffer;
+    private final byte[] measurementPrefix;
+
+    // Sanitized metric names and tag sets, null when disabled
+    private final EncodedCache<String> names;
+    private final EncodedCache<SortedMap<String, String>> tagSets;
+
+    private SortedMap<String, String> tags = Collections.emptySortedMap();
+    private byte[] tagSet = EMPTY;
+    private int points = 0;
+
+    GraphiteEncoder(String measurementPrefix, int initialCapacity) {
+        this(measurementPrefix, initialCapacity, 0, 0);
+    }
+
+    /**
+     * @param measurementPrefix prefix of every metric path
+     * @param initialCapacity   initial size of the buffer
+     * @param cacheSize         sanitized names and tag sets kept, 0 to sanitize them every time
+     * @param cacheIdleMs       time after which the unused names and tag sets are evicted
+     */
+    GraphiteEncoder(String measurementPrefix, int initialCapacity, int cacheSize, long cacheIdleMs) {
+        this.buffer = new LineBuffer(initialCapacity);
+        final LineBuffer prefix = new LineBuffer(measurementPrefix.length() + 8);
+        writeSanitized(prefix, measurementPrefix, false);
+        this.measurementPrefix = prefix.toByteArray();
+        if (cacheSize > 0) {
+            this.names = new EncodedCache<>(cacheSize, cacheIdleMs, (out, name) -> writeSanitized(out, name, false));
+            this.tagSets = new EncodedCache<>(cacheSize, cacheIdleMs, GraphiteEncoder::writeTags);
+        } else {
+            this.names = null;
+            this.tagSets = null;
+        }
+    }
+
+    @Override
+    public void setTags(Map<String, String> tags) {
+        this.tags = new TreeMap<>(tags);
+        if (this.tagSets != null) {
+            final long now = System.currentTimeMillis();
+            this.names.expire(now);
+            this.tagSets.expire(now);
+            this.tagSet = this.tagSets.get(this.tags);
+            return;
+        }
+
+        final LineBuffer encoded = new LineBuffer(128);
+        writeTags(encoded, this.tags);
+        this.tagSet = encoded.toByteArray();
+    }
+
+    private static void writeTags(LineBuffer out, Map<String, String> tags) {
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (tag.getValue() != null && !tag.getValue().isEmpty()) {
+                out.write(';');
+                writeSanitized(out, tag.getKey(), true);
+                out.write('=');
+                writeSanitized(out, tag.getValue(), true);
+            }
+        }
+    }
+
+    /**
+     * Graphite records have a single value, the common fields are not written
+     */
+    @Override
+    public void setFields(Map<String, Object> fields) {
+    }
+
+    @Override
+    public void encodePoint(String measurement, Map<String, String> extraTags, Map<String, Object> fields, long timestamp) {
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            final Object value = field.getValue();
+            if (!(value instanceof Number) && !(value instanceof Boolean)) {
+                continue;
+            }
+
+            writeName(measurement);
+            if (!DEFAULT_FIELD.equals(field.getKey())) {
+                this.buffer.write('.');
+                writeSanitized(this.buffer, field.getKey(), false);
+            }
+            if (extraTags.isEmpty()) {
+                this.buffer.write(this.tagSet);
+            } else {
+                final SortedMap<String, String> merged = new TreeMap<>(this.tags);
+                merged.putAll(extraTags);
+                if (this.tagSets != null) {
+                    this.buffer.write(this.tagSets.get(merged));
+                } else {
+                    writeTags(this.buffer, merged);
+                }
+            }
+            this.buffer.write(' ');
+            if (value instanceof Boolean) {
+                this.buffer.write((Boolean) value ? '1' : '0');
+            } else if (LineProtocolEncoder.isInteger(value)) {
+                this.buffer.writeLong(((Number) value).longValue());
+            } else {
+                this.buffer.writeDouble(((Number) value).doubleValue());
+            }
+            endLine(timestamp);
+        }
+    }
+
+    /**
+     * Graphite does not store text, the value is skipped
+     */
+    @Override
+    public void encodeString(String name, String value, long timestamp) {
+    }
+
+    @Override
+    public void encodeBoolean(String name, boolean value, long timestamp) {
+        beginLine(name);
+        this.buffer.write(value ? '1' : '0');
+        endLine(timestamp);
+    }
+
+    @Override
+    public void encodeNumber(String name, double value, long timestamp) {
+        beginLine(name);
+        this.buffer.writeDouble(value);
+        endLine(timestamp);
+    }
+
+    @Override
+    public void encodeInteger(String name, long value, long timestamp) {
+        beginLine(name);
+        this.buffer.writeLong(value);
+        endLine(timestamp);
+    }
+
+    private void beginLine(String name) {
+        writeName(name);
+        this.buffer.write(this.tagSet);
+        this.buffer.write(' ');
+    }
+
+    private void writeName(String name) {
+        this.buffer.write(this.measurementPrefix);
+        if (this.names != null) {
+            this.buffer.write(this.names.get(name));
+        } else {
+            writeSanitized(this.buffer, name, false);
+        }
+    }
+
+    private void endLine(long timestamp) {
+        this.buffer.write(' ');
+        this.buffer.writeLong(timestamp / 1000);
+        this.buffer.write('\n');
+        this.points += 1;
+    }
+
+    @Override
+    public LineBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public int getPoints() {
+        return this.points;
+    }
+
+    @Override
+    public void append(MetricEncoder encoded) {
+        this.buffer.write(encoded.getBuffer().array(), 0, encoded.getBuffer().size());
+        this.points += encoded.getPoints();
+    }
+
+    @Override
+    public void reset() {
+        this.buffer.reset();
+        this.points = 0;
+    }
+
+    /**
+     * Write a path or tag element as UTF-8, replacing by {@code _} the characters Graphite uses as delimiters
+     *
+     * @param out   buffer
+     * @param value path or tag element
+     * @param tag   true for tag names and values, which can not hold {@code =}, {@code ~}, {@code !} and {@code ^} either
+     */
+    static void writeSanitized(LineBuffer out, String value, boolean tag) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                // rare, names are ASCII most of the time
+                out.write(sanitize(value.substring(i), tag).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            out.write(isDelimiter(c, tag) ? '_' : c);
+        }
+    }
+
+    private static String sanitize(String value, boolean tag) {
+        final StringBuilder sanitized = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            sanitized.append(isDelimiter(c, tag) ? '_' : c);
+        }
+        return sanitized.toString();
+    }
+
+    private static boolean isDelimiter(char c, boolean tag) {
+        if (c == ' ' || c == ';' || c == '\n' || c == '\r' || c == '\t') {
+            return true;
+        }
+        return tag && (c == '=' || c == '~' || c == '!' || c == '^');
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.christiangda.storm.metrics;
+
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression with a configurable level, written chunk by chunk into the request body.
+ * <p>
+ * Unlike {@link java.util.zip.GZIPOutputStream}, which allocates a new {@link Deflater} (and its native memory)
+ * on every request and needs the whole compressed body in memory before sending it, every thread keeps its
+ * deflater, checksum and chunk buffer, and the gzip header and trailer are written around the raw deflate stream.
+ * </p>
+ */
+class GzipCompressor implements Compressor {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final int level;
+    private final ThreadLocal<State> state;
+
+    /**
+     * @param level compression level, from 1 (fastest) to 9 (smallest), {@link #DEFAULT_LEVEL} for 6
+     */
+    GzipCompressor(int level) {
+        this.level = (level == DEFAULT_LEVEL) ? Deflater.DEFAULT_COMPRESSION : Math.max(Deflater.BEST_SPEED, Math.min(level, Deflater.BEST_COMPRESSION));
+        this.state = ThreadLocal.withInitial(() -> new State(this.level));
+    }
+
+    @Override
+    public String getEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    public void compress(byte[] data, int offset, int length, BufferedSink sink) throws IOException {
+        final State state = this.state.get();
+        final Deflater deflater = state.deflater;
+        deflater.reset();
+        state.crc.reset();
+        state.crc.update(data, offset, length);
+
+        sink.write(HEADER);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            final int compressed = deflater.deflate(state.chunk);
+            sink.write(state.chunk, 0, compressed);
+        }
+        sink.writeIntLe((int) state.crc.getValue());
+        sink.writeIntLe(length);
+    }
+
+    @Override
+    public void compress(ByteBuffer[] records, BufferedSink sink) throws IOException {
+        final State state = this.state.get();
+        final Deflater deflater = state.deflater;
+        deflater.reset();
+        state.crc.reset();
+
+        // the deflater only takes arrays, the records go through the input chunk
+        sink.write(HEADER);
+        int length = 0;
+        for (ByteBuffer record : records) {
+            final ByteBuffer input = record.duplicate();
+            while (input.hasRemaining()) {
+                final int read = Math.min(input.remaining(), state.input.length);
+                input.get(state.input, 0, read);
+                state.crc.update(state.input, 0, read);
+                deflater.setInput(state.input, 0, read);
+                while (!deflater.needsInput()) {
+                    sink.write(state.chunk, 0, deflater.deflate(state.chunk));
+                }
+                length += read;
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            final int compressed = deflater.deflate(state.chunk);
+            sink.write(state.chunk, 0, compressed);
+        }
+        sink.writeIntLe((int) state.crc.getValue());
+        sink.writeIntLe(length);
+    }
+
+    int getLevel() {
+        return this.level;
+    }
+
+    private static final class State {
+
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final byte[] input = new byte[CHUNK_SIZE];
+
+        State(int level) {
+            // raw deflate, the gzip header and trailer are written by compress
+            this.deflater = new Deflater(level, true);
+        }
+    }
+}
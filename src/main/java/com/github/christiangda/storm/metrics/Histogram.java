@@ -0,0 +1,131 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non negative values, with log-linear buckets as HdrHistogram does.
+ * <p>
+ * Every power of two range is split in {@code 2^(SUB_BUCKET_BITS - 1)} linear buckets, so the values
+ * are recorded with a relative error below 7%, using a fixed array whatever the range of values.
+ * Recording is a couple of atomic increments, it can be done from any thread.
+ * </p>
+ */
+class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, negative values are recorded as 0
+     *
+     * @param value value to record
+     */
+    void record(long value) {
+        final long recorded = Math.max(value, 0);
+        this.counts.incrementAndGet(bucketOf(recorded));
+        this.sum.addAndGet(recorded);
+        this.max.accumulateAndGet(recorded, Math::max);
+    }
+
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Highest value equivalent to the value at the given percentile
+     *
+     * @param percentile percentile, between 0 and 100
+     * @return value, 0 when nothing was recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+        }
+        return valueAtPercentile(snapshot, percentile, this.max.get());
+    }
+
+    /**
+     * Summary of the values recorded since the last call.
+     * <p>
+     * The buckets are drained one by one, a value recorded meanwhile lands in this summary or in the next one.
+     * </p>
+     *
+     * @return count, mean, p50, p90, p99 and max
+     */
+    Map<String, Object> getValuesAndReset() {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.getAndSet(i, 0);
+            count += snapshot[i];
+        }
+        final long sum = this.sum.getAndSet(0);
+        final long max = this.max.getAndSet(0);
+
+        final Map<String, Object> values = new HashMap<>();
+        values.put("count", count);
+        values.put("mean", (count > 0) ? (double) sum / count : 0d);
+        values.put("p50", valueAtPercentile(snapshot, 50, max));
+        values.put("p90", valueAtPercentile(snapshot, 90, max));
+        values.put("p99", valueAtPercentile(snapshot, 99, max));
+        values.put("max", max);
+        return values;
+    }
+
+    private static long valueAtPercentile(long[] counts, double percentile, long max) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // the bucket top can be above the highest value recorded
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // the top SUB_BUCKET_BITS bits of the value select the bucket within its power of two range
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKET_HALF_COUNT - 1;
+        final long subBucket = bucket % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,293 @@
+package com.github.christiangda.storm.metrics;
+
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send line protocol bodies to the InfluxDB HTTP write endpoint, without building any intermediate object.
+ * <p>
+ * It writes to the {@code /write} endpoint of InfluxDB 1.x (see {@link #influxDB1}) or to the {@code /api/v2/write}
+ * endpoint of an InfluxDB 2.x organization and bucket, authenticated with a token (see {@link #influxDB2}).
+ * The bodies above the size threshold are compressed while they are written into the connection.
+ * The records queued in direct memory are written from it, through a small chunk of the thread.
+ * </p>
+ */
+class HttpTransport implements Transport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpTransport.class);
+
+    private static final MediaType MEDIA_TYPE_TEXT = MediaType.parse("text/plain; charset=utf-8");
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private final OkHttpClient client;
+    private final HttpUrl writeUrl;
+    private final HttpUrl queryUrl;
+    private final String authorization;
+    private final String database;
+    private final Compressor compressor;
+    private final int compressionMinBytes;
+
+    /**
+     * @param client              HTTP client
+     * @param writeUrl            url of the write endpoint, with its query parameters
+     * @param queryUrl            url of the query endpoint, null when the database can not be created
+     * @param authorization       value of the Authorization header, null when there is none
+     * @param database            database or bucket name
+     * @param compressor          compressor of the bodies, null to send them as they are
+     * @param compressionMinBytes smaller bodies are not compressed
+     */
+    HttpTransport(OkHttpClient client, HttpUrl writeUrl, HttpUrl queryUrl, String authorization, String database,
+                  Compressor compressor, int compressionMinBytes) {
+        this.client = client;
+        this.writeUrl = writeUrl;
+        this.queryUrl = queryUrl;
+        this.authorization = authorization;
+        this.database = database;
+        this.compressor = compressor;
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    /**
+     * Transport to the InfluxDB 1.x {@code /write} endpoint, with the credentials as query parameters
+     */
+    static HttpTransport influxDB1(OkHttpClient client, String url, String database, String username, String password,
+                                   Compressor compressor, int compressionMinBytes) {
+        HttpUrl.Builder builder = HttpUrl.parse(url).newBuilder()
+                .addPathSegment("write")
+                .addQueryParameter("db", database)
+                .addQueryParameter("rp", "autogen")
+                .addQueryParameter("precision", "ms")
+                .addQueryParameter("consistency", "all");
+        if (!username.isEmpty() || !password.isEmpty()) {
+            builder.addQueryParameter("u", username).addQueryParameter("p", password);
+        }
+
+        HttpUrl.Builder queryBuilder = HttpUrl.parse(url).newBuilder().addPathSegment("query");
+        if (!username.isEmpty() || !password.isEmpty()) {
+            queryBuilder.addQueryParameter("u", username).addQueryParameter("p", password);
+        }
+        return new HttpTransport(client, builder.build(), queryBuilder.build(), null, database, compressor, compressionMinBytes);
+    }
+
+    /**
+     * Transport to the InfluxDB 2.x {@code /api/v2/write} endpoint, the bucket must already exist
+     */
+    static HttpTransport influxDB2(OkHttpClient client, String url, String org, String bucket, String token,
+                                   Compressor compressor, int compressionMinBytes) {
+        HttpUrl writeUrl = HttpUrl.parse(url).newBuilder()
+                .addPathSegments("api/v2/write")
+                .addQueryParameter("org", org)
+                .addQueryParameter("bucket", bucket)
+                .addQueryParameter("precision", "ms")
+                .build();
+        return new HttpTransport(client, writeUrl, null, token.isEmpty() ? null : "Token " + token, bucket, compressor, compressionMinBytes);
+    }
+
+    /**
+     * Create the database, nothing is done by InfluxDB server when it already exists,
+     * nor when writing to an InfluxDB 2.x bucket
+     *
+     * @throws IOException when the server can not be reached or answers with an error
+     */
+    @Override
+    public void createDatabase() throws IOException {
+        if (this.queryUrl == null) {
+            return;
+        }
+
+        LOG.debug("{}: Creating database {} on {}", this.getClass().getSimpleName(), this.database, this.queryUrl.host());
+
+        Request request = new Request.Builder()
+                .url(this.queryUrl)
+                .post(new FormBody.Builder().add("q", "CREATE DATABASE \"" + this.database.replace("\"", "\\\"") + "\"").build())
+                .build();
+        this.execute(request);
+    }
+
+    /**
+     * Write line protocol records to InfluxDB server
+     *
+     * @param data   line protocol records, separated by new lines
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @return HTTP status of the response
+     * @throws IOException when the server can not be reached or answers with an error
+     */
+    @Override
+    public int write(byte[] data, int offset, int length) throws IOException {
+
+        LOG.debug("{}: Writing {} bytes to {}", this.getClass().getSimpleName(), length, this.writeUrl.host());
+
+        Request.Builder request = new Request.Builder().url(this.writeUrl);
+        if (this.authorization != null) {
+            request.header("Authorization", this.authorization);
+        }
+        if (this.compressor != null && length >= this.compressionMinBytes) {
+            request.header("Content-Encoding", this.compressor.getEncoding())
+                    .post(new CompressedBody(this.compressor, data, offset, length));
+        } else {
+            request.post(RequestBody.create(MEDIA_TYPE_TEXT, data, offset, length));
+        }
+
+        return this.execute(request.build());
+    }
+
+    /**
+     * Write line protocol records held in several buffers, like the views of the off-heap queue, without copying
+     * them into a heap array
+     *
+     * @param records line protocol records, the buffers are not modified
+     * @param length  number of bytes of all the buffers
+     * @return HTTP status of the response
+     * @throws IOException when the server can not be reached or answers with an error
+     */
+    @Override
+    public int write(ByteBuffer[] records, int length) throws IOException {
+
+        LOG.debug("{}: Writing {} bytes from {} buffers to {}", this.getClass().getSimpleName(), length, records.length, this.writeUrl.host());
+
+        Request.Builder request = new Request.Builder().url(this.writeUrl);
+        if (this.authorization != null) {
+            request.header("Authorization", this.authorization);
+        }
+        if (this.compressor != null && length >= this.compressionMinBytes) {
+            request.header("Content-Encoding", this.compressor.getEncoding())
+                    .post(new BuffersBody(records, length, this.compressor));
+        } else {
+            request.post(new BuffersBody(records, length, null));
+        }
+
+        return this.execute(request.build());
+    }
+
+    private int execute(Request request) throws IOException {
+        Response response = this.client.newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new InfluxDBWriteException(response.code(), response.body().string(),
+                        parseRetryAfter(response.header("Retry-After"), System.currentTimeMillis()));
+            }
+            return response.code();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Time to wait given by a {@code Retry-After} header, in seconds or as an HTTP date
+     *
+     * @param value header value, may be null
+     * @param now   current time in milliseconds
+     * @return milliseconds to wait, 0 when there is no valid header
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - now);
+            } catch (DateTimeParseException invalid) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Body compressed while OkHttp writes it, so the compressed bytes are never held in memory as a whole.
+     * Its length is unknown, it is sent with chunked transfer encoding.
+     */
+    private static final class CompressedBody extends RequestBody {
+
+        private final Compressor compressor;
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        CompressedBody(Compressor compressor, byte[] data, int offset, int length) {
+            this.compressor = compressor;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MEDIA_TYPE_TEXT;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            this.compressor.compress(this.data, this.offset, this.length, sink);
+        }
+    }
+
+    /**
+     * Body of records held in several buffers, compressed or not, written as many times as OkHttp needs
+     */
+    private static final class BuffersBody extends RequestBody {
+
+        private final ByteBuffer[] records;
+        private final int length;
+        private final Compressor compressor;
+
+        BuffersBody(ByteBuffer[] records, int length, Compressor compressor) {
+            this.records = records;
+            this.length = length;
+            this.compressor = compressor;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MEDIA_TYPE_TEXT;
+        }
+
+        @Override
+        public long contentLength() {
+            return (this.compressor != null) ? -1 : this.length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            if (this.compressor != null) {
+                this.compressor.compress(this.records, sink);
+                return;
+            }
+
+            final byte[] chunk = CHUNK.get();
+            for (ByteBuffer record : this.records) {
+                final ByteBuffer input = record.duplicate();
+                while (input.hasRemaining()) {
+                    final int read = Math.min(input.remaining(), chunk.length);
+                    input.get(chunk, 0, read);
+                    sink.write(chunk, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Nothing to release, the connection pool is owned by {@link InfluxDBSender}
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.christiangda.storm.metrics;
+
+/**
+ * Estimate of the number of distinct elements of a stream, in {@code 2^precision} bytes.
+ * <p>
+ * Every hash sets the register selected by its first {@code precision} bits to the highest rank (position of the
+ * first set bit) of the rest of the bits seen so far. The estimate is the harmonic mean of the registers, with the
+ * linear counting correction for the small cardinalities. The standard error is about {@code 1.04 / sqrt(2^precision)}.
+ * It is not thread safe.
+ * </p>
+ */
+final class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * @param precision bits of the register index, from 4 to 16
+     */
+    HyperLogLog(int precision) {
+        this.precision = Math.max(4, Math.min(precision, 16));
+        this.registers = new byte[1 << this.precision];
+    }
+
+    /**
+     * @param hash well mixed 64 bits hash of the element
+     */
+    void add(long hash) {
+        final int index = (int) (hash >>> (64 - this.precision));
+        // the sentinel bit bounds the rank when the remaining bits are all zero
+        final int rank = Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1))) + 1;
+        if (rank > this.registers[index]) {
+            this.registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * @return estimated number of distinct elements added
+     */
+    long estimate() {
+        final int m = this.registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : this.registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros += 1;
+            }
+        }
+
+        final double alpha;
+        switch (m) {
+            case 16:
+                alpha = 0.673;
+                break;
+            case 32:
+                alpha = 0.697;
+                break;
+            case 64:
+                alpha = 0.709;
+                break;
+            default:
+                alpha = 0.7213 / (1 + 1.079 / m);
+                break;
+        }
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    int getPrecision() {
+        return this.precision;
+    }
+}
@@ -7,9 +7,17 @@ import org.apache.storm.task.TopologyContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Forwards all Apache Storm's build-in metrics to a InfluxDB server.
@@ -35,6 +43,8 @@ import java.util.Map;
  *   topologyConf.put("metrics.influxdb.database", "<YOUR_INFLUXDB_DATABASE>");
  *   topologyConf.put("metrics.influxdb.measurement.prefix", "<YOUR_INFLUXDB_MEASUREMENT_PREFIX>");
  *   topologyConf.put("metrics.influxdb.enable.gzip", "<true or false>");
+ *   topologyConf.put("metrics.influxdb.async.enable", "<true or false>");
+ *   topologyConf.put("metrics.influxdb.compact.schema.enable", "<true or false>");
  *
  *   ...
  * }
@@ -56,6 +66,8 @@ import java.util.Map;
  *        metrics.influxdb.database: "<YOUR_INFLUXDB_DATABASE>"
  *        metrics.influxdb.measurement.prefix: "<YOUR_INFLUXDB_MEASUREMENT_PREFIX>"
  *        metrics.influxdb.enable.gzip: "<true or false>"
+ *        metrics.influxdb.async.enable: "<true or false>"
+ *        metrics.influxdb.compact.schema.enable: "<true or false>"
  * }
  * </pre>
  */
@@ -63,11 +75,55 @@ public class InfluxDBMetricsConsumer implements IMetricsConsumer {
 
     private static final Logger LOG = LoggerFactory.getLogger(InfluxDBMetricsConsumer.class);
 
-    private static final int MAX_RECURSION_TIMES = 3;
+    private static final int DEFAULT_METRICS_TIME_BUCKET_SIZE_SECS = 60;
+    static final String SELF_MEASUREMENT = "__influxdb-consumer";
+
+    private final ConsumerStats consumerStats = new ConsumerStats();
+
+    private DataPointFlattener flattener = new DataPointFlattener(
+            InfluxDBSender.DEFAULT_INFLUXDB_FLATTEN_MAX_DEPTH, InfluxDBSender.DEFAULT_INFLUXDB_FLATTEN_NAME_CACHE_SIZE, this.consumerStats);
 
     private InfluxDBSender influxDBSender;
     private String topologyName;
 
+    // Point of the consumer itself, written every metrics bucket
+    private Map<String, String> selfTags;
+    private long selfIntervalMs;
+    private long selfReportTime = 0;
+
+    // Include and exclude patterns, null when there is none
+    private MetricFilter metricFilter;
+    private MetricFilter componentFilter;
+
+    // Rollups, null when disabled
+    private RollupAggregator rollupAggregator;
+    private Map<String, String> rollupTags;
+    private int rawSampleEvery;
+    private final Map<Integer, Integer> taskTicks = new HashMap<>();
+    private final Set<Integer> windowTasks = new HashSet<>();
+
+    // Latency percentiles, null when disabled
+    private LatencyAggregator latencyAggregator;
+    private Map<String, String> latencyTags;
+    private boolean latencyKeepRaw;
+
+    // Unchanged and zero values suppression, null when disabled
+    private DeltaSuppressor deltaSuppressor;
+
+    // Series cardinality limit, null when disabled, and sums of the values collapsed in the tick
+    private CardinalityGuard cardinalityGuard;
+    private final Map<String, Double> collapsedValues = new LinkedHashMap<>();
+
+    // Values of the tick collected for the parallel encoding, null when it is disabled
+    private List<String> pendingNames;
+    private List<Object> pendingValues;
+
+    // Task of the metrics tick being handled
+    private String tickComponent;
+    private int tickTaskId;
+    private long tickTimestamp;
+    private boolean tickRawPoints = true;
+
     @Override
     public void prepare(Map stormConf, Object registrationArgument, TopologyContext context, IErrorReporter errorReporter) {
 
@@ -92,7 +148,147 @@ public class InfluxDBMetricsConsumer implements IMetricsConsumer {
             LOG.warn("{}: Argument registrationArgument is Empty or null", this.getClass().getSimpleName());
         }
 
+        if (context != null) {
+            mergedConf.put(InfluxDBSender.KEY_CONSUMER_TASK_ID, context.getThisTaskId());
+        }
+
+        this.flattener = new DataPointFlattener(
+                getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_FLATTEN_MAX_DEPTH, InfluxDBSender.DEFAULT_INFLUXDB_FLATTEN_MAX_DEPTH),
+                getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_FLATTEN_NAME_CACHE_SIZE, InfluxDBSender.DEFAULT_INFLUXDB_FLATTEN_NAME_CACHE_SIZE),
+                this.consumerStats);
+        final int filterCacheSize = getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_FLATTEN_NAME_CACHE_SIZE, InfluxDBSender.DEFAULT_INFLUXDB_FLATTEN_NAME_CACHE_SIZE);
+        this.metricFilter = makeFilter(mergedConf, InfluxDBSender.KEY_INFLUXDB_FILTER_INCLUDE_METRICS, InfluxDBSender.KEY_INFLUXDB_FILTER_EXCLUDE_METRICS, filterCacheSize);
+        this.componentFilter = makeFilter(mergedConf, InfluxDBSender.KEY_INFLUXDB_FILTER_INCLUDE_COMPONENTS, InfluxDBSender.KEY_INFLUXDB_FILTER_EXCLUDE_COMPONENTS, filterCacheSize);
+        if (getBooleanValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_ROLLUP_ENABLE, InfluxDBSender.DEFAULT_INFLUXDB_ROLLUP_ENABLE)) {
+            final int windowSecs = getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_ROLLUP_WINDOW_SECS, InfluxDBSender.DEFAULT_INFLUXDB_ROLLUP_WINDOW_SECS);
+            this.rollupAggregator = new RollupAggregator(TimeUnit.SECONDS.toMillis(windowSecs));
+            this.rollupTags = Collections.singletonMap("Rollup", windowSecs + "s");
+            this.rawSampleEvery = getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_ROLLUP_RAW_SAMPLE_EVERY, InfluxDBSender.DEFAULT_INFLUXDB_ROLLUP_RAW_SAMPLE_EVERY);
+        }
+        if (getBooleanValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_LATENCY_SKETCH_ENABLE, InfluxDBSender.DEFAULT_INFLUXDB_LATENCY_SKETCH_ENABLE)) {
+            final int windowSecs = getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_LATENCY_SKETCH_WINDOW_SECS, InfluxDBSender.DEFAULT_INFLUXDB_LATENCY_SKETCH_WINDOW_SECS);
+            this.latencyAggregator = new LatencyAggregator(TimeUnit.SECONDS.toMillis(windowSecs), MetricFilter.parsePatterns(
+                    mergedConf.getOrDefault(InfluxDBSender.KEY_INFLUXDB_LATENCY_SKETCH_METRICS, InfluxDBSender.DEFAULT_INFLUXDB_LATENCY_SKETCH_METRICS)));
+            this.latencyTags = Collections.singletonMap("Percentiles", windowSecs + "s");
+            this.latencyKeepRaw = getBooleanValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_LATENCY_SKETCH_KEEP_RAW, InfluxDBSender.DEFAULT_INFLUXDB_LATENCY_SKETCH_KEEP_RAW);
+        }
+        if (getBooleanValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_DELTA_ENABLE, InfluxDBSender.DEFAULT_INFLUXDB_DELTA_ENABLE)) {
+            this.deltaSuppressor = new DeltaSuppressor(
+                    getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_DELTA_MAX_SERIES, InfluxDBSender.DEFAULT_INFLUXDB_DELTA_MAX_SERIES),
+                    getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_DELTA_HEARTBEAT_INTERVALS, InfluxDBSender.DEFAULT_INFLUXDB_DELTA_HEARTBEAT_INTERVALS),
+                    getBooleanValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_DELTA_SUPPRESS_ZERO, InfluxDBSender.DEFAULT_INFLUXDB_DELTA_SUPPRESS_ZERO));
+        }
+        if (getBooleanValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_CARDINALITY_LIMIT_ENABLE, InfluxDBSender.DEFAULT_INFLUXDB_CARDINALITY_LIMIT_ENABLE)) {
+            this.cardinalityGuard = new CardinalityGuard(
+                    getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_CARDINALITY_MAX_SERIES, InfluxDBSender.DEFAULT_INFLUXDB_CARDINALITY_MAX_SERIES),
+                    getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_CARDINALITY_MAX_SERIES_PER_MEASUREMENT, InfluxDBSender.DEFAULT_INFLUXDB_CARDINALITY_MAX_SERIES_PER_MEASUREMENT),
+                    CardinalityGuard.OverflowAction.fromString(mergedConf.getOrDefault(
+                            InfluxDBSender.KEY_INFLUXDB_CARDINALITY_OVERFLOW_ACTION, InfluxDBSender.DEFAULT_INFLUXDB_CARDINALITY_OVERFLOW_ACTION).toString()),
+                    getIntegerValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_CARDINALITY_TOP_K, InfluxDBSender.DEFAULT_INFLUXDB_CARDINALITY_TOP_K),
+                    getLongValue(mergedConf, InfluxDBSender.KEY_INFLUXDB_CARDINALITY_IDLE_MS, InfluxDBSender.DEFAULT_INFLUXDB_CARDINALITY_IDLE_MS));
+        }
         this.influxDBSender = makeInfluxDBSender(mergedConf);
+        this.influxDBSender.setConsumerStats(this.consumerStats);
+        if (this.influxDBSender.isParallelEncoding()) {
+            this.pendingNames = new ArrayList<>();
+            this.pendingValues = new ArrayList<>();
+        }
+
+        this.prepareConsumerMetrics(context, mergedConf);
+    }
+
+    /**
+     * Prepare the point of the consumer itself, written every metrics bucket by {@link #sendConsumerMetrics()}
+     *
+     * @param context topology context of the consumer task, may be null
+     * @param config  merged configuration
+     */
+    private void prepareConsumerMetrics(TopologyContext context, Map<Object, Object> config) {
+
+        Object bucketSize = config.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS);
+        final int timeBucketSizeInSecs = (bucketSize instanceof Number) ? ((Number) bucketSize).intValue() : DEFAULT_METRICS_TIME_BUCKET_SIZE_SECS;
+        this.selfIntervalMs = TimeUnit.SECONDS.toMillis(timeBucketSizeInSecs);
+
+        this.selfTags = new HashMap<>();
+        this.selfTags.put("Topology", this.topologyName);
+        if (context != null) {
+            this.selfTags.put("ComponentId", context.getThisComponentId());
+            this.selfTags.put("TaskId", String.valueOf(context.getThisTaskId()));
+        }
+    }
+
+    /**
+     * Write one point of the {@value #SELF_MEASUREMENT} measurement with the fields of
+     * {@link #getConsumerValuesAndReset()}, straight to the sender, so it does not go through the flattener,
+     * filters, delta suppression and cardinality limit
+     */
+    private void sendConsumerMetrics() {
+        try {
+            final Map<String, Object> values = this.getConsumerValuesAndReset();
+            this.influxDBSender.setFields(Collections.<String, Object>emptyMap());
+            this.influxDBSender.setTimestamp(this.tickTimestamp);
+            this.influxDBSender.setTags(this.selfTags);
+            this.influxDBSender.preparePoint(SELF_MEASUREMENT, Collections.<String, String>emptyMap(), values);
+            this.influxDBSender.sendPoints();
+        } catch (Exception e) {
+            LOG.warn("{}: Unable to send the consumer metrics. Exception = {}", this.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Counters and histograms of the consumer, its writes, cardinality limit and spill queue since the last call,
+     * as the fields of one point: the write, cardinality and spill ones prefixed by {@code writes.},
+     * {@code cardinality.} and {@code spill.}, and the values of the histograms and top offenders by their name
+     *
+     * @return fields of the {@value #SELF_MEASUREMENT} point
+     */
+    Map<String, Object> getConsumerValuesAndReset() {
+        final InfluxDBSender sender = this.influxDBSender;
+        final Map<String, Object> fields = new TreeMap<>();
+
+        // taken first, the shared writer adds its queue overflows to the consumer stats
+        final Map<String, Object> writerValues = sender.getWriterValuesAndReset();
+        putFields(fields, "", this.consumerStats.getValuesAndReset());
+        fields.put("queue-depth", sender.getQueuedBatches());
+        putFields(fields, "", writerValues);
+        final OffHeapWriter offHeapWriter = sender.getOffHeapWriter();
+        if (offHeapWriter != null) {
+            fields.put("offheap-queue-bytes", offHeapWriter.getQueuedBytes());
+        }
+        final FlushScheduler scheduler = sender.getFlushScheduler();
+        if (scheduler != null) {
+            putFields(fields, "", scheduler.getValuesAndReset());
+        }
+
+        final WriteStats writeStats = sender.getWriteStats();
+        if (writeStats != null) {
+            putFields(fields, "writes.", writeStats.getValuesAndReset());
+        }
+        if (this.cardinalityGuard != null) {
+            putFields(fields, "cardinality.", this.cardinalityGuard.getValuesAndReset());
+        }
+        final SpillQueue spillQueue = sender.getSpillQueue();
+        if (spillQueue != null) {
+            fields.put("spill.backlog-records", spillQueue.getPendingRecords());
+            fields.put("spill.backlog-bytes", spillQueue.getPendingBytes());
+            fields.put("spill.backlog-age-ms", spillQueue.getOldestAgeMs());
+            fields.put("spill.dropped-records", spillQueue.getDroppedRecords());
+        }
+        return fields;
+    }
+
+    /**
+     * Add the values as fields, the nested maps with the name of their key
+     */
+    private static void putFields(Map<String, Object> fields, String prefix, Map<String, Object> values) {
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            if (value.getValue() instanceof Map) {
+                @SuppressWarnings("unchecked") final Map<String, Object> nested = (Map<String, Object>) value.getValue();
+                putFields(fields, prefix + value.getKey() + ".", nested);
+            } else if (value.getValue() != null) {
+                fields.put(prefix + value.getKey(), value.getValue());
+            }
+        }
     }
 
     @Override
@@ -100,9 +296,36 @@ public class InfluxDBMetricsConsumer implements IMetricsConsumer {
 
         int recursionRound = 0;
 
+        if (this.componentFilter != null && !this.componentFilter.accepts(taskInfo.srcComponentId)) {
+            this.consumerStats.dropped(ConsumerStats.DropReason.FILTERED, dataPoints.size());
+            return;
+        }
+
         // Necessary for the topology to continue working when InfluxDB is off-line
         try {
-            this.influxDBSender.prepareConnection();
+            this.tickComponent = taskInfo.srcComponentId;
+            this.tickTaskId = taskInfo.srcTaskId;
+            this.tickTimestamp = TimeUnit.SECONDS.toMillis(taskInfo.timestamp);
+
+            if (this.rollupAggregator != null) {
+                if (this.rollupAggregator.isWindowOver(this.tickTimestamp)) {
+                    this.emitRollups();
+                    this.forgetIdleTasks();
+                }
+                this.tickRawPoints = this.isRawTick(taskInfo.srcTaskId);
+            }
+            if (this.latencyAggregator != null && this.latencyAggregator.isWindowOver(this.tickTimestamp)) {
+                this.emitLatencySketches();
+            }
+            if (this.selfReportTime == 0) {
+                this.selfReportTime = this.tickTimestamp;
+            } else if (this.tickTimestamp - this.selfReportTime >= this.selfIntervalMs) {
+                this.sendConsumerMetrics();
+                this.selfReportTime = this.tickTimestamp;
+            }
+            if (this.cardinalityGuard != null) {
+                this.cardinalityGuard.expire(this.tickTimestamp);
+            }
 
             @SuppressWarnings("unchecked") final Map<String, String> tags = new HashMap();
 
@@ -112,87 +335,287 @@ public class InfluxDBMetricsConsumer implements IMetricsConsumer {
             tags.put("ComponentId", taskInfo.srcComponentId);
             tags.put("Topology", this.topologyName);
 
-            // InfluxDB fields per each data point
-            fields.put("Timestamp", String.valueOf(taskInfo.timestamp));
-            fields.put("UpdateIntervalSecs", String.valueOf(taskInfo.updateIntervalSecs));
-            fields.put("TaskId", String.valueOf(taskInfo.srcTaskId));
-            fields.put("WorkerHost", taskInfo.srcWorkerHost);
-            fields.put("WorkerPort", String.valueOf(taskInfo.srcWorkerPort));
+            if (this.influxDBSender.isCompactSchema()) {
+                // Task metadata indexed, and the task timestamp (in seconds) as point time
+                tags.put("TaskId", String.valueOf(taskInfo.srcTaskId));
+                tags.put("WorkerHost", taskInfo.srcWorkerHost);
+                tags.put("WorkerPort", String.valueOf(taskInfo.srcWorkerPort));
+                tags.put("UpdateIntervalSecs", String.valueOf(taskInfo.updateIntervalSecs));
+                this.influxDBSender.setTimestamp(TimeUnit.SECONDS.toMillis(taskInfo.timestamp));
+            } else {
+                // InfluxDB fields per each data point
+                fields.put("Timestamp", String.valueOf(taskInfo.timestamp));
+                fields.put("UpdateIntervalSecs", String.valueOf(taskInfo.updateIntervalSecs));
+                fields.put("TaskId", String.valueOf(taskInfo.srcTaskId));
+                fields.put("WorkerHost", taskInfo.srcWorkerHost);
+                fields.put("WorkerPort", String.valueOf(taskInfo.srcWorkerPort));
+            }
 
             // sendPoints data to InfluxDB
             this.influxDBSender.setTags(tags);
             this.influxDBSender.setFields(fields);
 
             // Prepare data to be parse
+            this.consumerStats.received(dataPoints.size());
+            final long start = System.nanoTime();
             for (DataPoint dataPoint : dataPoints) {
-                if (dataPoint.value != null) {
+                if (this.metricFilter != null && this.metricFilter.rejectsAllUnder(dataPoint.name)) {
+                    this.consumerStats.dropped(ConsumerStats.DropReason.FILTERED);
+                } else if (dataPoint.value != null) {
                     this.processDataPoint(dataPoint.name, dataPoint.value, recursionRound);
                 } else {
                     LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), dataPoint.name);
+                    this.consumerStats.dropped(ConsumerStats.DropReason.NULL_VALUE);
                 }
             }
-            this.influxDBSender.sendPoints();
-            this.influxDBSender.closeConnection();
+            if (!this.collapsedValues.isEmpty()) {
+                this.prepareCollapsedValues();
+            }
+            if (this.pendingNames != null) {
+                this.preparePendingValues();
+            }
+            this.consumerStats.flattened(System.nanoTime() - start);
+            if (this.tickRawPoints) {
+                this.influxDBSender.sendPoints();
+            }
         } catch (Exception e) {
             LOG.warn("{}: Loss connection to InfluxDB server!, the collected data will be lost. Exception = {}", this.getClass().getSimpleName(), e);
+        } finally {
+            this.collapsedValues.clear();
+            if (this.pendingNames != null) {
+                this.pendingNames.clear();
+                this.pendingValues.clear();
+            }
         }
     }
 
     /**
-     * Verify if DataPoint type is a Map and decompose it using recursion,
-     * then send it to influxDBSender.
+     * Verify if DataPoint type is a Map and decompose it,
+     * then send every value to influxDBSender.
      *
      * @param name           dataPoint name
      * @param value          dataPoint value
-     * @param recursionRound maximum recursion depth
+     * @param recursionRound number of maps the value is already nested in
      */
     public void processDataPoint(String name, Object value, int recursionRound) {
+        this.flattener.flatten(name, value, recursionRound, this::prepareValue);
+    }
+
+    /**
+     * Prepare the value unless it is filtered out, or a latency only sketched, or its series is over the
+     * cardinality limits, in which case it may be collapsed into the {@code __other} series of its family
+     */
+    private void prepareValue(String name, Object value) {
+        if (this.metricFilter != null && !this.metricFilter.accepts(name)) {
+            this.consumerStats.dropped(ConsumerStats.DropReason.FILTERED);
+            return;
+        }
+        if (this.latencyAggregator != null && this.tickComponent != null && this.latencyAggregator.isLatency(name)
+                && this.latencyAggregator.add(this.tickTimestamp, this.tickComponent, name, value) && !this.latencyKeepRaw) {
+            return;
+        }
+        if (this.cardinalityGuard != null && this.tickComponent != null) {
+            // TaskId is only part of the series when it is a tag
+            final int taskId = this.influxDBSender.isCompactSchema() ? this.tickTaskId : 0;
+            final long series = DeltaSuppressor.seriesKey(this.tickComponent, taskId, name);
+            switch (this.cardinalityGuard.admit(series, name, value instanceof Number)) {
+                case REJECT:
+                    this.consumerStats.dropped(ConsumerStats.DropReason.CARDINALITY);
+                    return;
+                case COLLAPSE:
+                    this.collapsedValues.merge(CardinalityGuard.collapsedName(name), ((Number) value).doubleValue(), Double::sum);
+                    return;
+                default:
+                    break;
+            }
+        }
+        this.prepareAdmittedValue(name, value);
+    }
 
-        int recursion_times = (recursionRound > 0) ? recursionRound : 0;
+    /**
+     * Prepare the sums of the values collapsed in the tick, one per metric family
+     */
+    private void prepareCollapsedValues() {
+        for (Map.Entry<String, Double> collapsed : this.collapsedValues.entrySet()) {
+            this.prepareAdmittedValue(collapsed.getKey(), collapsed.getValue());
+        }
+    }
+
+    /**
+     * Aggregate the value when rollups are enabled, and prepare it as a raw point on the sampled ticks
+     * unless it is unchanged (or zero) since the last interval
+     */
+    private void prepareAdmittedValue(String name, Object value) {
+        if (this.rollupAggregator != null) {
+            this.rollupAggregator.add(this.tickTimestamp, this.tickComponent, name, value);
+            if (!this.tickRawPoints) {
+                return;
+            }
+        }
+        if (this.deltaSuppressor != null && this.tickComponent != null
+                && !this.deltaSuppressor.shouldSend(DeltaSuppressor.seriesKey(this.tickComponent, this.tickTaskId, name), value)) {
+            this.consumerStats.suppressed();
+            return;
+        }
+        if (this.pendingNames != null) {
+            this.pendingNames.add(name);
+            this.pendingValues.add(value);
+        } else {
+            this.influxDBSender.prepareDataPoint(name, value);
+        }
+    }
 
-        if (recursion_times <= MAX_RECURSION_TIMES) {
-            if (value instanceof String
-                    || value instanceof Float
-                    || value instanceof Integer
-                    || value instanceof Boolean
-                    || value instanceof Long
-                    || value instanceof Double
-                    || value instanceof Number) {
+    /**
+     * Hand the values collected for the tick to the sender at once, for it to encode them in parallel
+     */
+    private void preparePendingValues() {
+        this.influxDBSender.prepareDataPoints(this.pendingNames, this.pendingValues);
+    }
 
-                LOG.debug("{}: Processing dataPoint: [ name: '{}', value: '{}' ]", this.getClass().getSimpleName(), name, value);
+    /**
+     * Raw points of a task are only sent on one tick out of {@code rawSampleEvery}, never when it is 0
+     *
+     * @param taskId task id
+     * @return true when the raw points of this tick are sent
+     */
+    private boolean isRawTick(int taskId) {
+        if (this.rawSampleEvery <= 0) {
+            return false;
+        }
+        this.windowTasks.add(taskId);
+        final Integer tick = this.taskTicks.put(taskId, (this.taskTicks.getOrDefault(taskId, 0) + 1) % this.rawSampleEvery);
+        return tick == null || tick == 0;
+    }
 
-                this.influxDBSender.prepareDataPoint(name, value);
-            } else if (value instanceof Map) {
+    /**
+     * Forget the sampling position of the tasks which did not report in the last window (gone after a rebalance...),
+     * so the state only holds the live tasks
+     */
+    private void forgetIdleTasks() {
+        this.taskTicks.keySet().retainAll(this.windowTasks);
+        this.windowTasks.clear();
+    }
 
-                LOG.debug("{}: Processing dataPoint<Map> ...", this.getClass().getSimpleName());
+    /**
+     * Send one point per component and metric, with the sum, min, max, count and last value of the window,
+     * timestamped at the start of the window
+     */
+    private void emitRollups() {
+        if (this.rollupAggregator.isEmpty()) {
+            return;
+        }
 
-                recursion_times += 1;
+        LOG.debug("{}: Sending rollups of {} components", this.getClass().getSimpleName(), this.rollupAggregator.getRollups().size());
 
-                @SuppressWarnings("unchecked")
-                Map<String, Object> values = (Map<String, Object>) value;
+        try {
+            this.influxDBSender.setFields(Collections.<String, Object>emptyMap());
+            this.influxDBSender.setTimestamp(this.rollupAggregator.getWindowStart());
+            for (Map.Entry<String, Map<String, RollupAggregator.Rollup>> component : this.rollupAggregator.getRollups().entrySet()) {
+                final Map<String, String> tags = new HashMap<>();
+                tags.put("ComponentId", component.getKey());
+                tags.put("Topology", this.topologyName);
+                this.influxDBSender.setTags(tags);
+
+                for (Map.Entry<String, RollupAggregator.Rollup> metric : component.getValue().entrySet()) {
+                    this.influxDBSender.preparePoint(metric.getKey(), this.rollupTags, metric.getValue().getFields());
+                }
+            }
+            this.influxDBSender.sendPoints();
+        } finally {
+            this.rollupAggregator.reset();
+        }
+    }
 
-                for (Map.Entry<String, Object> entry : values.entrySet()) {
+    /**
+     * Send one point per component and latency metric family, with the p50, p90, p99, max and count of the
+     * latencies of all its tasks and streams in the window, timestamped at the start of the window
+     */
+    private void emitLatencySketches() {
+        if (this.latencyAggregator.isEmpty()) {
+            return;
+        }
 
-                    LOG.debug("{}: ... Processing Map dataPoint entry: [ name: '{}', value: '{}' ]", this.getClass().getSimpleName(), entry.getKey(), entry.getValue());
+        LOG.debug("{}: Sending latency percentiles of {} components", this.getClass().getSimpleName(), this.latencyAggregator.getSketches().size());
 
-                    if (entry.getValue() != null) {
-                        this.processDataPoint(name + "." + entry.getKey(), entry.getValue(), recursion_times);
-                    } else {
-                        LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), name);
-                    }
+        try {
+            this.influxDBSender.setFields(Collections.<String, Object>emptyMap());
+            this.influxDBSender.setTimestamp(this.latencyAggregator.getWindowStart());
+            for (Map.Entry<String, Map<String, LatencySketch>> component : this.latencyAggregator.getSketches().entrySet()) {
+                final Map<String, String> tags = new HashMap<>();
+                tags.put("ComponentId", component.getKey());
+                tags.put("Topology", this.topologyName);
+                this.influxDBSender.setTags(tags);
+
+                for (Map.Entry<String, LatencySketch> family : component.getValue().entrySet()) {
+                    this.influxDBSender.preparePoint(family.getKey(), this.latencyTags, family.getValue().getFields());
                 }
             }
-        } else {
-            LOG.warn("{}: Too Many Nested values in DataPoint named = {}", this.getClass().getSimpleName(), name);
+            this.influxDBSender.sendPoints();
+        } finally {
+            this.latencyAggregator.reset();
         }
     }
 
+    /**
+     * Counters and histograms of the consumer, also reported in the {@code __influxdb-consumer} metric
+     *
+     * @return consumer stats
+     */
+    ConsumerStats getConsumerStats() {
+        return this.consumerStats;
+    }
+
+    /**
+     * @return tasks whose raw points sampling position is kept
+     */
+    int getSampledTasks() {
+        return this.taskTicks.size();
+    }
+
     @Override
     public void cleanup() {
+        try {
+            if (this.rollupAggregator != null) {
+                this.emitRollups();
+            }
+            if (this.latencyAggregator != null) {
+                this.emitLatencySketches();
+            }
+            this.influxDBSender.flush();
+        } catch (Exception e) {
+            LOG.warn("{}: Unable to flush the pending points, they will be lost. Exception = {}", this.getClass().getSimpleName(), e);
+        }
+        this.influxDBSender.stopAsyncWriter();
         this.influxDBSender.closeConnection();
         this.influxDBSender = null;
     }
 
+    /**
+     * Filter of the include and exclude patterns, null when there is none
+     */
+    private static MetricFilter makeFilter(Map<Object, Object> config, String includeKey, String excludeKey, int cacheSize) {
+        final MetricFilter filter = new MetricFilter(
+                MetricFilter.parsePatterns(config.getOrDefault(includeKey, InfluxDBSender.DEFAULT_INFLUXDB_FILTER_PATTERNS)),
+                MetricFilter.parsePatterns(config.getOrDefault(excludeKey, InfluxDBSender.DEFAULT_INFLUXDB_FILTER_PATTERNS)),
+                cacheSize);
+        return filter.isEmpty() ? null : filter;
+    }
+
+    private static Integer getIntegerValue(Map<Object, Object> config, String key, Integer defaultValue) {
+        Object value = config.getOrDefault(key, defaultValue);
+        return (value instanceof Number) ? ((Number) value).intValue() : Integer.valueOf(value.toString().trim());
+    }
+
+    private static Long getLongValue(Map<Object, Object> config, String key, Long defaultValue) {
+        Object value = config.getOrDefault(key, defaultValue);
+        return (value instanceof Number) ? ((Number) value).longValue() : Long.valueOf(value.toString().trim());
+    }
+
+    private static Boolean getBooleanValue(Map<Object, Object> config, String key, Boolean defaultValue) {
+        Object value = config.getOrDefault(key, defaultValue);
+        return (value instanceof Boolean) ? (Boolean) value : Boolean.valueOf(value.toString().trim());
+    }
+
     /**
      * Factory for InfluxDBSender
      *
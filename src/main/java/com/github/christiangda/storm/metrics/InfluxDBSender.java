@@ -1,13 +1,27 @@
 package com.github.christiangda.storm.metrics;
 
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.apache.storm.Config;
 import org.influxdb.InfluxDB;
 import org.influxdb.InfluxDBFactory;
-import org.influxdb.dto.BatchPoints;
-import org.influxdb.dto.Point;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 class InfluxDBSender {
 
@@ -19,7 +33,82 @@ class InfluxDBSender {
     public static final String KEY_INFLUXDB_PASSWORD = "metrics.influxdb.password";
     public static final String KEY_INFLUXDB_DATABASE = "metrics.influxdb.database";
     public static final String KEY_INFLUXDB_MEASUREMENT_PREFIX = "metrics.influxdb.measurement.prefix";
+    public static final String KEY_INFLUXDB_FORMAT = "metrics.influxdb.format";
+    public static final String KEY_INFLUXDB_ORG = "metrics.influxdb.org";
+    public static final String KEY_INFLUXDB_BUCKET = "metrics.influxdb.bucket";
+    public static final String KEY_INFLUXDB_TOKEN = "metrics.influxdb.token";
     public static final String KEY_INFLUXDB_ENABLE_GZIP = "metrics.influxdb.enable.gzip";
+    public static final String KEY_INFLUXDB_COMPRESSION = "metrics.influxdb.compression";
+    public static final String KEY_INFLUXDB_COMPRESSION_LEVEL = "metrics.influxdb.compression.level";
+    public static final String KEY_INFLUXDB_COMPRESSION_MIN_BYTES = "metrics.influxdb.compression.min.bytes";
+    public static final String KEY_INFLUXDB_CONNECTION_POOL_MAX_IDLE = "metrics.influxdb.connection.pool.max.idle";
+    public static final String KEY_INFLUXDB_CONNECTION_KEEP_ALIVE_MS = "metrics.influxdb.connection.keep.alive.ms";
+    public static final String KEY_INFLUXDB_HEALTH_CHECK_INTERVAL_MS = "metrics.influxdb.health.check.interval.ms";
+    public static final String KEY_INFLUXDB_RECONNECT_BACKOFF_INITIAL_MS = "metrics.influxdb.reconnect.backoff.initial.ms";
+    public static final String KEY_INFLUXDB_RECONNECT_BACKOFF_MAX_MS = "metrics.influxdb.reconnect.backoff.max.ms";
+    public static final String KEY_INFLUXDB_SPILL_ENABLE = "metrics.influxdb.spill.enable";
+    public static final String KEY_INFLUXDB_SPILL_DIRECTORY = "metrics.influxdb.spill.directory";
+    public static final String KEY_INFLUXDB_SPILL_SEGMENT_SIZE_BYTES = "metrics.influxdb.spill.segment.size.bytes";
+    public static final String KEY_INFLUXDB_SPILL_MAX_SIZE_BYTES = "metrics.influxdb.spill.max.size.bytes";
+    public static final String KEY_INFLUXDB_SPILL_REPLAY_INTERVAL_MS = "metrics.influxdb.spill.replay.interval.ms";
+    public static final String KEY_INFLUXDB_ASYNC_ENABLE = "metrics.influxdb.async.enable";
+    public static final String KEY_INFLUXDB_ASYNC_QUEUE_CAPACITY = "metrics.influxdb.async.queue.capacity";
+    public static final String KEY_INFLUXDB_ASYNC_WRITER_THREADS = "metrics.influxdb.async.writer.threads";
+    public static final String KEY_INFLUXDB_ASYNC_BATCH_SIZE = "metrics.influxdb.async.batch.size";
+    public static final String KEY_INFLUXDB_ASYNC_OVERFLOW_POLICY = "metrics.influxdb.async.overflow.policy";
+    public static final String KEY_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS = "metrics.influxdb.async.block.timeout.ms";
+    public static final String KEY_INFLUXDB_ASYNC_OFFHEAP_ENABLE = "metrics.influxdb.async.offheap.enable";
+    public static final String KEY_INFLUXDB_ASYNC_OFFHEAP_CAPACITY_BYTES = "metrics.influxdb.async.offheap.capacity.bytes";
+    public static final String KEY_INFLUXDB_ENCODING_CACHE_SIZE = "metrics.influxdb.encoding.cache.size";
+    public static final String KEY_INFLUXDB_ENCODING_CACHE_IDLE_MS = "metrics.influxdb.encoding.cache.idle.ms";
+    public static final String KEY_INFLUXDB_PARALLEL_ENCODING_ENABLE = "metrics.influxdb.parallel.encoding.enable";
+    public static final String KEY_INFLUXDB_PARALLEL_ENCODING_THREADS = "metrics.influxdb.parallel.encoding.threads";
+    public static final String KEY_INFLUXDB_PARALLEL_ENCODING_MIN_POINTS = "metrics.influxdb.parallel.encoding.min.points";
+    public static final String KEY_INFLUXDB_WIDE_POINTS_ENABLE = "metrics.influxdb.wide.points.enable";
+    public static final String KEY_INFLUXDB_WIDE_POINTS_TAG_RULES = "metrics.influxdb.wide.points.tag.rules";
+    public static final String KEY_INFLUXDB_COMPACT_SCHEMA_ENABLE = "metrics.influxdb.compact.schema.enable";
+    public static final String KEY_INFLUXDB_TRANSPORT = "metrics.influxdb.transport";
+    public static final String KEY_INFLUXDB_UDP_MTU = "metrics.influxdb.udp.mtu";
+    public static final String KEY_INFLUXDB_TCP_CONNECT_TIMEOUT_MS = "metrics.influxdb.tcp.connect.timeout.ms";
+    public static final String KEY_INFLUXDB_TCP_WRITE_TIMEOUT_MS = "metrics.influxdb.tcp.write.timeout.ms";
+    public static final String KEY_INFLUXDB_RETRY_MAX_RETRIES = "metrics.influxdb.retry.max.retries";
+    public static final String KEY_INFLUXDB_RETRY_BACKOFF_INITIAL_MS = "metrics.influxdb.retry.backoff.initial.ms";
+    public static final String KEY_INFLUXDB_RETRY_BACKOFF_MAX_MS = "metrics.influxdb.retry.backoff.max.ms";
+    public static final String KEY_INFLUXDB_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "metrics.influxdb.circuit.breaker.failure.threshold";
+    public static final String KEY_INFLUXDB_CIRCUIT_BREAKER_OPEN_MS = "metrics.influxdb.circuit.breaker.open.ms";
+    public static final String KEY_INFLUXDB_ROUTING_STRATEGY = "metrics.influxdb.routing.strategy";
+    public static final String KEY_INFLUXDB_SHARED_ENABLE = "metrics.influxdb.shared.enable";
+    public static final String KEY_INFLUXDB_SHARED_LINGER_MS = "metrics.influxdb.shared.linger.ms";
+    public static final String KEY_INFLUXDB_BATCH_ENABLE = "metrics.influxdb.batch.enable";
+    public static final String KEY_INFLUXDB_BATCH_MAX_POINTS = "metrics.influxdb.batch.max.points";
+    public static final String KEY_INFLUXDB_BATCH_MAX_BYTES = "metrics.influxdb.batch.max.bytes";
+    public static final String KEY_INFLUXDB_BATCH_LINGER_MS = "metrics.influxdb.batch.linger.ms";
+    public static final String KEY_INFLUXDB_BATCH_ADAPTIVE_ENABLE = "metrics.influxdb.batch.adaptive.enable";
+    public static final String KEY_INFLUXDB_BATCH_ADAPTIVE_TARGET_DELAY_MS = "metrics.influxdb.batch.adaptive.target.delay.ms";
+    public static final String KEY_INFLUXDB_BATCH_ADAPTIVE_MIN_POINTS = "metrics.influxdb.batch.adaptive.min.points";
+    public static final String KEY_INFLUXDB_FLATTEN_MAX_DEPTH = "metrics.influxdb.flatten.max.depth";
+    public static final String KEY_INFLUXDB_FLATTEN_NAME_CACHE_SIZE = "metrics.influxdb.flatten.name.cache.size";
+    public static final String KEY_INFLUXDB_FILTER_INCLUDE_METRICS = "metrics.influxdb.filter.include.metrics";
+    public static final String KEY_INFLUXDB_FILTER_EXCLUDE_METRICS = "metrics.influxdb.filter.exclude.metrics";
+    public static final String KEY_INFLUXDB_FILTER_INCLUDE_COMPONENTS = "metrics.influxdb.filter.include.components";
+    public static final String KEY_INFLUXDB_FILTER_EXCLUDE_COMPONENTS = "metrics.influxdb.filter.exclude.components";
+    public static final String KEY_INFLUXDB_ROLLUP_ENABLE = "metrics.influxdb.rollup.enable";
+    public static final String KEY_INFLUXDB_ROLLUP_WINDOW_SECS = "metrics.influxdb.rollup.window.secs";
+    public static final String KEY_INFLUXDB_ROLLUP_RAW_SAMPLE_EVERY = "metrics.influxdb.rollup.raw.sample.every";
+    public static final String KEY_INFLUXDB_DELTA_ENABLE = "metrics.influxdb.delta.enable";
+    public static final String KEY_INFLUXDB_DELTA_SUPPRESS_ZERO = "metrics.influxdb.delta.suppress.zero";
+    public static final String KEY_INFLUXDB_DELTA_HEARTBEAT_INTERVALS = "metrics.influxdb.delta.heartbeat.intervals";
+    public static final String KEY_INFLUXDB_DELTA_MAX_SERIES = "metrics.influxdb.delta.max.series";
+    public static final String KEY_INFLUXDB_CARDINALITY_LIMIT_ENABLE = "metrics.influxdb.cardinality.limit.enable";
+    public static final String KEY_INFLUXDB_CARDINALITY_MAX_SERIES = "metrics.influxdb.cardinality.max.series";
+    public static final String KEY_INFLUXDB_CARDINALITY_MAX_SERIES_PER_MEASUREMENT = "metrics.influxdb.cardinality.max.series.per.measurement";
+    public static final String KEY_INFLUXDB_CARDINALITY_OVERFLOW_ACTION = "metrics.influxdb.cardinality.overflow.action";
+    public static final String KEY_INFLUXDB_CARDINALITY_TOP_K = "metrics.influxdb.cardinality.top.k";
+    public static final String KEY_INFLUXDB_CARDINALITY_IDLE_MS = "metrics.influxdb.cardinality.idle.ms";
+    public static final String KEY_INFLUXDB_LATENCY_SKETCH_ENABLE = "metrics.influxdb.latency.sketch.enable";
+    public static final String KEY_INFLUXDB_LATENCY_SKETCH_METRICS = "metrics.influxdb.latency.sketch.metrics";
+    public static final String KEY_INFLUXDB_LATENCY_SKETCH_WINDOW_SECS = "metrics.influxdb.latency.sketch.window.secs";
+    public static final String KEY_INFLUXDB_LATENCY_SKETCH_KEEP_RAW = "metrics.influxdb.latency.sketch.keep.raw";
 
     // Default config values for non requires
     public static final String DEFAULT_INFLUXDB_URL = "http://localhost:8089";
@@ -27,33 +116,493 @@ class InfluxDBSender {
     public static final String DEFAULT_INFLUXDB_PASSWORD = ""; //empty
     public static final String DEFAULT_INFLUXDB_DATABASE = "apache-storm-metrics";
     public static final String DEFAULT_INFLUXDB_MEASUREMENT_PREFIX = "storm-";
+    public static final String DEFAULT_INFLUXDB_FORMAT = "line_protocol";
+    public static final String DEFAULT_INFLUXDB_ORG = ""; //empty
+    public static final String DEFAULT_INFLUXDB_BUCKET = ""; //empty, the database name
+    public static final String DEFAULT_INFLUXDB_TOKEN = ""; //empty
     public static final Boolean DEFAULT_INFLUXDB_ENABLE_GZIP = true;
+    public static final String DEFAULT_INFLUXDB_COMPRESSION = "gzip";
+    public static final Integer DEFAULT_INFLUXDB_COMPRESSION_LEVEL = Compressor.DEFAULT_LEVEL;
+    public static final Integer DEFAULT_INFLUXDB_COMPRESSION_MIN_BYTES = 1024;
+    public static final Integer DEFAULT_INFLUXDB_CONNECTION_POOL_MAX_IDLE = 5;
+    public static final Long DEFAULT_INFLUXDB_CONNECTION_KEEP_ALIVE_MS = 300000L;
+    public static final Long DEFAULT_INFLUXDB_HEALTH_CHECK_INTERVAL_MS = 10000L;
+    public static final Long DEFAULT_INFLUXDB_RECONNECT_BACKOFF_INITIAL_MS = 1000L;
+    public static final Long DEFAULT_INFLUXDB_RECONNECT_BACKOFF_MAX_MS = 60000L;
+    public static final Boolean DEFAULT_INFLUXDB_SPILL_ENABLE = false;
+    public static final String DEFAULT_INFLUXDB_SPILL_DIRECTORY = System.getProperty("java.io.tmpdir") + File.separator + "storm-metrics-influxdb-spill";
+    public static final Integer DEFAULT_INFLUXDB_SPILL_SEGMENT_SIZE_BYTES = 16 * 1024 * 1024;
+    public static final Long DEFAULT_INFLUXDB_SPILL_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+    public static final Long DEFAULT_INFLUXDB_SPILL_REPLAY_INTERVAL_MS = 1000L;
+    public static final Boolean DEFAULT_INFLUXDB_ASYNC_ENABLE = false;
+    public static final Integer DEFAULT_INFLUXDB_ASYNC_QUEUE_CAPACITY = 1000;
+    public static final Integer DEFAULT_INFLUXDB_ASYNC_WRITER_THREADS = 1;
+    public static final Integer DEFAULT_INFLUXDB_ASYNC_BATCH_SIZE = 10;
+    public static final String DEFAULT_INFLUXDB_ASYNC_OVERFLOW_POLICY = "drop_oldest";
+    public static final Long DEFAULT_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS = 1000L;
+    public static final Boolean DEFAULT_INFLUXDB_ASYNC_OFFHEAP_ENABLE = false;
+    public static final Integer DEFAULT_INFLUXDB_ASYNC_OFFHEAP_CAPACITY_BYTES = 32 * 1024 * 1024;
+    public static final Integer DEFAULT_INFLUXDB_ENCODING_CACHE_SIZE = 10000;
+    public static final Long DEFAULT_INFLUXDB_ENCODING_CACHE_IDLE_MS = 600000L;
+    public static final Boolean DEFAULT_INFLUXDB_PARALLEL_ENCODING_ENABLE = false;
+    public static final Integer DEFAULT_INFLUXDB_PARALLEL_ENCODING_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final Integer DEFAULT_INFLUXDB_PARALLEL_ENCODING_MIN_POINTS = 10000;
+    public static final Boolean DEFAULT_INFLUXDB_WIDE_POINTS_ENABLE = false;
+    public static final Boolean DEFAULT_INFLUXDB_COMPACT_SCHEMA_ENABLE = false;
+    public static final String DEFAULT_INFLUXDB_TRANSPORT = "http";
+    public static final Integer DEFAULT_INFLUXDB_UDP_MTU = 1400;
+    public static final Integer DEFAULT_INFLUXDB_TCP_CONNECT_TIMEOUT_MS = 5000;
+    public static final Long DEFAULT_INFLUXDB_TCP_WRITE_TIMEOUT_MS = 10000L;
+    public static final Integer DEFAULT_INFLUXDB_RETRY_MAX_RETRIES = 2;
+    public static final Long DEFAULT_INFLUXDB_RETRY_BACKOFF_INITIAL_MS = 100L;
+    public static final Long DEFAULT_INFLUXDB_RETRY_BACKOFF_MAX_MS = 5000L;
+    public static final Integer DEFAULT_INFLUXDB_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final Long DEFAULT_INFLUXDB_CIRCUIT_BREAKER_OPEN_MS = 30000L;
+    public static final String DEFAULT_INFLUXDB_ROUTING_STRATEGY = "round_robin";
+    public static final Boolean DEFAULT_INFLUXDB_SHARED_ENABLE = false;
+    public static final Long DEFAULT_INFLUXDB_SHARED_LINGER_MS = 1000L;
+    public static final Boolean DEFAULT_INFLUXDB_BATCH_ENABLE = false;
+    public static final Integer DEFAULT_INFLUXDB_BATCH_MAX_POINTS = 5000;
+    public static final Integer DEFAULT_INFLUXDB_BATCH_MAX_BYTES = 1024 * 1024;
+    public static final Long DEFAULT_INFLUXDB_BATCH_LINGER_MS = 10000L;
+    public static final Boolean DEFAULT_INFLUXDB_BATCH_ADAPTIVE_ENABLE = false;
+    public static final Long DEFAULT_INFLUXDB_BATCH_ADAPTIVE_TARGET_DELAY_MS = 10000L;
+    public static final Integer DEFAULT_INFLUXDB_BATCH_ADAPTIVE_MIN_POINTS = 100;
+    public static final Integer DEFAULT_INFLUXDB_FLATTEN_MAX_DEPTH = 3;
+    public static final Integer DEFAULT_INFLUXDB_FLATTEN_NAME_CACHE_SIZE = 10000;
+    public static final String DEFAULT_INFLUXDB_FILTER_PATTERNS = "";
+    public static final Boolean DEFAULT_INFLUXDB_ROLLUP_ENABLE = false;
+    public static final Integer DEFAULT_INFLUXDB_ROLLUP_WINDOW_SECS = 60;
+    public static final Integer DEFAULT_INFLUXDB_ROLLUP_RAW_SAMPLE_EVERY = 0;
+    public static final Boolean DEFAULT_INFLUXDB_DELTA_ENABLE = false;
+    public static final Boolean DEFAULT_INFLUXDB_DELTA_SUPPRESS_ZERO = true;
+    public static final Integer DEFAULT_INFLUXDB_DELTA_HEARTBEAT_INTERVALS = 10;
+    public static final Integer DEFAULT_INFLUXDB_DELTA_MAX_SERIES = 65536;
+    public static final Boolean DEFAULT_INFLUXDB_CARDINALITY_LIMIT_ENABLE = false;
+    public static final Integer DEFAULT_INFLUXDB_CARDINALITY_MAX_SERIES = 50000;
+    public static final Integer DEFAULT_INFLUXDB_CARDINALITY_MAX_SERIES_PER_MEASUREMENT = 1000;
+    public static final String DEFAULT_INFLUXDB_CARDINALITY_OVERFLOW_ACTION = "collapse";
+    public static final Integer DEFAULT_INFLUXDB_CARDINALITY_TOP_K = 10;
+    public static final Long DEFAULT_INFLUXDB_CARDINALITY_IDLE_MS = 3600000L;
+    public static final Boolean DEFAULT_INFLUXDB_LATENCY_SKETCH_ENABLE = false;
+    public static final String DEFAULT_INFLUXDB_LATENCY_SKETCH_METRICS = "__execute-latency,__process-latency,__complete-latency";
+    public static final Integer DEFAULT_INFLUXDB_LATENCY_SKETCH_WINDOW_SECS = 60;
+    public static final Boolean DEFAULT_INFLUXDB_LATENCY_SKETCH_KEEP_RAW = false;
 
-    private InfluxDB influxDB;
-    private BatchPoints batchPoints;
+    // Set by InfluxDBMetricsConsumer, used to give every consumer task its own spill directory
+    static final String KEY_CONSUMER_TASK_ID = "metrics.influxdb.consumer.task.id";
+
+    private static final long ASYNC_STOP_TIMEOUT_MS = 5000;
+    private static final int ENCODER_INITIAL_CAPACITY = 64 * 1024;
+    private static final long MAX_BATCH_FLUSH_CHECK_INTERVAL_MS = 1000;
+    private static final int DEFAULT_UDP_PORT = 8089;
+    private static final int DEFAULT_TCP_PORT = 8094;
+    private static final int DEFAULT_GRAPHITE_PORT = 2003;
+
+    private volatile InfluxDB influxDB;
+    private volatile Transport transport;
+    private Transport.Type transportType;
+    private int udpMtu;
+    private int tcpConnectTimeoutMs;
+    private long tcpWriteTimeoutMs;
+    private int retryMaxRetries;
+    private long retryBackoffInitialMs;
+    private long retryBackoffMaxMs;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenMs;
+    private CircuitBreaker circuitBreaker;
+    private final WriteStats writeStats = new WriteStats();
+    private volatile ConsumerStats consumerStats = new ConsumerStats();
+    private volatile ConnectionPool connectionPool;
+    private MetricEncoder.Format format;
+    private MetricEncoder encoder;
+    private ParallelEncoder parallelEncoder;
+    private int encodingCacheSize;
+    private long encodingCacheIdleMs;
+    private WidePointAggregator widePointAggregator;
+    private boolean compactSchema;
+    private long timestamp = 0;
+
+    // Cross-tick batching, the encoder is shared with the batch flusher thread and guarded by its monitor
+    private boolean batchEnabled;
+    private int batchMaxPoints;
+    private int batchMaxBytes;
+    private long batchLingerMs;
+    private long batchStartTime = 0;
+    private FlushScheduler flushScheduler;
+    private ScheduledExecutorService batchFlusher;
     private String influxdbUrl;
     private String influxdbUsername;
     private String influxdbPassword;
     private String influxdbDatabase;
     private String influxdbMeasurementPrefix;
+    private String influxdbOrg;
+    private String influxdbBucket;
+    private String influxdbToken;
     private Boolean influxdbEnableGzip;
+    private Compressor compressor;
+    private int compressionMinBytes;
+    private int connectionPoolMaxIdle;
+    private long connectionKeepAliveMs;
+    private long reconnectBackoffInitialMs;
+    private long reconnectBackoffMaxMs;
+    private AsyncWriter<EncodedBatch> asyncWriter;
+    private OffHeapWriter offHeapWriter;
+    private EndpointRouter endpointRouter;
+
+    // Writer shared with the other consumers of the worker, null when this sender writes itself
+    private SharedWriter sharedWriter;
+    private ScheduledExecutorService healthChecker;
+    private volatile SpillQueue spillQueue;
+    private ScheduledExecutorService spillReplayer;
+
+    // Health state, only modified by the health checker thread
+    private volatile boolean healthy = true;
+    private int consecutiveFailures = 0;
+    private long nextReconnectTime = 0;
 
     // Flags
-    private boolean databaseWasCreated = false;
-    private Map<String, Object> fields;
-    private Map<String, String> tags;
+    private volatile boolean databaseWasCreated = false;
+
+    // Reused by the writer threads to merge the queued batches into one request
+    private final ThreadLocal<LineBuffer> mergeBuffer = ThreadLocal.withInitial(() -> new LineBuffer(ENCODER_INITIAL_CAPACITY));
 
     public InfluxDBSender(Map<Object, Object> config) {
 
         LOG.debug("{}: config = {}", this.getClass().getSimpleName(), config.toString());
 
-        this.influxdbUrl = (String) getKeyValueOrDefaultValue(config, KEY_INFLUXDB_URL, DEFAULT_INFLUXDB_URL);
+        final List<String> influxdbUrls = parseUrls(getKeyValueOrDefaultValue(config, KEY_INFLUXDB_URL, DEFAULT_INFLUXDB_URL));
+        if (influxdbUrls.size() > 1) {
+            // the endpoints queue their batches on the heap and drop the ones they fail to write
+            this.rejectWithSeveralUrls(config, KEY_INFLUXDB_SPILL_ENABLE, DEFAULT_INFLUXDB_SPILL_ENABLE);
+            this.rejectWithSeveralUrls(config, KEY_INFLUXDB_ASYNC_OFFHEAP_ENABLE, DEFAULT_INFLUXDB_ASYNC_OFFHEAP_ENABLE);
+        }
+        this.influxdbUrl = influxdbUrls.get(0);
         this.influxdbUsername = (String) getKeyValueOrDefaultValue(config, KEY_INFLUXDB_USERNAME, DEFAULT_INFLUXDB_USERNAME);
         this.influxdbPassword = (String) getKeyValueOrDefaultValue(config, KEY_INFLUXDB_PASSWORD, DEFAULT_INFLUXDB_PASSWORD);
         this.influxdbDatabase = (String) getKeyValueOrDefaultValue(config, KEY_INFLUXDB_DATABASE, DEFAULT_INFLUXDB_DATABASE);
         this.influxdbMeasurementPrefix = (String) getKeyValueOrDefaultValue(config, KEY_INFLUXDB_MEASUREMENT_PREFIX, DEFAULT_INFLUXDB_MEASUREMENT_PREFIX);
         this.influxdbEnableGzip = (Boolean) getKeyValueOrDefaultValue(config, KEY_INFLUXDB_ENABLE_GZIP, DEFAULT_INFLUXDB_ENABLE_GZIP);
-        this.prepareConnection();
+        this.compressor = this.makeCompressor(
+                Compressor.Codec.fromString(getKeyValueOrDefaultValue(config, KEY_INFLUXDB_COMPRESSION, DEFAULT_INFLUXDB_COMPRESSION).toString()),
+                getIntegerValue(config, KEY_INFLUXDB_COMPRESSION_LEVEL, DEFAULT_INFLUXDB_COMPRESSION_LEVEL));
+        this.compressionMinBytes = getIntegerValue(config, KEY_INFLUXDB_COMPRESSION_MIN_BYTES, DEFAULT_INFLUXDB_COMPRESSION_MIN_BYTES);
+        this.connectionPoolMaxIdle = getIntegerValue(config, KEY_INFLUXDB_CONNECTION_POOL_MAX_IDLE, DEFAULT_INFLUXDB_CONNECTION_POOL_MAX_IDLE);
+        this.connectionKeepAliveMs = getLongValue(config, KEY_INFLUXDB_CONNECTION_KEEP_ALIVE_MS, DEFAULT_INFLUXDB_CONNECTION_KEEP_ALIVE_MS);
+        this.reconnectBackoffInitialMs = getLongValue(config, KEY_INFLUXDB_RECONNECT_BACKOFF_INITIAL_MS, DEFAULT_INFLUXDB_RECONNECT_BACKOFF_INITIAL_MS);
+        this.reconnectBackoffMaxMs = getLongValue(config, KEY_INFLUXDB_RECONNECT_BACKOFF_MAX_MS, DEFAULT_INFLUXDB_RECONNECT_BACKOFF_MAX_MS);
+        this.compactSchema = getBooleanValue(config, KEY_INFLUXDB_COMPACT_SCHEMA_ENABLE, DEFAULT_INFLUXDB_COMPACT_SCHEMA_ENABLE);
+        this.format = MetricEncoder.Format.fromString(getKeyValueOrDefaultValue(config, KEY_INFLUXDB_FORMAT, DEFAULT_INFLUXDB_FORMAT).toString());
+        this.influxdbOrg = getKeyValueOrDefaultValue(config, KEY_INFLUXDB_ORG, DEFAULT_INFLUXDB_ORG).toString();
+        this.influxdbBucket = getKeyValueOrDefaultValue(config, KEY_INFLUXDB_BUCKET, DEFAULT_INFLUXDB_BUCKET).toString();
+        this.influxdbToken = getKeyValueOrDefaultValue(config, KEY_INFLUXDB_TOKEN, DEFAULT_INFLUXDB_TOKEN).toString();
+        this.encodingCacheSize = getIntegerValue(config, KEY_INFLUXDB_ENCODING_CACHE_SIZE, DEFAULT_INFLUXDB_ENCODING_CACHE_SIZE);
+        this.encodingCacheIdleMs = getLongValue(config, KEY_INFLUXDB_ENCODING_CACHE_IDLE_MS, DEFAULT_INFLUXDB_ENCODING_CACHE_IDLE_MS);
+        this.transportType = Transport.Type.fromString(getKeyValueOrDefaultValue(config, KEY_INFLUXDB_TRANSPORT, DEFAULT_INFLUXDB_TRANSPORT).toString());
+        if (this.format == MetricEncoder.Format.GRAPHITE && this.transportType == Transport.Type.HTTP) {
+            LOG.warn("{}: Graphite plaintext protocol can not be sent over HTTP, using the TCP transport", this.getClass().getSimpleName());
+            this.transportType = Transport.Type.TCP;
+        }
+        this.encoder = this.makeEncoder();
+        if (getBooleanValue(config, KEY_INFLUXDB_WIDE_POINTS_ENABLE, DEFAULT_INFLUXDB_WIDE_POINTS_ENABLE)) {
+            this.widePointAggregator = new WidePointAggregator(
+                    WidePointAggregator.parseTagRules(config.get(KEY_INFLUXDB_WIDE_POINTS_TAG_RULES)));
+        }
+        if (getBooleanValue(config, KEY_INFLUXDB_PARALLEL_ENCODING_ENABLE, DEFAULT_INFLUXDB_PARALLEL_ENCODING_ENABLE)) {
+            final int threads = getIntegerValue(config, KEY_INFLUXDB_PARALLEL_ENCODING_THREADS, DEFAULT_INFLUXDB_PARALLEL_ENCODING_THREADS);
+            if (this.widePointAggregator != null) {
+                LOG.warn("{}: Parallel encoding is not available in wide points mode, it is disabled", this.getClass().getSimpleName());
+            } else if (threads > 1) {
+                this.parallelEncoder = new ParallelEncoder(this::makeEncoder, threads,
+                        getIntegerValue(config, KEY_INFLUXDB_PARALLEL_ENCODING_MIN_POINTS, DEFAULT_INFLUXDB_PARALLEL_ENCODING_MIN_POINTS));
+            }
+        }
+        this.udpMtu = getIntegerValue(config, KEY_INFLUXDB_UDP_MTU, DEFAULT_INFLUXDB_UDP_MTU);
+        this.tcpConnectTimeoutMs = getIntegerValue(config, KEY_INFLUXDB_TCP_CONNECT_TIMEOUT_MS, DEFAULT_INFLUXDB_TCP_CONNECT_TIMEOUT_MS);
+        this.tcpWriteTimeoutMs = getLongValue(config, KEY_INFLUXDB_TCP_WRITE_TIMEOUT_MS, DEFAULT_INFLUXDB_TCP_WRITE_TIMEOUT_MS);
+        this.retryMaxRetries = getIntegerValue(config, KEY_INFLUXDB_RETRY_MAX_RETRIES, DEFAULT_INFLUXDB_RETRY_MAX_RETRIES);
+        this.retryBackoffInitialMs = getLongValue(config, KEY_INFLUXDB_RETRY_BACKOFF_INITIAL_MS, DEFAULT_INFLUXDB_RETRY_BACKOFF_INITIAL_MS);
+        this.retryBackoffMaxMs = getLongValue(config, KEY_INFLUXDB_RETRY_BACKOFF_MAX_MS, DEFAULT_INFLUXDB_RETRY_BACKOFF_MAX_MS);
+        this.circuitBreakerFailureThreshold = getIntegerValue(config, KEY_INFLUXDB_CIRCUIT_BREAKER_FAILURE_THRESHOLD, DEFAULT_INFLUXDB_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+        this.circuitBreakerOpenMs = getLongValue(config, KEY_INFLUXDB_CIRCUIT_BREAKER_OPEN_MS, DEFAULT_INFLUXDB_CIRCUIT_BREAKER_OPEN_MS);
+        this.circuitBreaker = this.makeCircuitBreaker(influxdbUrls.get(0));
+        this.batchEnabled = getBooleanValue(config, KEY_INFLUXDB_BATCH_ENABLE, DEFAULT_INFLUXDB_BATCH_ENABLE);
+        this.batchMaxPoints = getIntegerValue(config, KEY_INFLUXDB_BATCH_MAX_POINTS, DEFAULT_INFLUXDB_BATCH_MAX_POINTS);
+        this.batchMaxBytes = getIntegerValue(config, KEY_INFLUXDB_BATCH_MAX_BYTES, DEFAULT_INFLUXDB_BATCH_MAX_BYTES);
+        this.batchLingerMs = getLongValue(config, KEY_INFLUXDB_BATCH_LINGER_MS, DEFAULT_INFLUXDB_BATCH_LINGER_MS);
+
+        if (getBooleanValue(config, KEY_INFLUXDB_SHARED_ENABLE, DEFAULT_INFLUXDB_SHARED_ENABLE)) {
+            // every tick goes to the shared writer, which batches the points of all the consumers, its own sender
+            // is made from the same config and runs the health check, spill queue and async writer
+            this.batchEnabled = false;
+            this.sharedWriter = SharedWriter.acquire(config);
+            return;
+        }
+
+        if (getBooleanValue(config, KEY_INFLUXDB_BATCH_ADAPTIVE_ENABLE, DEFAULT_INFLUXDB_BATCH_ADAPTIVE_ENABLE)) {
+            // batch size and flush interval follow the write latency, bounded by the max points and the target delay
+            this.batchEnabled = true;
+            this.flushScheduler = new FlushScheduler(
+                    getIntegerValue(config, KEY_INFLUXDB_BATCH_ADAPTIVE_MIN_POINTS, DEFAULT_INFLUXDB_BATCH_ADAPTIVE_MIN_POINTS),
+                    this.batchMaxPoints,
+                    getLongValue(config, KEY_INFLUXDB_BATCH_ADAPTIVE_TARGET_DELAY_MS, DEFAULT_INFLUXDB_BATCH_ADAPTIVE_TARGET_DELAY_MS),
+                    this::getQueuedBatches);
+            this.writeStats.setListener(this.flushScheduler);
+        }
+
+        if (influxdbUrls.size() == 1) {
+            // with several urls every endpoint has its own transport, the writes never go through this one
+            this.prepareConnection();
+        }
+
+        if (this.flushScheduler != null || (this.batchEnabled && this.batchLingerMs > 0)) {
+            long checkIntervalMs = (this.flushScheduler != null)
+                    ? FlushScheduler.MIN_FLUSH_INTERVAL_MS
+                    : Math.min(this.batchLingerMs, MAX_BATCH_FLUSH_CHECK_INTERVAL_MS);
+            this.batchFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "influxdb-batch-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.batchFlusher.scheduleWithFixedDelay(this::flushLingeringPoints, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        if (influxdbUrls.size() > 1) {
+            this.endpointRouter = this.makeEndpointRouter(config, influxdbUrls);
+            this.endpointRouter.start();
+
+            // every endpoint has its own writer threads, and its circuit breaker stands for the health check
+            return;
+        }
+
+        long healthCheckIntervalMs = getLongValue(config, KEY_INFLUXDB_HEALTH_CHECK_INTERVAL_MS, DEFAULT_INFLUXDB_HEALTH_CHECK_INTERVAL_MS);
+        if (healthCheckIntervalMs > 0 && this.transportType == Transport.Type.HTTP) {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "influxdb-health-checker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        if (getBooleanValue(config, KEY_INFLUXDB_SPILL_ENABLE, DEFAULT_INFLUXDB_SPILL_ENABLE)) {
+            File spillDirectory = new File(
+                    getKeyValueOrDefaultValue(config, KEY_INFLUXDB_SPILL_DIRECTORY, DEFAULT_INFLUXDB_SPILL_DIRECTORY).toString(),
+                    config.getOrDefault(Config.TOPOLOGY_NAME, "topology") + "-" + config.getOrDefault(KEY_CONSUMER_TASK_ID, 0)
+            );
+            try {
+                this.spillQueue = new SpillQueue(
+                        spillDirectory,
+                        getIntegerValue(config, KEY_INFLUXDB_SPILL_SEGMENT_SIZE_BYTES, DEFAULT_INFLUXDB_SPILL_SEGMENT_SIZE_BYTES),
+                        getLongValue(config, KEY_INFLUXDB_SPILL_MAX_SIZE_BYTES, DEFAULT_INFLUXDB_SPILL_MAX_SIZE_BYTES)
+                );
+
+                long replayIntervalMs = getLongValue(config, KEY_INFLUXDB_SPILL_REPLAY_INTERVAL_MS, DEFAULT_INFLUXDB_SPILL_REPLAY_INTERVAL_MS);
+                this.spillReplayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "influxdb-spill-replayer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                this.spillReplayer.scheduleWithFixedDelay(this::replaySpilledPoints, replayIntervalMs, replayIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                LOG.error("{}: Unable to open spill directory {}, spilling is disabled. Exception = {}", this.getClass().getSimpleName(), spillDirectory, e);
+            }
+        }
+
+        if (getBooleanValue(config, KEY_INFLUXDB_ASYNC_ENABLE, DEFAULT_INFLUXDB_ASYNC_ENABLE)
+                && getBooleanValue(config, KEY_INFLUXDB_ASYNC_OFFHEAP_ENABLE, DEFAULT_INFLUXDB_ASYNC_OFFHEAP_ENABLE)) {
+            // the queued batches are kept in direct memory, out of the reach of the garbage collector
+            this.offHeapWriter = new OffHeapWriter(
+                    "influxdb-offheap-writer",
+                    this::writeRecords,
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_OFFHEAP_CAPACITY_BYTES, DEFAULT_INFLUXDB_ASYNC_OFFHEAP_CAPACITY_BYTES),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_WRITER_THREADS, DEFAULT_INFLUXDB_ASYNC_WRITER_THREADS),
+                    AsyncWriter.OverflowPolicy.fromString(
+                            getKeyValueOrDefaultValue(config, KEY_INFLUXDB_ASYNC_OVERFLOW_POLICY, DEFAULT_INFLUXDB_ASYNC_OVERFLOW_POLICY).toString()),
+                    getLongValue(config, KEY_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS, DEFAULT_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_BATCH_SIZE, DEFAULT_INFLUXDB_ASYNC_BATCH_SIZE)
+            );
+            this.offHeapWriter.setOverflowListener(this::queueOverflowed);
+            this.offHeapWriter.start();
+        } else if (getBooleanValue(config, KEY_INFLUXDB_ASYNC_ENABLE, DEFAULT_INFLUXDB_ASYNC_ENABLE)) {
+            this.asyncWriter = new AsyncWriter<>(
+                    this::writeBatches,
+                    EncodedBatch::getPoints,
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_QUEUE_CAPACITY, DEFAULT_INFLUXDB_ASYNC_QUEUE_CAPACITY),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_WRITER_THREADS, DEFAULT_INFLUXDB_ASYNC_WRITER_THREADS),
+                    AsyncWriter.OverflowPolicy.fromString(
+                            getKeyValueOrDefaultValue(config, KEY_INFLUXDB_ASYNC_OVERFLOW_POLICY, DEFAULT_INFLUXDB_ASYNC_OVERFLOW_POLICY).toString()),
+                    getLongValue(config, KEY_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS, DEFAULT_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_BATCH_SIZE, DEFAULT_INFLUXDB_ASYNC_BATCH_SIZE)
+            );
+            this.asyncWriter.setOverflowListener(this::queueOverflowed);
+            this.asyncWriter.start();
+        }
+    }
+
+    /**
+     * Fail on a feature that is only available with a single InfluxDB url
+     *
+     * @param config       sender configuration
+     * @param key          key of the feature
+     * @param defaultValue default value of the feature
+     */
+    private void rejectWithSeveralUrls(Map<Object, Object> config, String key, Boolean defaultValue) {
+        if (getBooleanValue(config, key, defaultValue)) {
+            throw new IllegalArgumentException(key + " is only available with a single InfluxDB url, disable it or set one url in " + KEY_INFLUXDB_URL);
+        }
+    }
+
+    /**
+     * Endpoints of a multi-endpoint configuration, every one with its own queue and writer threads
+     * sized by the async parameters
+     *
+     * @param config sender configuration
+     * @param urls   InfluxDB servers urls
+     * @return router, not started
+     */
+    private EndpointRouter makeEndpointRouter(Map<Object, Object> config, List<String> urls) {
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(this.connectionPoolMaxIdle * urls.size(), this.connectionKeepAliveMs, TimeUnit.MILLISECONDS))
+                .build();
+
+        final List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            final Endpoint endpoint = new Endpoint(
+                    i,
+                    urls.get(i),
+                    this.makeTransport(urls.get(i), client, this.makeCircuitBreaker(urls.get(i))),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_QUEUE_CAPACITY, DEFAULT_INFLUXDB_ASYNC_QUEUE_CAPACITY),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_WRITER_THREADS, DEFAULT_INFLUXDB_ASYNC_WRITER_THREADS),
+                    AsyncWriter.OverflowPolicy.fromString(
+                            getKeyValueOrDefaultValue(config, KEY_INFLUXDB_ASYNC_OVERFLOW_POLICY, DEFAULT_INFLUXDB_ASYNC_OVERFLOW_POLICY).toString()),
+                    getLongValue(config, KEY_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS, DEFAULT_INFLUXDB_ASYNC_BLOCK_TIMEOUT_MS),
+                    getIntegerValue(config, KEY_INFLUXDB_ASYNC_BATCH_SIZE, DEFAULT_INFLUXDB_ASYNC_BATCH_SIZE)
+            );
+            endpoint.getWriter().setOverflowListener(this::queueOverflowed);
+            endpoints.add(endpoint);
+        }
+
+        LOG.info("{}: Writing to {} InfluxDB endpoints: {}", this.getClass().getSimpleName(), urls.size(), urls);
+
+        return new EndpointRouter(endpoints, EndpointRouter.RoutingStrategy.fromString(
+                getKeyValueOrDefaultValue(config, KEY_INFLUXDB_ROUTING_STRATEGY, DEFAULT_INFLUXDB_ROUTING_STRATEGY).toString()));
+    }
+
+    /**
+     * Compressor of the HTTP request bodies, shared by all the transports.
+     * {@code metrics.influxdb.enable.gzip} set to false disables the compression whatever the codec.
+     *
+     * @param codec codec selected by the configuration
+     * @param level compression level
+     * @return compressor, null when the bodies are sent as they are
+     */
+    private Compressor makeCompressor(Compressor.Codec codec, int level) {
+        if (!this.influxdbEnableGzip) {
+            return null;
+        }
+
+        switch (codec) {
+            case NONE:
+                return null;
+            case ZSTD:
+                if (ZstdCompressor.isAvailable()) {
+                    return new ZstdCompressor(level);
+                }
+                LOG.warn("{}: zstd-jni is not available, compressing with gzip instead", this.getClass().getSimpleName());
+                return new GzipCompressor(level);
+            case GZIP:
+            default:
+                return new GzipCompressor(level);
+        }
+    }
+
+    /**
+     * Encoder of the wire format selected by the configuration
+     *
+     * @return encoder, empty
+     */
+    private MetricEncoder makeEncoder() {
+        switch (this.format) {
+            case GRAPHITE:
+                return new GraphiteEncoder(this.influxdbMeasurementPrefix, ENCODER_INITIAL_CAPACITY, this.encodingCacheSize, this.encodingCacheIdleMs);
+            case INFLUXDB2:
+            case LINE_PROTOCOL:
+            default:
+                // the UDP and TCP listeners of InfluxDB and Telegraf read nanoseconds unless configured otherwise
+                return new LineProtocolEncoder(this.influxdbMeasurementPrefix, ENCODER_INITIAL_CAPACITY, this.compactSchema,
+                        this.encodingCacheSize, this.encodingCacheIdleMs,
+                        (this.transportType == Transport.Type.HTTP) ? TimeUnit.MILLISECONDS : TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Transport selected by the configuration, retrying the failed writes behind the circuit breaker of the server
+     *
+     * @param url            InfluxDB server url, {@code host:port} is enough for UDP and TCP
+     * @param client         HTTP client, only used by the HTTP transport
+     * @param circuitBreaker circuit breaker of the server, it outlives the transport on reconnections
+     * @return transport, connected on its first write
+     */
+    Transport makeTransport(String url, OkHttpClient client, CircuitBreaker circuitBreaker) {
+        final Transport transport;
+
+        switch (this.transportType) {
+            case UDP:
+            case TCP:
+                final URI uri = URI.create(url.contains("://") ? url : "//" + url);
+                final boolean graphite = this.format == MetricEncoder.Format.GRAPHITE;
+                if (this.transportType == Transport.Type.UDP) {
+                    transport = new UdpTransport(uri.getHost(), (uri.getPort() > 0) ? uri.getPort() : (graphite ? DEFAULT_GRAPHITE_PORT : DEFAULT_UDP_PORT), this.udpMtu);
+                } else {
+                    transport = new TcpTransport(uri.getHost(), (uri.getPort() > 0) ? uri.getPort() : (graphite ? DEFAULT_GRAPHITE_PORT : DEFAULT_TCP_PORT),
+                            this.tcpConnectTimeoutMs, this.tcpWriteTimeoutMs);
+                }
+                break;
+            case HTTP:
+            default:
+                if (this.format == MetricEncoder.Format.INFLUXDB2) {
+                    transport = HttpTransport.influxDB2(client, url, this.influxdbOrg,
+                            this.influxdbBucket.isEmpty() ? this.influxdbDatabase : this.influxdbBucket, this.influxdbToken,
+                            this.compressor, this.compressionMinBytes);
+                } else {
+                    transport = HttpTransport.influxDB1(client, url, this.influxdbDatabase, this.influxdbUsername, this.influxdbPassword,
+                            this.compressor, this.compressionMinBytes);
+                }
+                break;
+        }
+        return new RetryingTransport(transport, circuitBreaker, this.writeStats, this.retryMaxRetries, this.retryBackoffInitialMs, this.retryBackoffMaxMs);
+    }
+
+    private CircuitBreaker makeCircuitBreaker(String url) {
+        final CircuitBreaker breaker = new CircuitBreaker(url, this.circuitBreakerFailureThreshold, this.circuitBreakerOpenMs);
+        this.writeStats.register(breaker);
+        return breaker;
+    }
+
+    /**
+     * InfluxDB servers urls, given as a list or as a comma separated string
+     *
+     * @param value url parameter value
+     * @return urls, at least one
+     */
+    static List<String> parseUrls(Object value) {
+        final List<String> urls = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object url : (Collection<?>) value) {
+                urls.add(url.toString().trim());
+            }
+        } else {
+            for (String url : value.toString().split(",")) {
+                if (!url.trim().isEmpty()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(DEFAULT_INFLUXDB_URL);
+        }
+        return urls;
     }
 
     /**
@@ -73,181 +622,802 @@ class InfluxDBSender {
         }
     }
 
+    private Integer getIntegerValue(Map<Object, Object> objects, String key, Integer defaultValue) {
+        Object value = getKeyValueOrDefaultValue(objects, key, defaultValue);
+        return (value instanceof Number) ? ((Number) value).intValue() : Integer.valueOf(value.toString().trim());
+    }
+
+    private Long getLongValue(Map<Object, Object> objects, String key, Long defaultValue) {
+        Object value = getKeyValueOrDefaultValue(objects, key, defaultValue);
+        return (value instanceof Number) ? ((Number) value).longValue() : Long.valueOf(value.toString().trim());
+    }
+
+    private Boolean getBooleanValue(Map<Object, Object> objects, String key, Boolean defaultValue) {
+        Object value = getKeyValueOrDefaultValue(objects, key, defaultValue);
+        return (value instanceof Boolean) ? (Boolean) value : Boolean.valueOf(value.toString().trim());
+    }
+
     /**
-     * Prepare connection pool to InfluxDB server
+     * Prepare connection pool to InfluxDB server.
+     * <p>
+     * The client and its keep-alive connection pool are shared by all the metrics ticks,
+     * they are only replaced by {@link #checkHealth()} when the server is unhealthy.
+     * The InfluxDB client, used for ping and to create the database, is only created for the HTTP transport.
+     * </p>
      */
-    public void prepareConnection() {
-        if (influxDB == null) {
-            LOG.debug("{}: Preparing connection to InfluxDB: [ url='{}', username='{}', password='{}' ]",
+    public synchronized void prepareConnection() {
+        if (this.transport == null) {
+            this.openConnection();
+        } else {
+            LOG.debug("{}: InfluxDB connection was available: [ url='{}', username='{}', password='{}' ]",
                     this.getClass().getSimpleName(),
                     this.influxdbUrl,
                     this.influxdbUsername,
                     this.influxdbPassword
             );
+        }
+    }
+
+    /**
+     * Build a new transport, InfluxDB client and connection pool, and publish them in place of the current ones
+     */
+    private void openConnection() {
+        LOG.debug("{}: Preparing connection to InfluxDB: [ url='{}', username='{}', password='{}' ]",
+                this.getClass().getSimpleName(),
+                this.influxdbUrl,
+                this.influxdbUsername,
+                this.influxdbPassword
+        );
+
+        if (this.transportType != Transport.Type.HTTP) {
+            this.transport = this.makeTransport(this.influxdbUrl, null, this.circuitBreaker);
+            return;
+        }
+
+        // influxdb-java adds its own interceptors to the builder, so the write path gets its own one sharing the pool
+        final ConnectionPool pool = new ConnectionPool(this.connectionPoolMaxIdle, this.connectionKeepAliveMs, TimeUnit.MILLISECONDS);
+        OkHttpClient.Builder client = new OkHttpClient.Builder().connectionPool(pool);
+        final Transport httpTransport = this.makeTransport(this.influxdbUrl, new OkHttpClient.Builder().connectionPool(pool).build(), this.circuitBreaker);
 
-            if (this.influxdbUsername.isEmpty() && this.influxdbPassword.isEmpty()) {
-                this.influxDB = InfluxDBFactory.connect(this.influxdbUrl);
-            } else {
-                this.influxDB = InfluxDBFactory.connect(this.influxdbUrl, this.influxdbUsername, this.influxdbPassword);
+        InfluxDB connection;
+        if (this.influxdbUsername.isEmpty() && this.influxdbPassword.isEmpty()) {
+            connection = InfluxDBFactory.connect(this.influxdbUrl, client);
+        } else {
+            connection = InfluxDBFactory.connect(this.influxdbUrl, this.influxdbUsername, this.influxdbPassword, client);
+        }
+
+        // additional connections options
+        if (this.influxdbEnableGzip) {
+            connection.enableGzip();
+        }
+        this.connectionPool = pool;
+        this.influxDB = connection;
+        this.transport = httpTransport;
+    }
+
+    /**
+     * Ping InfluxDB server and reconnect, with exponential backoff, when it is unhealthy
+     */
+    void checkHealth() {
+        final InfluxDB connection = this.influxDB;
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.ping();
+            if (!this.healthy) {
+                LOG.info("{}: InfluxDB server is healthy again: [ url='{}' ]", this.getClass().getSimpleName(), this.influxdbUrl);
             }
+            this.healthy = true;
+            this.consecutiveFailures = 0;
+            this.nextReconnectTime = 0;
+        } catch (Exception e) {
+            this.healthy = false;
+            this.consecutiveFailures += 1;
+
+            LOG.warn("{}: InfluxDB server is unhealthy, failed pings = {}. Exception = {}", this.getClass().getSimpleName(), this.consecutiveFailures, e.toString());
 
-            // additional connections options
-            if (this.influxdbEnableGzip) {
-                this.influxDB.enableGzip();
+            long now = System.currentTimeMillis();
+            if (now >= this.nextReconnectTime) {
+                this.reconnect();
+                long backoff = this.reconnectBackoffInitialMs << Math.min(this.consecutiveFailures - 1, 20);
+                this.nextReconnectTime = now + Math.min(backoff, this.reconnectBackoffMaxMs);
             }
-        } else {
-            LOG.debug("{}: InfluxDB connection was available: [ url='{}', username='{}', password='{}' ]",
-                    this.getClass().getSimpleName(),
-                    this.influxdbUrl,
-                    this.influxdbUsername,
-                    this.influxdbPassword
-            );
         }
     }
 
+    /**
+     * Replace the InfluxDB client and its connection pool by new ones.
+     * The new ones are published before the old ones are closed, so the writer threads never see a missing connection.
+     */
+    synchronized void reconnect() {
+
+        LOG.debug("{}: Reconnecting to InfluxDB: [ url='{}' ]", this.getClass().getSimpleName(), this.influxdbUrl);
+
+        final Transport oldTransport = this.transport;
+        final InfluxDB oldInfluxDB = this.influxDB;
+        final ConnectionPool oldConnectionPool = this.connectionPool;
+
+        this.databaseWasCreated = false;
+        this.openConnection();
+
+        closeConnection(oldTransport, oldInfluxDB, oldConnectionPool);
+    }
+
+    private synchronized void releaseConnection() {
+        final Transport oldTransport = this.transport;
+        final InfluxDB oldInfluxDB = this.influxDB;
+        final ConnectionPool oldConnectionPool = this.connectionPool;
+
+        this.transport = null;
+        this.influxDB = null;
+        this.connectionPool = null;
+
+        closeConnection(oldTransport, oldInfluxDB, oldConnectionPool);
+    }
+
+    private static void closeConnection(Transport transport, InfluxDB influxDB, ConnectionPool connectionPool) {
+        if (transport != null) {
+            transport.close();
+        }
+        if (influxDB != null) {
+            influxDB.close();
+        }
+        if (connectionPool != null) {
+            connectionPool.evictAll();
+        }
+    }
+
+    /**
+     * Last known health of InfluxDB server
+     *
+     * @return false when the last ping failed
+     */
+    boolean isHealthy() {
+        return this.healthy;
+    }
+
     /**
      * Create the database if not exist
      */
     void createDatabaseIfNotExists() {
         if (!this.databaseWasCreated) {
 
-            LOG.debug("{}: Creating database with name = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
+            // UDP and TCP listeners write to a database configured on their side, InfluxDB 2.x buckets are created by the user
+            if (this.transportType == Transport.Type.HTTP && this.format == MetricEncoder.Format.LINE_PROTOCOL) {
+
+                final InfluxDB connection = this.influxDB;
+                if (connection == null) {
+                    // closed, the write fails on the missing transport
+                    return;
+                }
 
-            this.influxDB.createDatabase(this.influxdbDatabase);
+                LOG.debug("{}: Creating database with name = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
+
+                connection.createDatabase(this.influxdbDatabase);
+            }
             this.databaseWasCreated = true;
         }
     }
 
     /**
-     * Create a BatchPoints
+     * Encode InfluxDB dataPoint to be send
+     *
+     * @param name  dataPoint name
+     * @param value dataPoint value
      */
-    void prepareBatchPoints() {
-        this.batchPoints = BatchPoints
-                .database(this.influxdbDatabase)
-                .retentionPolicy("autogen")
-                .consistency(InfluxDB.ConsistencyLevel.ALL)
-                .build();
+    public void prepareDataPoint(String name, Object value) {
+
+        final Object fieldValue = this.toFieldValue(name, value);
+        if (fieldValue == null) {
+            return;
+        }
+
+        if (this.widePointAggregator != null) {
+            this.widePointAggregator.add(name, fieldValue);
+            return;
+        }
+
+        final long timestamp = this.getTimestamp();
+
+        synchronized (this.encoder) {
+            encodeValue(this.encoder, name, fieldValue, timestamp);
+        }
     }
 
     /**
-     * Prepare InfluxDB dataPoint to be send
+     * Encode the values of a task, on the encoding threads when parallel encoding is enabled and
+     * there are more values than its threshold
      *
-     * @param name  dataPoint name
-     * @param value dataPoint value
+     * @param names  dataPoint names
+     * @param values dataPoint values, as many as names
      */
-    public void prepareDataPoint(String name, Object value) {
+    public void prepareDataPoints(List<String> names, List<Object> values) {
+        if (this.parallelEncoder == null) {
+            for (int i = 0; i < names.size(); i++) {
+                this.prepareDataPoint(names.get(i), values.get(i));
+            }
+            return;
+        }
+
+        final long timestamp = this.getTimestamp();
+
+        synchronized (this.encoder) {
+            this.parallelEncoder.encode(names, values, this.encoder, timestamp, this::encodeDataPoint);
+        }
+    }
 
-        if (this.batchPoints == null) {
-            this.prepareBatchPoints();
+    private void encodeDataPoint(MetricEncoder encoder, String name, Object value, long timestamp) {
+        final Object fieldValue = this.toFieldValue(name, value);
+        if (fieldValue != null) {
+            this.encodeValue(encoder, name, fieldValue, timestamp);
         }
+    }
 
-        final String measurement = this.influxdbMeasurementPrefix + name;
+    /**
+     * Value as it is written, Float for the numbers but Integer unless the compact schema is enabled
+     *
+     * @param name  dataPoint name
+     * @param value dataPoint value
+     * @return value to encode, null when it is discarded
+     */
+    private Object toFieldValue(String name, Object value) {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("{}: DataPoint name={} has value type={}", this.getClass().getSimpleName(), name, value.getClass().getName());
         }
 
-        if (value instanceof String) {
-            Point point = Point.measurement(measurement)
-                    .addField("value", (String) value)
-                    .fields(this.fields)
-                    .tag(this.tags)
-                    .build();
-            this.batchPoints.point(point);
-        } else if (value instanceof Float) {
-            if (!((Float) value).isNaN() && !((Float) value).isInfinite()) {
-                Point point = Point.measurement(measurement)
-                        .addField("value", (Float) value)
-                        .fields(this.fields)
-                        .tag(this.tags)
-                        .build();
-                this.batchPoints.point(point);
-            } else {
-                LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), measurement);
-            }
-        } else if (value instanceof Integer) {
-            Point point = Point.measurement(measurement)
-                    .addField("value", (Integer) value)
-                    .fields(this.fields)
-                    .tag(this.tags)
-                    .build();
-            this.batchPoints.point(point);
-        } else if (value instanceof Boolean) {
-            Point point = Point.measurement(measurement)
-                    .addField("value", (Boolean) value)
-                    .fields(this.fields)
-                    .tag(this.tags)
-                    .build();
-            this.batchPoints.point(point);
-        } else if (value instanceof Long) {
-            if (!((Float) ((Long) value).floatValue()).isNaN() && !((Float) ((Long) value).floatValue()).isInfinite()) {
-                Point point = Point.measurement(measurement)
-                        .addField("value", ((Long) value).floatValue())
-                        .fields(this.fields)
-                        .tag(this.tags)
-                        .build();
-                this.batchPoints.point(point);
-            } else {
-                LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), measurement);
-            }
-        } else if (value instanceof Double) {
-            if (!((Float) ((Double) value).floatValue()).isNaN() && !((Float) ((Double) value).floatValue()).isInfinite()) {
-                Point point = Point.measurement(measurement)
-                        .addField("value", ((Double) value).floatValue())
-                        .fields(this.fields)
-                        .tag(this.tags)
-                        .build();
-                this.batchPoints.point(point);
-            } else {
-                LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), measurement);
+        final Object fieldValue;
+
+        if (value instanceof String || value instanceof Boolean || value instanceof Integer) {
+            fieldValue = value;
+        } else if (this.compactSchema && LineProtocolEncoder.isInteger(value)) {
+            fieldValue = value;
+        } else if (this.compactSchema && value instanceof Number) {
+            // float64, without narrowing
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                LOG.warn("{}: Discarding dataPoint: {}, value is NaN or Infinite", this.getClass().getSimpleName(), name);
+                this.consumerStats.dropped(ConsumerStats.DropReason.NAN_OR_INFINITE);
+                return null;
             }
+            fieldValue = number;
         } else if (value instanceof Number) {
-            if (!((Float) ((Number) value).floatValue()).isNaN() && !((Float) ((Number) value).floatValue()).isInfinite()) {
-                Point point = Point.measurement(measurement)
-                        .addField("value", ((Number) value).floatValue())
-                        .fields(this.fields)
-                        .tag(this.tags)
-                        .build();
-                this.batchPoints.point(point);
-            } else {
-                LOG.warn("{}: Discarding dataPoint: {}, value is null", this.getClass().getSimpleName(), measurement);
+            // Float, Long, Double and any other Number are sent as float, as they always were
+            float number = ((Number) value).floatValue();
+            if (Float.isNaN(number) || Float.isInfinite(number)) {
+                LOG.warn("{}: Discarding dataPoint: {}, value is NaN or Infinite", this.getClass().getSimpleName(), name);
+                this.consumerStats.dropped(ConsumerStats.DropReason.NAN_OR_INFINITE);
+                return null;
             }
+            fieldValue = number;
         } else {
             LOG.warn("{}: Unable to parse the Java type of 'value' : [type:'{}' value:'{}']",
                     this.getClass().getSimpleName(),
                     name,
                     value.getClass().getSimpleName()
             );
+            this.consumerStats.dropped(ConsumerStats.DropReason.UNSUPPORTED_TYPE);
+            return null;
+        }
+        return fieldValue;
+    }
+
+    private void encodeValue(MetricEncoder encoder, String name, Object fieldValue, long timestamp) {
+        if (fieldValue instanceof String) {
+            encoder.encodeString(name, (String) fieldValue, timestamp);
+        } else if (fieldValue instanceof Boolean) {
+            encoder.encodeBoolean(name, (Boolean) fieldValue, timestamp);
+        } else if (fieldValue instanceof Integer || (this.compactSchema && LineProtocolEncoder.isInteger(fieldValue))) {
+            // Integer values were always written as InfluxDB integers, like influxdb-java did, the other ones only with the compact schema
+            encoder.encodeInteger(name, ((Number) fieldValue).longValue(), timestamp);
+        } else {
+            encoder.encodeNumber(name, ((Number) fieldValue).doubleValue(), timestamp);
+        }
+    }
+
+    /**
+     * Encode a point with several fields, followed by the common fields
+     *
+     * @param measurement measurement name, without the prefix
+     * @param extraTags   tags added to the tags of the task
+     * @param values      fields of the point
+     */
+    public void preparePoint(String measurement, Map<String, String> extraTags, Map<String, Object> values) {
+        final long timestamp = this.getTimestamp();
+
+        synchronized (this.encoder) {
+            this.encoder.encodePoint(measurement, extraTags, values, timestamp);
+        }
+    }
+
+    /**
+     * Encode the points aggregated in wide points mode
+     */
+    private void encodeWidePoints() {
+        final long timestamp = this.getTimestamp();
+
+        for (WidePointAggregator.WidePoint point : this.widePointAggregator.getPoints()) {
+            this.encoder.encodePoint(point.getMeasurement(), point.getTags(), point.getFields(), timestamp);
         }
+        this.widePointAggregator.reset();
     }
 
     /**
-     * Send Points to InfluxDB server
+     * Send Points to InfluxDB server, or hand them to the writer threads when async mode is enabled.
+     * <p>
+     * When batching is enabled the points are kept until the batch reaches its maximum number of points,
+     * its maximum size in bytes, or its linger time.
+     * </p>
      */
 
     public void sendPoints() {
 
-        this.createDatabaseIfNotExists();
+        final long start = System.nanoTime();
+        synchronized (this.encoder) {
+            if (this.widePointAggregator != null) {
+                this.encodeWidePoints();
+            }
 
-        if (this.batchPoints != null) {
+            if (this.encoder.getPoints() == 0) {
+                LOG.warn("No points values to send");
+            } else if (this.batchStartTime == 0) {
+                this.batchStartTime = System.currentTimeMillis();
+            }
 
-            LOG.debug("{}: Sending points to database = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
+            if (this.isBatchReady()) {
+                this.flush();
+            }
+            this.timestamp = 0;
+        }
+        this.consumerStats.sent(System.nanoTime() - start);
+    }
 
-            this.influxDB.write(this.batchPoints);
-            this.batchPoints = null;
+    /**
+     * Whether the pending batch has to be written, with the thresholds of the flush scheduler when batching is
+     * adaptive. While the server throttles the writes only a batch of the max bytes is written.
+     * Called holding the monitor of the encoder.
+     */
+    private boolean isBatchReady() {
+        if (!this.batchEnabled || this.encoder.getBuffer().size() >= this.batchMaxBytes) {
+            return true;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (this.flushScheduler == null) {
+            return this.encoder.getPoints() >= this.batchMaxPoints || now - this.batchStartTime >= this.batchLingerMs;
+        }
+        return !this.flushScheduler.isPaused(now)
+                && (this.encoder.getPoints() >= this.flushScheduler.getBatchPoints()
+                || now - this.batchStartTime >= this.flushScheduler.getFlushIntervalMs());
+    }
+
+    /**
+     * Flush the batch when it has been waiting for more than the linger time
+     */
+    void flushLingeringPoints() {
+        try {
+            synchronized (this.encoder) {
+                if (this.batchStartTime > 0 && this.isBatchReady()) {
+                    this.flush();
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("{}: Unable to flush points, they will be lost. Exception = {}", this.getClass().getSimpleName(), e.toString());
+        }
+    }
+
+    /**
+     * Send the points encoded so far, the pending batch when batching is enabled
+     */
+    public void flush() {
+
+        synchronized (this.encoder) {
+            if (this.encoder.getPoints() == 0) {
+                return;
+            }
+
+            final LineBuffer lines = this.encoder.getBuffer();
+            this.consumerStats.batch(this.encoder.getPoints(), lines.size());
+            try {
+                if (this.sharedWriter != null) {
+                    this.sharedWriter.append(lines.array(), 0, lines.size(), this.encoder.getPoints());
+                } else {
+                    this.write(lines.array(), 0, lines.size(), this.encoder.getPoints());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                this.encoder.reset();
+                this.batchStartTime = 0;
+            }
+        }
+    }
+
+    /**
+     * Send a batch to the endpoints, to the async writer (on or off heap) or to InfluxDB server
+     *
+     * @param data   encoded records
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param points number of records
+     * @throws IOException when the request fails and spilling is disabled
+     */
+    void write(byte[] data, int offset, int length, int points) throws IOException {
+        if (this.endpointRouter != null) {
+
+            LOG.debug("{}: Routing points to {} endpoints", this.getClass().getSimpleName(), this.endpointRouter.getEndpoints().size());
+
+            this.endpointRouter.route(data, offset, length, points);
+        } else if (this.offHeapWriter != null) {
+
+            LOG.debug("{}: Queueing points off heap for database = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
+
+            this.offHeapWriter.offer(data, offset, length, points);
+        } else if (this.asyncWriter != null) {
+
+            LOG.debug("{}: Queueing points for database = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
+
+            this.asyncWriter.offer(new EncodedBatch(Arrays.copyOfRange(data, offset, offset + length), points));
         } else {
-            LOG.warn("No points values to send");
+
+            LOG.debug("{}: Sending points to database = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
+
+            this.writeLines(data, offset, length);
+        }
+    }
+
+    /**
+     * Write the batches drained by the async writer threads as a single request
+     *
+     * @param batches batches to be written
+     * @throws IOException when the request fails and spilling is disabled
+     */
+    void writeBatches(List<EncodedBatch> batches) throws IOException {
+        if (batches.size() == 1) {
+            byte[] data = batches.get(0).getData();
+            this.writeLines(data, 0, data.length);
+            return;
+        }
+
+        final LineBuffer merged = this.mergeBuffer.get();
+        EncodedBatch.merge(batches, merged);
+        this.writeLines(merged.array(), 0, merged.size());
+    }
+
+    /**
+     * Write the batches claimed by the off-heap writer threads as a single request, from the direct memory.
+     * As in {@link #writeLines}, a request rejected by the server is not spilled.
+     *
+     * @param records views of the batches in the off-heap ring
+     * @param length  number of bytes
+     * @throws IOException when the request fails and spilling is disabled
+     */
+    void writeRecords(ByteBuffer[] records, int length) throws IOException {
+        final SpillQueue queue = this.spillQueue;
+
+        if (queue != null && (!this.healthy || !queue.isEmpty())) {
+            this.spill(queue, records);
+            return;
+        }
+
+        try {
+            this.createDatabaseIfNotExists();
+            this.getTransport().write(records, length);
+        } catch (Exception e) {
+            if (queue == null || isPermanentFailure(e)) {
+                throw e;
+            }
+
+            LOG.warn("{}: Unable to write points, spilling them to disk. Exception = {}", this.getClass().getSimpleName(), e.toString());
+
+            this.spill(queue, records);
+        }
+    }
+
+    private void spill(SpillQueue queue, ByteBuffer[] records) throws IOException {
+        final LineBuffer merged = this.mergeBuffer.get();
+        merged.reset();
+        for (ByteBuffer record : records) {
+            merged.write(record);
+        }
+        queue.append(merged.array(), 0, merged.size());
+    }
+
+    /**
+     * Write line protocol records to InfluxDB server, or to the spill queue when the server is not available.
+     * <p>
+     * While the spill queue has a backlog new batches are appended to it too, so the replayer
+     * sends them to InfluxDB server in the same order they were collected. A batch rejected by the server
+     * (bad request, field type conflict, unknown database...) is never spilled, it would be rejected again.
+     * </p>
+     *
+     * @param data   line protocol records
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @throws IOException when the request fails and spilling is disabled
+     */
+    private void writeLines(byte[] data, int offset, int length) throws IOException {
+        final SpillQueue queue = this.spillQueue;
+
+        if (queue != null && (!this.healthy || !queue.isEmpty())) {
+            queue.append(data, offset, length);
+            return;
+        }
+
+        try {
+            this.createDatabaseIfNotExists();
+            this.getTransport().write(data, offset, length);
+        } catch (Exception e) {
+            if (queue == null || isPermanentFailure(e)) {
+                throw e;
+            }
+
+            LOG.warn("{}: Unable to write points, spilling them to disk. Exception = {}", this.getClass().getSimpleName(), e.toString());
+
+            queue.append(data, offset, length);
+        }
+    }
+
+    /**
+     * The server answered and rejected the batch, writing it again would fail the same way.
+     * The failure is counted in {@code permanent-failures} by the retrying transport.
+     */
+    private static boolean isPermanentFailure(Exception e) {
+        return (e instanceof IOException) && !RetryingTransport.isRetryable((IOException) e);
+    }
+
+    private Transport getTransport() throws IOException {
+        final Transport transport = this.transport;
+        if (transport == null) {
+            throw new IOException("Connection to InfluxDB server is closed");
+        }
+        return transport;
+    }
+
+    /**
+     * Send the spilled batches to InfluxDB server, oldest first, while it is healthy.
+     * The batches rejected by the server are discarded and counted as dropped.
+     */
+    void replaySpilledPoints() {
+        final SpillQueue queue = this.spillQueue;
+        SpillQueue.Record record;
+
+        if (queue == null) {
+            return;
+        }
+
+        while (this.healthy && (record = queue.peek()) != null) {
+            try {
+                this.createDatabaseIfNotExists();
+                this.getTransport().write(record.getData(), 0, record.getData().length);
+                queue.commit(record);
+            } catch (Exception e) {
+                if (isPermanentFailure(e)) {
+                    // skipped, or it would hold back every batch spilled after it
+                    LOG.warn("{}: Discarding spilled batch rejected by InfluxDB server. Exception = {}", this.getClass().getSimpleName(), e.toString());
+                    queue.discard(record);
+                    continue;
+                }
+                LOG.warn("{}: Unable to replay spilled points, pending batches = {}. Exception = {}",
+                        this.getClass().getSimpleName(), queue.getPendingRecords(), e.toString());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spill queue, null when spilling is disabled
+     *
+     * @return spill queue
+     */
+    SpillQueue getSpillQueue() {
+        if (this.sharedWriter != null) {
+            return this.sharedWriter.getSender().getSpillQueue();
+        }
+        return this.spillQueue;
+    }
+
+    /**
+     * Stop the async writer threads, if any, flushing the queued points
+     */
+    public void stopAsyncWriter() {
+        if (this.endpointRouter != null) {
+            this.endpointRouter.stop(ASYNC_STOP_TIMEOUT_MS);
+        }
+        if (this.asyncWriter != null) {
+
+            LOG.debug("{}: Stopping async writer, queued points = {}", this.getClass().getSimpleName(), this.asyncWriter.getQueueSize());
+
+            this.asyncWriter.stop(ASYNC_STOP_TIMEOUT_MS);
+            this.asyncWriter = null;
+        }
+        if (this.offHeapWriter != null) {
+
+            LOG.debug("{}: Stopping off-heap writer, queued points = {}", this.getClass().getSimpleName(), this.offHeapWriter.getQueueSize());
+
+            this.offHeapWriter.stop(ASYNC_STOP_TIMEOUT_MS);
+            this.offHeapWriter = null;
         }
     }
 
     /**
-     * Close connection to InfluxDB server
+     * Counters of the async writer, null when async mode is disabled
+     *
+     * @return async writer
      */
-    public void closeConnection() {
+    AsyncWriter<EncodedBatch> getAsyncWriter() {
+        return this.asyncWriter;
+    }
+
+    /**
+     * Counters of the off-heap writer, null when the queue is not off heap
+     *
+     * @return off-heap writer
+     */
+    OffHeapWriter getOffHeapWriter() {
+        if (this.sharedWriter != null) {
+            return this.sharedWriter.getSender().getOffHeapWriter();
+        }
+        return this.offHeapWriter;
+    }
+
+    /**
+     * Retries and circuit breakers counters
+     *
+     * @return write stats
+     */
+    WriteStats getWriteStats() {
+        if (this.sharedWriter != null) {
+            return this.sharedWriter.getSender().getWriteStats();
+        }
+        return this.writeStats;
+    }
+
+    /**
+     * Counters and histograms of the consumer, the sender reports its own drops, batches and send time
+     *
+     * @return consumer stats
+     */
+    ConsumerStats getConsumerStats() {
+        return this.consumerStats;
+    }
+
+    /**
+     * Share the counters and histograms of the consumer using this sender
+     *
+     * @param consumerStats consumer stats
+     */
+    void setConsumerStats(ConsumerStats consumerStats) {
+        this.consumerStats = consumerStats;
+    }
+
+    /**
+     * Batches waiting in the queues of the async writer or of the endpoints
+     *
+     * @return queued batches
+     */
+    int getQueuedBatches() {
+        if (this.sharedWriter != null) {
+            return this.sharedWriter.getSender().getQueuedBatches();
+        }
+        int queued = 0;
+        if (this.endpointRouter != null) {
+            for (Endpoint endpoint : this.endpointRouter.getEndpoints()) {
+                queued += endpoint.getWriter().getQueueSize();
+            }
+        }
+        final AsyncWriter<EncodedBatch> writer = this.asyncWriter;
+        if (writer != null) {
+            queued += writer.getQueueSize();
+        }
+        final OffHeapWriter offHeapWriter = this.offHeapWriter;
+        if (offHeapWriter != null) {
+            queued += offHeapWriter.getQueueSize();
+        }
+        return queued;
+    }
+
+    /**
+     * Points enqueued, written and dropped by the writer threads, on or off heap, since the last call, summed over the endpoints
+     *
+     * @return writer counters of the interval
+     */
+    Map<String, Object> getWriterValuesAndReset() {
+        if (this.sharedWriter != null) {
+            // the shared writers count their overflows on the stats of the shared sender, the reporting consumer takes them
+            final InfluxDBSender sender = this.sharedWriter.getSender();
+            this.consumerStats.dropped(ConsumerStats.DropReason.QUEUE_OVERFLOW,
+                    sender.getConsumerStats().getPointsDroppedAndReset(ConsumerStats.DropReason.QUEUE_OVERFLOW));
+            return sender.getWriterValuesAndReset();
+        }
+        final Map<String, Object> values = new HashMap<>();
+        if (this.endpointRouter != null) {
+            for (Endpoint endpoint : this.endpointRouter.getEndpoints()) {
+                addValues(values, endpoint.getWriter().getValuesAndReset());
+            }
+        }
+        final AsyncWriter<EncodedBatch> writer = this.asyncWriter;
+        if (writer != null) {
+            addValues(values, writer.getValuesAndReset());
+        }
+        final OffHeapWriter offHeapWriter = this.offHeapWriter;
+        if (offHeapWriter != null) {
+            addValues(values, offHeapWriter.getValuesAndReset());
+        }
+        return values;
+    }
+
+    private void queueOverflowed(int points) {
+        this.consumerStats.dropped(ConsumerStats.DropReason.QUEUE_OVERFLOW, points);
+    }
+
+    private static void addValues(Map<String, Object> values, Map<String, Object> more) {
+        for (Map.Entry<String, Object> entry : more.entrySet()) {
+            values.merge(entry.getKey(), entry.getValue(), (a, b) -> (Long) a + (Long) b);
+        }
+    }
+
+    /**
+     * Scheduler of the flushes when batching is adaptive, null otherwise
+     *
+     * @return flush scheduler
+     */
+    FlushScheduler getFlushScheduler() {
+        return this.flushScheduler;
+    }
+
+    /**
+     * Writer shared with the other consumers of the worker, null when it is not enabled
+     *
+     * @return shared writer
+     */
+    SharedWriter getSharedWriter() {
+        return this.sharedWriter;
+    }
+
+    /**
+     * Router of a multi-endpoint configuration, null when there is only one endpoint
+     *
+     * @return endpoint router
+     */
+    EndpointRouter getEndpointRouter() {
+        return this.endpointRouter;
+    }
+
+    /**
+     * Close connection to InfluxDB server and stop the health checker
+     */
+    public synchronized void closeConnection() {
 
         LOG.debug("{}: Closing connection to database = {}", this.getClass().getSimpleName(), this.influxdbDatabase);
 
-        this.influxDB.close();
+        if (this.batchFlusher != null) {
+            this.batchFlusher.shutdownNow();
+            this.batchFlusher = null;
+        }
+        if (this.parallelEncoder != null) {
+            this.parallelEncoder.shutdown();
+            this.parallelEncoder = null;
+        }
+        if (this.healthChecker != null) {
+            this.healthChecker.shutdownNow();
+            this.healthChecker = null;
+        }
+        if (this.spillReplayer != null) {
+            this.spillReplayer.shutdownNow();
+            this.spillReplayer = null;
+        }
+        if (this.spillQueue != null) {
+            this.spillQueue.close();
+            this.spillQueue = null;
+        }
+        if (this.sharedWriter != null) {
+            this.sharedWriter.release();
+            this.sharedWriter = null;
+        }
+        this.releaseConnection();
     }
 
     /**
@@ -256,7 +1426,41 @@ class InfluxDBSender {
      * @param fields
      */
     public void setFields(Map<String, Object> fields) {
-        this.fields = fields;
+        this.encoder.setFields(fields);
+        if (this.parallelEncoder != null) {
+            this.parallelEncoder.setFields(fields);
+        }
+    }
+
+    /**
+     * Assign the timestamp of the points prepared until the next {@link #sendPoints()}
+     *
+     * @param timestamp timestamp in milliseconds, 0 to use the time the points are prepared
+     */
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    private long getTimestamp() {
+        return (this.timestamp > 0) ? this.timestamp : System.currentTimeMillis();
+    }
+
+    /**
+     * Parallel encoding of the large collections of values, see {@link #prepareDataPoints(List, List)}
+     *
+     * @return true when it is enabled
+     */
+    public boolean isParallelEncoding() {
+        return this.parallelEncoder != null;
+    }
+
+    /**
+     * Compact schema: task metadata as tags, the task timestamp as point time and native number types
+     *
+     * @return true when the compact schema is enabled
+     */
+    public boolean isCompactSchema() {
+        return this.compactSchema;
     }
 
     /**
@@ -265,6 +1469,9 @@ class InfluxDBSender {
      * @param tags
      */
     public void setTags(Map<String, String> tags) {
-        this.tags = tags;
+        this.encoder.setTags(tags);
+        if (this.parallelEncoder != null) {
+            this.parallelEncoder.setTags(tags);
+        }
     }
 }
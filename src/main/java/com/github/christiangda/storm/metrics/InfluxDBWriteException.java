@@ -0,0 +1,46 @@
+package com.github.christiangda.storm.metrics;
+
+import java.io.IOException;
+
+/**
+ * InfluxDB server answered a write request with an error status
+ */
+class InfluxDBWriteException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMs;
+
+    InfluxDBWriteException(int statusCode, String message) {
+        this(statusCode, message, 0);
+    }
+
+    /**
+     * @param statusCode   HTTP status
+     * @param message      body of the response
+     * @param retryAfterMs time the server asked to wait with the {@code Retry-After} header, 0 when it did not
+     */
+    InfluxDBWriteException(int statusCode, String message, long retryAfterMs) {
+        super("InfluxDB write failed with HTTP status " + statusCode + ": " + message);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * The server is overloaded or rate limiting the writes
+     *
+     * @return true for the 429 and 503 statuses
+     */
+    boolean isThrottled() {
+        return statusCode == 429 || statusCode == 503;
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Latency sketches of the tasks of every component over a time window, one per latency metric family.
+ * <p>
+ * The values of every stream and task of a component are recorded in the sketch of the family of the metric
+ * ({@code __execute-latency} for {@code __execute-latency.spout:default}), so the percentiles are the ones of the
+ * component. The windows are aligned on the epoch as the ones of {@link RollupAggregator}.
+ * It is not thread safe, every consumer has its own.
+ * </p>
+ */
+class LatencyAggregator {
+
+    private final long windowMs;
+    private final Set<String> families;
+    private final Map<String, Map<String, LatencySketch>> components = new HashMap<>();
+    private long windowStart = -1;
+
+    /**
+     * @param windowMs length of the window in milliseconds
+     * @param families metric families holding latencies
+     */
+    LatencyAggregator(long windowMs, Iterable<String> families) {
+        this.windowMs = Math.max(windowMs, 1);
+        this.families = new HashSet<>();
+        for (String family : families) {
+            this.families.add(family);
+        }
+    }
+
+    /**
+     * @param name flattened metric name
+     * @return true when the metric is a latency sketched
+     */
+    boolean isLatency(String name) {
+        return this.families.contains(CardinalityGuard.family(name));
+    }
+
+    long windowOf(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, this.windowMs);
+    }
+
+    /**
+     * A window is open and the timestamp belongs to a later one
+     *
+     * @param timestamp timestamp of the tick in milliseconds
+     * @return true when the sketches of the current window must be emitted
+     */
+    boolean isWindowOver(long timestamp) {
+        return this.windowStart >= 0 && this.windowOf(timestamp) > this.windowStart;
+    }
+
+    /**
+     * Record a latency of a component
+     *
+     * @param timestamp timestamp of the tick in milliseconds, it opens the window when there is none
+     * @param component component id
+     * @param name      flattened metric name, its family must be a latency one
+     * @param value     latency in milliseconds, only finite numbers are recorded
+     * @return true when the value was recorded
+     */
+    boolean add(long timestamp, String component, String name, Object value) {
+        if (!(value instanceof Number)) {
+            return false;
+        }
+        final double latency = ((Number) value).doubleValue();
+        if (Double.isNaN(latency) || Double.isInfinite(latency)) {
+            return false;
+        }
+
+        if (this.windowStart < 0) {
+            this.windowStart = this.windowOf(timestamp);
+        }
+        this.components
+                .computeIfAbsent(component, key -> new HashMap<>())
+                .computeIfAbsent(CardinalityGuard.family(name), key -> new LatencySketch())
+                .add(latency);
+        return true;
+    }
+
+    /**
+     * Sketches of the current window, by component and metric family
+     *
+     * @return sketches
+     */
+    Map<String, Map<String, LatencySketch>> getSketches() {
+        return this.components;
+    }
+
+    /**
+     * @return start of the current window in milliseconds, -1 when there is none
+     */
+    long getWindowStart() {
+        return this.windowStart;
+    }
+
+    boolean isEmpty() {
+        return this.components.isEmpty();
+    }
+
+    /**
+     * Discard the sketches and close the window
+     */
+    void reset() {
+        this.components.clear();
+        this.windowStart = -1;
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mergeable sketch of latencies in milliseconds, with the log-linear buckets of {@link Histogram}.
+ * <p>
+ * The values are recorded in microseconds, so the percentiles have a relative error below 7% down to the
+ * microsecond, and two sketches are merged by adding their buckets. It is not thread safe.
+ * </p>
+ */
+class LatencySketch {
+
+    private final long[] counts = new long[Histogram.BUCKETS];
+    private long count = 0;
+    private double max = 0;
+
+    /**
+     * Record a latency, negative values are recorded as 0
+     *
+     * @param latencyMs latency in milliseconds
+     */
+    void add(double latencyMs) {
+        final double recorded = Math.max(latencyMs, 0);
+        this.counts[Histogram.bucketOf(Math.round(recorded * 1000))] += 1;
+        this.count += 1;
+        this.max = Math.max(this.max, recorded);
+    }
+
+    /**
+     * Add the latencies of another sketch
+     *
+     * @param other sketch to merge into this one
+     */
+    void merge(LatencySketch other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Highest latency equivalent to the one at the given percentile
+     *
+     * @param percentile percentile, between 0 and 100
+     * @return latency in milliseconds, 0 when nothing was recorded
+     */
+    double getValueAtPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(this.count * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                // the bucket top can be above the highest value recorded
+                return Math.min(Histogram.highestValueOf(i) / 1000d, this.max);
+            }
+        }
+        return this.max;
+    }
+
+    long getCount() {
+        return this.count;
+    }
+
+    double getMax() {
+        return this.max;
+    }
+
+    /**
+     * @return p50, p90, p99, max and count, as the fields of a point
+     */
+    Map<String, Object> getFields() {
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("p50", this.getValueAtPercentile(50));
+        fields.put("p90", this.getValueAtPercentile(90));
+        fields.put("p99", this.getValueAtPercentile(99));
+        fields.put("max", this.max);
+        fields.put("count", this.count);
+        return fields;
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.christiangda.storm.metrics;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable, reusable and not synchronized byte array.
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream} it gives access to the backing array,
+ * so its content can be sent without copying it.
+ * </p>
+ */
+class LineBuffer extends OutputStream {
+
+    private static final double MAX_INTEGRAL_DOUBLE = 1e15;
+
+    private byte[] buffer;
+    private int size = 0;
+    private byte[] digits;
+
+    LineBuffer(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    void ensureCapacity(int additional) {
+        if (this.size + additional > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.size + additional));
+        }
+    }
+
+    @Override
+    public void write(int value) {
+        ensureCapacity(1);
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, this.buffer, this.size, length);
+        this.size += length;
+    }
+
+    /**
+     * Copy the remaining bytes of a buffer, its position is not moved
+     *
+     * @param bytes buffer
+     */
+    void write(ByteBuffer bytes) {
+        final int length = bytes.remaining();
+        ensureCapacity(length);
+        bytes.duplicate().get(this.buffer, this.size, length);
+        this.size += length;
+    }
+
+    /**
+     * Write the decimal digits of a number as ASCII, without allocating any object
+     *
+     * @param value number
+     */
+    void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        if (this.digits == null) {
+            this.digits = new byte[20];
+        }
+
+        int position = this.digits.length;
+        do {
+            this.digits[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        write(this.digits, position, this.digits.length - position);
+    }
+
+    /**
+     * Write a number as ASCII, integral values (the common case for Storm counters) without decimal point
+     *
+     * @param value number
+     */
+    void writeDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < MAX_INTEGRAL_DOUBLE) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    /**
+     * Write the chars of an ASCII only string
+     *
+     * @param value string
+     */
+    void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            this.buffer[this.size++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Backing array, only the first {@link #size()} bytes are valid
+     *
+     * @return backing array
+     */
+    byte[] array() {
+        return this.buffer;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Discard the content keeping the allocated memory
+     */
+    void reset() {
+        this.size = 0;
+    }
+
+    /**
+     * Discard everything written after the given size
+     *
+     * @param size new size
+     */
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+}
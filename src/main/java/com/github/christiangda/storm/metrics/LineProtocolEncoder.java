@@ -0,0 +1,342 @@
+package com.github.christiangda.storm.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode data points as InfluxDB line protocol straight into a reusable {@link LineBuffer}.
+ * <p>
+ * The tag set and the common fields are escaped and encoded once per task (see {@link #setTags(Map)}
+ * and {@link #setFields(Map)}), then they are copied as they are into every line. Measurement names are
+ * escaped and encoded to UTF-8 char by char, and integral numbers (the common case for Storm counters)
+ * are written without allocating any object. Timestamps are given in milliseconds, and written in milliseconds
+ * (the {@code precision=ms} of the HTTP requests) or in nanoseconds, the default precision of the UDP and TCP listeners.
+ * </p>
+ * <p>
+ * With a cache size, the escaped measurement names and tag sets are also kept across tasks and ticks
+ * (see {@link EncodedCache}), only the values that were never seen are escaped.
+ * </p>
+ * <p>
+ * When native integers are enabled {@link Long}, {@link Integer}, {@link Short} and {@link Byte} values are
+ * written as InfluxDB integers (with the {@code i} suffix), otherwise every number is written as a float.
+ * </p>
+ */
+class LineProtocolEncoder implements MetricEncoder {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] VALUE_FIELD = " value=".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+
+    // Characters escaped by line protocol on every element
+    static final int MEASUREMENT = 0;
+    static final int KEY = 1;
+    static final int STRING_FIELD = 2;
+
+    private final LineBuffer buffer;
+    private final byte[] measurementPrefix;
+    private final boolean nativeIntegers;
+    private final TimeUnit precision;
+
+    // Escaped measurement names and tag sets, null when disabled
+    private final EncodedCache<String> measurements;
+    private final EncodedCache<SortedMap<String, String>> tagSets;
+
+    private SortedMap<String, String> tags = Collections.emptySortedMap();
+    private byte[] tagSet = EMPTY;
+    private byte[] fieldSet = EMPTY;
+    private int points = 0;
+
+    LineProtocolEncoder(String measurementPrefix, int initialCapacity) {
+        this(measurementPrefix, initialCapacity, false);
+    }
+
+    LineProtocolEncoder(String measurementPrefix, int initialCapacity, boolean nativeIntegers) {
+        this(measurementPrefix, initialCapacity, nativeIntegers, 0, 0);
+    }
+
+    /**
+     * @param measurementPrefix prefix of every measurement name
+     * @param initialCapacity   initial size of the buffer
+     * @param nativeIntegers    write all the integral numbers as InfluxDB integers, not only the Integer ones
+     * @param cacheSize         escaped measurement names and tag sets kept, 0 to escape them every time
+     * @param cacheIdleMs       time after which the unused names and tag sets are evicted
+     */
+    LineProtocolEncoder(String measurementPrefix, int initialCapacity, boolean nativeIntegers, int cacheSize, long cacheIdleMs) {
+        this(measurementPrefix, initialCapacity, nativeIntegers, cacheSize, cacheIdleMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param measurementPrefix prefix of every measurement name
+     * @param initialCapacity   initial size of the buffer
+     * @param nativeIntegers    write all the integral numbers as InfluxDB integers, not only the Integer ones
+     * @param cacheSize         escaped measurement names and tag sets kept, 0 to escape them every time
+     * @param cacheIdleMs       time after which the unused names and tag sets are evicted
+     * @param precision         unit of the timestamps written
+     */
+    LineProtocolEncoder(String measurementPrefix, int initialCapacity, boolean nativeIntegers, int cacheSize, long cacheIdleMs, TimeUnit precision) {
+        this.buffer = new LineBuffer(initialCapacity);
+        this.measurementPrefix = escape(measurementPrefix, MEASUREMENT);
+        this.nativeIntegers = nativeIntegers;
+        this.precision = precision;
+        if (cacheSize > 0) {
+            this.measurements = new EncodedCache<>(cacheSize, cacheIdleMs, (out, name) -> writeEscaped(out, name, MEASUREMENT));
+            this.tagSets = new EncodedCache<>(cacheSize, cacheIdleMs, LineProtocolEncoder::writeTags);
+        } else {
+            this.measurements = null;
+            this.tagSets = null;
+        }
+    }
+
+    /**
+     * Pre-encode the tag set shared by all the lines of a task, sorted by key as InfluxDB recommends
+     *
+     * @param tags tags, the ones with null or empty values are skipped
+     */
+    @Override
+    public void setTags(Map<String, String> tags) {
+        this.tags = new TreeMap<>(tags);
+        if (this.tagSets != null) {
+            final long now = System.currentTimeMillis();
+            this.measurements.expire(now);
+            this.tagSets.expire(now);
+            this.tagSet = this.tagSets.get(this.tags);
+            return;
+        }
+
+        final LineBuffer encoded = new LineBuffer(128);
+        writeTags(encoded, this.tags);
+        this.tagSet = encoded.toByteArray();
+    }
+
+    private static void writeTags(LineBuffer out, SortedMap<String, String> tags) {
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (tag.getValue() != null && !tag.getValue().isEmpty()) {
+                out.write(',');
+                writeEscaped(out, tag.getKey(), KEY);
+                out.write('=');
+                writeEscaped(out, tag.getValue(), KEY);
+            }
+        }
+    }
+
+    /**
+     * Pre-encode the fields shared by all the lines of a task
+     *
+     * @param fields fields, the ones with null values are skipped
+     */
+    @Override
+    public void setFields(Map<String, Object> fields) {
+        final LineBuffer encoded = new LineBuffer(128);
+        for (Map.Entry<String, Object> field : new TreeMap<>(fields).entrySet()) {
+            Object value = field.getValue();
+            if (value == null) {
+                continue;
+            }
+
+            encoded.write(',');
+            writeEscaped(encoded, field.getKey(), KEY);
+            encoded.write('=');
+            writeValue(encoded, value);
+        }
+        this.fieldSet = encoded.toByteArray();
+    }
+
+    /**
+     * Encode a point with several fields, followed by the common fields
+     *
+     * @param measurement measurement name, without the prefix
+     * @param extraTags   tags added to the tag set of the task
+     * @param fields      fields, at least one
+     * @param timestamp   timestamp in milliseconds
+     */
+    @Override
+    public void encodePoint(String measurement, Map<String, String> extraTags, Map<String, Object> fields, long timestamp) {
+        writeMeasurement(measurement);
+        if (extraTags.isEmpty()) {
+            this.buffer.write(this.tagSet);
+        } else {
+            final SortedMap<String, String> merged = new TreeMap<>(this.tags);
+            merged.putAll(extraTags);
+            if (this.tagSets != null) {
+                this.buffer.write(this.tagSets.get(merged));
+            } else {
+                writeTags(this.buffer, merged);
+            }
+        }
+
+        char separator = ' ';
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            this.buffer.write(separator);
+            writeEscaped(this.buffer, field.getKey(), KEY);
+            this.buffer.write('=');
+            writeValue(this.buffer, field.getValue());
+            separator = ',';
+        }
+        endLine(timestamp);
+    }
+
+    @Override
+    public void encodeString(String name, String value, long timestamp) {
+        beginLine(name);
+        writeQuoted(this.buffer, value);
+        endLine(timestamp);
+    }
+
+    @Override
+    public void encodeBoolean(String name, boolean value, long timestamp) {
+        beginLine(name);
+        this.buffer.write(value ? TRUE : FALSE);
+        endLine(timestamp);
+    }
+
+    @Override
+    public void encodeNumber(String name, double value, long timestamp) {
+        beginLine(name);
+        this.buffer.writeDouble(value);
+        endLine(timestamp);
+    }
+
+    @Override
+    public void encodeInteger(String name, long value, long timestamp) {
+        beginLine(name);
+        this.buffer.writeLong(value);
+        this.buffer.write('i');
+        endLine(timestamp);
+    }
+
+    private void beginLine(String name) {
+        writeMeasurement(name);
+        this.buffer.write(this.tagSet);
+        this.buffer.write(VALUE_FIELD);
+    }
+
+    private void writeMeasurement(String name) {
+        this.buffer.write(this.measurementPrefix);
+        if (this.measurements != null) {
+            this.buffer.write(this.measurements.get(name));
+        } else {
+            writeEscaped(this.buffer, name, MEASUREMENT);
+        }
+    }
+
+    private void endLine(long timestamp) {
+        this.buffer.write(this.fieldSet);
+        this.buffer.write(' ');
+        this.buffer.writeLong(this.precision.convert(timestamp, TimeUnit.MILLISECONDS));
+        this.buffer.write('\n');
+        this.points += 1;
+    }
+
+    /**
+     * Encoded lines
+     *
+     * @return buffer holding the lines written since the last {@link #reset()}
+     */
+    @Override
+    public LineBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    @Override
+    public int getPoints() {
+        return this.points;
+    }
+
+    @Override
+    public void append(MetricEncoder encoded) {
+        this.buffer.write(encoded.getBuffer().array(), 0, encoded.getBuffer().size());
+        this.points += encoded.getPoints();
+    }
+
+    /**
+     * Discard the encoded lines, keeping the buffer memory for the next batch
+     */
+    @Override
+    public void reset() {
+        this.buffer.reset();
+        this.points = 0;
+    }
+
+    private void writeValue(LineBuffer out, Object value) {
+        if (value instanceof Integer || (this.nativeIntegers && isInteger(value))) {
+            // as for the single value points, Integer values are always InfluxDB integers, see InfluxDBSender
+            out.writeLong(((Number) value).longValue());
+            out.write('i');
+        } else if (value instanceof Number) {
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else {
+            writeQuoted(out, value.toString());
+        }
+    }
+
+    static boolean isInteger(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static void writeQuoted(LineBuffer out, String value) {
+        out.write('"');
+        writeEscaped(out, value, STRING_FIELD);
+        out.write('"');
+    }
+
+    /**
+     * Escape a line protocol element and encode it as UTF-8
+     *
+     * @param value element
+     * @param mode  one of {@link #MEASUREMENT}, {@link #KEY} or {@link #STRING_FIELD}
+     * @return escaped UTF-8 bytes
+     */
+    static byte[] escape(String value, int mode) {
+        final LineBuffer encoded = new LineBuffer(value.length() + 8);
+        writeEscaped(encoded, value, mode);
+        return encoded.toByteArray();
+    }
+
+    static void writeEscaped(LineBuffer out, String value, int mode) {
+        final int length = value.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                if (needsEscape(c, mode)) {
+                    out.write('\\');
+                }
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.write(0xF0 | (codePoint >> 18));
+                out.write(0x80 | ((codePoint >> 12) & 0x3F));
+                out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                out.write(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.write('?');
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static boolean needsEscape(char c, int mode) {
+        switch (mode) {
+            case MEASUREMENT:
+                return c == ',' || c == ' ';
+            case KEY:
+                return c == ',' || c == ' ' || c == '=';
+            default:
+                return c == '"' || c == '\\';
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.Map;
+
+/**
+ * Streaming encoder of the flattened metrics into the wire format of a time series database.
+ * <p>
+ * The tags and the common fields of a task are set once, then every value is appended to a reusable
+ * {@link LineBuffer} until the batch is sent and the encoder is {@link #reset()}. Implementations are
+ * not thread safe, {@link InfluxDBSender} guards its encoder with its monitor.
+ * </p>
+ */
+interface MetricEncoder {
+
+    /**
+     * Available wire formats
+     */
+    enum Format {
+        // InfluxDB 1.x line protocol, written to /write
+        LINE_PROTOCOL,
+        // Same line protocol, written to the InfluxDB 2.x /api/v2/write endpoint of an organization and bucket
+        INFLUXDB2,
+        // Graphite plaintext protocol, with the tags in the Graphite 1.1 format
+        GRAPHITE;
+
+        static Format fromString(String value) {
+            return Format.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Tags shared by all the points of a task
+     *
+     * @param tags tags, the ones with null or empty values are skipped
+     */
+    void setTags(Map<String, String> tags);
+
+    /**
+     * Fields shared by all the points of a task, formats without multi-field points can ignore them
+     *
+     * @param fields fields, the ones with null values are skipped
+     */
+    void setFields(Map<String, Object> fields);
+
+    /**
+     * Encode a point with several fields
+     *
+     * @param measurement measurement name, without the prefix
+     * @param extraTags   tags added to the tags of the task
+     * @param fields      fields, at least one
+     * @param timestamp   timestamp in milliseconds
+     */
+    void encodePoint(String measurement, Map<String, String> extraTags, Map<String, Object> fields, long timestamp);
+
+    void encodeString(String name, String value, long timestamp);
+
+    void encodeBoolean(String name, boolean value, long timestamp);
+
+    void encodeNumber(String name, double value, long timestamp);
+
+    void encodeInteger(String name, long value, long timestamp);
+
+    /**
+     * Encoded payload
+     *
+     * @return buffer holding the records written since the last {@link #reset()}
+     */
+    LineBuffer getBuffer();
+
+    /**
+     * @return number of records written since the last {@link #reset()}
+     */
+    int getPoints();
+
+    /**
+     * Copy the records of another encoder of the same format after the records of this one
+     *
+     * @param encoded encoder, it is left as it is
+     */
+    void append(MetricEncoder encoded);
+
+    /**
+     * Discard the encoded records, keeping the buffer memory for the next batch
+     */
+    void reset();
+}
@@ -0,0 +1,241 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude patterns of the metric names, compiled once into a prefix trie and regular expressions.
+ * <p>
+ * A pattern is a glob ({@code *} any characters, {@code ?} one character) or, prefixed with {@code regex:},
+ * a regular expression that must match the whole name. Exact names and {@code prefix*} globs, the usual ones,
+ * are looked up in a trie, the others are compiled to regular expressions. A name is accepted when there is no
+ * include pattern or one of them matches it, and no exclude pattern matches it.
+ * The decision is cached per name in a bounded LRU cache, since the same names come back on every metrics tick.
+ * It is not thread safe, every consumer has its own.
+ * </p>
+ */
+class MetricFilter {
+
+    static final String REGEX_PREFIX = "regex:";
+
+    private final Matcher include;
+    private final Matcher exclude;
+    private final Map<String, Boolean> decisions;
+
+    /**
+     * @param includes     patterns of the names accepted, all names when empty
+     * @param excludes     patterns of the names rejected, they take precedence over the includes
+     * @param maxDecisions maximum number of names whose decision is cached
+     */
+    MetricFilter(Collection<String> includes, Collection<String> excludes, final int maxDecisions) {
+        this.include = includes.isEmpty() ? null : new Matcher(includes);
+        this.exclude = excludes.isEmpty() ? null : new Matcher(excludes);
+        this.decisions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxDecisions;
+            }
+        };
+    }
+
+    /**
+     * @return true when there is no pattern, so every name is accepted
+     */
+    boolean isEmpty() {
+        return this.include == null && this.exclude == null;
+    }
+
+    /**
+     * @param name metric name or component id
+     * @return true when the name is accepted
+     */
+    boolean accepts(String name) {
+        if (this.isEmpty()) {
+            return true;
+        }
+        Boolean decision = this.decisions.get(name);
+        if (decision == null) {
+            decision = (this.include == null || this.include.matches(name))
+                    && (this.exclude == null || !this.exclude.matches(name));
+            this.decisions.put(name, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Whether an exclude prefix rejects the name and every name starting with it, so a map data point
+     * can be skipped without flattening it
+     *
+     * @param name data point name
+     * @return true when the name and all the names nested under it are rejected
+     */
+    boolean rejectsAllUnder(String name) {
+        return this.exclude != null && this.exclude.trie.matchesPrefixOf(name);
+    }
+
+    int getCachedDecisions() {
+        return this.decisions.size();
+    }
+
+    /**
+     * Patterns given as a list or as a comma separated string
+     *
+     * @param value parameter value, can be null
+     * @return patterns, empty when there is none
+     */
+    static List<String> parsePatterns(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        final List<String> patterns = new ArrayList<>();
+        final Iterable<?> values = (value instanceof Collection) ? (Collection<?>) value : Arrays.asList(value.toString().split(","));
+        for (Object pattern : values) {
+            if (pattern != null && !pattern.toString().trim().isEmpty()) {
+                patterns.add(pattern.toString().trim());
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Regular expression of a glob, the other characters are quoted
+     */
+    static String globToRegex(String glob) {
+        final StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (glob.length() > literalStart) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Patterns split between the trie and one regular expression alternating all the others
+     */
+    private static final class Matcher {
+
+        private final Trie trie = new Trie();
+        private final Pattern regex;
+
+        Matcher(Collection<String> patterns) {
+            final List<String> regexes = new ArrayList<>();
+            for (String pattern : patterns) {
+                if (pattern.startsWith(REGEX_PREFIX)) {
+                    regexes.add(pattern.substring(REGEX_PREFIX.length()));
+                    continue;
+                }
+                final int wildcard = indexOfWildcard(pattern);
+                if (wildcard < 0) {
+                    this.trie.add(pattern, false);
+                } else if (wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '*') {
+                    this.trie.add(pattern.substring(0, wildcard), true);
+                } else {
+                    regexes.add(globToRegex(pattern));
+                }
+            }
+
+            if (regexes.isEmpty()) {
+                this.regex = null;
+            } else {
+                final StringBuilder alternation = new StringBuilder();
+                for (String regex : regexes) {
+                    alternation.append(alternation.length() == 0 ? "" : "|").append("(?:").append(regex).append(')');
+                }
+                this.regex = Pattern.compile(alternation.toString());
+            }
+        }
+
+        boolean matches(String name) {
+            return this.trie.matches(name) || (this.regex != null && this.regex.matcher(name).matches());
+        }
+
+        private static int indexOfWildcard(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) == '*' || pattern.charAt(i) == '?') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Character trie of exact names and prefixes
+     */
+    private static final class Trie {
+
+        private final Node root = new Node();
+
+        void add(String key, boolean prefix) {
+            Node node = this.root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+            }
+            if (prefix) {
+                node.prefix = true;
+            } else {
+                node.exact = true;
+            }
+        }
+
+        /**
+         * @return true when the name is an exact key or starts with a prefix key
+         */
+        boolean matches(String name) {
+            Node node = this.root;
+            for (int i = 0; i < name.length(); i++) {
+                if (node.prefix) {
+                    return true;
+                }
+                node = node.children.get(name.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.prefix || node.exact;
+        }
+
+        /**
+         * @return true when the name starts with a prefix key
+         */
+        boolean matchesPrefixOf(String name) {
+            Node node = this.root;
+            for (int i = 0; i < name.length(); i++) {
+                if (node.prefix) {
+                    return true;
+                }
+                node = node.children.get(name.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.prefix;
+        }
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<>();
+        private boolean exact;
+        private boolean prefix;
+    }
+}
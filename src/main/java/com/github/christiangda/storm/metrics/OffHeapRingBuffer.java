@@ -0,0 +1,242 @@
+package com.github.christiangda.storm.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity ring of line protocol records held in direct memory, with one producer and several consumers.
+ * <p>
+ * Records are framed by a header (marker, length and points) and never wrap: when a record does not fit before the
+ * end of the memory, the tail is marked as padding and the record starts over at the beginning. Three positions
+ * that only grow delimit the ring: {@code published} is moved by the producer once a record is written, the
+ * consumers move {@code claimed} with a compare-and-set over a run of records they then own, and {@code released}
+ * follows the runs given back in order, freeing their memory for the producer.
+ * </p>
+ * <p>
+ * {@link #offer} must not be called concurrently, {@link #claim} and {@link #release} may.
+ * </p>
+ */
+final class OffHeapRingBuffer {
+
+    private static final int HEADER_BYTES = 16;
+    private static final int ALIGNMENT = 8;
+    private static final int RECORD = 1;
+    private static final int PADDING = 2;
+
+    private final ByteBuffer memory;
+    private final ByteBuffer producerView;
+    private final int capacity;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicInteger queuedRecords = new AtomicInteger();
+
+    // Runs released before the ones that precede them, by start position, guarded by itself
+    private final Map<Long, Long> releasedRuns = new HashMap<>();
+
+    /**
+     * @param capacity bytes of direct memory, allocated at once
+     */
+    OffHeapRingBuffer(int capacity) {
+        this.capacity = Math.max(HEADER_BYTES, capacity - capacity % ALIGNMENT);
+        this.memory = ByteBuffer.allocateDirect(this.capacity);
+        this.producerView = this.memory.duplicate();
+    }
+
+    /**
+     * Copy a record into the ring
+     *
+     * @param data   encoded records
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param points number of points
+     * @return false when there is not enough free memory
+     */
+    boolean offer(byte[] data, int offset, int length, int points) {
+        final int size = recordSize(length);
+        if (size > this.capacity) {
+            return false;
+        }
+
+        final long position = this.published.get();
+        final int index = this.index(position);
+        final long start = (this.capacity - index < size) ? position + this.capacity - index : position;
+        if (start + size - this.released.get() > this.capacity) {
+            return false;
+        }
+
+        if (start != position) {
+            this.memory.putInt(index, PADDING);
+        }
+        final int at = this.index(start);
+        this.producerView.position(at + HEADER_BYTES);
+        this.producerView.put(data, offset, length);
+        this.memory.putInt(at, RECORD);
+        this.memory.putInt(at + 4, length);
+        this.memory.putInt(at + 8, points);
+
+        this.queuedRecords.incrementAndGet();
+        // the volatile write makes the record visible to the consumers
+        this.published.set(start + size);
+        return true;
+    }
+
+    /**
+     * Take ownership of the oldest records, contiguous in memory
+     *
+     * @param maxRecords maximum number of records
+     * @return claimed records, to {@link #release} once written, null when the ring is empty
+     */
+    Claim claim(int maxRecords) {
+        while (true) {
+            final long start = this.claimed.get();
+            final long end = this.published.get();
+            if (start >= end) {
+                return null;
+            }
+
+            // the headers may be overwritten if another consumer claims and releases them meanwhile,
+            // the compare-and-set fails then, so they are only checked to stay within the memory
+            long position = start;
+            int index = this.index(position);
+            if (this.memory.getInt(index) == PADDING) {
+                position += this.capacity - index;
+            }
+            final long first = position;
+            int records = 0;
+            while (records < Math.max(maxRecords, 1) && position < end) {
+                index = this.index(position);
+                if (index + HEADER_BYTES > this.capacity || this.memory.getInt(index) != RECORD) {
+                    break;
+                }
+                final int length = this.memory.getInt(index + 4);
+                if (length < 0 || index + HEADER_BYTES + length > this.capacity) {
+                    break;
+                }
+                position += recordSize(length);
+                records += 1;
+            }
+
+            if (records > 0 && this.claimed.compareAndSet(start, position)) {
+                this.queuedRecords.addAndGet(-records);
+                return this.makeClaim(start, first, position, records);
+            }
+        }
+    }
+
+    private Claim makeClaim(long start, long first, long end, int records) {
+        final ByteBuffer[] payloads = new ByteBuffer[records];
+        int bytes = 0;
+        int points = 0;
+        long position = first;
+        for (int i = 0; i < records; i++) {
+            final int index = this.index(position);
+            final int length = this.memory.getInt(index + 4);
+            points += this.memory.getInt(index + 8);
+            bytes += length;
+
+            final ByteBuffer payload = this.memory.asReadOnlyBuffer();
+            payload.limit(index + HEADER_BYTES + length).position(index + HEADER_BYTES);
+            payloads[i] = payload.slice();
+            position += recordSize(length);
+        }
+        return new Claim(start, end, payloads, bytes, points);
+    }
+
+    /**
+     * Give back claimed records, their memory is reused once all the records before them are released too
+     *
+     * @param claim claimed records, they must no longer be read
+     */
+    void release(Claim claim) {
+        synchronized (this.releasedRuns) {
+            if (claim.start != this.released.get()) {
+                this.releasedRuns.put(claim.start, claim.end);
+                return;
+            }
+            long end = claim.end;
+            Long next;
+            while ((next = this.releasedRuns.remove(end)) != null) {
+                end = next;
+            }
+            this.released.set(end);
+        }
+    }
+
+    private int index(long position) {
+        return (int) (position % this.capacity);
+    }
+
+    private static int recordSize(int length) {
+        final int size = HEADER_BYTES + length;
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * @return records written and not claimed yet
+     */
+    int getQueuedRecords() {
+        return this.queuedRecords.get();
+    }
+
+    /**
+     * @return bytes of the records not released yet, padding included
+     */
+    long getUsedBytes() {
+        return this.published.get() - this.released.get();
+    }
+
+    /**
+     * @return bytes of the records claimed and not released yet
+     */
+    long getClaimedBytes() {
+        return this.claimed.get() - this.released.get();
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    boolean isEmpty() {
+        return this.claimed.get() >= this.published.get();
+    }
+
+    /**
+     * Run of records owned by a consumer until it is released
+     */
+    static final class Claim {
+
+        private final long start;
+        private final long end;
+        private final ByteBuffer[] records;
+        private final int bytes;
+        private final int points;
+
+        Claim(long start, long end, ByteBuffer[] records, int bytes, int points) {
+            this.start = start;
+            this.end = end;
+            this.records = records;
+            this.bytes = bytes;
+            this.points = points;
+        }
+
+        /**
+         * @return read-only views of the records in the direct memory
+         */
+        ByteBuffer[] getRecords() {
+            return this.records;
+        }
+
+        int getBytes() {
+            return this.bytes;
+        }
+
+        int getPoints() {
+            return this.points;
+        }
+    }
+}
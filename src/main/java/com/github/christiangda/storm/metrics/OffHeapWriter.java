@@ -0,0 +1,236 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * {@link AsyncWriter} counterpart which queues the encoded batches in an {@link OffHeapRingBuffer}, so a backlog
+ * does not grow the heap of the worker, however large it gets.
+ * <p>
+ * The writer threads claim runs of records and hand the views of the direct memory to the sink, then release them.
+ * With {@link AsyncWriter.OverflowPolicy#DROP_OLDEST} the oldest queued batches are dropped to make room, but only
+ * while no batch is being written, the newest one is dropped otherwise.
+ * </p>
+ */
+class OffHeapWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapWriter.class);
+
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Destination of the drained records
+     */
+    interface Sink {
+        void write(ByteBuffer[] records, int length) throws Exception;
+    }
+
+    private final OffHeapRingBuffer ring;
+    private final Sink sink;
+    private final AsyncWriter.OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final int maxBatchSize;
+    private final List<Thread> writers = new ArrayList<>();
+    private final Object available = new Object();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong reportedEnqueued = new AtomicLong();
+    private final AtomicLong reportedWritten = new AtomicLong();
+    private final AtomicLong reportedDropped = new AtomicLong();
+
+    private volatile IntConsumer overflowListener = points -> {
+    };
+    private volatile boolean running = false;
+
+    OffHeapWriter(String name, Sink sink, int capacityBytes, int writerThreads, AsyncWriter.OverflowPolicy overflowPolicy, long blockTimeoutMs, int maxBatchSize) {
+        this.ring = new OffHeapRingBuffer(capacityBytes);
+        this.sink = sink;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.maxBatchSize = maxBatchSize;
+
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(this::drainLoop, name + "-" + i);
+            writer.setDaemon(true);
+            this.writers.add(writer);
+        }
+    }
+
+    /**
+     * Start the writer threads
+     */
+    void start() {
+        this.running = true;
+        for (Thread writer : this.writers) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Stop the writer threads, waiting for them to drain what is left in the ring
+     *
+     * @param timeoutMs maximum time to wait per writer thread
+     */
+    void stop(long timeoutMs) {
+        this.running = false;
+        synchronized (this.available) {
+            this.available.notifyAll();
+        }
+        for (Thread writer : this.writers) {
+            try {
+                writer.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if (!this.ring.isEmpty()) {
+            LOG.warn("{}: Stopped with {} batches still queued, they will be lost", this.getClass().getSimpleName(), this.ring.getQueuedRecords());
+            OffHeapRingBuffer.Claim claim;
+            while ((claim = this.ring.claim(Integer.MAX_VALUE)) != null) {
+                this.dropped.addAndGet(claim.getPoints());
+                this.ring.release(claim);
+            }
+        }
+    }
+
+    /**
+     * Copy a batch into the ring applying the overflow policy when it is full, the calls are serialized
+     *
+     * @param data   encoded records
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param points number of points
+     * @return true if the batch was queued
+     */
+    synchronized boolean offer(byte[] data, int offset, int length, int points) {
+        boolean queued = this.ring.offer(data, offset, length, points);
+
+        switch (this.overflowPolicy) {
+            case DROP_OLDEST:
+                OffHeapRingBuffer.Claim oldest;
+                // dropping a batch frees no memory while the ones before it are being written
+                while (!queued && this.ring.getClaimedBytes() == 0 && (oldest = this.ring.claim(1)) != null) {
+                    this.overflowed(oldest.getPoints());
+                    this.ring.release(oldest);
+                    queued = this.ring.offer(data, offset, length, points);
+                }
+                break;
+            case BLOCK:
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.blockTimeoutMs);
+                while (!queued && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    queued = this.ring.offer(data, offset, length, points);
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                break;
+        }
+
+        if (queued) {
+            this.enqueued.addAndGet(points);
+            synchronized (this.available) {
+                this.available.notify();
+            }
+        } else {
+            this.overflowed(points);
+        }
+        return queued;
+    }
+
+    private void overflowed(int points) {
+        this.dropped.addAndGet(points);
+        this.overflowListener.accept(points);
+    }
+
+    /**
+     * Listener told of the points rejected or evicted because the ring is full
+     *
+     * @param overflowListener listener taking the number of points
+     */
+    void setOverflowListener(IntConsumer overflowListener) {
+        this.overflowListener = overflowListener;
+    }
+
+    private void drainLoop() {
+        while (this.running || !this.ring.isEmpty()) {
+            final OffHeapRingBuffer.Claim claim = this.ring.claim(this.maxBatchSize);
+            if (claim == null) {
+                try {
+                    synchronized (this.available) {
+                        if (this.running && this.ring.isEmpty()) {
+                            this.available.wait(POLL_TIMEOUT_MS);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                this.sink.write(claim.getRecords(), claim.getBytes());
+                this.written.addAndGet(claim.getPoints());
+            } catch (Exception e) {
+                LOG.warn("{}: Unable to write {} batches, they will be lost. Exception = {}", this.getClass().getSimpleName(), claim.getRecords().length, e);
+                this.dropped.addAndGet(claim.getPoints());
+            } finally {
+                this.ring.release(claim);
+            }
+        }
+    }
+
+    long getEnqueuedCount() {
+        return this.enqueued.get();
+    }
+
+    long getWrittenCount() {
+        return this.written.get();
+    }
+
+    long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    int getQueueSize() {
+        return this.ring.getQueuedRecords();
+    }
+
+    /**
+     * Points enqueued, written and dropped (evicted with {@link AsyncWriter.OverflowPolicy#DROP_OLDEST} included)
+     * since the last call, the cumulative counters are left untouched
+     *
+     * @return counters of the interval
+     */
+    Map<String, Object> getValuesAndReset() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("offheap-enqueued-points", AsyncWriter.sinceReported(this.enqueued, this.reportedEnqueued));
+        values.put("offheap-written-points", AsyncWriter.sinceReported(this.written, this.reportedWritten));
+        values.put("offheap-dropped-points", AsyncWriter.sinceReported(this.dropped, this.reportedDropped));
+        return values;
+    }
+
+    /**
+     * @return direct memory taken by the queued batches and the ones being written
+     */
+    long getQueuedBytes() {
+        return this.ring.getUsedBytes();
+    }
+}
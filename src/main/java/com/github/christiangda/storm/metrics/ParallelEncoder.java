@@ -0,0 +1,150 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Encode the large collections of values of a task on a dedicated fork-join pool.
+ * <p>
+ * The values are split in contiguous chunks, every chunk is encoded by its own reusable encoder with the tags
+ * and common fields of the task, then the chunks are appended in order to the encoder of the sender, so the
+ * payload is the same as the single-threaded one. Collections smaller than the threshold are encoded by the
+ * calling thread. Not thread safe, {@link InfluxDBSender} calls it holding the monitor of its encoder.
+ * </p>
+ */
+class ParallelEncoder {
+
+    // Smaller chunks cost more in coordination than they save in encoding
+    static final int MIN_CHUNK_POINTS = 1024;
+
+    /**
+     * Encode one value, it may be discarded
+     */
+    interface ValueEncoder {
+        void encode(MetricEncoder encoder, String name, Object value, long timestamp);
+    }
+
+    private final ForkJoinPool pool;
+    private final MetricEncoder[] chunkEncoders;
+    private final int[] chunkVersions;
+    private final int minPoints;
+
+    // Tags and fields of the task, set on the chunk encoders the first time they are used after a change
+    private Map<String, String> tags = Collections.emptyMap();
+    private Map<String, Object> fields = Collections.emptyMap();
+    private int version = 0;
+
+    /**
+     * @param encoderFactory encoder of the wire format of the sender
+     * @param threads        encoding threads, and maximum number of chunks
+     * @param minPoints      values below which the calling thread encodes them
+     */
+    ParallelEncoder(Supplier<MetricEncoder> encoderFactory, int threads, int minPoints) {
+        this.pool = new ForkJoinPool(threads, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("influxdb-encoder-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        this.chunkEncoders = new MetricEncoder[threads];
+        this.chunkVersions = new int[threads];
+        for (int i = 0; i < threads; i++) {
+            this.chunkEncoders[i] = encoderFactory.get();
+            this.chunkVersions[i] = -1;
+        }
+        this.minPoints = minPoints;
+    }
+
+    void setTags(Map<String, String> tags) {
+        this.tags = tags;
+        this.version += 1;
+    }
+
+    void setFields(Map<String, Object> fields) {
+        this.fields = fields;
+        this.version += 1;
+    }
+
+    /**
+     * Encode the values into the target encoder, in order
+     *
+     * @param names        names of the values
+     * @param values       values, as many as names
+     * @param target       encoder of the sender, its tags and fields are the ones set here
+     * @param timestamp    timestamp of all the values, in milliseconds
+     * @param valueEncoder encoding of a value
+     */
+    void encode(List<String> names, List<Object> values, MetricEncoder target, long timestamp, ValueEncoder valueEncoder) {
+        final int size = names.size();
+        final int chunks = Math.min(this.chunkEncoders.length, size / MIN_CHUNK_POINTS);
+
+        if (size < this.minPoints || chunks < 2) {
+            for (int i = 0; i < size; i++) {
+                valueEncoder.encode(target, names.get(i), values.get(i), timestamp);
+            }
+            return;
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int index = chunk;
+            final int from = (int) ((long) size * chunk / chunks);
+            final int to = (int) ((long) size * (chunk + 1) / chunks);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                final MetricEncoder encoder = this.chunkEncoder(index);
+                for (int i = from; i < to; i++) {
+                    valueEncoder.encode(encoder, names.get(i), values.get(i), timestamp);
+                }
+            }));
+        }
+
+        try {
+            this.pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                target.append(this.chunkEncoders[chunk]);
+            }
+        } finally {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                this.chunkEncoders[chunk].reset();
+            }
+        }
+    }
+
+    private MetricEncoder chunkEncoder(int index) {
+        final MetricEncoder encoder = this.chunkEncoders[index];
+        if (this.chunkVersions[index] != this.version) {
+            encoder.setTags(this.tags);
+            encoder.setFields(this.fields);
+            this.chunkVersions[index] = this.version;
+        }
+        return encoder;
+    }
+
+    int getThreads() {
+        return this.chunkEncoders.length;
+    }
+
+    int getMinPoints() {
+        return this.minPoints;
+    }
+
+    /**
+     * Stop the encoding threads
+     */
+    void shutdown() {
+        this.pool.shutdownNow();
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry the writes failed with a retryable error, using exponential backoff with full jitter,
+ * behind a {@link CircuitBreaker}.
+ * <p>
+ * Errors answered by the server with a 4xx status (other than 429) are permanent: the request is not
+ * retried and the server is not considered failing. Any other error (5xx, 429, timeouts, refused connections)
+ * is retried up to {@code maxRetries} times, then counted as a failure by the circuit breaker.
+ * A {@code Retry-After} given by the server is honored, within the maximum backoff.
+ * </p>
+ * <p>
+ * The backoff sleeps on the calling thread: without the async writer that is the thread of the metrics consumer,
+ * which does not handle the next ticks until the write is over.
+ * </p>
+ */
+class RetryingTransport implements Transport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingTransport.class);
+
+    /**
+     * The circuit breaker is open, the write was not sent
+     */
+    static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One attempt of a write
+     */
+    private interface Attempt {
+        int write() throws IOException;
+    }
+
+    private final Transport delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final WriteStats writeStats;
+    private final int maxRetries;
+    private final long backoffInitialMs;
+    private final long backoffMaxMs;
+
+    RetryingTransport(Transport delegate, CircuitBreaker circuitBreaker, WriteStats writeStats,
+                      int maxRetries, long backoffInitialMs, long backoffMaxMs) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.writeStats = writeStats;
+        this.maxRetries = maxRetries;
+        this.backoffInitialMs = backoffInitialMs;
+        this.backoffMaxMs = backoffMaxMs;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) throws IOException {
+        return this.write(length, () -> this.delegate.write(data, offset, length));
+    }
+
+    @Override
+    public int write(ByteBuffer[] records, int length) throws IOException {
+        return this.write(length, () -> this.delegate.write(records, length));
+    }
+
+    private int write(int length, Attempt request) throws IOException {
+        if (!this.circuitBreaker.allowRequest()) {
+            this.writeStats.shortCircuited();
+            throw new CircuitOpenException("Circuit is open, InfluxDB server is failing");
+        }
+
+        // a write ended any other way (runtime exception, interrupted backoff) is a failure,
+        // so a half open trial is never left in flight
+        boolean settled = false;
+        int attempt = 0;
+        try {
+            while (true) {
+                final long start = System.nanoTime();
+                try {
+                    final int statusCode = request.write();
+                    this.writeStats.succeeded(statusCode, length, System.nanoTime() - start);
+                    this.circuitBreaker.onSuccess();
+                    settled = true;
+                    return statusCode;
+                } catch (IOException e) {
+                    final InfluxDBWriteException writeError = (e instanceof InfluxDBWriteException) ? (InfluxDBWriteException) e : null;
+                    this.writeStats.attemptFailed(
+                            (writeError != null) ? writeError.getStatusCode() : WriteStats.NO_STATUS,
+                            System.nanoTime() - start);
+                    if (writeError != null && writeError.isThrottled()) {
+                        this.writeStats.throttled(writeError.getRetryAfterMs());
+                    }
+
+                    if (!isRetryable(e)) {
+                        // the server is alive, it is the request which is wrong
+                        this.circuitBreaker.onSuccess();
+                        settled = true;
+                        this.writeStats.permanentFailure();
+                        throw e;
+                    }
+                    if (attempt >= this.maxRetries) {
+                        this.circuitBreaker.onFailure();
+                        settled = true;
+                        this.writeStats.failedWrite();
+                        throw e;
+                    }
+
+                    // never sooner than the server asked, within the maximum backoff
+                    long backoff = Math.max(this.backoff(attempt),
+                            (writeError != null) ? Math.min(writeError.getRetryAfterMs(), this.backoffMaxMs) : 0);
+                    attempt += 1;
+                    this.writeStats.retry();
+
+                    LOG.debug("{}: Write failed, retry {} of {} in {} ms. Exception = {}",
+                            this.getClass().getSimpleName(), attempt, this.maxRetries, backoff, e.toString());
+
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting to retry the write");
+                    }
+                }
+            }
+        } finally {
+            if (!settled) {
+                this.circuitBreaker.onFailure();
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random time between 0 and the exponential backoff of the attempt
+     */
+    long backoff(int attempt) {
+        long ceiling = Math.min(this.backoffMaxMs, this.backoffInitialMs << Math.min(attempt, 20));
+        return (ceiling > 0) ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+
+    static boolean isRetryable(IOException e) {
+        if (e instanceof InfluxDBWriteException) {
+            int statusCode = ((InfluxDBWriteException) e).getStatusCode();
+            return statusCode >= 500 || statusCode == 429;
+        }
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    @Override
+    public void createDatabase() throws IOException {
+        this.delegate.createDatabase();
+    }
+
+    @Override
+    public void close() {
+        this.delegate.close();
+    }
+}
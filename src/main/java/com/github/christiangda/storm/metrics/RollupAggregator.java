@@ -0,0 +1,143 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rolling sum, min, max, count and last of every numeric metric, per component, over a time window.
+ * <p>
+ * The windows are aligned on the epoch, a window is over when a metrics tick of a later window arrives.
+ * It is not thread safe, every consumer has its own.
+ * </p>
+ */
+class RollupAggregator {
+
+    /**
+     * Aggregated values of a metric of a component within the window
+     */
+    static final class Rollup {
+
+        private double sum = 0;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double last = 0;
+        private long count = 0;
+
+        void add(double value) {
+            this.sum += value;
+            this.min = Math.min(this.min, value);
+            this.max = Math.max(this.max, value);
+            this.last = value;
+            this.count += 1;
+        }
+
+        /**
+         * @return sum, min, max, count and last, as the fields of a point
+         */
+        Map<String, Object> getFields() {
+            final Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("sum", this.sum);
+            fields.put("min", this.min);
+            fields.put("max", this.max);
+            fields.put("count", this.count);
+            fields.put("last", this.last);
+            return fields;
+        }
+
+        double getSum() {
+            return this.sum;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+
+    private final long windowMs;
+    private final Map<String, Map<String, Rollup>> components = new HashMap<>();
+    private long windowStart = -1;
+
+    /**
+     * @param windowMs length of the window in milliseconds
+     */
+    RollupAggregator(long windowMs) {
+        this.windowMs = Math.max(windowMs, 1);
+    }
+
+    /**
+     * Start of the window a timestamp belongs to
+     *
+     * @param timestamp timestamp in milliseconds
+     * @return window start in milliseconds
+     */
+    long windowOf(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, this.windowMs);
+    }
+
+    /**
+     * A window is open and the timestamp belongs to a later one
+     *
+     * @param timestamp timestamp of the tick in milliseconds
+     * @return true when the rollups of the current window must be emitted
+     */
+    boolean isWindowOver(long timestamp) {
+        return this.windowStart >= 0 && this.windowOf(timestamp) > this.windowStart;
+    }
+
+    /**
+     * Aggregate a metric value of a component
+     *
+     * @param timestamp timestamp of the tick in milliseconds, it opens the window when there is none
+     * @param component component id
+     * @param name      metric name
+     * @param value     metric value, only finite numbers are aggregated
+     * @return true when the value was aggregated
+     */
+    boolean add(long timestamp, String component, String name, Object value) {
+        if (!(value instanceof Number)) {
+            return false;
+        }
+        final double number = ((Number) value).doubleValue();
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            return false;
+        }
+
+        if (this.windowStart < 0) {
+            this.windowStart = this.windowOf(timestamp);
+        }
+        this.components
+                .computeIfAbsent(component, key -> new HashMap<>())
+                .computeIfAbsent(name, key -> new Rollup())
+                .add(number);
+        return true;
+    }
+
+    /**
+     * Rollups of the current window, by component and metric name
+     *
+     * @return rollups
+     */
+    Map<String, Map<String, Rollup>> getRollups() {
+        return this.components;
+    }
+
+    /**
+     * @return start of the current window in milliseconds, -1 when there is none
+     */
+    long getWindowStart() {
+        return this.windowStart;
+    }
+
+    boolean isEmpty() {
+        return this.components.isEmpty();
+    }
+
+    /**
+     * Discard the rollups and close the window
+     */
+    void reset() {
+        this.components.clear();
+        this.windowStart = -1;
+    }
+}
@@ -0,0 +1,292 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writer shared by all the consumer executors of a worker that write to the same servers.
+ * <p>
+ * Every executor keeps its own {@link InfluxDBSender} for the tags, fields and encoding of its ticks, and appends
+ * the encoded batches here. Appends go to one of several striped buffers, picked by thread, so executors do not
+ * contend with each other. The buffers are merged into one request when the pending points reach the batch
+ * thresholds, by the executor that reaches them, or after the linger time, by a flusher thread. The requests are
+ * written by one backing sender, with a single HTTP client and connection pool, async writer and spill queue.
+ * </p>
+ * <p>
+ * Writers are reference counted, per JVM and per sender configuration (all the {@code metrics.influxdb.*} settings
+ * but the ones of the consumer task), the last {@link #release()} flushes and closes it.
+ * </p>
+ */
+class SharedWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedWriter.class);
+
+    private static final long MAX_FLUSH_CHECK_INTERVAL_MS = 1000;
+
+    // The sender settings identify a writer, but the ones of the consumer task
+    private static final String SENDER_KEYS_PREFIX = "metrics.influxdb.";
+    private static final Set<String> TASK_KEYS = Collections.singleton(InfluxDBSender.KEY_CONSUMER_TASK_ID);
+
+    private static final Map<Map<String, String>, SharedWriter> WRITERS = new HashMap<>();
+
+    private final Map<String, String> destination;
+    private final InfluxDBSender sender;
+    private final Stripe[] stripes;
+    private final int maxPoints;
+    private final int maxBytes;
+    private final long lingerMs;
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicInteger pendingPoints = new AtomicInteger();
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private final AtomicLong firstAppendTime = new AtomicLong();
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final LineBuffer merged;
+
+    // Guarded by WRITERS
+    private int references = 0;
+
+    /**
+     * @param destination identity of the writer in the registry
+     * @param sender      backing sender, it writes the merged batches
+     * @param stripes     number of append buffers
+     * @param maxPoints   points that trigger a write
+     * @param maxBytes    bytes that trigger a write
+     * @param lingerMs    maximum time a point waits in the buffers
+     */
+    SharedWriter(Map<String, String> destination, InfluxDBSender sender, int stripes, int maxPoints, int maxBytes, long lingerMs) {
+        this.destination = destination;
+        this.sender = sender;
+        this.stripes = new Stripe[Math.max(stripes, 1)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.maxPoints = maxPoints;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+        this.merged = new LineBuffer(Math.min(maxBytes, 1024 * 1024) + 1024);
+
+        final long checkIntervalMs = Math.max(1, Math.min(lingerMs, MAX_FLUSH_CHECK_INTERVAL_MS));
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "influxdb-shared-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushLingeringPoints, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writer of the destination of the configuration, created with a backing sender the first time
+     *
+     * @param config consumer configuration
+     * @return writer, to {@link #release()} when the consumer is done with it
+     */
+    static SharedWriter acquire(Map<Object, Object> config) {
+        final Map<String, String> destination = destination(config);
+
+        synchronized (WRITERS) {
+            SharedWriter writer = WRITERS.get(destination);
+            if (writer == null) {
+                final Map<Object, Object> senderConfig = new HashMap<>(config);
+                senderConfig.put(InfluxDBSender.KEY_INFLUXDB_SHARED_ENABLE, false);
+                senderConfig.put(InfluxDBSender.KEY_INFLUXDB_BATCH_ENABLE, false);
+                senderConfig.put(InfluxDBSender.KEY_INFLUXDB_BATCH_ADAPTIVE_ENABLE, false);
+                final InfluxDBSender sender = new InfluxDBSender(senderConfig);
+
+                writer = new SharedWriter(destination, sender,
+                        Runtime.getRuntime().availableProcessors(),
+                        getIntegerValue(config, InfluxDBSender.KEY_INFLUXDB_BATCH_MAX_POINTS, InfluxDBSender.DEFAULT_INFLUXDB_BATCH_MAX_POINTS),
+                        getIntegerValue(config, InfluxDBSender.KEY_INFLUXDB_BATCH_MAX_BYTES, InfluxDBSender.DEFAULT_INFLUXDB_BATCH_MAX_BYTES),
+                        getLongValue(config, InfluxDBSender.KEY_INFLUXDB_SHARED_LINGER_MS, InfluxDBSender.DEFAULT_INFLUXDB_SHARED_LINGER_MS));
+                WRITERS.put(destination, writer);
+
+                LOG.info("{}: Sharing the writer of {} between the consumers of this worker", SharedWriter.class.getSimpleName(), destination.get(InfluxDBSender.KEY_INFLUXDB_URL));
+            }
+            writer.references += 1;
+            return writer;
+        }
+    }
+
+    /**
+     * @param config consumer configuration
+     * @return sender settings of the configuration, but the ones of the consumer task
+     */
+    static Map<String, String> destination(Map<Object, Object> config) {
+        final Map<String, String> settings = new TreeMap<>();
+        for (Map.Entry<Object, Object> entry : config.entrySet()) {
+            final String key = String.valueOf(entry.getKey());
+            if (key.startsWith(SENDER_KEYS_PREFIX) && !TASK_KEYS.contains(key)) {
+                settings.put(key, String.valueOf(entry.getValue()));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Append the encoded points of a consumer, and write them with the ones of the other consumers
+     * when the batch thresholds are reached
+     *
+     * @param data   encoded records
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param points number of records
+     * @throws IOException when the merged batch could not be written, and spilling is disabled
+     */
+    void append(byte[] data, int offset, int length, int points) throws IOException {
+        final Stripe stripe = this.lockStripe();
+        try {
+            stripe.buffer.write(data, offset, length);
+            stripe.points += points;
+        } finally {
+            stripe.lock.unlock();
+        }
+        this.firstAppendTime.compareAndSet(0, System.currentTimeMillis());
+
+        final int totalPoints = this.pendingPoints.addAndGet(points);
+        final int totalBytes = this.pendingBytes.addAndGet(length);
+        if (totalPoints >= this.maxPoints || totalBytes >= this.maxBytes) {
+            this.drain();
+        }
+    }
+
+    /**
+     * The stripe of the thread when it is free, the first free one otherwise, waiting for the one of the thread
+     * when none is free
+     */
+    private Stripe lockStripe() {
+        final int home = (int) (Thread.currentThread().getId() % this.stripes.length);
+        for (int i = 0; i < this.stripes.length; i++) {
+            final Stripe stripe = this.stripes[(home + i) % this.stripes.length];
+            if (stripe.lock.tryLock()) {
+                return stripe;
+            }
+        }
+        this.stripes[home].lock.lock();
+        return this.stripes[home];
+    }
+
+    /**
+     * Merge the points of all the stripes and write them as one batch
+     *
+     * @throws IOException when the batch could not be written, and spilling is disabled
+     */
+    void drain() throws IOException {
+        this.drainLock.lock();
+        try {
+            this.merged.reset();
+            int points = 0;
+            this.firstAppendTime.set(0);
+            for (Stripe stripe : this.stripes) {
+                stripe.lock.lock();
+                try {
+                    this.merged.write(stripe.buffer.array(), 0, stripe.buffer.size());
+                    points += stripe.points;
+                    stripe.buffer.reset();
+                    stripe.points = 0;
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            this.pendingPoints.addAndGet(-points);
+            this.pendingBytes.addAndGet(-this.merged.size());
+
+            if (points > 0) {
+
+                LOG.debug("{}: Writing {} points of the shared batch", this.getClass().getSimpleName(), points);
+
+                this.sender.write(this.merged.array(), 0, this.merged.size(), points);
+            }
+        } finally {
+            this.drainLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending points when the oldest one has been waiting for more than the linger time
+     */
+    void flushLingeringPoints() {
+        final long first = this.firstAppendTime.get();
+        if (first == 0 || System.currentTimeMillis() - first < this.lingerMs) {
+            return;
+        }
+        try {
+            this.drain();
+        } catch (Exception e) {
+            LOG.warn("{}: Unable to write the shared batch, it will be lost. Exception = {}", this.getClass().getSimpleName(), e.toString());
+        }
+    }
+
+    /**
+     * Give back the writer, the last consumer writes the pending points and closes it
+     */
+    void release() {
+        synchronized (WRITERS) {
+            this.references -= 1;
+            if (this.references > 0) {
+                return;
+            }
+            WRITERS.remove(this.destination);
+        }
+
+        this.flusher.shutdownNow();
+        try {
+            this.drain();
+        } catch (Exception e) {
+            LOG.warn("{}: Unable to write the shared batch, it will be lost. Exception = {}", this.getClass().getSimpleName(), e.toString());
+        }
+        this.sender.stopAsyncWriter();
+        this.sender.closeConnection();
+    }
+
+    /**
+     * Backing sender, it owns the connection, the async writer and the spill queue
+     *
+     * @return sender
+     */
+    InfluxDBSender getSender() {
+        return this.sender;
+    }
+
+    int getPendingPoints() {
+        return this.pendingPoints.get();
+    }
+
+    int getReferences() {
+        synchronized (WRITERS) {
+            return this.references;
+        }
+    }
+
+    private static Integer getIntegerValue(Map<Object, Object> config, String key, Integer defaultValue) {
+        Object value = config.getOrDefault(key, defaultValue);
+        return (value instanceof Number) ? ((Number) value).intValue() : Integer.valueOf(value.toString().trim());
+    }
+
+    private static Long getLongValue(Map<Object, Object> config, String key, Long defaultValue) {
+        Object value = config.getOrDefault(key, defaultValue);
+        return (value instanceof Number) ? ((Number) value).longValue() : Long.valueOf(value.toString().trim());
+    }
+
+    /**
+     * Append buffer of a group of threads
+     */
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LineBuffer buffer = new LineBuffer(16 * 1024);
+        private int points = 0;
+    }
+}
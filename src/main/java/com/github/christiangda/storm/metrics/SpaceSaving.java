@@ -0,0 +1,86 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-saving sketch of the heaviest elements of a stream, with a fixed number of counters.
+ * <p>
+ * An element without a counter takes over the smallest one, inheriting its count as overestimation, so every
+ * element heavier than {@code total / capacity} is always tracked. The capacity is meant to be small (a top-K for
+ * reporting), the smallest counter is found by a linear scan.
+ * It is not thread safe.
+ * </p>
+ *
+ * @param <T> type of the elements
+ */
+final class SpaceSaving<T> {
+
+    private final int capacity;
+    private final Map<T, long[]> counters = new HashMap<>();
+
+    /**
+     * @param capacity number of elements tracked
+     */
+    SpaceSaving(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    /**
+     * @param element element seen
+     * @param weight  weight of the element, 1 to count it
+     */
+    void offer(T element, long weight) {
+        final long[] counter = this.counters.get(element);
+        if (counter != null) {
+            counter[0] += weight;
+            return;
+        }
+        if (this.counters.size() < this.capacity) {
+            this.counters.put(element, new long[]{weight, 0});
+            return;
+        }
+
+        Map.Entry<T, long[]> smallest = null;
+        for (Map.Entry<T, long[]> entry : this.counters.entrySet()) {
+            if (smallest == null || entry.getValue()[0] < smallest.getValue()[0]) {
+                smallest = entry;
+            }
+        }
+        final long[] taken = this.counters.remove(smallest.getKey());
+        // the previous count is the error of the new element
+        taken[1] = taken[0];
+        taken[0] += weight;
+        this.counters.put(element, taken);
+    }
+
+    /**
+     * @return tracked elements and their counts (upper bounds), heaviest first
+     */
+    Map<T, Long> getTop() {
+        final List<Map.Entry<T, long[]>> entries = new ArrayList<>(this.counters.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+
+        final Map<T, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<T, long[]> entry : entries) {
+            top.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return top;
+    }
+
+    /**
+     * @param element tracked element
+     * @return overestimation of the count of the element, 0 when it is not tracked
+     */
+    long getError(T element) {
+        final long[] counter = this.counters.get(element);
+        return (counter != null) ? counter[1] : 0;
+    }
+
+    void clear() {
+        this.counters.clear();
+    }
+}
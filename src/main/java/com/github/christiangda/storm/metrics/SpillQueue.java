@@ -0,0 +1,343 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Disk-backed FIFO queue of line protocol batches, stored in memory-mapped segment files.
+ * <p>
+ * Every record is written as {@code [int length][byte consumed][long createdTime][payload]}, the length is
+ * written last so a record interrupted by a crash is ignored. Consumed records are flagged in place, so
+ * after a worker restart the queue continues from the first record that was not replayed.
+ * When adding a segment would exceed the size cap, the oldest segment is discarded.
+ * </p>
+ */
+class SpillQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillQueue.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final byte PENDING = 0;
+    private static final byte CONSUMED = 1;
+
+    /**
+     * Batch read from the queue, it must be given back to {@link #commit(Record)} once replayed
+     */
+    static final class Record {
+        private final long segmentId;
+        private final int position;
+        private final long createdTime;
+        private final byte[] data;
+
+        private Record(long segmentId, int position, long createdTime, byte[] data) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.createdTime = createdTime;
+            this.data = data;
+        }
+
+        long getCreatedTime() {
+            return createdTime;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long pendingRecords;
+        private long pendingBytes;
+
+        private Segment(long id, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long pendingRecords = 0;
+    private long pendingBytes = 0;
+    private long droppedRecords = 0;
+
+    SpillQueue(File directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spill directory " + directory.getAbsolutePath());
+        }
+        this.recover();
+    }
+
+    /**
+     * Map the segment files left by a previous run, oldest first
+     */
+    private void recover() throws IOException {
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long id = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            Segment segment = this.openSegment(id, file);
+
+            int position = 0;
+            boolean foundPending = false;
+            while (position + HEADER_SIZE <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > segment.buffer.capacity()) {
+                    break;
+                }
+                if (segment.buffer.get(position + 4) == PENDING) {
+                    if (!foundPending) {
+                        segment.readPosition = position;
+                        foundPending = true;
+                    }
+                    segment.pendingRecords += 1;
+                    segment.pendingBytes += length;
+                }
+                position += HEADER_SIZE + length;
+            }
+            segment.writePosition = position;
+            if (!foundPending) {
+                segment.readPosition = position;
+            }
+
+            this.segments.addLast(segment);
+            this.pendingRecords += segment.pendingRecords;
+            this.pendingBytes += segment.pendingBytes;
+        }
+
+        LOG.info("{}: Recovered {} segments with {} pending records from {}",
+                this.getClass().getSimpleName(), this.segments.size(), this.pendingRecords, this.directory.getAbsolutePath());
+    }
+
+    private Segment openSegment(long id, File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        long size = Math.max(channel.size(), this.segmentSize);
+        return new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * Append a batch of line protocol records to the queue
+     *
+     * @param data   line protocol records separated by new lines
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @return false if the batch could not be stored
+     */
+    synchronized boolean append(byte[] data, int offset, int length) {
+        int recordSize = HEADER_SIZE + length;
+
+        if (recordSize > this.segmentSize) {
+            LOG.warn("{}: Discarding batch of {} bytes, it is bigger than the segment size", this.getClass().getSimpleName(), length);
+            this.droppedRecords += 1;
+            return false;
+        }
+
+        Segment tail = this.segments.peekLast();
+        try {
+            if (tail == null || tail.writePosition + recordSize > tail.buffer.capacity()) {
+                tail = this.addSegment();
+            }
+        } catch (IOException e) {
+            LOG.warn("{}: Unable to create a new segment, batch will be lost. Exception = {}", this.getClass().getSimpleName(), e);
+            this.droppedRecords += 1;
+            return false;
+        }
+
+        int position = tail.writePosition;
+        ByteBuffer buffer = tail.buffer.duplicate();
+        buffer.position(position + 4);
+        buffer.put(PENDING);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.put(data, offset, length);
+        // the length goes last, it makes the record visible
+        tail.buffer.putInt(position, length);
+
+        tail.writePosition += recordSize;
+        tail.pendingRecords += 1;
+        tail.pendingBytes += length;
+        this.pendingRecords += 1;
+        this.pendingBytes += length;
+        return true;
+    }
+
+    private Segment addSegment() throws IOException {
+        while (!this.segments.isEmpty() && (long) (this.segments.size() + 1) * this.segmentSize > this.maxSize) {
+            Segment oldest = this.segments.pollFirst();
+
+            LOG.warn("{}: Spill directory is full, discarding {} pending records", this.getClass().getSimpleName(), oldest.pendingRecords);
+
+            this.droppedRecords += oldest.pendingRecords;
+            this.removeSegment(oldest);
+        }
+
+        Segment last = this.segments.peekLast();
+        long id = (last == null) ? 0 : last.id + 1;
+        Segment segment = this.openSegment(id, new File(this.directory, String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        this.segments.addLast(segment);
+        return segment;
+    }
+
+    private void removeSegment(Segment segment) {
+        this.pendingRecords -= segment.pendingRecords;
+        this.pendingBytes -= segment.pendingBytes;
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            LOG.debug("{}: Unable to close segment {}. Exception = {}", this.getClass().getSimpleName(), segment.file, e);
+        }
+        if (!segment.file.delete()) {
+            LOG.warn("{}: Unable to delete segment {}", this.getClass().getSimpleName(), segment.file);
+        }
+    }
+
+    /**
+     * Oldest pending batch, without removing it from the queue
+     *
+     * @return the batch or null if the queue is empty
+     */
+    synchronized Record peek() {
+        Segment head = this.firstPendingSegment();
+        if (head == null) {
+            return null;
+        }
+
+        int length = head.buffer.getInt(head.readPosition);
+        byte[] payload = new byte[length];
+        ByteBuffer buffer = head.buffer.duplicate();
+        buffer.position(head.readPosition + HEADER_SIZE);
+        buffer.get(payload);
+
+        return new Record(head.id, head.readPosition, head.buffer.getLong(head.readPosition + 5), payload);
+    }
+
+    /**
+     * Flag a batch returned by {@link #peek()} as replayed
+     *
+     * @param record replayed batch
+     */
+    synchronized void commit(Record record) {
+        this.consume(record);
+    }
+
+    /**
+     * Discard a batch returned by {@link #peek()} that InfluxDB server will never accept, counting it as dropped
+     *
+     * @param record rejected batch
+     */
+    synchronized void discard(Record record) {
+        if (this.consume(record)) {
+            this.droppedRecords += 1;
+        }
+    }
+
+    private boolean consume(Record record) {
+        Segment head = this.firstPendingSegment();
+        if (head == null || head.id != record.segmentId || head.readPosition != record.position) {
+            // the segment was discarded by the size cap while the record was being replayed
+            return false;
+        }
+
+        int length = head.buffer.getInt(head.readPosition);
+        head.buffer.put(head.readPosition + 4, CONSUMED);
+        head.readPosition += HEADER_SIZE + length;
+        head.pendingRecords -= 1;
+        head.pendingBytes -= length;
+        this.pendingRecords -= 1;
+        this.pendingBytes -= length;
+
+        if (head.readPosition >= head.writePosition && head != this.segments.peekLast()) {
+            this.segments.pollFirst();
+            this.removeSegment(head);
+        }
+        return true;
+    }
+
+    private Segment firstPendingSegment() {
+        Segment head = this.segments.peekFirst();
+        while (head != null && head.readPosition >= head.writePosition) {
+            if (head == this.segments.peekLast()) {
+                return null;
+            }
+            this.segments.pollFirst();
+            this.removeSegment(head);
+            head = this.segments.peekFirst();
+        }
+        return head;
+    }
+
+    /**
+     * Age of the oldest pending batch
+     *
+     * @return milliseconds since the oldest pending batch was spilled, 0 if the queue is empty
+     */
+    synchronized long getOldestAgeMs() {
+        Segment head = this.firstPendingSegment();
+        if (head == null) {
+            return 0;
+        }
+        return System.currentTimeMillis() - head.buffer.getLong(head.readPosition + 5);
+    }
+
+    synchronized boolean isEmpty() {
+        return this.pendingRecords == 0;
+    }
+
+    synchronized long getPendingRecords() {
+        return this.pendingRecords;
+    }
+
+    synchronized long getPendingBytes() {
+        return this.pendingBytes;
+    }
+
+    synchronized long getDroppedRecords() {
+        return this.droppedRecords;
+    }
+
+    /**
+     * Close the segment files, the pending records stay on disk for the next run
+     */
+    synchronized void close() {
+        for (Segment segment : this.segments) {
+            segment.buffer.force();
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                LOG.debug("{}: Unable to close segment {}. Exception = {}", this.getClass().getSimpleName(), segment.file, e);
+            }
+        }
+        this.segments.clear();
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line protocol over a persistent TCP connection, for listeners like Telegraf's socket_listener or InfluxDB relays.
+ * <p>
+ * The connection is opened on the first write and opened again on the next write after a failure.
+ * The writes are non-blocking, a write not done within the write timeout (a stalled listener) closes the connection.
+ * There is no response, so {@link #createDatabase()} does nothing.
+ * </p>
+ */
+class TcpTransport implements Transport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpTransport.class);
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMs;
+    private final long writeTimeoutMs;
+
+    private SocketChannel channel;
+    private Selector selector;
+
+    TcpTransport(String host, int port, int connectTimeoutMs, long writeTimeoutMs) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    @Override
+    public synchronized int write(byte[] data, int offset, int length) throws IOException {
+        final SocketChannel socketChannel = this.getChannel();
+        final ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.writeTimeoutMs);
+        try {
+            while (buffer.hasRemaining()) {
+                if (socketChannel.write(buffer) > 0) {
+                    continue;
+                }
+                // the send buffer is full, wait for the listener to read
+                final long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    throw new SocketTimeoutException("Write to " + this.host + ":" + this.port + " timed out after " + this.writeTimeoutMs + " ms, "
+                            + buffer.remaining() + " bytes not written");
+                }
+                this.selector.select(remainingMs);
+                this.selector.selectedKeys().clear();
+            }
+            return WriteStats.NO_STATUS;
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    private SocketChannel getChannel() throws IOException {
+        if (this.channel == null) {
+            // resolved on every connection, a name not resolved yet or moved to another address is looked up again
+            final InetSocketAddress address = this.resolve();
+            if (address.isUnresolved()) {
+                throw new IOException("Unable to resolve InfluxDB TCP host " + this.host);
+            }
+
+            LOG.debug("{}: Connecting to {}", this.getClass().getSimpleName(), address);
+
+            SocketChannel socketChannel = SocketChannel.open();
+            Selector socketSelector = null;
+            try {
+                socketChannel.socket().setTcpNoDelay(true);
+                socketChannel.socket().setKeepAlive(true);
+                socketChannel.socket().connect(address, this.connectTimeoutMs);
+                socketChannel.configureBlocking(false);
+                socketSelector = Selector.open();
+                socketChannel.register(socketSelector, SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                socketChannel.close();
+                if (socketSelector != null) {
+                    socketSelector.close();
+                }
+                throw e;
+            }
+            this.channel = socketChannel;
+            this.selector = socketSelector;
+        }
+        return this.channel;
+    }
+
+    InetSocketAddress resolve() {
+        return new InetSocketAddress(this.host, this.port);
+    }
+
+    @Override
+    public void createDatabase() {
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                LOG.debug("{}: Unable to close channel. Exception = {}", this.getClass().getSimpleName(), e.toString());
+            }
+            this.channel = null;
+        }
+        if (this.selector != null) {
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                LOG.debug("{}: Unable to close selector. Exception = {}", this.getClass().getSimpleName(), e.toString());
+            }
+            this.selector = null;
+        }
+    }
+}
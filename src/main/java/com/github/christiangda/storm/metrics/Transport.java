@@ -0,0 +1,66 @@
+package com.github.christiangda.storm.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Way the line protocol records reach InfluxDB server
+ */
+interface Transport {
+
+    /**
+     * Available transports
+     */
+    enum Type {
+        HTTP,
+        UDP,
+        TCP;
+
+        static Type fromString(String value) {
+            return Type.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Write line protocol records
+     *
+     * @param data   line protocol records, separated by new lines
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @return HTTP status of the response, {@link WriteStats#NO_STATUS} when the transport has no response
+     * @throws IOException when the records could not be sent
+     */
+    int write(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Write line protocol records held in several buffers, in order, as one request.
+     * The default implementation copies them into a heap array.
+     *
+     * @param records line protocol records, the buffers are not modified
+     * @param length  number of bytes of all the buffers
+     * @return HTTP status of the response, {@link WriteStats#NO_STATUS} when the transport has no response
+     * @throws IOException when the records could not be sent
+     */
+    default int write(ByteBuffer[] records, int length) throws IOException {
+        final byte[] data = new byte[length];
+        int offset = 0;
+        for (ByteBuffer record : records) {
+            final int size = record.remaining();
+            record.duplicate().get(data, offset, size);
+            offset += size;
+        }
+        return this.write(data, 0, length);
+    }
+
+    /**
+     * Create the database, when the transport is able to
+     *
+     * @throws IOException when the database could not be created
+     */
+    void createDatabase() throws IOException;
+
+    /**
+     * Release the resources held by the transport
+     */
+    void close();
+}
@@ -0,0 +1,110 @@
+package com.github.christiangda.storm.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Fire and forget line protocol over UDP.
+ * <p>
+ * The records are packed in datagrams of at most {@code mtu} bytes without copying them, a datagram always
+ * ends at the end of a record. InfluxDB UDP listener writes to the database configured on the server side,
+ * so {@link #createDatabase()} does nothing.
+ * </p>
+ */
+class UdpTransport implements Transport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UdpTransport.class);
+
+    private final String host;
+    private final int port;
+    private final int mtu;
+
+    private DatagramChannel channel;
+
+    UdpTransport(String host, int port, int mtu) {
+        this.host = host;
+        this.port = port;
+        this.mtu = mtu;
+    }
+
+    @Override
+    public synchronized int write(byte[] data, int offset, int length) throws IOException {
+        final DatagramChannel datagramChannel = this.getChannel();
+        final int end = offset + length;
+
+        int packetStart = offset;
+        int packetEnd = offset;
+        while (packetEnd < end) {
+            int lineEnd = packetEnd;
+            while (lineEnd < end && data[lineEnd++] != '\n') {
+                // look for the end of the record
+            }
+
+            if (lineEnd - packetStart > this.mtu && packetEnd > packetStart) {
+                this.send(datagramChannel, data, packetStart, packetEnd - packetStart);
+                packetStart = packetEnd;
+            }
+            if (lineEnd - packetStart > this.mtu) {
+                LOG.warn("{}: Record of {} bytes is bigger than the MTU, sending it alone", this.getClass().getSimpleName(), lineEnd - packetStart);
+            }
+            packetEnd = lineEnd;
+        }
+        if (packetEnd > packetStart) {
+            this.send(datagramChannel, data, packetStart, packetEnd - packetStart);
+        }
+        return WriteStats.NO_STATUS;
+    }
+
+    private void send(DatagramChannel datagramChannel, byte[] data, int offset, int length) throws IOException {
+        try {
+            datagramChannel.write(ByteBuffer.wrap(data, offset, length));
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    private DatagramChannel getChannel() throws IOException {
+        if (this.channel == null) {
+            // resolved on every connection, a name not resolved yet or moved to another address is looked up again
+            final InetSocketAddress address = this.resolve();
+            if (address.isUnresolved()) {
+                throw new IOException("Unable to resolve InfluxDB UDP host " + this.host);
+            }
+            final DatagramChannel datagramChannel = DatagramChannel.open();
+            try {
+                datagramChannel.connect(address);
+            } catch (IOException e) {
+                datagramChannel.close();
+                throw e;
+            }
+            this.channel = datagramChannel;
+        }
+        return this.channel;
+    }
+
+    InetSocketAddress resolve() {
+        return new InetSocketAddress(this.host, this.port);
+    }
+
+    @Override
+    public void createDatabase() {
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                LOG.debug("{}: Unable to close channel. Exception = {}", this.getClass().getSimpleName(), e.toString());
+            }
+            this.channel = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Group the flattened metrics of a task into one multi-field point per metric family.
+ * <p>
+ * The family is the first segment of the flattened name (segments are separated by dots, see
+ * {@link InfluxDBMetricsConsumer#processDataPoint(String, Object, int)}). The tag rule of the family
+ * names the tags taken from the next segments, and the segments left form the field name, or
+ * {@code value} when none is left. For example, with the rule {@code __emit-count -> [stream]}
+ * the metric {@code __emit-count.default} becomes the field {@code value} of the point
+ * {@code __emit-count,stream=default}, while {@code __sendqueue.read_pos} (no rule) becomes the
+ * field {@code read_pos} of the point {@code __sendqueue}.
+ * </p>
+ */
+class WidePointAggregator {
+
+    static final String WILDCARD_FAMILY = "*";
+    static final String DEFAULT_FIELD = "value";
+
+    // Storm's built-in per-stream metrics
+    static final Map<String, List<String>> DEFAULT_TAG_RULES;
+
+    static {
+        final Map<String, List<String>> rules = new HashMap<>();
+        for (String family : new String[]{"__ack-count", "__fail-count", "__emit-count", "__execute-count",
+                "__transfer-count", "__process-latency", "__execute-latency", "__complete-latency"}) {
+            rules.put(family, Collections.singletonList("stream"));
+        }
+        DEFAULT_TAG_RULES = Collections.unmodifiableMap(rules);
+    }
+
+    /**
+     * Point being aggregated
+     */
+    static final class WidePoint {
+        private final String measurement;
+        private final Map<String, String> tags;
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+
+        private WidePoint(String measurement, Map<String, String> tags) {
+            this.measurement = measurement;
+            this.tags = tags;
+        }
+
+        String getMeasurement() {
+            return measurement;
+        }
+
+        Map<String, String> getTags() {
+            return tags;
+        }
+
+        Map<String, Object> getFields() {
+            return fields;
+        }
+    }
+
+    private final Map<String, List<String>> tagRules;
+    private final List<String> wildcardRule;
+    private final Map<String, WidePoint> points = new LinkedHashMap<>();
+    private final List<String> segments = new ArrayList<>();
+
+    WidePointAggregator(Map<String, List<String>> tagRules) {
+        this.tagRules = tagRules;
+        this.wildcardRule = tagRules.getOrDefault(WILDCARD_FAMILY, Collections.<String>emptyList());
+    }
+
+    /**
+     * Parse the tag rules from the topology configuration
+     *
+     * @param rules map of family to a tag name or a list of tag names, null for the defaults
+     * @return tag rules
+     */
+    static Map<String, List<String>> parseTagRules(Object rules) {
+        if (!(rules instanceof Map)) {
+            return DEFAULT_TAG_RULES;
+        }
+
+        final Map<String, List<String>> parsed = new HashMap<>();
+        for (Map.Entry<?, ?> rule : ((Map<?, ?>) rules).entrySet()) {
+            final List<String> tagNames = new ArrayList<>();
+            if (rule.getValue() instanceof Collection) {
+                for (Object tagName : (Collection<?>) rule.getValue()) {
+                    tagNames.add(tagName.toString().trim());
+                }
+            } else if (rule.getValue() != null) {
+                for (String tagName : rule.getValue().toString().split(",")) {
+                    if (!tagName.trim().isEmpty()) {
+                        tagNames.add(tagName.trim());
+                    }
+                }
+            }
+            parsed.put(rule.getKey().toString(), tagNames);
+        }
+        return parsed;
+    }
+
+    /**
+     * Add a flattened metric to the point of its family
+     *
+     * @param name  flattened metric name
+     * @param value metric value
+     */
+    void add(String name, Object value) {
+        this.split(name);
+
+        final String family = this.segments.get(0);
+        final List<String> rule = this.tagRules.getOrDefault(family, this.wildcardRule);
+        final int tagCount = Math.min(rule.size(), this.segments.size() - 1);
+
+        String key = family;
+        Map<String, String> tags = Collections.emptyMap();
+        if (tagCount > 0) {
+            tags = new HashMap<>();
+            final StringBuilder keyBuilder = new StringBuilder(family);
+            for (int i = 0; i < tagCount; i++) {
+                tags.put(rule.get(i), this.segments.get(i + 1));
+                keyBuilder.append('\u0000').append(this.segments.get(i + 1));
+            }
+            key = keyBuilder.toString();
+        }
+
+        String field = DEFAULT_FIELD;
+        if (this.segments.size() > tagCount + 1) {
+            field = String.join(".", this.segments.subList(tagCount + 1, this.segments.size()));
+        }
+
+        WidePoint point = this.points.get(key);
+        if (point == null) {
+            point = new WidePoint(family, tags);
+            this.points.put(key, point);
+        }
+        point.fields.put(field, value);
+    }
+
+    private void split(String name) {
+        this.segments.clear();
+        int start = 0;
+        int end;
+        while ((end = name.indexOf('.', start)) >= 0) {
+            this.segments.add(name.substring(start, end));
+            start = end + 1;
+        }
+        this.segments.add(name.substring(start));
+    }
+
+    Collection<WidePoint> getPoints() {
+        return this.points.values();
+    }
+
+    boolean isEmpty() {
+        return this.points.isEmpty();
+    }
+
+    void reset() {
+        this.points.clear();
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.christiangda.storm.metrics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the write attempts, shared by all the transports of a sender
+ */
+class WriteStats {
+
+    // no HTTP response: connection refused, timeout, UDP or TCP error
+    static final int NO_STATUS = 0;
+
+    /**
+     * Notified of every write attempt, from the threads writing
+     */
+    interface Listener {
+
+        void succeeded(int bytes, long nanos);
+
+        void attemptFailed(int statusCode, long nanos);
+
+        void throttled(long retryAfterMs);
+    }
+
+    private final AtomicLong succeededWrites = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final Histogram writeLatencyUs = new Histogram();
+    private final ConcurrentMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong permanentFailures = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final List<CircuitBreaker> circuitBreakers = new CopyOnWriteArrayList<>();
+    private volatile Listener listener;
+
+    void register(CircuitBreaker circuitBreaker) {
+        this.circuitBreakers.add(circuitBreaker);
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * A write attempt succeeded
+     *
+     * @param statusCode HTTP status of the response, {@link #NO_STATUS} when the transport has no response
+     * @param bytes      bytes written
+     * @param nanos      time taken by the attempt
+     */
+    void succeeded(int statusCode, int bytes, long nanos) {
+        if (statusCode != NO_STATUS) {
+            this.statuses.computeIfAbsent(statusCode, status -> new AtomicLong()).incrementAndGet();
+        }
+        this.succeededWrites.incrementAndGet();
+        this.bytesWritten.addAndGet(bytes);
+        this.writeLatencyUs.record(nanos / 1000);
+
+        final Listener listener = this.listener;
+        if (listener != null) {
+            listener.succeeded(bytes, nanos);
+        }
+    }
+
+    /**
+     * A write attempt failed, it may be retried
+     *
+     * @param statusCode HTTP status of the response, {@link #NO_STATUS} when there was no response
+     * @param nanos      time taken by the attempt
+     */
+    void attemptFailed(int statusCode, long nanos) {
+        this.statuses.computeIfAbsent(statusCode, status -> new AtomicLong()).incrementAndGet();
+        this.writeLatencyUs.record(nanos / 1000);
+
+        final Listener listener = this.listener;
+        if (listener != null) {
+            listener.attemptFailed(statusCode, nanos);
+        }
+    }
+
+    /**
+     * The server answered 429 or 503, asking to slow down
+     *
+     * @param retryAfterMs time given by its {@code Retry-After} header, 0 when there was none
+     */
+    void throttled(long retryAfterMs) {
+        this.throttled.incrementAndGet();
+
+        final Listener listener = this.listener;
+        if (listener != null) {
+            listener.throttled(retryAfterMs);
+        }
+    }
+
+    void retry() {
+        this.retries.incrementAndGet();
+    }
+
+    void failedWrite() {
+        this.failedWrites.incrementAndGet();
+    }
+
+    void permanentFailure() {
+        this.permanentFailures.incrementAndGet();
+    }
+
+    void shortCircuited() {
+        this.shortCircuited.incrementAndGet();
+    }
+
+    long getSucceededWrites() {
+        return this.succeededWrites.get();
+    }
+
+    long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    long getStatusCount(int statusCode) {
+        final AtomicLong count = this.statuses.get(statusCode);
+        return (count != null) ? count.get() : 0;
+    }
+
+    Histogram getWriteLatencyUs() {
+        return this.writeLatencyUs;
+    }
+
+    int getOpenCircuits() {
+        int open = 0;
+        for (CircuitBreaker circuitBreaker : this.circuitBreakers) {
+            if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+                open += 1;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Counters since the last call, the count of attempts by HTTP status of their response, and the number of
+     * circuits not closed
+     *
+     * @return metric values
+     */
+    Map<String, Object> getValuesAndReset() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("succeeded-writes", this.succeededWrites.getAndSet(0));
+        values.put("bytes-written", this.bytesWritten.getAndSet(0));
+        values.put("write-latency-us", this.writeLatencyUs.getValuesAndReset());
+        for (Map.Entry<Integer, AtomicLong> status : this.statuses.entrySet()) {
+            values.put((status.getKey() == NO_STATUS) ? "status-none" : "status-" + status.getKey(), status.getValue().getAndSet(0));
+        }
+        values.put("retries", this.retries.getAndSet(0));
+        values.put("failed-writes", this.failedWrites.getAndSet(0));
+        values.put("permanent-failures", this.permanentFailures.getAndSet(0));
+        values.put("short-circuited", this.shortCircuited.getAndSet(0));
+        values.put("throttled", this.throttled.getAndSet(0));
+        values.put("open-circuits", this.getOpenCircuits());
+        return values;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.christiangda.storm.metrics;
+
+import com.github.luben.zstd.Zstd;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Zstandard compression, for the proxies in front of InfluxDB that accept {@code Content-Encoding: zstd}.
+ * <p>
+ * zstd-jni is an optional dependency, this class is only loaded when the codec is selected
+ * (see {@link #isAvailable()}). Every thread compresses into its own reusable buffer, the records held in several
+ * buffers are gathered into another one first.
+ * </p>
+ */
+class ZstdCompressor implements Compressor {
+
+    private static final int DEFAULT_ZSTD_LEVEL = 3;
+    private static final int MAX_ZSTD_LEVEL = 22;
+
+    private final int level;
+    private final ThreadLocal<LineBuffer> buffer = ThreadLocal.withInitial(() -> new LineBuffer(64 * 1024));
+    private final ThreadLocal<LineBuffer> input = ThreadLocal.withInitial(() -> new LineBuffer(64 * 1024));
+
+    /**
+     * @param level compression level, from 1 (fastest) to 22 (smallest), {@link #DEFAULT_LEVEL} for 3
+     */
+    ZstdCompressor(int level) {
+        this.level = (level == DEFAULT_LEVEL) ? DEFAULT_ZSTD_LEVEL : Math.max(1, Math.min(level, MAX_ZSTD_LEVEL));
+    }
+
+    /**
+     * @return true when zstd-jni and its native library can be loaded
+     */
+    static boolean isAvailable() {
+        try {
+            Zstd.compressBound(1);
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getEncoding() {
+        return "zstd";
+    }
+
+    @Override
+    public void compress(byte[] data, int offset, int length, BufferedSink sink) throws IOException {
+        final LineBuffer compressed = this.buffer.get();
+        compressed.reset();
+        compressed.ensureCapacity((int) Zstd.compressBound(length));
+
+        final long size = Zstd.compressByteArray(compressed.array(), 0, compressed.array().length, data, offset, length, this.level);
+        if (Zstd.isError(size)) {
+            throw new IOException("Unable to compress the request body: " + Zstd.getErrorName(size));
+        }
+        sink.write(compressed.array(), 0, (int) size);
+    }
+
+    @Override
+    public void compress(ByteBuffer[] records, BufferedSink sink) throws IOException {
+        final LineBuffer input = this.input.get();
+        input.reset();
+        for (ByteBuffer record : records) {
+            input.write(record);
+        }
+        this.compress(input.array(), 0, input.size(), sink);
+    }
+
+    int getLevel() {
+        return this.level;
+    }
+}
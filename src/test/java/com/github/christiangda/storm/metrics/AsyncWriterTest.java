@@ -0,0 +1,203 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncWriterTest {
+
+    @Test
+    public void itShouldWriteAllQueuedItemsWhenStopped() throws Exception {
+        // ----------------------------------------
+        // Given
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final AsyncWriter<Integer> asyncWriter = new AsyncWriter<>(written::addAll, item -> 1, 100, 2, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        asyncWriter.start();
+        for (int i = 0; i < 50; i++) {
+            asyncWriter.offer(i);
+        }
+        asyncWriter.stop(5000);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(50, written.size());
+        assertEquals(50, asyncWriter.getEnqueuedCount());
+        assertEquals(50, asyncWriter.getWrittenCount());
+        assertEquals(0, asyncWriter.getDroppedCount());
+    }
+
+    @Test
+    public void itShouldDropNewestItemsWhenQueueIsFull() throws Exception {
+        // ----------------------------------------
+        // Given (writer threads are not started, so nothing is drained)
+        final AsyncWriter<Integer> asyncWriter = new AsyncWriter<>(items -> {
+        }, item -> 1, 2, 1, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        assertTrue(asyncWriter.offer(1));
+        assertTrue(asyncWriter.offer(2));
+        assertFalse(asyncWriter.offer(3));
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2, asyncWriter.getEnqueuedCount());
+        assertEquals(1, asyncWriter.getDroppedCount());
+        assertEquals(2, asyncWriter.getQueueSize());
+    }
+
+    @Test
+    public void itShouldDropOldestItemsWhenQueueIsFull() throws Exception {
+        // ----------------------------------------
+        // Given
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final AsyncWriter<Integer> asyncWriter = new AsyncWriter<>(written::addAll, item -> 1, 2, 1, AsyncWriter.OverflowPolicy.DROP_OLDEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        asyncWriter.offer(1);
+        asyncWriter.offer(2);
+        asyncWriter.offer(3);
+        asyncWriter.start();
+        asyncWriter.stop(5000);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(3, asyncWriter.getEnqueuedCount());
+        assertEquals(1, asyncWriter.getDroppedCount());
+        assertEquals(2, written.size());
+        assertEquals(Integer.valueOf(2), written.get(0));
+        assertEquals(Integer.valueOf(3), written.get(1));
+    }
+
+    @Test
+    public void itShouldGiveUpAfterTimeoutWhenBlockPolicyAndQueueIsFull() throws Exception {
+        // ----------------------------------------
+        // Given
+        final AsyncWriter<Integer> asyncWriter = new AsyncWriter<>(items -> {
+        }, item -> 1, 1, 1, AsyncWriter.OverflowPolicy.BLOCK, 50, 10);
+
+        // ----------------------------------------
+        // When
+        asyncWriter.offer(1);
+        final long start = System.nanoTime();
+        final boolean queued = asyncWriter.offer(2);
+
+        // ----------------------------------------
+        // Then
+        assertFalse(queued);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        assertEquals(1, asyncWriter.getDroppedCount());
+    }
+
+    @Test
+    public void itShouldCountItemsAsDroppedWhenSinkFails() throws Exception {
+        // ----------------------------------------
+        // Given
+        final CountDownLatch attempted = new CountDownLatch(1);
+        final AsyncWriter<Integer> asyncWriter = new AsyncWriter<>(items -> {
+            attempted.countDown();
+            throw new RuntimeException("InfluxDB is down");
+        }, item -> 1, 10, 1, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        asyncWriter.offer(1);
+        asyncWriter.start();
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        asyncWriter.stop(5000);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(0, asyncWriter.getWrittenCount());
+        assertEquals(1, asyncWriter.getDroppedCount());
+    }
+
+    @Test
+    public void itShouldCountPointsUsingTheWeigher() throws Exception {
+        // ----------------------------------------
+        // Given
+        final AsyncWriter<int[]> asyncWriter = new AsyncWriter<>(items -> {
+        }, item -> item.length, 1, 1, AsyncWriter.OverflowPolicy.DROP_OLDEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        asyncWriter.offer(new int[3]);
+        asyncWriter.offer(new int[5]);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(8, asyncWriter.getEnqueuedCount());
+        assertEquals(3, asyncWriter.getDroppedCount());
+    }
+
+    @Test
+    public void itShouldReportTheCountersOfTheIntervalAndKeepTheCumulativeOnes() throws Exception {
+        // ----------------------------------------
+        // Given (writer threads are not started, so nothing is drained)
+        final AsyncWriter<Integer> asyncWriter = new AsyncWriter<>(items -> {
+        }, item -> 1, 2, 1, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        asyncWriter.offer(1);
+        asyncWriter.offer(2);
+        asyncWriter.offer(3);
+        final Map<String, Object> values = asyncWriter.getValuesAndReset();
+        asyncWriter.offer(4);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2L, values.get("async-enqueued-points"));
+        assertEquals(0L, values.get("async-written-points"));
+        assertEquals(1L, values.get("async-dropped-points"));
+        assertEquals(0L, asyncWriter.getValuesAndReset().get("async-enqueued-points"));
+        assertEquals(2, asyncWriter.getDroppedCount());
+    }
+
+    @Test
+    public void itShouldTellTheOverflowListenerOfTheRejectedAndEvictedPoints() throws Exception {
+        // ----------------------------------------
+        // Given (writer threads are not started, so nothing is drained)
+        final AtomicInteger overflowed = new AtomicInteger();
+        final AsyncWriter<int[]> newest = new AsyncWriter<>(items -> {
+        }, item -> item.length, 1, 1, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+        final AsyncWriter<int[]> oldest = new AsyncWriter<>(items -> {
+        }, item -> item.length, 1, 1, AsyncWriter.OverflowPolicy.DROP_OLDEST, 0, 10);
+        newest.setOverflowListener(overflowed::addAndGet);
+        oldest.setOverflowListener(overflowed::addAndGet);
+
+        // ----------------------------------------
+        // When
+        newest.offer(new int[2]);
+        newest.offer(new int[3]);
+        oldest.offer(new int[5]);
+        oldest.offer(new int[7]);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(8, overflowed.get());
+        assertEquals(3, newest.getDroppedCount());
+        assertEquals(5, oldest.getDroppedCount());
+    }
+
+    @Test
+    public void itShouldParseOverflowPolicyIgnoringCase() throws Exception {
+        assertEquals(AsyncWriter.OverflowPolicy.DROP_OLDEST, AsyncWriter.OverflowPolicy.fromString("drop_oldest"));
+        assertEquals(AsyncWriter.OverflowPolicy.DROP_NEWEST, AsyncWriter.OverflowPolicy.fromString("drop-newest"));
+        assertEquals(AsyncWriter.OverflowPolicy.BLOCK, AsyncWriter.OverflowPolicy.fromString(" BLOCK "));
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CardinalityGuardTest {
+
+    private static long series(String name, int taskId) {
+        return DeltaSuppressor.seriesKey("test-bolt", taskId, name);
+    }
+
+    @Test
+    public void itShouldAdmitTheSeriesOfAFamilyUpToItsLimitAndAlwaysAfter() throws Exception {
+        // ----------------------------------------
+        // Given
+        final CardinalityGuard guard = new CardinalityGuard(1000, 3, CardinalityGuard.OverflowAction.COLLAPSE, 5, 60000L);
+
+        // ----------------------------------------
+        // When
+        for (int stream = 0; stream < 10; stream++) {
+            final String name = "__emit-count.stream-" + stream;
+            final CardinalityGuard.Decision expected = (stream < 3) ? CardinalityGuard.Decision.ADMIT : CardinalityGuard.Decision.COLLAPSE;
+            assertEquals(expected, guard.admit(series(name, 1), name, true));
+        }
+        final CardinalityGuard.Decision again = guard.admit(series("__emit-count.stream-1", 1), "__emit-count.stream-1", true);
+        final CardinalityGuard.Decision otherFamily = guard.admit(series("__ack-count.default", 1), "__ack-count.default", true);
+        final CardinalityGuard.Decision notCollapsible = guard.admit(series("__emit-count.stream-42", 1), "__emit-count.stream-42", false);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(CardinalityGuard.Decision.ADMIT, again);
+        assertEquals(CardinalityGuard.Decision.ADMIT, otherFamily);
+        assertEquals(CardinalityGuard.Decision.REJECT, notCollapsible);
+        assertEquals(4, guard.getAdmittedSeries());
+        assertEquals(11, guard.getEstimatedSeries("__emit-count"));
+        assertEquals("__emit-count.__other", CardinalityGuard.collapsedName("__emit-count.stream-5"));
+
+        final Map<String, Object> values = guard.getValuesAndReset();
+        assertEquals(7L, values.get("collapsed-points"));
+        assertEquals(1L, values.get("rejected-points"));
+        assertEquals(4, values.get("series"));
+        @SuppressWarnings("unchecked") final Map<String, Object> top = (Map<String, Object>) values.get("top-offenders");
+        assertEquals(8L, top.get("__emit-count.overflow-points"));
+        assertEquals(11L, top.get("__emit-count.series-estimate"));
+        assertEquals(0L, guard.getValuesAndReset().get("collapsed-points"));
+    }
+
+    @Test
+    public void itShouldRejectTheNewSeriesOverTheTopologyLimit() throws Exception {
+        // ----------------------------------------
+        // Given
+        final CardinalityGuard guard = new CardinalityGuard(5, 1000, CardinalityGuard.OverflowAction.REJECT, 5, 60000L);
+
+        // ----------------------------------------
+        // When
+        int admitted = 0;
+        for (int task = 0; task < 5000; task++) {
+            if (guard.admit(series("__execute-latency.default", task), "__execute-latency.default", true) == CardinalityGuard.Decision.ADMIT) {
+                admitted += 1;
+            }
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(5, admitted);
+        assertEquals(5, guard.getAdmittedSeries());
+        final long estimate = guard.getEstimatedSeries("__execute-latency");
+        assertTrue(estimate > 4000 && estimate < 6000);
+
+        final Map<String, Object> values = guard.getValuesAndReset();
+        assertEquals(4995L, values.get("rejected-points"));
+        assertTrue((Long) values.get("series-estimate") > 4500);
+    }
+
+    @Test
+    public void itShouldNotAdmitANewTaskSeriesAsTheSeriesOfAnotherComponent() throws Exception {
+        // ----------------------------------------
+        // Given "bolt2" hashes one more than "bolt1", and 31 * 1 + 1 = 32
+        final CardinalityGuard guard = new CardinalityGuard(1000, 1, CardinalityGuard.OverflowAction.REJECT, 5, 60000L);
+        final String name = "__emit-count.default";
+
+        // ----------------------------------------
+        // When
+        final CardinalityGuard.Decision first = guard.admit(DeltaSuppressor.seriesKey("bolt1", 32, name), name, true);
+        final CardinalityGuard.Decision other = guard.admit(DeltaSuppressor.seriesKey("bolt2", 1, name), name, true);
+
+        // ----------------------------------------
+        // Then the second series is over the limit of the family
+        assertEquals(CardinalityGuard.Decision.ADMIT, first);
+        assertEquals(CardinalityGuard.Decision.REJECT, other);
+        assertEquals(1, guard.getAdmittedSeries());
+    }
+
+    @Test
+    public void itShouldFreeThePlaceOfTheSeriesThatStoppedComingAfterTwoPeriods() throws Exception {
+        // ----------------------------------------
+        // Given a family full of the series of a stream
+        final CardinalityGuard guard = new CardinalityGuard(1000, 2, CardinalityGuard.OverflowAction.REJECT, 5, 60000L);
+        final String kept = "__emit-count.kept";
+        final String gone = "__emit-count.gone";
+        final String added = "__emit-count.added";
+        guard.expire(1000L);
+        guard.admit(series(kept, 1), kept, true);
+        guard.admit(series(gone, 1), gone, true);
+
+        // ----------------------------------------
+        // When one series keeps coming and the other one stops
+        final CardinalityGuard.Decision beforeRotation = guard.admit(series(added, 1), added, true);
+        guard.expire(61000L);
+        final CardinalityGuard.Decision afterOneRotation = guard.admit(series(added, 1), added, true);
+        guard.admit(series(kept, 1), kept, true);
+        final long estimateAfterOneRotation = guard.getEstimatedSeries("__emit-count");
+        guard.expire(121000L);
+        guard.admit(series(kept, 1), kept, true);
+        final CardinalityGuard.Decision afterTwoRotations = guard.admit(series(added, 1), added, true);
+
+        // ----------------------------------------
+        // Then the new series takes the place of the one gone
+        assertEquals(CardinalityGuard.Decision.REJECT, beforeRotation);
+        assertEquals(CardinalityGuard.Decision.REJECT, afterOneRotation);
+        assertEquals(2, estimateAfterOneRotation);
+        assertEquals(CardinalityGuard.Decision.ADMIT, afterTwoRotations);
+        assertEquals(2, guard.getAdmittedSeries());
+        assertEquals(CardinalityGuard.Decision.ADMIT, guard.admit(series(kept, 1), kept, true));
+    }
+
+    @Test
+    public void itShouldNotAdmitANewSeriesWhoseNameHasTheSameHashCodeAsAnAdmittedOne() throws Exception {
+        // ----------------------------------------
+        // Given "__emit-count.Aa" and "__emit-count.BB" have the same String hash code
+        final CardinalityGuard guard = new CardinalityGuard(1000, 1, CardinalityGuard.OverflowAction.REJECT, 5, 60000L);
+
+        // ----------------------------------------
+        // When
+        final CardinalityGuard.Decision first = guard.admit(series("__emit-count.Aa", 1), "__emit-count.Aa", true);
+        final CardinalityGuard.Decision other = guard.admit(series("__emit-count.BB", 1), "__emit-count.BB", true);
+
+        // ----------------------------------------
+        // Then the second series is over the limit of the family
+        assertEquals(CardinalityGuard.Decision.ADMIT, first);
+        assertEquals(CardinalityGuard.Decision.REJECT, other);
+    }
+}
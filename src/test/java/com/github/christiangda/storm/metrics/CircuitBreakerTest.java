@@ -0,0 +1,70 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void itShouldOpenAfterConsecutiveFailures() throws Exception {
+        // ----------------------------------------
+        // Given
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 2, 60000);
+
+        // ----------------------------------------
+        // When
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+
+        // ----------------------------------------
+        // Then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void itShouldLetOneTrialRequestThroughWhenOpenTimeIsOver() throws Exception {
+        // ----------------------------------------
+        // Given
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 0);
+        circuitBreaker.onFailure();
+
+        // ----------------------------------------
+        // When
+        final boolean trial = circuitBreaker.allowRequest();
+        final boolean concurrent = circuitBreaker.allowRequest();
+
+        // ----------------------------------------
+        // Then
+        assertTrue(trial);
+        assertFalse(concurrent);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void itShouldOpenAgainWhenTrialRequestFails() throws Exception {
+        // ----------------------------------------
+        // Given
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, 0);
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.allowRequest());
+
+        // ----------------------------------------
+        // When
+        circuitBreaker.onFailure();
+
+        // ----------------------------------------
+        // Then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.christiangda.storm.metrics;
+
+import com.github.luben.zstd.Zstd;
+import okio.Buffer;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressorTest {
+
+    private static byte[] lines(int count) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append("storm-__execute-latency.default,ComponentId=split-bolt,TaskId=").append(i % 8)
+                    .append(" value=").append(i * 0.25).append(" 1500000000000\n");
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(byte[] data) throws Exception {
+        final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                decompressed.write(buffer, 0, read);
+            }
+        }
+        return decompressed.toByteArray();
+    }
+
+    @Test
+    public void itShouldWriteValidGzipReusingTheDeflaterOfTheThread() throws Exception {
+        // ----------------------------------------
+        // Given
+        final GzipCompressor compressor = new GzipCompressor(Compressor.DEFAULT_LEVEL);
+        final byte[] first = lines(2000);
+        final byte[] second = lines(10);
+
+        // ----------------------------------------
+        // When
+        final Buffer firstBody = new Buffer();
+        compressor.compress(first, 0, first.length, firstBody);
+        final Buffer secondBody = new Buffer();
+        compressor.compress(second, 5, second.length - 5, secondBody);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(Deflater.DEFAULT_COMPRESSION, compressor.getLevel());
+        assertArrayEquals(first, gunzip(firstBody.readByteArray()));
+        assertEquals(new String(second, 5, second.length - 5, StandardCharsets.UTF_8),
+                new String(gunzip(secondBody.readByteArray()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void itShouldTradeSizeForSpeedWithTheLevel() throws Exception {
+        // ----------------------------------------
+        // Given
+        final byte[] data = lines(5000);
+
+        // ----------------------------------------
+        // When
+        final Buffer fastest = new Buffer();
+        new GzipCompressor(1).compress(data, 0, data.length, fastest);
+        final Buffer smallest = new Buffer();
+        new GzipCompressor(42).compress(data, 0, data.length, smallest);
+
+        // ----------------------------------------
+        // Then
+        assertTrue(smallest.size() < fastest.size());
+        assertEquals(Deflater.BEST_COMPRESSION, new GzipCompressor(42).getLevel());
+    }
+
+    @Test
+    public void itShouldWriteValidZstdWhenZstdJniIsAvailable() throws Exception {
+        Assume.assumeTrue(ZstdCompressor.isAvailable());
+
+        // ----------------------------------------
+        // Given
+        final ZstdCompressor compressor = new ZstdCompressor(Compressor.DEFAULT_LEVEL);
+        final byte[] data = lines(2000);
+
+        // ----------------------------------------
+        // When
+        final Buffer body = new Buffer();
+        compressor.compress(data, 0, data.length, body);
+
+        // ----------------------------------------
+        // Then
+        final byte[] compressed = body.readByteArray();
+        assertEquals("zstd", compressor.getEncoding());
+        assertEquals(3, compressor.getLevel());
+        assertTrue(compressed.length < data.length / 4);
+        assertArrayEquals(data, Zstd.decompress(compressed, data.length));
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DataPointFlattenerTest {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+
+    private void record(String name, Object value) {
+        this.names.add(name);
+        this.values.add(value);
+    }
+
+    private static Map<String, Object> nested(int levels, Object value) {
+        Object nested = value;
+        for (int level = levels; level > 0; level--) {
+            nested = Collections.singletonMap("l" + level, nested);
+        }
+        return (Map<String, Object>) nested;
+    }
+
+    @Test
+    public void itShouldFlattenNestedMapsInDepthFirstOrder() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DataPointFlattener flattener = new DataPointFlattener(3, 100, new ConsumerStats());
+        final Map<String, Object> queue = new LinkedHashMap<>();
+        queue.put("read_pos", 10L);
+        queue.put("streams", Collections.singletonMap("default", 1.5d));
+        queue.put("state", "running");
+
+        // ----------------------------------------
+        // When
+        flattener.flatten("__sendqueue", queue, 0, this::record);
+        flattener.flatten("uptime", 60, 0, this::record);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(Arrays.asList("__sendqueue.read_pos", "__sendqueue.streams.default", "__sendqueue.state", "uptime"), this.names);
+        assertEquals(Arrays.<Object>asList(10L, 1.5d, "running", 60), this.values);
+    }
+
+    @Test
+    public void itShouldDropValuesNestedDeeperThanMaxDepth() throws Exception {
+        // ----------------------------------------
+        // Given
+        final ConsumerStats stats = new ConsumerStats();
+        final DataPointFlattener flattener = new DataPointFlattener(2, 100, stats);
+
+        // ----------------------------------------
+        // When
+        flattener.flatten("ok", nested(2, 1), 0, this::record);
+        flattener.flatten("too-deep", nested(3, 1), 0, this::record);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(Collections.singletonList("ok.l1.l2"), this.names);
+        assertEquals(1, stats.getPointsDropped(ConsumerStats.DropReason.DEPTH_EXCEEDED));
+    }
+
+    @Test
+    public void itShouldDropNullAndUnsupportedValues() throws Exception {
+        // ----------------------------------------
+        // Given
+        final ConsumerStats stats = new ConsumerStats();
+        final DataPointFlattener flattener = new DataPointFlattener(3, 100, stats);
+        final Map<Object, Object> values = new LinkedHashMap<>();
+        values.put("null", null);
+        values.put("object", new Object());
+        values.put(7, true);
+
+        // ----------------------------------------
+        // When
+        flattener.flatten("test", values, 0, this::record);
+        flattener.flatten("test-null", null, 0, this::record);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(Collections.singletonList("test.7"), this.names);
+        assertEquals(2, stats.getPointsDropped(ConsumerStats.DropReason.NULL_VALUE));
+        assertEquals(1, stats.getPointsDropped(ConsumerStats.DropReason.UNSUPPORTED_TYPE));
+    }
+
+    @Test
+    public void itShouldReuseCompositeNamesAcrossTicks() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DataPointFlattener flattener = new DataPointFlattener(3, 100, new ConsumerStats());
+
+        // ----------------------------------------
+        // When
+        flattener.flatten("__emit-count", Collections.singletonMap("default", 1L), 0, this::record);
+        flattener.flatten(new String("__emit-count"), Collections.singletonMap(new String("default"), 2L), 0, this::record);
+
+        // ----------------------------------------
+        // Then
+        assertEquals("__emit-count.default", this.names.get(0));
+        assertSame(this.names.get(0), this.names.get(1));
+    }
+
+    @Test
+    public void itShouldEvictLeastRecentlyUsedNamesWhenCacheIsFull() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DataPointFlattener flattener = new DataPointFlattener(3, 2, new ConsumerStats());
+        final String first = flattener.compositeName("metric", "a");
+        flattener.compositeName("metric", "b");
+
+        // ----------------------------------------
+        // When
+        assertSame(first, flattener.compositeName("metric", "a"));
+        flattener.compositeName("metric", "c");
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2, flattener.getCachedNames());
+        assertSame(first, flattener.compositeName("metric", "a"));
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaSuppressorTest {
+
+    private static final long SERIES = DeltaSuppressor.seriesKey("split-bolt", 1, "__emit-count.default");
+
+    @Test
+    public void itShouldSuppressUnchangedValues() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DeltaSuppressor suppressor = new DeltaSuppressor(1024, 10, false);
+
+        // ----------------------------------------
+        // When
+        final boolean first = suppressor.shouldSend(SERIES, 10L);
+        final boolean unchanged = suppressor.shouldSend(SERIES, 10);
+        final boolean changed = suppressor.shouldSend(SERIES, 11L);
+        final boolean text = suppressor.shouldSend(SERIES, "running");
+        final boolean sameText = suppressor.shouldSend(SERIES, "running");
+
+        // ----------------------------------------
+        // Then
+        assertTrue(first);
+        assertFalse(unchanged);
+        assertTrue(changed);
+        assertTrue(text);
+        assertFalse(sameText);
+    }
+
+    @Test
+    public void itShouldSendASuppressedSeriesAgainEveryHeartbeat() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DeltaSuppressor suppressor = new DeltaSuppressor(1024, 3, false);
+
+        // ----------------------------------------
+        // When
+        int sent = 0;
+        for (int i = 0; i < 7; i++) {
+            if (suppressor.shouldSend(SERIES, 5.0d)) {
+                sent += 1;
+            }
+        }
+
+        // ----------------------------------------
+        // Then the first value and one out of three afterwards
+        assertEquals(3, sent);
+    }
+
+    @Test
+    public void itShouldSuppressZeroValuesOnlyWhenEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DeltaSuppressor suppressing = new DeltaSuppressor(1024, 10, true);
+        final DeltaSuppressor keeping = new DeltaSuppressor(1024, 10, false);
+
+        // ----------------------------------------
+        // When
+        suppressing.shouldSend(SERIES, 10L);
+        keeping.shouldSend(SERIES, 10L);
+
+        // ----------------------------------------
+        // Then
+        assertFalse(suppressing.shouldSend(SERIES, 0L));
+        assertTrue(keeping.shouldSend(SERIES, 0L));
+        assertTrue(suppressing.shouldSend(SERIES, 3L));
+    }
+
+    @Test
+    public void itShouldKeepABoundedNumberOfSeriesAndEvictTheLeastRecentlySeen() throws Exception {
+        // ----------------------------------------
+        // Given a single set
+        final DeltaSuppressor suppressor = new DeltaSuppressor(DeltaSuppressor.WAYS, 10, false);
+        assertEquals(DeltaSuppressor.WAYS, suppressor.getCapacity());
+
+        // ----------------------------------------
+        // When one more series than the set holds is seen
+        for (int task = 0; task <= DeltaSuppressor.WAYS; task++) {
+            suppressor.shouldSend(DeltaSuppressor.seriesKey("split-bolt", task, "__ack-count"), 1L);
+        }
+
+        // ----------------------------------------
+        // Then the first series was forgotten, the others are still suppressed
+        assertTrue(suppressor.shouldSend(DeltaSuppressor.seriesKey("split-bolt", 0, "__ack-count"), 1L));
+        assertFalse(suppressor.shouldSend(DeltaSuppressor.seriesKey("split-bolt", DeltaSuppressor.WAYS, "__ack-count"), 1L));
+    }
+
+    @Test
+    public void itShouldRoundTheCapacityUpToAPowerOfTwoSets() throws Exception {
+        assertEquals(128, new DeltaSuppressor(100, 10, true).getCapacity());
+        assertEquals(65536, new DeltaSuppressor(65536, 10, true).getCapacity());
+        assertEquals(DeltaSuppressor.WAYS, new DeltaSuppressor(0, 10, true).getCapacity());
+    }
+
+    @Test
+    public void itShouldKeyTheSeriesByComponentTaskAndName() throws Exception {
+        assertNotEquals(SERIES, DeltaSuppressor.seriesKey("split-bolt", 2, "__emit-count.default"));
+        assertNotEquals(SERIES, DeltaSuppressor.seriesKey("count-bolt", 1, "__emit-count.default"));
+        assertNotEquals(SERIES, DeltaSuppressor.seriesKey("split-bolt", 1, "__ack-count.default"));
+    }
+
+    @Test
+    public void itShouldNotSuppressANewSeriesWhoseComponentHashAndTaskIdAddUpLikeAnotherOne() throws Exception {
+        // ----------------------------------------
+        // Given "bolt2" hashes one more than "bolt1", and 31 * 1 + 1 = 32
+        assertEquals("bolt1".hashCode() + 1, "bolt2".hashCode());
+        final DeltaSuppressor suppressor = new DeltaSuppressor(1024, 10, true);
+
+        // ----------------------------------------
+        // When an idle counter of one task is seen
+        final boolean first = suppressor.shouldSend(DeltaSuppressor.seriesKey("bolt1", 32, "__emit-count.default"), 0L);
+        final boolean other = suppressor.shouldSend(DeltaSuppressor.seriesKey("bolt2", 1, "__emit-count.default"), 0L);
+
+        // ----------------------------------------
+        // Then the series of the other task is new, and sent
+        assertNotEquals(DeltaSuppressor.seriesKey("bolt1", 32, "__emit-count.default"), DeltaSuppressor.seriesKey("bolt2", 1, "__emit-count.default"));
+        assertTrue(first);
+        assertTrue(other);
+    }
+
+    @Test
+    public void itShouldNotSuppressANewSeriesWhoseNameHasTheSameHashCodeAsAnotherOne() throws Exception {
+        // ----------------------------------------
+        // Given "__emit-count.Aa" and "__emit-count.BB" have the same String hash code
+        assertEquals("__emit-count.Aa".hashCode(), "__emit-count.BB".hashCode());
+        final DeltaSuppressor suppressor = new DeltaSuppressor(1024, 10, true);
+
+        // ----------------------------------------
+        // When both series have the same value
+        final boolean first = suppressor.shouldSend(DeltaSuppressor.seriesKey("split-bolt", 1, "__emit-count.Aa"), 5L);
+        final boolean other = suppressor.shouldSend(DeltaSuppressor.seriesKey("split-bolt", 1, "__emit-count.BB"), 5L);
+
+        // ----------------------------------------
+        // Then the second series is new, and sent
+        assertNotEquals(DeltaSuppressor.seriesKey("split-bolt", 1, "__emit-count.Aa"), DeltaSuppressor.seriesKey("split-bolt", 1, "__emit-count.BB"));
+        assertTrue(first);
+        assertTrue(other);
+    }
+}
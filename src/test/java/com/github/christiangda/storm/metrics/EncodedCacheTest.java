@@ -0,0 +1,83 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class EncodedCacheTest {
+
+    private final AtomicInteger encodings = new AtomicInteger();
+
+    private EncodedCache<String> cache(int maxEntries, long idleMs) {
+        return new EncodedCache<>(maxEntries, idleMs, (out, name) -> {
+            this.encodings.incrementAndGet();
+            LineProtocolEncoder.writeEscaped(out, name, LineProtocolEncoder.MEASUREMENT);
+        });
+    }
+
+    @Test
+    public void itShouldEscapeEveryElementOnlyOnce() throws Exception {
+        // ----------------------------------------
+        // Given
+        final EncodedCache<String> cache = cache(10, 60000L);
+
+        // ----------------------------------------
+        // When
+        final byte[] first = cache.get("__emit-count.default stream,1");
+        final byte[] second = cache.get("__emit-count.default stream,1");
+
+        // ----------------------------------------
+        // Then
+        assertSame(first, second);
+        assertEquals("__emit-count.default\\ stream\\,1", new String(first, StandardCharsets.UTF_8));
+        assertEquals(1, this.encodings.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void itShouldEvictTheElementsNotUsedForTwoIdlePeriods() throws Exception {
+        // ----------------------------------------
+        // Given
+        final EncodedCache<String> cache = cache(10, 1000L);
+        cache.expire(1000L);
+        cache.get("task-1");
+        cache.get("task-2");
+
+        // ----------------------------------------
+        // When
+        cache.expire(2000L);
+        cache.get("task-1");
+        cache.expire(3000L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1, cache.size());
+        cache.get("task-1");
+        cache.get("task-2");
+        assertEquals(3, this.encodings.get());
+    }
+
+    @Test
+    public void itShouldKeepAtMostTwoGenerationsOfMaxEntries() throws Exception {
+        // ----------------------------------------
+        // Given
+        final EncodedCache<String> cache = cache(2, 60000L);
+
+        // ----------------------------------------
+        // When
+        for (int i = 0; i < 10; i++) {
+            cache.get("metric-" + i);
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(4, cache.size());
+        cache.get("metric-9");
+        cache.get("metric-8");
+        assertEquals(10, this.encodings.get());
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class EndpointRouterTest {
+
+    private static Endpoint mockEndpoint(String url) {
+        final Endpoint endpoint = Mockito.mock(Endpoint.class);
+        Mockito.doReturn(url).when(endpoint).getUrl();
+        Mockito.doReturn(true).when(endpoint).offer(Mockito.any(EncodedBatch.class));
+        return endpoint;
+    }
+
+    private static void route(EndpointRouter router, String lines, int points) {
+        final byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        router.route(data, 0, data.length, points);
+    }
+
+    @Test
+    public void itShouldSendEveryBatchToTheNextEndpointWhenRoundRobin() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Endpoint first = mockEndpoint("http://influxdb-1:8086");
+        final Endpoint second = mockEndpoint("http://influxdb-2:8086");
+        final EndpointRouter router = new EndpointRouter(Arrays.asList(first, second), EndpointRouter.RoutingStrategy.ROUND_ROBIN);
+
+        // ----------------------------------------
+        // When
+        route(router, "a value=1 1\n", 1);
+        route(router, "b value=2 1\n", 1);
+        route(router, "c value=3 1\n", 1);
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(first, Mockito.times(2)).offer(Mockito.any(EncodedBatch.class));
+        Mockito.verify(second, Mockito.times(1)).offer(Mockito.any(EncodedBatch.class));
+    }
+
+    @Test
+    public void itShouldSendEveryBatchToAllEndpointsWhenFanOut() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Endpoint first = mockEndpoint("http://influxdb-1:8086");
+        final Endpoint second = mockEndpoint("http://influxdb-2:8086");
+        final EndpointRouter router = new EndpointRouter(Arrays.asList(first, second), EndpointRouter.RoutingStrategy.FAN_OUT);
+
+        final ArgumentCaptor<EncodedBatch> firstBatch = ArgumentCaptor.forClass(EncodedBatch.class);
+        final ArgumentCaptor<EncodedBatch> secondBatch = ArgumentCaptor.forClass(EncodedBatch.class);
+
+        // ----------------------------------------
+        // When
+        route(router, "a value=1 1\nb value=2 1\n", 2);
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(first, Mockito.times(1)).offer(firstBatch.capture());
+        Mockito.verify(second, Mockito.times(1)).offer(secondBatch.capture());
+        assertSame(firstBatch.getValue(), secondBatch.getValue());
+        assertEquals(2, firstBatch.getValue().getPoints());
+    }
+
+    @Test
+    public void itShouldSendEverySeriesToTheSameEndpointWhenConsistentHash() throws Exception {
+        // ----------------------------------------
+        // Given
+        final List<Endpoint> endpoints = Arrays.asList(
+                mockEndpoint("http://influxdb-1:8086"),
+                mockEndpoint("http://influxdb-2:8086"),
+                mockEndpoint("http://influxdb-3:8086")
+        );
+        final EndpointRouter router = new EndpointRouter(endpoints, EndpointRouter.RoutingStrategy.CONSISTENT_HASH);
+
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            lines.append("storm-metric,TaskId=").append(i).append(" value=").append(i).append(" 1\n");
+        }
+
+        // ----------------------------------------
+        // When
+        route(router, lines.toString(), 30);
+        route(router, lines.toString().replace(" 1\n", " 2\n"), 30);
+
+        // ----------------------------------------
+        // Then
+        int points = 0;
+        for (Endpoint endpoint : endpoints) {
+            final ArgumentCaptor<EncodedBatch> batches = ArgumentCaptor.forClass(EncodedBatch.class);
+            Mockito.verify(endpoint, Mockito.times(2)).offer(batches.capture());
+
+            final String firstTick = new String(batches.getAllValues().get(0).getData(), StandardCharsets.UTF_8);
+            final String secondTick = new String(batches.getAllValues().get(1).getData(), StandardCharsets.UTF_8);
+            assertEquals(firstTick.replace(" 1\n", " 2\n"), secondTick);
+            points += batches.getAllValues().get(0).getPoints();
+        }
+        assertEquals(30, points);
+    }
+
+    @Test
+    public void itShouldUseMeasurementAndTagsAsSeriesKey() throws Exception {
+        final byte[] line = "my\\ metric,tag=a\\ b value=1 1".getBytes(StandardCharsets.UTF_8);
+        assertEquals("my\\ metric,tag=a\\ b", new String(line, 0, EndpointRouter.seriesKeyEnd(line, 0, line.length), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void itShouldParseRoutingStrategyIgnoringCase() throws Exception {
+        assertEquals(EndpointRouter.RoutingStrategy.ROUND_ROBIN, EndpointRouter.RoutingStrategy.fromString("round_robin"));
+        assertEquals(EndpointRouter.RoutingStrategy.CONSISTENT_HASH, EndpointRouter.RoutingStrategy.fromString("consistent-hash"));
+        assertEquals(EndpointRouter.RoutingStrategy.FAN_OUT, EndpointRouter.RoutingStrategy.fromString(" FAN_OUT "));
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlushSchedulerTest {
+
+    @Test
+    public void itShouldGrowTheBatchWhileWritesAreFastAndShrinkItWhenTheyAreSlow() throws Exception {
+        // ----------------------------------------
+        // Given
+        final FlushScheduler scheduler = new FlushScheduler(100, 5000, 10000, () -> 0);
+        final int initialPoints = scheduler.getBatchPoints();
+
+        // ----------------------------------------
+        // When
+        for (int i = 0; i < 20; i++) {
+            scheduler.succeeded(1024, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        final int grownPoints = scheduler.getBatchPoints();
+        for (int i = 0; i < 20; i++) {
+            scheduler.succeeded(1024, TimeUnit.MILLISECONDS.toNanos(8000));
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1250, initialPoints);
+        assertEquals(5000, grownPoints);
+        assertTrue(scheduler.getBatchPoints() < grownPoints);
+        assertTrue(scheduler.getBatchPoints() >= 100);
+
+        final Map<String, Object> values = scheduler.getValuesAndReset();
+        assertEquals(scheduler.getBatchPoints(), values.get("batch-target-points"));
+        assertTrue((Long) values.get("batch-adjustments") > 0);
+        assertEquals(0L, scheduler.getValuesAndReset().get("batch-adjustments"));
+    }
+
+    @Test
+    public void itShouldKeepTheFlushIntervalWithinTheTargetDelayOfTheQueuedWrites() throws Exception {
+        // ----------------------------------------
+        // Given
+        final AtomicInteger queueDepth = new AtomicInteger();
+        final FlushScheduler scheduler = new FlushScheduler(100, 5000, 10000, queueDepth::get);
+
+        // ----------------------------------------
+        // When
+        scheduler.succeeded(1024, TimeUnit.MILLISECONDS.toNanos(1000));
+        final long idleInterval = scheduler.getFlushIntervalMs();
+        queueDepth.set(3);
+        scheduler.succeeded(1024, TimeUnit.MILLISECONDS.toNanos(1000));
+        final long queuedInterval = scheduler.getFlushIntervalMs();
+        queueDepth.set(100);
+        scheduler.succeeded(1024, TimeUnit.MILLISECONDS.toNanos(1000));
+
+        // ----------------------------------------
+        // Then
+        assertEquals(9000, idleInterval);
+        assertEquals(6000, queuedInterval);
+        assertEquals(FlushScheduler.MIN_FLUSH_INTERVAL_MS, scheduler.getFlushIntervalMs());
+    }
+
+    @Test
+    public void itShouldHalveTheBatchAndHoldTheFlushesWhenTheServerThrottles() throws Exception {
+        // ----------------------------------------
+        // Given
+        final FlushScheduler scheduler = new FlushScheduler(100, 4000, 10000, () -> 0);
+
+        // ----------------------------------------
+        // When
+        scheduler.attemptFailed(400, 0);
+        final int afterBadRequest = scheduler.getBatchPoints();
+        scheduler.attemptFailed(429, 0);
+        scheduler.throttled(60000);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1000, afterBadRequest);
+        assertEquals(500, scheduler.getBatchPoints());
+        assertTrue(scheduler.isPaused(System.currentTimeMillis()));
+        assertFalse(scheduler.isPaused(System.currentTimeMillis() + 60000));
+        assertTrue((Long) scheduler.getValuesAndReset().get("throttle-ms") > 50000);
+
+        scheduler.attemptFailed(500, 0);
+        assertEquals(250, scheduler.getBatchPoints());
+    }
+}
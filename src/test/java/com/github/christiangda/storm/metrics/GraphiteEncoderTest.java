@@ -0,0 +1,91 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class GraphiteEncoderTest {
+
+    private static String lines(GraphiteEncoder encoder) {
+        return new String(encoder.getBuffer().array(), 0, encoder.getBuffer().size(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void itShouldWriteTaggedRecordsWithTimestampInSeconds() throws Exception {
+        // ----------------------------------------
+        // Given
+        final GraphiteEncoder encoder = new GraphiteEncoder("storm-", 16);
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("Topology", "word count");
+        tags.put("ComponentId", "split-bolt");
+        tags.put("Empty", "");
+        encoder.setTags(tags);
+        encoder.setFields(Collections.<String, Object>singletonMap("WorkerHost", "localhost"));
+
+        // ----------------------------------------
+        // When
+        encoder.encodeInteger("__emit-count.default", 10L, 1500000000999L);
+        encoder.encodeNumber("__execute-latency.default", 0.5d, 1500000000999L);
+        encoder.encodeBoolean("active", true, 1500000000999L);
+        encoder.encodeString("state", "running", 1500000000999L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(
+                "storm-__emit-count.default;ComponentId=split-bolt;Topology=word_count 10 1500000000\n"
+                        + "storm-__execute-latency.default;ComponentId=split-bolt;Topology=word_count 0.5 1500000000\n"
+                        + "storm-active;ComponentId=split-bolt;Topology=word_count 1 1500000000\n",
+                lines(encoder));
+        assertEquals(3, encoder.getPoints());
+    }
+
+    @Test
+    public void itShouldWriteOneRecordPerNumericFieldOfAPoint() throws Exception {
+        // ----------------------------------------
+        // Given
+        final GraphiteEncoder encoder = new GraphiteEncoder("", 16);
+        encoder.setTags(Collections.singletonMap("ComponentId", "split-bolt"));
+
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("sum", 40d);
+        fields.put("count", 4L);
+        fields.put("state", "running");
+
+        // ----------------------------------------
+        // When
+        encoder.encodePoint("__emit-count", Collections.singletonMap("Rollup", "60s"), fields, 60000L);
+        encoder.encodePoint("__sendqueue", Collections.<String, String>emptyMap(), Collections.<String, Object>singletonMap("value", 7), 60000L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(
+                "__emit-count.sum;ComponentId=split-bolt;Rollup=60s 40 60\n"
+                        + "__emit-count.count;ComponentId=split-bolt;Rollup=60s 4 60\n"
+                        + "__sendqueue;ComponentId=split-bolt 7 60\n",
+                lines(encoder));
+    }
+
+    @Test
+    public void itShouldReplaceTheGraphiteDelimiters() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineBuffer path = new LineBuffer(16);
+        final LineBuffer tag = new LineBuffer(16);
+
+        // ----------------------------------------
+        // When
+        GraphiteEncoder.writeSanitized(path, "a b;c=d", false);
+        GraphiteEncoder.writeSanitized(tag, "a b;c=d~é", true);
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a_b_c=d", new String(path.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("a_b_c_d_é", new String(tag.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
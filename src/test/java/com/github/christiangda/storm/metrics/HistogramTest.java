@@ -0,0 +1,70 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void itShouldMapEveryValueToABucketWithBoundedError() throws Exception {
+        long previousBucket = -1;
+        for (long value = 0; value < 100000; value++) {
+            int bucket = Histogram.bucketOf(value);
+            long highest = Histogram.highestValueOf(bucket);
+
+            assertTrue(bucket == previousBucket || bucket == previousBucket + 1);
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 16);
+            previousBucket = bucket;
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void itShouldComputePercentilesOfRecordedValues() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Histogram histogram = new Histogram();
+
+        // ----------------------------------------
+        // When
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 16);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 16);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void itShouldResetWhenValuesAreRead() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Histogram histogram = new Histogram();
+        histogram.record(10);
+        histogram.record(30);
+        histogram.record(-5);
+
+        // ----------------------------------------
+        // When
+        final Map<String, Object> values = histogram.getValuesAndReset();
+
+        // ----------------------------------------
+        // Then
+        assertEquals(3L, values.get("count"));
+        assertEquals(40d / 3, (Double) values.get("mean"), 0.001);
+        assertEquals(10L, values.get("p50"));
+        assertEquals(30L, values.get("max"));
+        assertEquals(0, histogram.getCount());
+        assertEquals(0L, histogram.getValuesAndReset().get("p99"));
+    }
+}
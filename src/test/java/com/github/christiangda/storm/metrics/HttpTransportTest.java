@@ -0,0 +1,192 @@
+package com.github.christiangda.storm.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpTransportTest {
+
+    private HttpServer server;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<byte[]> bodies = Collections.synchronizedList(new ArrayList<byte[]>());
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream input = exchange.getRequestBody()) {
+                final byte[] buffer = new byte[1024];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    body.write(buffer, 0, read);
+                }
+            }
+            encodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            bodies.add(body.toByteArray());
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                    + " " + exchange.getRequestHeaders().getFirst("Authorization")
+                    + " " + new String(body.toByteArray(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void itShouldWriteToTheInfluxDB1EndpointWithTheCredentialsAsParameters() throws Exception {
+        // ----------------------------------------
+        // Given
+        final HttpTransport transport = HttpTransport.influxDB1(new OkHttpClient(), url, "storm", "user", "secret", null, 0);
+        final byte[] data = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        transport.createDatabase();
+        final int statusCode = transport.write(data, 0, data.length);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(204, statusCode);
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).startsWith("POST /query?u=user&p=secret null q=CREATE"));
+        assertEquals("POST /write?db=storm&rp=autogen&precision=ms&consistency=all&u=user&p=secret null a value=1 1\n", requests.get(1));
+    }
+
+    @Test
+    public void itShouldWriteToTheInfluxDB2EndpointWithTheToken() throws Exception {
+        // ----------------------------------------
+        // Given
+        final HttpTransport transport = HttpTransport.influxDB2(new OkHttpClient(), url, "my-org", "storm", "my-token", null, 0);
+        final byte[] data = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When the bucket is not created
+        transport.createDatabase();
+        transport.write(data, 0, data.length);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1, requests.size());
+        assertEquals("POST /api/v2/write?org=my-org&bucket=storm&precision=ms Token my-token a value=1 1\n", requests.get(0));
+    }
+
+    @Test
+    public void itShouldCompressOnlyTheBodiesAboveTheThreshold() throws Exception {
+        // ----------------------------------------
+        // Given
+        final HttpTransport transport = HttpTransport.influxDB1(new OkHttpClient(), url, "storm", "", "", new GzipCompressor(1), 64);
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append("storm-__emit-count.default,ComponentId=split-bolt value=").append(i).append(" 1500000000000\n");
+        }
+        final byte[] small = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] large = lines.toString().getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        transport.write(small, 0, small.length);
+        transport.write(large, 0, large.length);
+
+        // ----------------------------------------
+        // Then
+        assertNull(encodings.get(0));
+        assertEquals("a value=1 1\n", new String(bodies.get(0), StandardCharsets.UTF_8));
+
+        assertEquals("gzip", encodings.get(1));
+        assertTrue(bodies.get(1).length < large.length / 4);
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bodies.get(1)))) {
+            final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                decompressed.write(buffer, 0, read);
+            }
+            assertEquals(lines.toString(), new String(decompressed.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void itShouldWriteTheRecordsOfSeveralDirectBuffersAsOneBody() throws Exception {
+        // ----------------------------------------
+        // Given
+        final HttpTransport transport = HttpTransport.influxDB1(new OkHttpClient(), url, "storm", "", "", new GzipCompressor(1), 1024);
+        final StringBuilder lines = new StringBuilder();
+        final ByteBuffer[] records = new ByteBuffer[20];
+        for (int i = 0; i < records.length; i++) {
+            final byte[] record = ("storm-__emit-count.default,ComponentId=split-bolt value=" + i + " 1500000000000\n").getBytes(StandardCharsets.UTF_8);
+            lines.append(new String(record, StandardCharsets.UTF_8));
+            records[i] = ByteBuffer.allocateDirect(record.length);
+            records[i].put(record).flip();
+        }
+        final int length = lines.length();
+
+        // ----------------------------------------
+        // When
+        transport.write(new ByteBuffer[]{records[0], records[1]}, records[0].remaining() + records[1].remaining());
+        transport.write(records, length);
+
+        // ----------------------------------------
+        // Then
+        assertNull(encodings.get(0));
+        assertEquals(lines.substring(0, records[0].remaining() + records[1].remaining()), new String(bodies.get(0), StandardCharsets.UTF_8));
+
+        assertEquals("gzip", encodings.get(1));
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bodies.get(1)))) {
+            final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                decompressed.write(buffer, 0, read);
+            }
+            assertEquals(lines.toString(), new String(decompressed.toByteArray(), StandardCharsets.UTF_8));
+        }
+        // the buffers are left untouched
+        assertEquals(0, records[0].position());
+    }
+
+    @Test
+    public void itShouldParseTheRetryAfterHeaderAsSecondsOrAsADate() throws Exception {
+        // ----------------------------------------
+        // Given
+        final long now = 1500000000000L;
+
+        // ----------------------------------------
+        // When
+        final long seconds = HttpTransport.parseRetryAfter("2", now);
+        final long date = HttpTransport.parseRetryAfter("Fri, 14 Jul 2017 02:40:05 GMT", now);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2000, seconds);
+        assertEquals(5000, date);
+        assertEquals(0, HttpTransport.parseRetryAfter(null, now));
+        assertEquals(0, HttpTransport.parseRetryAfter("soon", now));
+        assertEquals(0, HttpTransport.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT", now));
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void itShouldEstimateTheDistinctElementsWithinTheStandardError() throws Exception {
+        // ----------------------------------------
+        // Given
+        final HyperLogLog small = new HyperLogLog(8);
+        final HyperLogLog large = new HyperLogLog(12);
+
+        // ----------------------------------------
+        // When every element is added three times
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (long i = 1; i <= 100; i++) {
+                small.add(DeltaSuppressor.mix(i));
+            }
+            for (long i = 1; i <= 100000; i++) {
+                large.add(DeltaSuppressor.mix(i));
+            }
+        }
+
+        // ----------------------------------------
+        // Then
+        assertTrue(Math.abs(small.estimate() - 100) <= 10);
+        assertTrue(Math.abs(large.estimate() - 100000) <= 100000 * 0.05);
+        assertEquals(0, new HyperLogLog(8).estimate());
+    }
+
+    @Test
+    public void itShouldBoundThePrecision() throws Exception {
+        assertEquals(4, new HyperLogLog(1).getPrecision());
+        assertEquals(16, new HyperLogLog(30).getPrecision());
+    }
+}
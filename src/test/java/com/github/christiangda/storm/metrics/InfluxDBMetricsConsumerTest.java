@@ -1,6 +1,7 @@
 package com.github.christiangda.storm.metrics;
 
 import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.metric.api.IMetricsConsumer;
 import org.apache.storm.task.IErrorReporter;
 import org.apache.storm.task.TopologyContext;
@@ -9,6 +10,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
@@ -90,6 +92,66 @@ public class InfluxDBMetricsConsumerTest {
         assertTrue(capturedArguments.containsKey(InfluxDBSender.KEY_INFLUXDB_ENABLE_GZIP));
     }
 
+    @Test
+    public void itShouldReportSpillBacklogWhenSpillQueueIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 10);
+
+        final TopologyContext topologyContext = Mockito.mock(TopologyContext.class);
+        final IErrorReporter errorReporter = Mockito.mock(IErrorReporter.class);
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final SpillQueue spillQueue = Mockito.mock(SpillQueue.class);
+
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+        Mockito.doReturn(spillQueue).when(influxDBSender).getSpillQueue();
+        Mockito.doReturn(7L).when(spillQueue).getPendingRecords();
+
+        // ----------------------------------------
+        // When execute the method under test
+        influxDBMetricsConsumer.prepare(stormConfig, null, topologyContext, errorReporter);
+        final Map<String, Object> values = influxDBMetricsConsumer.getConsumerValuesAndReset();
+
+        // ----------------------------------------
+        // Then validate
+        assertEquals(7L, values.get("spill.backlog-records"));
+        assertEquals(0L, values.get("spill.dropped-records"));
+    }
+
+    @Test
+    public void itShouldReportWriteStats() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+
+        final TopologyContext topologyContext = Mockito.mock(TopologyContext.class);
+        final IErrorReporter errorReporter = Mockito.mock(IErrorReporter.class);
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final WriteStats writeStats = new WriteStats();
+        writeStats.retry();
+
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+        Mockito.doReturn(writeStats).when(influxDBSender).getWriteStats();
+
+        // ----------------------------------------
+        // When execute the method under test
+        influxDBMetricsConsumer.prepare(stormConfig, null, topologyContext, errorReporter);
+        final Map<String, Object> values = influxDBMetricsConsumer.getConsumerValuesAndReset();
+
+        // ----------------------------------------
+        // Then validate
+        assertEquals(1L, values.get("writes.retries"));
+        assertEquals(0, values.get("writes.open-circuits"));
+        assertEquals(0L, values.get("writes.write-latency-us.count"));
+    }
+
     @Test
     public void testHandleDataPointsMethod() throws NoSuchFieldException, IllegalAccessException {
         // ----------------------------------------
@@ -170,6 +232,7 @@ public class InfluxDBMetricsConsumerTest {
         Mockito.verify(influxDBSender, Mockito.times(1)).setTags(Mockito.<String, String>anyMap());
         Mockito.verify(influxDBSender, Mockito.atLeastOnce()).prepareDataPoint(Mockito.anyString(), Mockito.anyString());
         Mockito.verify(influxDBSender, Mockito.times(1)).sendPoints();
+        Mockito.verify(influxDBSender, Mockito.never()).closeConnection();
 
         // Returned Tags from method
         actualTags = setTagsArguments.getValue();
@@ -184,6 +247,53 @@ public class InfluxDBMetricsConsumerTest {
         assertThat(expectedFlieds.size(), is(expectedFlieds.size()));
     }
 
+    @Test
+    public void itShouldSendTaskMetadataAsTagsWhenCompactSchemaIsEnabled() throws NoSuchFieldException, IllegalAccessException {
+        // ----------------------------------------
+        // Given
+        final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("my-worker-host", 12345, "my-component-id", 1, 123456789L, 5);
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = new ArrayList<>();
+        dataPoints.add(new IMetricsConsumer.DataPoint("test-long", 10000000L));
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        Mockito.doReturn(true).when(influxDBSender).isCompactSchema();
+
+        ArgumentCaptor<Map> setTagsArguments = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map> setFieldsArguments = ArgumentCaptor.forClass(Map.class);
+
+        // Intercept influxDBSender field inside influxDBMetricsConsumer and inject our mock Object
+        final Field fieldInfluxDBSender = influxDBMetricsConsumerClass.getDeclaredField("influxDBSender");
+        fieldInfluxDBSender.setAccessible(true);
+        fieldInfluxDBSender.set(influxDBMetricsConsumer, influxDBSender);
+
+        final Field fieldTopolyName = influxDBMetricsConsumerClass.getDeclaredField("topologyName");
+        fieldTopolyName.setAccessible(true);
+        fieldTopolyName.set(influxDBMetricsConsumer, STORM_TOPOLOGY_NAME);
+
+        Mockito.doNothing().when(influxDBSender).setTags(setTagsArguments.capture());
+        Mockito.doNothing().when(influxDBSender).setFields(setFieldsArguments.capture());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBMetricsConsumer.handleDataPoints(taskInfo, dataPoints);
+
+        // ----------------------------------------
+        // Then
+        final Map<String, String> expectedTags = new HashMap<>();
+        expectedTags.put("Topology", STORM_TOPOLOGY_NAME);
+        expectedTags.put("ComponentId", "my-component-id");
+        expectedTags.put("TaskId", "1");
+        expectedTags.put("WorkerHost", "my-worker-host");
+        expectedTags.put("WorkerPort", "12345");
+        expectedTags.put("UpdateIntervalSecs", "5");
+
+        assertThat((Map<String, String>) setTagsArguments.getValue(), is(expectedTags));
+        assertTrue(setFieldsArguments.getValue().isEmpty());
+        Mockito.verify(influxDBSender, Mockito.times(1)).setTimestamp(123456789000L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("test-long", 10000000L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).sendPoints();
+    }
+
     @Test
     public void itShouldCallInfluxDBSenderPrepareDataPointMethodWhenValueIsAnyType() throws NoSuchFieldException, IllegalAccessException {
         int recursionRound = 0;
@@ -247,6 +357,377 @@ public class InfluxDBMetricsConsumerTest {
         Mockito.verify(influxDBSender, Mockito.times(7)).prepareDataPoint(anyString(), any());
     }
 
+    @Test
+    public void itShouldCountReceivedAndDroppedDataPoints() throws NoSuchFieldException, IllegalAccessException {
+        // ----------------------------------------
+        // Given
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+
+        final Field fieldInfluxDBSender = influxDBMetricsConsumerClass.getDeclaredField("influxDBSender");
+        fieldInfluxDBSender.setAccessible(true);
+        fieldInfluxDBSender.set(influxDBMetricsConsumer, influxDBSender);
+
+        final Map<String, Object> tooDeep = Collections.singletonMap("a", (Object) Collections.singletonMap("b",
+                Collections.singletonMap("c", Collections.singletonMap("d", Collections.singletonMap("e", 1)))));
+
+        final Map<String, Object> withNull = new HashMap<>();
+        withNull.put("value", 1);
+        withNull.put("missing", null);
+
+        final List<IMetricsConsumer.DataPoint> dataPoints = Arrays.asList(
+                new IMetricsConsumer.DataPoint("null", null),
+                new IMetricsConsumer.DataPoint("with-null", withNull),
+                new IMetricsConsumer.DataPoint("unsupported", new Object()),
+                new IMetricsConsumer.DataPoint("too-deep", tooDeep)
+        );
+
+        // ----------------------------------------
+        // When
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 1, 60), dataPoints);
+
+        // ----------------------------------------
+        // Then
+        final ConsumerStats stats = influxDBMetricsConsumer.getConsumerStats();
+        assertEquals(4, stats.getPointsReceived());
+        assertEquals(2, stats.getPointsDropped(ConsumerStats.DropReason.NULL_VALUE));
+        assertEquals(1, stats.getPointsDropped(ConsumerStats.DropReason.UNSUPPORTED_TYPE));
+        assertEquals(1, stats.getPointsDropped(ConsumerStats.DropReason.DEPTH_EXCEEDED));
+        assertEquals(1, stats.getFlattenTimeUs().getCount());
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("with-null.value", 1);
+    }
+
+    @Test
+    public void itShouldReportConsumerStatsSharedWithSender() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+
+        final TopologyContext topologyContext = Mockito.mock(TopologyContext.class);
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+        Mockito.doReturn(3).when(influxDBSender).getQueuedBatches();
+        Mockito.doReturn(Collections.singletonMap("async-dropped-points", 7L)).when(influxDBSender).getWriterValuesAndReset();
+
+        // ----------------------------------------
+        // When
+        influxDBMetricsConsumer.prepare(stormConfig, null, topologyContext, null);
+        influxDBMetricsConsumer.getConsumerStats().received(5);
+        final Map<String, Object> values = influxDBMetricsConsumer.getConsumerValuesAndReset();
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(influxDBSender, Mockito.times(1)).setConsumerStats(influxDBMetricsConsumer.getConsumerStats());
+        Mockito.verify(topologyContext, Mockito.never()).registerMetric(anyString(), any(IMetric.class), anyInt());
+
+        assertEquals(5L, values.get("points-received"));
+        assertEquals(3, values.get("queue-depth"));
+        assertEquals(7L, values.get("async-dropped-points"));
+        assertEquals(0L, values.get("dropped-nan"));
+        assertEquals(0L, values.get("flatten-time-us.count"));
+        assertEquals(0, influxDBMetricsConsumer.getConsumerStats().getPointsReceived());
+    }
+
+    @Test
+    public void itShouldWriteTheConsumerMetricsAsOnePointEveryBucket() throws Exception {
+        // ----------------------------------------
+        // Given the consumer task 7 with a bucket of 10 seconds and the cardinality limit
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 10);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_CARDINALITY_LIMIT_ENABLE, true);
+
+        final TopologyContext topologyContext = Mockito.mock(TopologyContext.class);
+        Mockito.doReturn("influxdb-consumer").when(topologyContext).getThisComponentId();
+        Mockito.doReturn(7).when(topologyContext).getThisTaskId();
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__emit-count", Collections.singletonMap("default", 10L)));
+
+        final ArgumentCaptor<Map> tags = ArgumentCaptor.forClass(Map.class);
+        final ArgumentCaptor<Map> fields = ArgumentCaptor.forClass(Map.class);
+
+        // ----------------------------------------
+        // When
+        influxDBMetricsConsumer.prepare(stormConfig, null, topologyContext, null);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 100, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 105, 10), dataPoints);
+
+        Mockito.verify(influxDBSender, Mockito.never()).preparePoint(anyString(), anyMap(), anyMap());
+
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 110, 10), dataPoints);
+
+        // ----------------------------------------
+        // Then one point is written before the tick, timestamped at the tick
+        final InOrder inOrder = Mockito.inOrder(influxDBSender);
+        inOrder.verify(influxDBSender).setTimestamp(110000L);
+        inOrder.verify(influxDBSender).setTags(tags.capture());
+        inOrder.verify(influxDBSender).preparePoint(eq("__influxdb-consumer"), eq(Collections.emptyMap()), fields.capture());
+        inOrder.verify(influxDBSender).sendPoints();
+        inOrder.verify(influxDBSender).prepareDataPoint("__emit-count.default", 10L);
+
+        assertEquals("influxdb-consumer", tags.getValue().get("ComponentId"));
+        assertEquals("7", tags.getValue().get("TaskId"));
+        assertEquals(STORM_TOPOLOGY_NAME, tags.getValue().get("Topology"));
+        assertEquals(2L, fields.getValue().get("points-received"));
+        assertEquals(1, fields.getValue().get("cardinality.series"));
+        Mockito.verify(influxDBSender, Mockito.times(1)).preparePoint(anyString(), anyMap(), anyMap());
+    }
+
+    @Test
+    public void itShouldSendComponentRollupsAtWindowBoundaryAndSampleRawPoints() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_ROLLUP_ENABLE, true);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_ROLLUP_WINDOW_SECS, 60);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_ROLLUP_RAW_SAMPLE_EVERY, 2);
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__emit-count", Collections.singletonMap("default", 10L)));
+
+        final ArgumentCaptor<Map> rollupFields = ArgumentCaptor.forClass(Map.class);
+
+        // ----------------------------------------
+        // When two tasks of the component report twice in the window, then one reports in the next window
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 120, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 2, 121, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 130, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 2, 131, 10), dataPoints);
+
+        Mockito.verify(influxDBSender, Mockito.never()).preparePoint(anyString(), anyMap(), anyMap());
+
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 180, 10), dataPoints);
+
+        // ----------------------------------------
+        // Then raw points are sent on the first tick of every task, out of two
+        Mockito.verify(influxDBSender, Mockito.times(3)).prepareDataPoint("__emit-count.default", 10L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).setTimestamp(120000L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).preparePoint(
+                eq("__emit-count.default"), eq(Collections.singletonMap("Rollup", "60s")), rollupFields.capture());
+
+        assertEquals(40d, rollupFields.getValue().get("sum"));
+        assertEquals(4L, rollupFields.getValue().get("count"));
+        assertEquals(10d, rollupFields.getValue().get("max"));
+    }
+
+    @Test
+    public void itShouldForgetTheRawSamplingOfTheTasksWhichDidNotReportInTheLastWindow() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_ROLLUP_ENABLE, true);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_ROLLUP_WINDOW_SECS, 60);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_ROLLUP_RAW_SAMPLE_EVERY, 2);
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__emit-count", Collections.singletonMap("default", 10L)));
+
+        // ----------------------------------------
+        // When a hundred tasks report in a window, then only one of them keeps reporting (after a rebalance...)
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        for (int taskId = 1; taskId <= 100; taskId++) {
+            influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", taskId, 120, 10), dataPoints);
+        }
+        final int sampledTasks = influxDBMetricsConsumer.getSampledTasks();
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 180, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 240, 10), dataPoints);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(100, sampledTasks);
+        assertEquals(1, influxDBMetricsConsumer.getSampledTasks());
+        Mockito.verify(influxDBSender, Mockito.times(101)).prepareDataPoint("__emit-count.default", 10L);
+    }
+
+    @Test
+    public void itShouldKeepTheSeriesOfTasksOfDifferentComponentsApartWhenLimitingCardinality() throws Exception {
+        // ----------------------------------------
+        // Given a limit of one series per family, with the task id as a tag
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_CARDINALITY_LIMIT_ENABLE, true);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_CARDINALITY_MAX_SERIES_PER_MEASUREMENT, 1);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_CARDINALITY_OVERFLOW_ACTION, "reject");
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        Mockito.doReturn(true).when(influxDBSender).isCompactSchema();
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__emit-count", Collections.singletonMap("default", 10L)));
+
+        // ----------------------------------------
+        // When "bolt1" task 32 and "bolt2" task 1 report, their component hashes differ by one
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt1", 32, 120, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt2", 1, 120, 10), dataPoints);
+
+        // ----------------------------------------
+        // Then the series of the second task is a new one, over the limit
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("__emit-count.default", 10L);
+        assertEquals(1, influxDBMetricsConsumer.getConsumerStats().getPointsDropped(ConsumerStats.DropReason.CARDINALITY));
+    }
+
+    @Test
+    public void itShouldSendTheLatencyPercentilesOfTheComponentsInsteadOfTheRawLatencies() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_LATENCY_SKETCH_ENABLE, true);
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Collection<IMetricsConsumer.DataPoint> fastTask = Arrays.asList(
+                new IMetricsConsumer.DataPoint("__execute-latency", Collections.singletonMap("spout:default", 1.5)),
+                new IMetricsConsumer.DataPoint("__execute-count", Collections.singletonMap("spout:default", 10L)));
+        final Collection<IMetricsConsumer.DataPoint> slowTask = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__execute-latency", Collections.singletonMap("spout:default", 80.0)));
+
+        final ArgumentCaptor<Map> percentiles = ArgumentCaptor.forClass(Map.class);
+
+        // ----------------------------------------
+        // When two tasks of the component report in the window, then one reports in the next window
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 120, 10), fastTask);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 2, 121, 10), slowTask);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 130, 10), fastTask);
+
+        Mockito.verify(influxDBSender, Mockito.never()).preparePoint(anyString(), anyMap(), anyMap());
+
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 180, 10), fastTask);
+
+        // ----------------------------------------
+        // Then the latencies are only sent as percentiles, the other metrics as raw points
+        Mockito.verify(influxDBSender, Mockito.never()).prepareDataPoint(eq("__execute-latency.spout:default"), any());
+        Mockito.verify(influxDBSender, Mockito.times(3)).prepareDataPoint("__execute-count.spout:default", 10L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).setTimestamp(120000L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).preparePoint(
+                eq("__execute-latency"), eq(Collections.singletonMap("Percentiles", "60s")), percentiles.capture());
+
+        assertEquals(3L, percentiles.getValue().get("count"));
+        assertEquals(80d, percentiles.getValue().get("max"));
+        assertEquals(1.5d, (Double) percentiles.getValue().get("p50"), 1.5 * 0.07);
+        assertEquals(80d, (Double) percentiles.getValue().get("p99"), 80 * 0.07);
+    }
+
+    @Test
+    public void itShouldSkipUnchangedValuesOfATaskWhenDeltaIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_DELTA_ENABLE, true);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_DELTA_HEARTBEAT_INTERVALS, 3);
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__emit-count", Collections.singletonMap("default", 10L)));
+
+        // ----------------------------------------
+        // When two tasks report the same value four times
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        for (int tick = 0; tick < 4; tick++) {
+            influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 120 + tick * 10, 10), dataPoints);
+            influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 2, 120 + tick * 10, 10), dataPoints);
+        }
+
+        // ----------------------------------------
+        // Then every task sends it on the first tick and on the heartbeat only
+        Mockito.verify(influxDBSender, Mockito.times(4)).prepareDataPoint("__emit-count.default", 10L);
+        assertEquals(4, influxDBMetricsConsumer.getConsumerStats().getPointsSuppressed());
+    }
+
+    @Test
+    public void itShouldCollapseTheSeriesOverTheCardinalityLimitIntoTheOtherSeries() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_CARDINALITY_LIMIT_ENABLE, true);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_CARDINALITY_MAX_SERIES_PER_MEASUREMENT, 2);
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Map<String, Object> emitCount = new LinkedHashMap<>();
+        for (int stream = 1; stream <= 5; stream++) {
+            emitCount.put("stream-" + stream, (long) stream);
+        }
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Collections.singletonList(
+                new IMetricsConsumer.DataPoint("__emit-count", emitCount));
+
+        // ----------------------------------------
+        // When
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 120, 10), dataPoints);
+
+        // ----------------------------------------
+        // Then the first two streams are written, the sum of the others in the __other series
+        Mockito.verify(influxDBSender, Mockito.times(3)).prepareDataPoint(anyString(), any());
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("__emit-count.stream-1", 1L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("__emit-count.stream-2", 2L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("__emit-count.__other", 12d);
+    }
+
+    @Test
+    public void itShouldDropFilteredMetricsAndComponentsBeforePreparingThem() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> stormConfig = new HashMap();
+        stormConfig.put(Config.TOPOLOGY_NAME, STORM_TOPOLOGY_NAME);
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_FILTER_EXCLUDE_METRICS, Arrays.asList("__sendqueue*", "*.__system"));
+        stormConfig.put(InfluxDBSender.KEY_INFLUXDB_FILTER_EXCLUDE_COMPONENTS, "__acker");
+
+        final InfluxDBSender influxDBSender = Mockito.mock(InfluxDBSender.class);
+        final InfluxDBMetricsConsumer influxDBMetricsConsumer = Mockito.spy(new InfluxDBMetricsConsumer());
+        Mockito.doReturn(influxDBSender).when(influxDBMetricsConsumer).makeInfluxDBSender(anyMap());
+
+        final Map<String, Object> emitCount = new HashMap<>();
+        emitCount.put("default", 10L);
+        emitCount.put("__system", 2L);
+        final Collection<IMetricsConsumer.DataPoint> dataPoints = Arrays.asList(
+                new IMetricsConsumer.DataPoint("__emit-count", emitCount),
+                new IMetricsConsumer.DataPoint("__sendqueue", Collections.singletonMap("population", 0L)));
+
+        // ----------------------------------------
+        // When
+        influxDBMetricsConsumer.prepare(stormConfig, null, null, null);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "test-bolt", 1, 120, 10), dataPoints);
+        influxDBMetricsConsumer.handleDataPoints(new IMetricsConsumer.TaskInfo("localhost", 6700, "__acker", 2, 120, 10), dataPoints);
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint(anyString(), any());
+        Mockito.verify(influxDBSender, Mockito.times(1)).prepareDataPoint("__emit-count.default", 10L);
+        Mockito.verify(influxDBSender, Mockito.times(1)).sendPoints();
+        assertEquals(4, influxDBMetricsConsumer.getConsumerStats().getPointsDropped(ConsumerStats.DropReason.FILTERED));
+    }
+
     @Test
     public void itShouldAssignNullToInfluxDBSenderInCleanupMethod() throws NoSuchFieldException, IllegalAccessException {
         // ----------------------------------------
@@ -264,7 +745,10 @@ public class InfluxDBMetricsConsumerTest {
 
         // ----------------------------------------
         // Then
-        Mockito.verify(influxDBSender, Mockito.times(1)).closeConnection();
+        final InOrder inOrder = Mockito.inOrder(influxDBSender);
+        inOrder.verify(influxDBSender, Mockito.times(1)).flush();
+        inOrder.verify(influxDBSender, Mockito.times(1)).stopAsyncWriter();
+        inOrder.verify(influxDBSender, Mockito.times(1)).closeConnection();
         assertNull(fieldInfluxDBSender.get(influxDBMetricsConsumer));
     }
 
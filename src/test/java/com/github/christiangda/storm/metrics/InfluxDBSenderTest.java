@@ -1,20 +1,42 @@
 package com.github.christiangda.storm.metrics;
 
 import org.influxdb.InfluxDB;
-import org.influxdb.dto.BatchPoints;
+import org.influxdb.dto.Point;
+import org.influxdb.dto.Pong;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 public class InfluxDBSenderTest {
@@ -31,6 +53,9 @@ public class InfluxDBSenderTest {
     @Rule
     public final ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private Class influxDBSenderClass;
 
     @Before
@@ -179,39 +204,86 @@ public class InfluxDBSenderTest {
         Mockito.verify(influxDBSender, Mockito.times(1)).closeConnection();
         Mockito.verify(influxDB, Mockito.times(1)).close();
 
-        fieldInfluxDB.get(influxDBSender);
+        assertNull(fieldInfluxDB.get(influxDBSender));
     }
 
 
     @Test
-    public void itShouldCallInfluxDBWriteMethodWhenInvokeSendMethod() throws Exception {
+    public void itShouldCallTransportWriteMethodWhenInvokeSendMethod() throws Exception {
         // ----------------------------------------
         // Given
         final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
-        final BatchPoints batchPoints = Mockito.mock(org.influxdb.dto.BatchPoints.class);
+        final Transport transport = Mockito.mock(Transport.class);
 
         final InfluxDBSender influxDBSender = Mockito.spy(new InfluxDBSender(config));
 
         final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
         fieldInfluxDB.setAccessible(true);
 
-        final Field fieldBatchPoints = influxDBSenderClass.getDeclaredField("batchPoints");
-        fieldBatchPoints.setAccessible(true);
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
 
         // Inject mocked
         fieldInfluxDB.set(influxDBSender, influxDB);
-        fieldBatchPoints.set(influxDBSender, batchPoints);
+        fieldTransport.set(influxDBSender, transport);
 
-        Mockito.doNothing().when(influxDB).write(batchPoints);
+        influxDBSender.setTags(new HashMap<String, String>() {{
+            put("Topology", "test-topology");
+        }});
+        influxDBSender.setFields(new HashMap<String, Object>());
 
         // ----------------------------------------
         // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 10);
         influxDBSender.sendPoints();
 
         // ----------------------------------------
         // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+
         Mockito.verify(influxDBSender, Mockito.times(1)).sendPoints();
-        Mockito.verify(influxDB, Mockito.times(1)).write(batchPoints);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+        assertTrue(new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8)
+                .startsWith("test-prefixtest-integer,Topology=test-topology value=10i "));
+    }
+
+    @Test
+    public void itShouldCountDroppedValuesAndWrittenBatches() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+        fieldInfluxDB.set(influxDBSender, influxDB);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // When
+        influxDBSender.prepareDataPoint("test-nan", Double.NaN);
+        influxDBSender.prepareDataPoint("test-infinite", Float.POSITIVE_INFINITY);
+        influxDBSender.prepareDataPoint("test-unsupported", new Object());
+        influxDBSender.prepareDataPoint("test-integer", 10);
+        influxDBSender.prepareDataPoint("test-string", "value");
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        final ConsumerStats stats = influxDBSender.getConsumerStats();
+        assertEquals(2, stats.getPointsDropped(ConsumerStats.DropReason.NAN_OR_INFINITE));
+        assertEquals(1, stats.getPointsDropped(ConsumerStats.DropReason.UNSUPPORTED_TYPE));
+        assertEquals(2, stats.getPointsEncoded());
+        assertEquals(2, stats.getBatchPoints().getMax());
+        assertEquals(1, stats.getSendTimeUs().getCount());
     }
 
     @Test
@@ -238,4 +310,904 @@ public class InfluxDBSenderTest {
         Mockito.verify(influxDBSender, Mockito.times(1)).createDatabaseIfNotExists();
         Mockito.verify(influxDB, Mockito.times(1)).createDatabase(Mockito.anyString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void itShouldWritePointsFromWriterThreadWhenAsyncModeIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_ENABLE, "true");
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_QUEUE_CAPACITY, 10);
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 10);
+        influxDBSender.prepareDataPoint("test-string", "string");
+        influxDBSender.sendPoints();
+        final Map<String, Object> writerValues = influxDBSender.getWriterValuesAndReset();
+        influxDBSender.stopAsyncWriter();
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(transport, Mockito.atLeastOnce()).write(Mockito.any(byte[].class), Mockito.eq(0), Mockito.anyInt());
+        assertNull(influxDBSender.getAsyncWriter());
+        assertEquals(2L, writerValues.get("async-enqueued-points"));
+        assertEquals(0L, writerValues.get("async-dropped-points"));
+    }
+
+    @Test
+    public void itShouldCountThePointsRejectedByAFullAsyncQueueAsQueueOverflow() throws Exception {
+        // ----------------------------------------
+        // Given (one writer thread held by the transport and a queue of one batch)
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_ENABLE, "true");
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_QUEUE_CAPACITY, 1);
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_WRITER_THREADS, 1);
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_OVERFLOW_POLICY, "drop_newest");
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        Mockito.doAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(transport).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        final ConsumerStats stats = new ConsumerStats();
+        influxDBSender.setConsumerStats(stats);
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 10);
+        influxDBSender.sendPoints();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        influxDBSender.prepareDataPoint("test-integer", 11);
+        influxDBSender.sendPoints();
+        influxDBSender.prepareDataPoint("test-integer", 12);
+        influxDBSender.prepareDataPoint("test-float", 12.5);
+        influxDBSender.sendPoints();
+        release.countDown();
+        influxDBSender.stopAsyncWriter();
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2, stats.getPointsDropped(ConsumerStats.DropReason.QUEUE_OVERFLOW));
+    }
+
+    @Test
+    public void itShouldWritePointsFromDirectMemoryWhenOffHeapQueueIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_ENABLE, "true");
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_OFFHEAP_ENABLE, "true");
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_OFFHEAP_CAPACITY_BYTES, 64 * 1024);
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 10);
+        influxDBSender.prepareDataPoint("test-string", "string");
+        influxDBSender.sendPoints();
+        final OffHeapWriter offHeapWriter = influxDBSender.getOffHeapWriter();
+        final Map<String, Object> writerValues = influxDBSender.getWriterValuesAndReset();
+        influxDBSender.stopAsyncWriter();
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(transport, Mockito.times(1)).write(Mockito.any(ByteBuffer[].class), Mockito.anyInt());
+        Mockito.verify(transport, Mockito.never()).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+        assertNull(influxDBSender.getAsyncWriter());
+        assertEquals(2, offHeapWriter.getWrittenCount());
+        assertEquals(2L, writerValues.get("offheap-enqueued-points"));
+        assertFalse(writerValues.containsKey("async-enqueued-points"));
+        assertNull(influxDBSender.getOffHeapWriter());
+    }
+
+    @Test
+    public void itShouldKeepConnectionWhenHealthCheckPingSucceeds() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        Mockito.doReturn(new Pong()).when(influxDB).ping();
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.checkHealth();
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(influxDB, Mockito.times(1)).ping();
+        Mockito.verify(influxDB, Mockito.never()).close();
+        assertTrue(influxDBSender.isHealthy());
+        assertSame(influxDB, fieldInfluxDB.get(influxDBSender));
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldReconnectWhenHealthCheckPingFails() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        Mockito.doThrow(RuntimeException.class).when(influxDB).ping();
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.checkHealth();
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(influxDB, Mockito.times(1)).close();
+        assertFalse(influxDBSender.isHealthy());
+        assertNotNull(fieldInfluxDB.get(influxDBSender));
+        assertNotSame(influxDB, fieldInfluxDB.get(influxDBSender));
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldPublishTheNewConnectionBeforeClosingTheOldOneWhenReconnecting() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        final List<Object> seenWhenClosing = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            seenWhenClosing.add(fieldTransport.get(influxDBSender));
+            seenWhenClosing.add(fieldInfluxDB.get(influxDBSender));
+            return null;
+        }).when(transport).close();
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.reconnect();
+
+        // ----------------------------------------
+        // Then the writer threads never see a missing connection
+        Mockito.verify(transport, Mockito.times(1)).close();
+        Mockito.verify(influxDB, Mockito.times(1)).close();
+        assertEquals(2, seenWhenClosing.size());
+        assertNotNull(seenWhenClosing.get(0));
+        assertNotSame(transport, seenWhenClosing.get(0));
+        assertNotNull(seenWhenClosing.get(1));
+        assertNotSame(influxDB, seenWhenClosing.get(1));
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldNotFailToCreateTheDatabaseWhenTheConnectionIsClosed() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+        influxDBSender.closeConnection();
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.createDatabaseIfNotExists();
+
+        // ----------------------------------------
+        // Then
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+        assertNull(fieldInfluxDB.get(influxDBSender));
+    }
+
+    @Test
+    public void itShouldSpillPointsAndReplayThemWhenWriteFails() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_DIRECTORY, temporaryFolder.getRoot().getAbsolutePath());
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+        Mockito.doThrow(IOException.class).doReturn(204)
+                .when(transport).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 10);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1, influxDBSender.getSpillQueue().getPendingRecords());
+
+        influxDBSender.replaySpilledPoints();
+
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(transport, Mockito.times(2)).write(data.capture(), Mockito.eq(0), Mockito.anyInt());
+        assertTrue(new String(data.getValue(), StandardCharsets.UTF_8).startsWith("test-prefixtest-integer value=10i "));
+        assertTrue(influxDBSender.getSpillQueue().isEmpty());
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldDiscardTheSpilledBatchesRejectedByTheServerAndReplayTheOthers() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_DIRECTORY, temporaryFolder.getRoot().getAbsolutePath());
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        // the server is down, then rejects the first batch, then accepts everything
+        Mockito.doThrow(IOException.class)
+                .doThrow(new InfluxDBWriteException(400, "field type conflict"))
+                .doReturn(204)
+                .when(transport).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-rejected", 1.5f);
+        influxDBSender.sendPoints();
+        influxDBSender.prepareDataPoint("test-accepted", 10);
+        influxDBSender.sendPoints();
+        assertEquals(2, influxDBSender.getSpillQueue().getPendingRecords());
+
+        influxDBSender.replaySpilledPoints();
+
+        // ----------------------------------------
+        // Then the rejected batch no longer holds back the one spilled after it
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(transport, Mockito.times(3)).write(data.capture(), Mockito.eq(0), Mockito.anyInt());
+        assertTrue(new String(data.getValue(), StandardCharsets.UTF_8).startsWith("test-prefixtest-accepted value=10i "));
+        assertTrue(influxDBSender.getSpillQueue().isEmpty());
+        assertEquals(1, influxDBSender.getSpillQueue().getDroppedRecords());
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldNotSpillTheBatchesRejectedByTheServer() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_DIRECTORY, temporaryFolder.getRoot().getAbsolutePath());
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+        Mockito.doThrow(new InfluxDBWriteException(400, "unable to parse"))
+                .when(transport).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-rejected", 1.5f);
+        UncheckedIOException rejected = null;
+        try {
+            influxDBSender.sendPoints();
+        } catch (UncheckedIOException e) {
+            rejected = e;
+        }
+
+        // ----------------------------------------
+        // Then
+        assertNotNull(rejected);
+        assertTrue(rejected.getCause() instanceof InfluxDBWriteException);
+        assertTrue(influxDBSender.getSpillQueue().isEmpty());
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldNotSpillTheOffHeapBatchesRejectedByTheServer() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_DIRECTORY, temporaryFolder.getRoot().getAbsolutePath());
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+        Mockito.doThrow(new InfluxDBWriteException(400, "unable to parse"))
+                .doThrow(new InfluxDBWriteException(503, "overloaded"))
+                .when(transport).write(Mockito.any(ByteBuffer[].class), Mockito.anyInt());
+
+        final byte[] line = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // when our method tested
+        InfluxDBWriteException rejected = null;
+        try {
+            influxDBSender.writeRecords(new ByteBuffer[]{ByteBuffer.wrap(line)}, line.length);
+        } catch (InfluxDBWriteException e) {
+            rejected = e;
+        }
+        influxDBSender.writeRecords(new ByteBuffer[]{ByteBuffer.wrap(line)}, line.length);
+
+        // ----------------------------------------
+        // Then the rejected batch is dropped, the one failed on an overloaded server is spilled
+        assertNotNull(rejected);
+        assertEquals(400, rejected.getStatusCode());
+        assertEquals(1, influxDBSender.getSpillQueue().getPendingRecords());
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldWriteOnePointPerMetricFamilyWhenWidePointsModeIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_WIDE_POINTS_ENABLE, "true");
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("__sendqueue.read_pos", 10);
+        influxDBSender.prepareDataPoint("__sendqueue.write_pos", 12);
+        influxDBSender.prepareDataPoint("__emit-count.default", 3L);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+
+        final String[] lines = new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("test-prefix__sendqueue read_pos=10i,write_pos=12i "));
+        assertTrue(lines[1].startsWith("test-prefix__emit-count,stream=default value=3 "));
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldWriteNativeNumbersWithTaskTimestampWhenCompactSchemaIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_COMPACT_SCHEMA_ENABLE, true);
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.setTimestamp(123456789000L);
+        influxDBSender.prepareDataPoint("test-long", 1234567890123L);
+        influxDBSender.prepareDataPoint("test-double", 0.123456789d);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+        assertEquals(
+                "test-prefixtest-long value=1234567890123i 123456789000\n"
+                        + "test-prefixtest-double value=0.123456789 123456789000\n",
+                new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8)
+        );
+        assertTrue(influxDBSender.isCompactSchema());
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldWriteIntegerValuesAsIntegersLikeInfluxDBJavaDid() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // line of the point as influxdb-java wrote it, with a nanoseconds timestamp
+        final String baseline = Point.measurement("test-prefixtest-integer")
+                .time(123456789000L, TimeUnit.MILLISECONDS)
+                .addField("value", (Integer) 5)
+                .build()
+                .lineProtocol();
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.setTimestamp(123456789000L);
+        influxDBSender.prepareDataPoint("test-integer", 5);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then the same bytes, with a milliseconds timestamp
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+        assertEquals("test-prefixtest-integer value=5i 123456789000000000", baseline);
+        assertEquals(
+                baseline.substring(0, baseline.length() - 6) + "\n",
+                new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8)
+        );
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldEncodeLargeTicksInParallelWhenParallelEncodingIsEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_COMPACT_SCHEMA_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_PARALLEL_ENCODING_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_PARALLEL_ENCODING_THREADS, 2);
+        config.put(InfluxDBSender.KEY_INFLUXDB_PARALLEL_ENCODING_MIN_POINTS, 2048);
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(Collections.singletonMap("ComponentId", "split-bolt"));
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        final List<String> names = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            names.add("test-metric-" + i);
+            values.add((i == 1500) ? Double.NaN : (Object) (long) i);
+        }
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.setTimestamp(123456789000L);
+        influxDBSender.prepareDataPoints(names, values);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+
+        final String[] lines = new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2999, lines.length);
+        assertEquals("test-prefixtest-metric-0,ComponentId=split-bolt value=0i 123456789000", lines[0]);
+        assertEquals("test-prefixtest-metric-1501,ComponentId=split-bolt value=1501i 123456789000", lines[1500]);
+        assertEquals("test-prefixtest-metric-2999,ComponentId=split-bolt value=2999i 123456789000", lines[2998]);
+        assertEquals(1, influxDBSender.getConsumerStats().getPointsDropped(ConsumerStats.DropReason.NAN_OR_INFINITE));
+        assertTrue(influxDBSender.isParallelEncoding());
+
+        influxDBSender.closeConnection();
+        assertFalse(influxDBSender.isParallelEncoding());
+    }
+
+    @Test
+    public void itShouldWriteGraphitePlaintextOverTcpWhenGraphiteFormatIsSelected() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_FORMAT, "graphite");
+        config.put(InfluxDBSender.KEY_INFLUXDB_COMPACT_SCHEMA_ENABLE, true);
+
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldTransportType = influxDBSenderClass.getDeclaredField("transportType");
+        fieldTransportType.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(Collections.singletonMap("TaskId", "3"));
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.setTimestamp(123456789000L);
+        influxDBSender.prepareDataPoint("test-long", 12L);
+        influxDBSender.prepareDataPoint("test-string", "text");
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+        assertEquals(
+                "test-prefixtest-long;TaskId=3 12 123456789\n",
+                new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8)
+        );
+        assertEquals(Transport.Type.TCP, fieldTransportType.get(influxDBSender));
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldKeepPointsAcrossCallsUntilBatchIsFull() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_MAX_POINTS, 3);
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_LINGER_MS, 60000L);
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 1);
+        influxDBSender.prepareDataPoint("test-integer", 2);
+        influxDBSender.sendPoints();
+        Mockito.verify(transport, Mockito.never()).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        influxDBSender.prepareDataPoint("test-integer", 3);
+        influxDBSender.sendPoints();
+        influxDBSender.prepareDataPoint("test-integer", 4);
+        influxDBSender.sendPoints();
+        influxDBSender.flush();
+
+        // ----------------------------------------
+        // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(2)).write(data.capture(), Mockito.eq(0), length.capture());
+        assertEquals(3, new String(data.getAllValues().get(0), 0, length.getAllValues().get(0), StandardCharsets.UTF_8).split("\n").length);
+        assertTrue(new String(data.getAllValues().get(1), 0, length.getAllValues().get(1), StandardCharsets.UTF_8).startsWith("test-prefixtest-integer value=4i "));
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldFlushBatchWhenLingerTimeIsReached() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_ENABLE, true);
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_LINGER_MS, 50L);
+
+        final InfluxDB influxDB = Mockito.mock(InfluxDB.class);
+        final Transport transport = Mockito.mock(Transport.class);
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(influxDBSender, influxDB);
+        fieldTransport.set(influxDBSender, transport);
+
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.prepareDataPoint("test-integer", 1);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(transport, Mockito.timeout(5000).times(1)).write(Mockito.any(byte[].class), Mockito.eq(0), Mockito.anyInt());
+
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldCreateOneEndpointPerUrlWhenSeveralUrlsAreGiven() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_URL, "http://localhost:8086, http://127.0.0.1:8086");
+        config.put(InfluxDBSender.KEY_INFLUXDB_ROUTING_STRATEGY, "fan_out");
+
+        // ----------------------------------------
+        // when our method tested
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+
+        // ----------------------------------------
+        // Then
+        assertNotNull(influxDBSender.getEndpointRouter());
+        assertEquals(2, influxDBSender.getEndpointRouter().getEndpoints().size());
+        assertEquals("http://127.0.0.1:8086", influxDBSender.getEndpointRouter().getEndpoints().get(1).getUrl());
+        assertNull(influxDBSender.getAsyncWriter());
+
+        final Field fieldTransport = influxDBSenderClass.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+        assertNull(fieldTransport.get(influxDBSender));
+        assertNull(fieldInfluxDB.get(influxDBSender));
+
+        influxDBSender.stopAsyncWriter();
+        influxDBSender.closeConnection();
+    }
+
+    @Test
+    public void itShouldRejectSpillingWhenSeveralUrlsAreGiven() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_URL, "http://localhost:8086, http://127.0.0.1:8086");
+        config.put(InfluxDBSender.KEY_INFLUXDB_SPILL_ENABLE, true);
+
+        // ----------------------------------------
+        // Then
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(InfluxDBSender.KEY_INFLUXDB_SPILL_ENABLE);
+
+        // ----------------------------------------
+        // when our method tested
+        new InfluxDBSender(config);
+    }
+
+    @Test
+    public void itShouldRejectTheOffHeapQueueWhenSeveralUrlsAreGiven() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_URL, Arrays.asList("http://localhost:8086", "http://127.0.0.1:8086"));
+        config.put(InfluxDBSender.KEY_INFLUXDB_ASYNC_OFFHEAP_ENABLE, "true");
+
+        // ----------------------------------------
+        // Then
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(InfluxDBSender.KEY_INFLUXDB_ASYNC_OFFHEAP_ENABLE);
+
+        // ----------------------------------------
+        // when our method tested
+        new InfluxDBSender(config);
+    }
+
+    @Test
+    public void itShouldParseUrlsFromListOrCommaSeparatedString() throws Exception {
+        assertEquals(Arrays.asList("http://a:8086", "http://b:8086"), InfluxDBSender.parseUrls("http://a:8086,http://b:8086"));
+        assertEquals(Arrays.asList("http://a:8086", "http://b:8086"), InfluxDBSender.parseUrls(Arrays.asList("http://a:8086", " http://b:8086")));
+        assertEquals(Collections.singletonList("http://a:8086"), InfluxDBSender.parseUrls("http://a:8086"));
+    }
+
+    @Test
+    public void itShouldWritePointsOverUdpWhenUdpTransportIsSelected() throws Exception {
+        // ----------------------------------------
+        // Given
+        final DatagramChannel listener = DatagramChannel.open();
+        listener.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        config.put(InfluxDBSender.KEY_INFLUXDB_TRANSPORT, "udp");
+        config.put(InfluxDBSender.KEY_INFLUXDB_URL, "udp://127.0.0.1:" + ((InetSocketAddress) listener.getLocalAddress()).getPort());
+
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.setTimestamp(123456789000L);
+        influxDBSender.prepareDataPoint("test-integer", 10);
+        influxDBSender.sendPoints();
+
+        // ----------------------------------------
+        // Then with a nanoseconds timestamp, the default precision of the UDP listeners
+        final ByteBuffer packet = ByteBuffer.allocate(1024);
+        listener.receive(packet);
+        packet.flip();
+        assertEquals("test-prefixtest-integer value=10i 123456789000000000\n", StandardCharsets.UTF_8.decode(packet).toString());
+
+        final Field fieldInfluxDB = influxDBSenderClass.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+        assertNull(fieldInfluxDB.get(influxDBSender));
+
+        influxDBSender.closeConnection();
+        listener.close();
+    }
+
+    @Test
+    public void itShouldWriteNanosecondTimestampsOverTcpWhenTcpTransportIsSelected() throws Exception {
+        // ----------------------------------------
+        // Given
+        final ServerSocket listener = new ServerSocket(0);
+        listener.setSoTimeout(5000);
+
+        config.put(InfluxDBSender.KEY_INFLUXDB_TRANSPORT, "tcp");
+        config.put(InfluxDBSender.KEY_INFLUXDB_URL, "tcp://127.0.0.1:" + listener.getLocalPort());
+
+        final InfluxDBSender influxDBSender = new InfluxDBSender(config);
+        influxDBSender.setTags(new HashMap<String, String>());
+        influxDBSender.setFields(new HashMap<String, Object>());
+
+        // ----------------------------------------
+        // when our method tested
+        influxDBSender.setTimestamp(123456789000L);
+        influxDBSender.prepareDataPoint("test-double", 0.5d);
+        influxDBSender.sendPoints();
+        influxDBSender.closeConnection();
+
+        // ----------------------------------------
+        // Then
+        try (Socket socket = listener.accept()) {
+            final byte[] received = new byte[1024];
+            int length = 0;
+            int read;
+            while ((read = socket.getInputStream().read(received, length, received.length - length)) >= 0) {
+                length += read;
+            }
+            assertEquals("test-prefixtest-double value=0.5 123456789000000000\n", new String(received, 0, length, StandardCharsets.UTF_8));
+        }
+        listener.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyAggregatorTest {
+
+    @Test
+    public void itShouldSketchTheLatenciesOfAllTheStreamsOfAComponentTogether() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LatencyAggregator aggregator = new LatencyAggregator(60000, Arrays.asList("__execute-latency", "__complete-latency"));
+
+        // ----------------------------------------
+        // When
+        aggregator.add(61000, "split-bolt", "__execute-latency.spout:default", 2.0);
+        aggregator.add(62000, "split-bolt", "__execute-latency.spout:words", 4.0f);
+        aggregator.add(62000, "split-bolt", "__execute-latency.spout:words", Double.NaN);
+        aggregator.add(63000, "spout", "__complete-latency.default", 120L);
+
+        // ----------------------------------------
+        // Then
+        assertTrue(aggregator.isLatency("__execute-latency.spout:default"));
+        assertFalse(aggregator.isLatency("__execute-count.spout:default"));
+        assertEquals(60000, aggregator.getWindowStart());
+        assertEquals(2, aggregator.getSketches().size());
+        assertEquals(2, aggregator.getSketches().get("split-bolt").get("__execute-latency").getCount());
+        assertEquals(4.0, aggregator.getSketches().get("split-bolt").get("__execute-latency").getMax(), 0);
+        assertEquals(120.0, aggregator.getSketches().get("spout").get("__complete-latency").getMax(), 0);
+    }
+
+    @Test
+    public void itShouldCloseTheWindowWhenATickOfALaterWindowArrives() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LatencyAggregator aggregator = new LatencyAggregator(60000, Arrays.asList("__execute-latency"));
+        aggregator.add(61000, "bolt", "__execute-latency.default", 1.0);
+
+        // ----------------------------------------
+        // When
+        final boolean sameWindow = aggregator.isWindowOver(119999);
+        final boolean nextWindow = aggregator.isWindowOver(120000);
+        aggregator.reset();
+
+        // ----------------------------------------
+        // Then
+        assertFalse(sameWindow);
+        assertTrue(nextWindow);
+        assertTrue(aggregator.isEmpty());
+        assertFalse(aggregator.isWindowOver(120000));
+    }
+}
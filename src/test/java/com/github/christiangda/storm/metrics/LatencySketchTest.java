@@ -0,0 +1,58 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencySketchTest {
+
+    @Test
+    public void itShouldComputeThePercentilesWithinTheRelativeError() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LatencySketch sketch = new LatencySketch();
+
+        // ----------------------------------------
+        // When 0.1 ms to 100 ms
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i / 10d);
+        }
+
+        // ----------------------------------------
+        // Then
+        final Map<String, Object> fields = sketch.getFields();
+        assertEquals(50d, (Double) fields.get("p50"), 50 * 0.07);
+        assertEquals(90d, (Double) fields.get("p90"), 90 * 0.07);
+        assertEquals(99d, (Double) fields.get("p99"), 99 * 0.07);
+        assertEquals(100d, fields.get("max"));
+        assertEquals(1000L, fields.get("count"));
+        assertEquals(0d, new LatencySketch().getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void itShouldMergeTheLatenciesOfAnotherSketch() throws Exception {
+        // ----------------------------------------
+        // Given a fast task and a slow one
+        final LatencySketch fast = new LatencySketch();
+        final LatencySketch slow = new LatencySketch();
+        for (int i = 0; i < 90; i++) {
+            fast.add(1.0);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.add(250.0);
+        }
+
+        // ----------------------------------------
+        // When
+        fast.merge(slow);
+
+        // ----------------------------------------
+        // Then the tail is the one of the slow task
+        assertEquals(100, fast.getCount());
+        assertEquals(1.0, fast.getValueAtPercentile(90), 1.0 * 0.07);
+        assertEquals(250.0, fast.getValueAtPercentile(99), 250.0 * 0.07);
+        assertEquals(250.0, fast.getMax(), 0);
+    }
+}
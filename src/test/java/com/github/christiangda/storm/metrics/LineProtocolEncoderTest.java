@@ -0,0 +1,201 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineProtocolEncoderTest {
+
+    private static String lines(LineProtocolEncoder encoder) {
+        return new String(encoder.getBuffer().toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void itShouldEncodeLinesWithSortedTagsAndFields() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("storm-", 16);
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("Topology", "test-topology");
+        tags.put("ComponentId", "test-bolt");
+        tags.put("Empty", "");
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put("WorkerHost", "localhost");
+        fields.put("TaskId", "1");
+
+        // ----------------------------------------
+        // When
+        encoder.setTags(tags);
+        encoder.setFields(fields);
+        encoder.encodeNumber("emitted", 10, 1000L);
+        encoder.encodeString("state", "running", 1000L);
+        encoder.encodeBoolean("active", true, 1000L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(3, encoder.getPoints());
+        assertEquals(
+                "storm-emitted,ComponentId=test-bolt,Topology=test-topology value=10,TaskId=\"1\",WorkerHost=\"localhost\" 1000\n"
+                        + "storm-state,ComponentId=test-bolt,Topology=test-topology value=\"running\",TaskId=\"1\",WorkerHost=\"localhost\" 1000\n"
+                        + "storm-active,ComponentId=test-bolt,Topology=test-topology value=true,TaskId=\"1\",WorkerHost=\"localhost\" 1000\n",
+                lines(encoder)
+        );
+    }
+
+    @Test
+    public void itShouldWriteTheSameLinesWithTheEncodingCache() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder cached = new LineProtocolEncoder("storm-", 16, true, 100, 60000L);
+        final LineProtocolEncoder uncached = new LineProtocolEncoder("storm-", 16, true);
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("ComponentId", "split bolt");
+        tags.put("Topology", "test=topology");
+        tags.put("TaskId", "7");
+
+        // ----------------------------------------
+        // When
+        for (LineProtocolEncoder encoder : new LineProtocolEncoder[]{cached, uncached}) {
+            for (int tick = 0; tick < 2; tick++) {
+                encoder.setTags(new HashMap<>(tags));
+                encoder.setFields(Collections.<String, Object>emptyMap());
+                encoder.encodeInteger("__emit-count.default,stream", 10, 1000L);
+                encoder.encodePoint("__sendqueue", Collections.singletonMap("Rollup", "60s"), Collections.<String, Object>singletonMap("sum", 2L), 1000L);
+            }
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(lines(uncached), lines(cached));
+        assertEquals(
+                "storm-__emit-count.default\\,stream,ComponentId=split\\ bolt,TaskId=7,Topology=test\\=topology value=10i 1000\n"
+                        + "storm-__sendqueue,ComponentId=split\\ bolt,Rollup=60s,TaskId=7,Topology=test\\=topology sum=2i 1000\n",
+                lines(cached).substring(0, lines(cached).length() / 2)
+        );
+    }
+
+    @Test
+    public void itShouldEncodeIntegralAndFractionalNumbers() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("", 16);
+
+        // ----------------------------------------
+        // When
+        encoder.encodeNumber("a", -42, 1L);
+        encoder.encodeNumber("b", 0.5, 1L);
+        encoder.encodeNumber("c", 1e20, 1L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a value=-42 1\nb value=0.5 1\nc value=1.0E20 1\n", lines(encoder));
+    }
+
+    @Test
+    public void itShouldEncodeNativeIntegersWhenEnabled() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("", 16, true);
+        final Map<String, Object> values = new LinkedHashMap<>();
+        values.put("count", 7L);
+        values.put("ratio", 0.25d);
+
+        // ----------------------------------------
+        // When
+        encoder.encodeInteger("a", -42, 1L);
+        encoder.encodePoint("b", Collections.<String, String>emptyMap(), values, 1L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a value=-42i 1\nb count=7i,ratio=0.25 1\n", lines(encoder));
+    }
+
+    @Test
+    public void itShouldWriteTheTimestampsInTheGivenPrecision() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("", 16, false, 0, 0, TimeUnit.NANOSECONDS);
+
+        // ----------------------------------------
+        // When
+        encoder.encodeNumber("a", 1, 1500L);
+        encoder.encodePoint("b", Collections.<String, String>emptyMap(), Collections.<String, Object>singletonMap("sum", 2L), 1500L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a value=1 1500000000\nb sum=2 1500000000\n", lines(encoder));
+    }
+
+    @Test
+    public void itShouldEscapeSpecialCharacters() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("", 16);
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("Component Id", "a=b,c");
+
+        // ----------------------------------------
+        // When
+        encoder.setTags(tags);
+        encoder.encodeString("my metric,1", "say \"hi\" \\ñ", 1L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals("my\\ metric\\,1,Component\\ Id=a\\=b\\,c value=\"say \\\"hi\\\" \\\\ñ\" 1\n", lines(encoder));
+    }
+
+    @Test
+    public void itShouldEncodePointsWithSeveralFieldsAndMergedTags() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("storm-", 16);
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("Topology", "test-topology");
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put("TaskId", "1");
+        final Map<String, Object> values = new LinkedHashMap<>();
+        values.put("read_pos", 10);
+        values.put("arrival_rate", 0.5f);
+
+        // ----------------------------------------
+        // When
+        encoder.setTags(tags);
+        encoder.setFields(fields);
+        encoder.encodePoint("__sendqueue", Collections.<String, String>emptyMap(), values, 1000L);
+        encoder.encodePoint("__emit-count", Collections.singletonMap("stream", "default"), Collections.singletonMap("value", (Object) 3), 1000L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2, encoder.getPoints());
+        assertEquals(
+                "storm-__sendqueue,Topology=test-topology read_pos=10i,arrival_rate=0.5,TaskId=\"1\" 1000\n"
+                        + "storm-__emit-count,Topology=test-topology,stream=default value=3i,TaskId=\"1\" 1000\n",
+                lines(encoder)
+        );
+    }
+
+    @Test
+    public void itShouldReuseTheBufferWhenReset() throws Exception {
+        // ----------------------------------------
+        // Given
+        final LineProtocolEncoder encoder = new LineProtocolEncoder("", 16);
+        encoder.encodeNumber("a", 1, 1L);
+
+        // ----------------------------------------
+        // When
+        encoder.reset();
+        encoder.encodeNumber("b", 2, 2L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(1, encoder.getPoints());
+        assertEquals("b value=2 2\n", lines(encoder));
+    }
+}
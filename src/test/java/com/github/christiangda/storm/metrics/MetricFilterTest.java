@@ -0,0 +1,86 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricFilterTest {
+
+    @Test
+    public void itShouldAcceptEveryNameWithoutPatterns() throws Exception {
+        // ----------------------------------------
+        // Given
+        final MetricFilter filter = new MetricFilter(Collections.<String>emptyList(), Collections.<String>emptyList(), 100);
+
+        // ----------------------------------------
+        // Then
+        assertTrue(filter.isEmpty());
+        assertTrue(filter.accepts("__emit-count.default"));
+        assertFalse(filter.rejectsAllUnder("__emit-count"));
+    }
+
+    @Test
+    public void itShouldMatchExactNamesPrefixesGlobsAndRegexes() throws Exception {
+        // ----------------------------------------
+        // Given
+        final MetricFilter filter = new MetricFilter(
+                Arrays.asList("__emit-count*", "__ack-count.default", "__execute-latency.?", "regex:memory/(heap|nonHeap)\\.used"),
+                Collections.<String>emptyList(),
+                100);
+
+        // ----------------------------------------
+        // Then
+        assertTrue(filter.accepts("__emit-count"));
+        assertTrue(filter.accepts("__emit-count.default"));
+        assertTrue(filter.accepts("__ack-count.default"));
+        assertFalse(filter.accepts("__ack-count.default2"));
+        assertTrue(filter.accepts("__execute-latency.a"));
+        assertFalse(filter.accepts("__execute-latency.ab"));
+        assertTrue(filter.accepts("memory/heap.used"));
+        assertFalse(filter.accepts("memory/heap.committed"));
+        assertFalse(filter.accepts("__sendqueue.population"));
+    }
+
+    @Test
+    public void itShouldGiveExcludesPrecedenceAndCacheTheDecisions() throws Exception {
+        // ----------------------------------------
+        // Given
+        final MetricFilter filter = new MetricFilter(
+                Collections.singletonList("__*"),
+                MetricFilter.parsePatterns("__sendqueue*, __receive.*"),
+                2);
+
+        // ----------------------------------------
+        // When
+        final boolean emit = filter.accepts("__emit-count.default");
+        final boolean sendQueue = filter.accepts("__sendqueue.read_pos");
+        final boolean receive = filter.accepts("__receive.population");
+
+        // ----------------------------------------
+        // Then
+        assertTrue(emit);
+        assertFalse(sendQueue);
+        assertFalse(receive);
+        assertEquals(2, filter.getCachedDecisions());
+        assertTrue(filter.rejectsAllUnder("__sendqueue"));
+        assertFalse(filter.rejectsAllUnder("__receive"));
+    }
+
+    @Test
+    public void itShouldParsePatternsFromAListOrACommaSeparatedString() throws Exception {
+        assertEquals(Arrays.asList("a*", "b"), MetricFilter.parsePatterns(Arrays.asList(" a* ", "b", "")));
+        assertEquals(Arrays.asList("a*", "b"), MetricFilter.parsePatterns("a*, b,"));
+        assertTrue(MetricFilter.parsePatterns(null).isEmpty());
+        assertTrue(MetricFilter.parsePatterns("").isEmpty());
+    }
+
+    @Test
+    public void itShouldQuoteTheLiteralPartsOfAGlob() throws Exception {
+        assertEquals("\\Qa.b\\E.*\\Q(c)\\E.", MetricFilter.globToRegex("a.b*(c)?"));
+    }
+}
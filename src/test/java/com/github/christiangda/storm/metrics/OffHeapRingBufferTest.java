@@ -0,0 +1,144 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapRingBufferTest {
+
+    private static byte[] record(char value, int length) {
+        final byte[] record = new byte[length];
+        Arrays.fill(record, (byte) value);
+        return record;
+    }
+
+    private static String content(OffHeapRingBuffer.Claim claim) {
+        final StringBuilder content = new StringBuilder();
+        for (ByteBuffer record : claim.getRecords()) {
+            final byte[] bytes = new byte[record.remaining()];
+            record.duplicate().get(bytes);
+            content.append(new String(bytes, StandardCharsets.UTF_8)).append('|');
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void itShouldHandOutRecordsInOrderAndWrapAroundTheEndOfTheMemory() throws Exception {
+        // ----------------------------------------
+        // Given (records of 40 bytes take 56 bytes with their header)
+        final OffHeapRingBuffer ring = new OffHeapRingBuffer(128);
+
+        // ----------------------------------------
+        // When
+        assertTrue(ring.offer(record('a', 40), 0, 40, 1));
+        assertTrue(ring.offer(record('b', 40), 0, 40, 2));
+        assertFalse(ring.offer(record('c', 40), 0, 40, 3));
+
+        final OffHeapRingBuffer.Claim first = ring.claim(1);
+        final String firstContent = content(first);
+        ring.release(first);
+        assertTrue(ring.offer(record('c', 40), 0, 40, 3));
+
+        final OffHeapRingBuffer.Claim second = ring.claim(10);
+        final OffHeapRingBuffer.Claim third = ring.claim(10);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(new String(record('a', 40), StandardCharsets.UTF_8) + "|", firstContent);
+        assertEquals(1, first.getPoints());
+
+        // the run stops at the padding before the end of the memory
+        assertEquals(new String(record('b', 40), StandardCharsets.UTF_8) + "|", content(second));
+        assertEquals(new String(record('c', 40), StandardCharsets.UTF_8) + "|", content(third));
+        assertEquals(3, third.getPoints());
+        assertEquals(40, third.getBytes());
+        assertNull(ring.claim(10));
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.getQueuedRecords());
+    }
+
+    @Test
+    public void itShouldReuseTheMemoryOnlyOnceTheRecordsBeforeAreReleased() throws Exception {
+        // ----------------------------------------
+        // Given
+        final OffHeapRingBuffer ring = new OffHeapRingBuffer(128);
+        ring.offer(record('a', 40), 0, 40, 1);
+        ring.offer(record('b', 40), 0, 40, 1);
+        final OffHeapRingBuffer.Claim first = ring.claim(1);
+        final OffHeapRingBuffer.Claim second = ring.claim(1);
+
+        // ----------------------------------------
+        // When
+        ring.release(second);
+        final boolean queuedBeforeFirstRelease = ring.offer(record('c', 40), 0, 40, 1);
+        ring.release(first);
+        final boolean queuedAfterFirstRelease = ring.offer(record('c', 40), 0, 40, 1);
+
+        // ----------------------------------------
+        // Then
+        assertFalse(queuedBeforeFirstRelease);
+        assertTrue(queuedAfterFirstRelease);
+        assertEquals(1, ring.getQueuedRecords());
+        assertEquals(0, ring.getClaimedBytes());
+    }
+
+    @Test
+    public void itShouldGiveEveryRecordToOneConsumerOnly() throws Exception {
+        // ----------------------------------------
+        // Given
+        final OffHeapRingBuffer ring = new OffHeapRingBuffer(1024);
+        final int records = 20000;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+        final List<Thread> consumers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            consumers.add(new Thread(() -> {
+                while (count.get() < records) {
+                    final OffHeapRingBuffer.Claim claim = ring.claim(4);
+                    if (claim == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    for (ByteBuffer record : claim.getRecords()) {
+                        sum.addAndGet(record.getInt(0));
+                        count.incrementAndGet();
+                    }
+                    ring.release(claim);
+                }
+            }));
+        }
+
+        // ----------------------------------------
+        // When
+        for (Thread consumer : consumers) {
+            consumer.start();
+        }
+        final ByteBuffer value = ByteBuffer.allocate(12);
+        for (int i = 1; i <= records; i++) {
+            value.putInt(0, i);
+            while (!ring.offer(value.array(), 0, 4 + i % 9, 1)) {
+                Thread.yield();
+            }
+        }
+        for (Thread consumer : consumers) {
+            consumer.join(10000);
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(records, count.get());
+        assertEquals((long) records * (records + 1) / 2, sum.get());
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.getUsedBytes());
+    }
+}
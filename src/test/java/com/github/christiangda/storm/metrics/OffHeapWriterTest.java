@@ -0,0 +1,123 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapWriterTest {
+
+    private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+    private void write(ByteBuffer[] records, int length) {
+        final StringBuilder body = new StringBuilder();
+        for (ByteBuffer record : records) {
+            final byte[] bytes = new byte[record.remaining()];
+            record.duplicate().get(bytes);
+            body.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+        assertEquals(length, body.length());
+        written.add(body.toString());
+    }
+
+    private static boolean offer(OffHeapWriter writer, String lines, int points) {
+        final byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        return writer.offer(data, 0, data.length, points);
+    }
+
+    @Test
+    public void itShouldWriteAllQueuedBatchesFromTheDirectMemoryWhenStopped() throws Exception {
+        // ----------------------------------------
+        // Given
+        final OffHeapWriter writer = new OffHeapWriter("test", this::write, 4096, 2, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+
+        // ----------------------------------------
+        // When
+        writer.start();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(offer(writer, "a value=" + i + " 1\nb value=" + i + " 1\n", 2));
+        }
+        writer.stop(5000);
+
+        // ----------------------------------------
+        // Then
+        final StringBuilder all = new StringBuilder();
+        for (String body : written) {
+            all.append(body);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertTrue(all.toString().contains("a value=" + i + " 1\nb value=" + i + " 1\n"));
+        }
+        assertEquals(100, writer.getEnqueuedCount());
+        assertEquals(100, writer.getWrittenCount());
+        assertEquals(0, writer.getDroppedCount());
+        assertEquals(0, writer.getQueuedBytes());
+    }
+
+    @Test
+    public void itShouldDropOldestBatchesWhenTheRingIsFull() throws Exception {
+        // ----------------------------------------
+        // Given (batches of 40 bytes take 56 bytes of the ring, writer threads are not started)
+        final OffHeapWriter writer = new OffHeapWriter("test", this::write, 128, 1, AsyncWriter.OverflowPolicy.DROP_OLDEST, 0, 10);
+        final OffHeapWriter newest = new OffHeapWriter("test", this::write, 128, 1, AsyncWriter.OverflowPolicy.DROP_NEWEST, 0, 10);
+        final String padding = "0123456789012345678901234567890123456";
+
+        // ----------------------------------------
+        // When
+        offer(writer, "1 " + padding + "\n", 1);
+        offer(writer, "2 " + padding + "\n", 1);
+        offer(writer, "3 " + padding + "\n", 1);
+        writer.start();
+        writer.stop(5000);
+
+        offer(newest, "1 " + padding + "\n", 1);
+        offer(newest, "2 " + padding + "\n", 1);
+        final boolean queued = offer(newest, "3 " + padding + "\n", 1);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(3, writer.getEnqueuedCount());
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(2, writer.getWrittenCount());
+        assertEquals("2 " + padding + "\n3 " + padding + "\n", String.join("", written));
+
+        assertFalse(queued);
+        assertEquals(1, newest.getDroppedCount());
+        assertEquals(2, newest.getQueueSize());
+    }
+
+    @Test
+    public void itShouldReportTheEvictedBatchesAsDroppedInTheCountersOfTheInterval() throws Exception {
+        // ----------------------------------------
+        // Given (batches of 40 bytes take 56 bytes of the ring, writer threads are not started)
+        final OffHeapWriter writer = new OffHeapWriter("test", this::write, 128, 1, AsyncWriter.OverflowPolicy.DROP_OLDEST, 0, 10);
+        final String padding = "0123456789012345678901234567890123456";
+        final AtomicInteger overflowed = new AtomicInteger();
+        writer.setOverflowListener(overflowed::addAndGet);
+
+        // ----------------------------------------
+        // When
+        offer(writer, "1 " + padding + "\n", 2);
+        offer(writer, "2 " + padding + "\n", 2);
+        offer(writer, "3 " + padding + "\n", 2);
+        final Map<String, Object> values = writer.getValuesAndReset();
+
+        // ----------------------------------------
+        // Then
+        assertEquals(6L, values.get("offheap-enqueued-points"));
+        assertEquals(0L, values.get("offheap-written-points"));
+        assertEquals(2L, values.get("offheap-dropped-points"));
+        assertEquals(0L, writer.getValuesAndReset().get("offheap-dropped-points"));
+        assertEquals(2, writer.getDroppedCount());
+        assertEquals(2, overflowed.get());
+    }
+}
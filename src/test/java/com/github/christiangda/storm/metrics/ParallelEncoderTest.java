@@ -0,0 +1,139 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelEncoderTest {
+
+    private final ParallelEncoder parallelEncoder = new ParallelEncoder(() -> new LineProtocolEncoder("storm-", 1024), 4, 2048);
+
+    private final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+    @After
+    public void tearDown() {
+        this.parallelEncoder.shutdown();
+    }
+
+    private void encodeValue(MetricEncoder encoder, String name, Object value, long timestamp) {
+        this.threads.add(Thread.currentThread().getName());
+        if (value instanceof String) {
+            encoder.encodeString(name, (String) value, timestamp);
+        } else {
+            encoder.encodeNumber(name, ((Number) value).doubleValue(), timestamp);
+        }
+    }
+
+    private static Map<String, String> tags(String componentId) {
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("ComponentId", componentId);
+        tags.put("Topology", "test-topology");
+        return tags;
+    }
+
+    @Test
+    public void itShouldEncodeTheSameLinesAsTheCallingThreadAboveTheThreshold() throws Exception {
+        // ----------------------------------------
+        // Given
+        final List<String> names = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            names.add("__ack-count.component-" + i + ":default");
+            values.add((i % 10 == 0) ? "state-" + i : (Object) (i * 1.5d));
+        }
+        final Map<String, Object> fields = Collections.<String, Object>singletonMap("TaskId", "7");
+
+        final LineProtocolEncoder expected = new LineProtocolEncoder("storm-", 1024);
+        expected.setTags(tags("split-bolt"));
+        expected.setFields(fields);
+        for (int i = 0; i < names.size(); i++) {
+            this.encodeValue(expected, names.get(i), values.get(i), 1000L);
+        }
+        this.threads.clear();
+
+        final LineProtocolEncoder target = new LineProtocolEncoder("storm-", 1024);
+        target.setTags(tags("split-bolt"));
+        target.setFields(fields);
+        this.parallelEncoder.setTags(tags("split-bolt"));
+        this.parallelEncoder.setFields(fields);
+
+        // ----------------------------------------
+        // When
+        this.parallelEncoder.encode(names, values, target, 1000L, this::encodeValue);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(5000, target.getPoints());
+        assertEquals(
+                new String(expected.getBuffer().toByteArray(), StandardCharsets.UTF_8),
+                new String(target.getBuffer().toByteArray(), StandardCharsets.UTF_8)
+        );
+        for (String thread : this.threads) {
+            assertTrue(thread, thread.startsWith("influxdb-encoder-"));
+        }
+    }
+
+    @Test
+    public void itShouldEncodeInTheCallingThreadBelowTheThreshold() throws Exception {
+        // ----------------------------------------
+        // Given
+        final List<String> names = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            names.add("metric-" + i);
+            values.add(i);
+        }
+
+        final LineProtocolEncoder target = new LineProtocolEncoder("storm-", 1024);
+
+        // ----------------------------------------
+        // When
+        this.parallelEncoder.encode(names, values, target, 1000L, this::encodeValue);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2000, target.getPoints());
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), this.threads);
+    }
+
+    @Test
+    public void itShouldEncodeTheChunksWithTheTagsOfTheCurrentTask() throws Exception {
+        // ----------------------------------------
+        // Given
+        final List<String> names = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            names.add("metric");
+            values.add(1);
+        }
+
+        final LineProtocolEncoder target = new LineProtocolEncoder("storm-", 1024);
+        this.parallelEncoder.setTags(tags("split-bolt"));
+        this.parallelEncoder.encode(names, values, target, 1000L, this::encodeValue);
+        target.reset();
+
+        // ----------------------------------------
+        // When
+        this.parallelEncoder.setTags(tags("count-bolt"));
+        this.parallelEncoder.encode(names, values, target, 2000L, this::encodeValue);
+
+        // ----------------------------------------
+        // Then
+        final String[] lines = new String(target.getBuffer().toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(4096, lines.length);
+        for (String line : lines) {
+            assertEquals("storm-metric,ComponentId=count-bolt,Topology=test-topology value=1 2000", line);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryingTransportTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private final byte[] data = "a value=1 1\n".getBytes();
+
+    @Test
+    public void itShouldRetryRetryableErrorsUntilWriteSucceeds() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Transport delegate = Mockito.mock(Transport.class);
+        final WriteStats writeStats = new WriteStats();
+        final RetryingTransport transport = new RetryingTransport(delegate, new CircuitBreaker("test", 5, 60000), writeStats, 3, 1, 10);
+
+        Mockito.doThrow(new ConnectException("Connection refused"))
+                .doThrow(new InfluxDBWriteException(503, "unavailable"))
+                .doReturn(204)
+                .when(delegate).write(data, 0, data.length);
+
+        // ----------------------------------------
+        // When
+        final int statusCode = transport.write(data, 0, data.length);
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(delegate, Mockito.times(3)).write(data, 0, data.length);
+        assertEquals(204, statusCode);
+        assertEquals(1, writeStats.getSucceededWrites());
+        assertEquals(data.length, writeStats.getBytesWritten());
+        assertEquals(1, writeStats.getStatusCount(WriteStats.NO_STATUS));
+        assertEquals(1, writeStats.getStatusCount(503));
+        assertEquals(1, writeStats.getStatusCount(204));
+        assertEquals(3, writeStats.getWriteLatencyUs().getCount());
+
+        final Map<String, Object> values = writeStats.getValuesAndReset();
+        assertEquals(2L, values.get("retries"));
+        assertEquals(1L, values.get("status-204"));
+        assertEquals(1L, values.get("status-503"));
+        assertEquals(1L, values.get("status-none"));
+    }
+
+    @Test
+    public void itShouldNotRetryPermanentErrors() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Transport delegate = Mockito.mock(Transport.class);
+        final WriteStats writeStats = new WriteStats();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 60000);
+        final RetryingTransport transport = new RetryingTransport(delegate, circuitBreaker, writeStats, 3, 1, 10);
+
+        Mockito.doThrow(new InfluxDBWriteException(400, "partial write")).when(delegate).write(data, 0, data.length);
+
+        // ----------------------------------------
+        // When
+        try {
+            transport.write(data, 0, data.length);
+        } catch (InfluxDBWriteException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(delegate, Mockito.times(1)).write(data, 0, data.length);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1L, writeStats.getValuesAndReset().get("permanent-failures"));
+    }
+
+    @Test
+    public void itShouldShortCircuitWritesWhenCircuitIsOpen() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Transport delegate = Mockito.mock(Transport.class);
+        final WriteStats writeStats = new WriteStats();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 60000);
+        writeStats.register(circuitBreaker);
+        final RetryingTransport transport = new RetryingTransport(delegate, circuitBreaker, writeStats, 1, 1, 10);
+
+        Mockito.doThrow(new SocketTimeoutException("timeout")).when(delegate).write(data, 0, data.length);
+        try {
+            transport.write(data, 0, data.length);
+        } catch (SocketTimeoutException e) {
+            // expected, it opens the circuit
+        }
+
+        // ----------------------------------------
+        // Then
+        thrown.expect(RetryingTransport.CircuitOpenException.class);
+
+        // ----------------------------------------
+        // When
+        try {
+            transport.write(data, 0, data.length);
+        } finally {
+            Mockito.verify(delegate, Mockito.times(2)).write(data, 0, data.length);
+            final Map<String, Object> values = writeStats.getValuesAndReset();
+            assertEquals(1L, values.get("failed-writes"));
+            assertEquals(1L, values.get("short-circuited"));
+            assertEquals(1, values.get("open-circuits"));
+        }
+    }
+
+    @Test
+    public void itShouldClassifyErrors() throws Exception {
+        assertTrue(RetryingTransport.isRetryable(new IOException("reset")));
+        assertTrue(RetryingTransport.isRetryable(new SocketTimeoutException("timeout")));
+        assertTrue(RetryingTransport.isRetryable(new InfluxDBWriteException(500, "error")));
+        assertTrue(RetryingTransport.isRetryable(new InfluxDBWriteException(429, "too many requests")));
+        assertFalse(RetryingTransport.isRetryable(new InfluxDBWriteException(401, "unauthorized")));
+        assertFalse(RetryingTransport.isRetryable(new InfluxDBWriteException(400, "partial write")));
+    }
+
+    @Test
+    public void itShouldKeepBackoffBetweenZeroAndMaximum() throws Exception {
+        final RetryingTransport transport = new RetryingTransport(Mockito.mock(Transport.class), new CircuitBreaker("test", 1, 1), new WriteStats(), 3, 100, 250);
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long backoff = transport.backoff(attempt);
+            assertTrue(backoff >= 0 && backoff <= 250);
+        }
+    }
+
+    @Test
+    public void itShouldWaitForTheRetryAfterTimeWhenTheServerThrottles() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Transport delegate = Mockito.mock(Transport.class);
+        final WriteStats writeStats = new WriteStats();
+        final WriteStats.Listener listener = Mockito.mock(WriteStats.Listener.class);
+        writeStats.setListener(listener);
+        final RetryingTransport transport = new RetryingTransport(delegate, new CircuitBreaker("test", 5, 60000), writeStats, 3, 1, 200);
+
+        Mockito.doThrow(new InfluxDBWriteException(429, "too many requests", 100))
+                .doReturn(204)
+                .when(delegate).write(data, 0, data.length);
+
+        // ----------------------------------------
+        // When
+        final long start = System.nanoTime();
+        transport.write(data, 0, data.length);
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(delegate, Mockito.times(2)).write(data, 0, data.length);
+        assertTrue(elapsedMs >= 100);
+        Mockito.verify(listener).attemptFailed(Mockito.eq(429), Mockito.anyLong());
+        Mockito.verify(listener).throttled(100);
+        Mockito.verify(listener).succeeded(Mockito.eq(data.length), Mockito.anyLong());
+        assertEquals(1L, writeStats.getValuesAndReset().get("throttled"));
+    }
+
+    @Test
+    public void itShouldNotLeaveTheTrialInFlightWhenTheTrialWriteThrowsARuntimeException() throws Exception {
+        // ----------------------------------------
+        // Given (the circuit opens on the first failure and lets a trial through right away)
+        final Transport delegate = Mockito.mock(Transport.class);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 0);
+        final RetryingTransport transport = new RetryingTransport(delegate, circuitBreaker, new WriteStats(), 0, 1, 10);
+
+        Mockito.doThrow(new ConnectException("Connection refused"))
+                .doThrow(new IllegalStateException("broken client"))
+                .doReturn(204)
+                .when(delegate).write(data, 0, data.length);
+
+        // ----------------------------------------
+        // When
+        try {
+            transport.write(data, 0, data.length);
+        } catch (ConnectException e) {
+            // opens the circuit
+        }
+        try {
+            transport.write(data, 0, data.length);
+        } catch (IllegalStateException e) {
+            // failed trial
+        }
+        transport.write(data, 0, data.length);
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(delegate, Mockito.times(3)).write(data, 0, data.length);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void itShouldNotLeaveTheTrialInFlightWhenInterruptedWhileWaitingToRetry() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Transport delegate = Mockito.mock(Transport.class);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 0);
+        final RetryingTransport transport = new RetryingTransport(delegate, circuitBreaker, new WriteStats(), 1, 100, 100);
+
+        Mockito.doThrow(new ConnectException("Connection refused"))
+                .doThrow(new ConnectException("Connection refused"))
+                .doThrow(new ConnectException("Connection refused"))
+                .doReturn(204)
+                .when(delegate).write(data, 0, data.length);
+
+        // ----------------------------------------
+        // When the backoff after the failed trial is interrupted
+        try {
+            transport.write(data, 0, data.length);
+        } catch (ConnectException e) {
+            // opens the circuit
+        }
+        Thread.currentThread().interrupt();
+        try {
+            transport.write(data, 0, data.length);
+        } catch (InterruptedIOException e) {
+            // interrupted trial
+        }
+        assertTrue(Thread.interrupted());
+        transport.write(data, 0, data.length);
+
+        // ----------------------------------------
+        // Then
+        Mockito.verify(delegate, Mockito.times(4)).write(data, 0, data.length);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RollupAggregatorTest {
+
+    @Test
+    public void itShouldAggregateValuesPerComponentAndMetric() throws Exception {
+        // ----------------------------------------
+        // Given
+        final RollupAggregator aggregator = new RollupAggregator(60000);
+
+        // ----------------------------------------
+        // When
+        aggregator.add(61000, "split-bolt", "__emit-count.default", 10L);
+        aggregator.add(62000, "split-bolt", "__emit-count.default", 30);
+        aggregator.add(63000, "split-bolt", "__emit-count.default", 20.0f);
+        aggregator.add(63000, "count-bolt", "__emit-count.default", 5L);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(60000, aggregator.getWindowStart());
+        assertEquals(2, aggregator.getRollups().size());
+
+        final Map<String, Object> fields = aggregator.getRollups().get("split-bolt").get("__emit-count.default").getFields();
+        assertEquals(60d, fields.get("sum"));
+        assertEquals(10d, fields.get("min"));
+        assertEquals(30d, fields.get("max"));
+        assertEquals(3L, fields.get("count"));
+        assertEquals(20d, fields.get("last"));
+        assertEquals(1, aggregator.getRollups().get("count-bolt").get("__emit-count.default").getCount());
+    }
+
+    @Test
+    public void itShouldIgnoreValuesThatAreNotFiniteNumbers() throws Exception {
+        // ----------------------------------------
+        // Given
+        final RollupAggregator aggregator = new RollupAggregator(60000);
+
+        // ----------------------------------------
+        // When
+        final boolean string = aggregator.add(1000, "bolt", "state", "running");
+        final boolean bool = aggregator.add(1000, "bolt", "active", true);
+        final boolean nan = aggregator.add(1000, "bolt", "latency", Double.NaN);
+
+        // ----------------------------------------
+        // Then
+        assertFalse(string || bool || nan);
+        assertTrue(aggregator.isEmpty());
+        assertEquals(-1, aggregator.getWindowStart());
+    }
+
+    @Test
+    public void itShouldCloseTheWindowWhenATickOfALaterWindowArrives() throws Exception {
+        // ----------------------------------------
+        // Given
+        final RollupAggregator aggregator = new RollupAggregator(60000);
+        aggregator.add(119999, "bolt", "uptime", 1);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(60000, aggregator.getWindowStart());
+        assertFalse(aggregator.isWindowOver(60000));
+        assertFalse(aggregator.isWindowOver(119999));
+        assertTrue(aggregator.isWindowOver(120000));
+
+        aggregator.reset();
+        assertTrue(aggregator.isEmpty());
+        assertFalse(aggregator.isWindowOver(120000));
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.christiangda.storm.metrics;
+
+import org.influxdb.InfluxDB;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SharedWriterTest {
+
+    private final Map<Object, Object> config = new HashMap<Object, Object>() {{
+        put(InfluxDBSender.KEY_INFLUXDB_URL, "http://localhost:8086");
+        put(InfluxDBSender.KEY_INFLUXDB_DATABASE, "test-database");
+        put(InfluxDBSender.KEY_INFLUXDB_MEASUREMENT_PREFIX, "test-prefix-");
+        put(InfluxDBSender.KEY_INFLUXDB_SHARED_ENABLE, true);
+        put(InfluxDBSender.KEY_INFLUXDB_SHARED_LINGER_MS, 60000L);
+        put(InfluxDBSender.KEY_INFLUXDB_HEALTH_CHECK_INTERVAL_MS, 0L);
+    }};
+
+    private static Transport injectTransport(SharedWriter writer) throws Exception {
+        final Transport transport = Mockito.mock(Transport.class);
+
+        final Field fieldInfluxDB = InfluxDBSender.class.getDeclaredField("influxDB");
+        fieldInfluxDB.setAccessible(true);
+
+        final Field fieldTransport = InfluxDBSender.class.getDeclaredField("transport");
+        fieldTransport.setAccessible(true);
+
+        // Inject mocked
+        fieldInfluxDB.set(writer.getSender(), Mockito.mock(InfluxDB.class));
+        fieldTransport.set(writer.getSender(), transport);
+        return transport;
+    }
+
+    private static void sendTick(InfluxDBSender sender, String componentId, int points) {
+        sender.setTags(Collections.singletonMap("ComponentId", componentId));
+        sender.setFields(Collections.<String, Object>emptyMap());
+        sender.setTimestamp(1000L);
+        for (int i = 0; i < points; i++) {
+            sender.prepareDataPoint("metric-" + i, i);
+        }
+        sender.sendPoints();
+    }
+
+    @Test
+    public void itShouldShareOneWriterPerDestinationUntilTheLastConsumerReleasesIt() throws Exception {
+        // ----------------------------------------
+        // Given
+        final InfluxDBSender first = new InfluxDBSender(config);
+        final InfluxDBSender second = new InfluxDBSender(config);
+        config.put(InfluxDBSender.KEY_INFLUXDB_DATABASE, "other-database");
+        final InfluxDBSender other = new InfluxDBSender(config);
+
+        final SharedWriter writer = first.getSharedWriter();
+        final Transport transport = injectTransport(writer);
+
+        // ----------------------------------------
+        // When
+        sendTick(first, "split-bolt", 1);
+        first.closeConnection();
+
+        // ----------------------------------------
+        // Then
+        assertSame(writer, second.getSharedWriter());
+        assertNotSame(writer, other.getSharedWriter());
+        assertSame(writer.getSender().getWriteStats(), second.getWriteStats());
+        assertEquals(1, writer.getReferences());
+        Mockito.verify(transport, Mockito.never()).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        second.closeConnection();
+        assertEquals(0, writer.getReferences());
+        Mockito.verify(transport, Mockito.times(1)).write(Mockito.any(byte[].class), Mockito.eq(0), Mockito.anyInt());
+        Mockito.verify(transport, Mockito.times(1)).close();
+
+        other.closeConnection();
+    }
+
+    @Test
+    public void itShouldOnlyShareTheWriterBetweenConsumersWithTheSameSenderSettings() throws Exception {
+        // ----------------------------------------
+        // Given two consumer tasks, and a third one writing with compression and without retries
+        config.put(InfluxDBSender.KEY_CONSUMER_TASK_ID, 1);
+        final InfluxDBSender first = new InfluxDBSender(config);
+        config.put(InfluxDBSender.KEY_CONSUMER_TASK_ID, 2);
+        final InfluxDBSender second = new InfluxDBSender(config);
+        config.put(InfluxDBSender.KEY_INFLUXDB_COMPRESSION, "gzip");
+        config.put(InfluxDBSender.KEY_INFLUXDB_RETRY_MAX_RETRIES, 0);
+        final InfluxDBSender other = new InfluxDBSender(config);
+
+        // ----------------------------------------
+        // When
+        final SharedWriter writer = first.getSharedWriter();
+
+        // ----------------------------------------
+        // Then
+        assertSame(writer, second.getSharedWriter());
+        assertNotSame(writer, other.getSharedWriter());
+        assertEquals(2, writer.getReferences());
+        assertEquals(1, other.getSharedWriter().getReferences());
+
+        first.closeConnection();
+        second.closeConnection();
+        other.closeConnection();
+    }
+
+    @Test
+    public void itShouldMergeThePointsOfSeveralConsumersIntoOneBatch() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_MAX_POINTS, 4);
+        final InfluxDBSender first = new InfluxDBSender(config);
+        final InfluxDBSender second = new InfluxDBSender(config);
+        final Transport transport = injectTransport(first.getSharedWriter());
+
+        // ----------------------------------------
+        // When
+        sendTick(first, "split-bolt", 2);
+        sendTick(second, "count-bolt", 1);
+        Mockito.verify(transport, Mockito.never()).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+        sendTick(second, "count-bolt", 1);
+
+        // ----------------------------------------
+        // Then
+        final ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(transport, Mockito.times(1)).write(data.capture(), Mockito.eq(0), length.capture());
+        assertEquals(
+                "test-prefix-metric-0,ComponentId=split-bolt value=0i 1000\n"
+                        + "test-prefix-metric-1,ComponentId=split-bolt value=1i 1000\n"
+                        + "test-prefix-metric-0,ComponentId=count-bolt value=0i 1000\n"
+                        + "test-prefix-metric-0,ComponentId=count-bolt value=0i 1000\n",
+                new String(data.getValue(), 0, length.getValue(), StandardCharsets.UTF_8)
+        );
+        assertEquals(0, first.getSharedWriter().getPendingPoints());
+
+        first.closeConnection();
+        second.closeConnection();
+    }
+
+    @Test
+    public void itShouldWriteEveryPointAppendedConcurrently() throws Exception {
+        // ----------------------------------------
+        // Given
+        config.put(InfluxDBSender.KEY_INFLUXDB_BATCH_MAX_POINTS, 100);
+        final List<InfluxDBSender> senders = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            senders.add(new InfluxDBSender(config));
+        }
+        final SharedWriter writer = senders.get(0).getSharedWriter();
+        final Transport transport = injectTransport(writer);
+
+        final AtomicInteger written = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            final byte[] data = invocation.getArgument(0);
+            final int length = invocation.getArgument(2);
+            for (int i = 0; i < length; i++) {
+                if (data[i] == '\n') {
+                    written.incrementAndGet();
+                }
+            }
+            return null;
+        }).when(transport).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        // ----------------------------------------
+        // When
+        final List<Thread> threads = new ArrayList<>();
+        for (final InfluxDBSender sender : senders) {
+            final Thread thread = new Thread(() -> {
+                for (int tick = 0; tick < 500; tick++) {
+                    sendTick(sender, "bolt", 3);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (InfluxDBSender sender : senders) {
+            sender.closeConnection();
+        }
+
+        // ----------------------------------------
+        // Then
+        assertEquals(4 * 500 * 3, written.get());
+        assertEquals(0, writer.getPendingPoints());
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void itShouldKeepTheHeaviestElementsWithFewerCountersThanElements() throws Exception {
+        // ----------------------------------------
+        // Given
+        final SpaceSaving<String> sketch = new SpaceSaving<>(10);
+
+        // ----------------------------------------
+        // When two heavy elements are interleaved with many light ones
+        for (int i = 0; i < 1000; i++) {
+            sketch.offer("heavy", 2);
+            sketch.offer("medium", 1);
+            sketch.offer("light-" + (i % 50), 1);
+        }
+
+        // ----------------------------------------
+        // Then
+        final Map<String, Long> top = sketch.getTop();
+        assertEquals(10, top.size());
+        assertEquals(Arrays.asList("heavy", "medium"), new ArrayList<>(top.keySet()).subList(0, 2));
+        assertTrue(top.get("heavy") >= 2000);
+        assertTrue(top.get("heavy") - sketch.getError("heavy") <= 2000);
+    }
+
+    @Test
+    public void itShouldForgetEverythingWhenCleared() throws Exception {
+        // ----------------------------------------
+        // Given
+        final SpaceSaving<String> sketch = new SpaceSaving<>(2);
+        sketch.offer("a", 1);
+
+        // ----------------------------------------
+        // When
+        sketch.clear();
+
+        // ----------------------------------------
+        // Then
+        assertTrue(sketch.getTop().isEmpty());
+        assertEquals(0, sketch.getError("a"));
+    }
+}
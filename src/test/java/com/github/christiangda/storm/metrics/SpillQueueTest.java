@@ -0,0 +1,116 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpillQueueTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void itShouldReturnBatchesInTheSameOrderTheyWereAppended() throws Exception {
+        // ----------------------------------------
+        // Given
+        final SpillQueue spillQueue = new SpillQueue(temporaryFolder.getRoot(), 1024, 1024 * 1024);
+
+        // ----------------------------------------
+        // When
+        append(spillQueue, "first value=1 1");
+        append(spillQueue, "second value=2 2");
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2, spillQueue.getPendingRecords());
+
+        SpillQueue.Record record = spillQueue.peek();
+        assertEquals("first value=1 1", new String(record.getData(), StandardCharsets.UTF_8));
+        spillQueue.commit(record);
+
+        record = spillQueue.peek();
+        assertEquals("second value=2 2", new String(record.getData(), StandardCharsets.UTF_8));
+        spillQueue.commit(record);
+
+        assertNull(spillQueue.peek());
+        assertTrue(spillQueue.isEmpty());
+        assertEquals(0, spillQueue.getPendingBytes());
+    }
+
+    @Test
+    public void itShouldContinueFromFirstPendingBatchWhenReopened() throws Exception {
+        // ----------------------------------------
+        // Given
+        final File directory = temporaryFolder.getRoot();
+        SpillQueue spillQueue = new SpillQueue(directory, 64, 1024 * 1024);
+
+        for (int i = 0; i < 5; i++) {
+            append(spillQueue, "measurement value=" + i + " " + i);
+        }
+        spillQueue.commit(spillQueue.peek());
+        spillQueue.close();
+
+        // ----------------------------------------
+        // When
+        spillQueue = new SpillQueue(directory, 64, 1024 * 1024);
+
+        // ----------------------------------------
+        // Then
+        assertEquals(4, spillQueue.getPendingRecords());
+        for (int i = 1; i < 5; i++) {
+            SpillQueue.Record record = spillQueue.peek();
+            assertEquals("measurement value=" + i + " " + i, new String(record.getData(), StandardCharsets.UTF_8));
+            spillQueue.commit(record);
+        }
+        assertNull(spillQueue.peek());
+    }
+
+    @Test
+    public void itShouldDiscardOldestSegmentWhenMaxSizeIsReached() throws Exception {
+        // ----------------------------------------
+        // Given (every segment holds one record)
+        final SpillQueue spillQueue = new SpillQueue(temporaryFolder.getRoot(), 32, 64);
+
+        // ----------------------------------------
+        // When
+        append(spillQueue, "a value=1 1");
+        append(spillQueue, "b value=2 2");
+        append(spillQueue, "c value=3 3");
+
+        // ----------------------------------------
+        // Then
+        assertEquals(2, spillQueue.getPendingRecords());
+        assertEquals(1, spillQueue.getDroppedRecords());
+        assertEquals("b value=2 2", new String(spillQueue.peek().getData(), StandardCharsets.UTF_8));
+        assertEquals(2, temporaryFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void itShouldDiscardBatchesBiggerThanSegmentSize() throws Exception {
+        // ----------------------------------------
+        // Given
+        final SpillQueue spillQueue = new SpillQueue(temporaryFolder.getRoot(), 16, 1024);
+
+        // ----------------------------------------
+        // When
+        final boolean appended = append(spillQueue, "measurement value=1234567890 1");
+
+        // ----------------------------------------
+        // Then
+        assertEquals(false, appended);
+        assertEquals(1, spillQueue.getDroppedRecords());
+        assertTrue(spillQueue.isEmpty());
+    }
+
+    private static boolean append(SpillQueue spillQueue, String lines) {
+        final byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        return spillQueue.append(data, 0, data.length);
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TcpTransportTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private ServerSocket listener;
+
+    @Before
+    public void setUp() throws Exception {
+        listener = new ServerSocket(0);
+        listener.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        listener.close();
+    }
+
+    private static String readAll(Socket socket) throws IOException {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final InputStream input = socket.getInputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            received.write(buffer, 0, read);
+        }
+        return new String(received.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void itShouldWriteAllRecordsOverOneConnection() throws Exception {
+        // ----------------------------------------
+        // Given
+        final TcpTransport transport = new TcpTransport("127.0.0.1", listener.getLocalPort(), 1000, 1000);
+        final byte[] first = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] second = "b value=2 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        transport.write(first, 0, first.length);
+        transport.write(second, 0, second.length);
+        transport.close();
+
+        // ----------------------------------------
+        // Then
+        try (Socket socket = listener.accept()) {
+            assertEquals("a value=1 1\nb value=2 1\n", readAll(socket));
+        }
+    }
+
+    @Test
+    public void itShouldThrowIOExceptionWhenServerIsNotListening() throws Exception {
+        // ----------------------------------------
+        // Given
+        final int port = listener.getLocalPort();
+        listener.close();
+        final TcpTransport transport = new TcpTransport("127.0.0.1", port, 1000, 1000);
+        final byte[] data = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // Then
+        thrown.expect(IOException.class);
+
+        // ----------------------------------------
+        // When
+        transport.write(data, 0, data.length);
+    }
+
+    @Test
+    public void itShouldGiveUpTheWriteAfterTheTimeoutWhenTheListenerDoesNotRead() throws Exception {
+        // ----------------------------------------
+        // Given (the connection is accepted by the backlog of the listener, nobody reads from it)
+        final TcpTransport transport = new TcpTransport("127.0.0.1", listener.getLocalPort(), 1000, 200);
+        final byte[] data = new byte[64 * 1024 * 1024];
+
+        // ----------------------------------------
+        // When
+        final long start = System.nanoTime();
+        try {
+            transport.write(data, 0, data.length);
+            throw new AssertionError("The write should have timed out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+
+        // ----------------------------------------
+        // Then
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMs >= 200);
+        assertTrue(elapsedMs < 5000);
+        transport.close();
+    }
+
+    @Test
+    public void itShouldResolveTheHostAgainOnTheNextConnection() throws Exception {
+        // ----------------------------------------
+        // Given (the name does not resolve on the first write)
+        final TcpTransport transport = Mockito.spy(new TcpTransport("127.0.0.1", listener.getLocalPort(), 1000, 1000));
+        Mockito.doReturn(InetSocketAddress.createUnresolved("influxdb", listener.getLocalPort())).doCallRealMethod().when(transport).resolve();
+        final byte[] data = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        try {
+            transport.write(data, 0, data.length);
+            throw new AssertionError("The write should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Unable to resolve"));
+        }
+        transport.write(data, 0, data.length);
+        transport.close();
+
+        // ----------------------------------------
+        // Then
+        try (Socket socket = listener.accept()) {
+            assertEquals("a value=1 1\n", readAll(socket));
+        }
+    }
+}
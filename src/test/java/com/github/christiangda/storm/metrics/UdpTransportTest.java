@@ -0,0 +1,99 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpTransportTest {
+
+    private DatagramChannel listener;
+
+    @Before
+    public void setUp() throws Exception {
+        listener = DatagramChannel.open();
+        listener.bind(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        listener.close();
+    }
+
+    private String receive() throws Exception {
+        final ByteBuffer packet = ByteBuffer.allocate(65536);
+        listener.receive(packet);
+        packet.flip();
+        return StandardCharsets.UTF_8.decode(packet).toString();
+    }
+
+    @Test
+    public void itShouldPackRecordsInDatagramsUpToTheMtu() throws Exception {
+        // ----------------------------------------
+        // Given
+        final UdpTransport transport = new UdpTransport("127.0.0.1", ((InetSocketAddress) listener.getLocalAddress()).getPort(), 30);
+        final byte[] data = "a value=1 1\nb value=2 1\nc value=3 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        transport.write(data, 0, data.length);
+        transport.close();
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a value=1 1\nb value=2 1\n", receive());
+        assertEquals("c value=3 1\n", receive());
+    }
+
+    @Test
+    public void itShouldSendRecordsBiggerThanTheMtuAlone() throws Exception {
+        // ----------------------------------------
+        // Given
+        final UdpTransport transport = new UdpTransport("127.0.0.1", ((InetSocketAddress) listener.getLocalAddress()).getPort(), 10);
+        final byte[] data = "a value=1 1\nb value=2 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        transport.write(data, 0, data.length);
+        transport.close();
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a value=1 1\n", receive());
+        assertEquals("b value=2 1\n", receive());
+    }
+
+    @Test
+    public void itShouldResolveTheHostAgainOnTheNextWrite() throws Exception {
+        // ----------------------------------------
+        // Given (the name does not resolve on the first write)
+        final int port = ((InetSocketAddress) listener.getLocalAddress()).getPort();
+        final UdpTransport transport = Mockito.spy(new UdpTransport("127.0.0.1", port, 1400));
+        Mockito.doReturn(InetSocketAddress.createUnresolved("influxdb", port)).doCallRealMethod().when(transport).resolve();
+        final byte[] data = "a value=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        // ----------------------------------------
+        // When
+        try {
+            transport.write(data, 0, data.length);
+            throw new AssertionError("The write should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Unable to resolve"));
+        }
+        transport.write(data, 0, data.length);
+        transport.close();
+
+        // ----------------------------------------
+        // Then
+        assertEquals("a value=1 1\n", receive());
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.christiangda.storm.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WidePointAggregatorTest {
+
+    @Test
+    public void itShouldGroupMetricsOfTheSameFamilyIntoOnePoint() throws Exception {
+        // ----------------------------------------
+        // Given
+        final WidePointAggregator aggregator = new WidePointAggregator(WidePointAggregator.DEFAULT_TAG_RULES);
+
+        // ----------------------------------------
+        // When
+        aggregator.add("__sendqueue.read_pos", 10);
+        aggregator.add("__sendqueue.write_pos", 12);
+        aggregator.add("__sendqueue.capacity", 1024);
+        aggregator.add("uptime", 60);
+
+        // ----------------------------------------
+        // Then
+        final List<WidePointAggregator.WidePoint> points = new ArrayList<>(aggregator.getPoints());
+        assertEquals(2, points.size());
+
+        assertEquals("__sendqueue", points.get(0).getMeasurement());
+        assertTrue(points.get(0).getTags().isEmpty());
+        assertEquals(Arrays.asList("read_pos", "write_pos", "capacity"), new ArrayList<>(points.get(0).getFields().keySet()));
+
+        assertEquals("uptime", points.get(1).getMeasurement());
+        assertEquals(60, points.get(1).getFields().get(WidePointAggregator.DEFAULT_FIELD));
+    }
+
+    @Test
+    public void itShouldMapSegmentsToTagsUsingTheFamilyRule() throws Exception {
+        // ----------------------------------------
+        // Given
+        final WidePointAggregator aggregator = new WidePointAggregator(WidePointAggregator.DEFAULT_TAG_RULES);
+
+        // ----------------------------------------
+        // When
+        aggregator.add("__emit-count.default", 10);
+        aggregator.add("__emit-count.__ack_init", 2);
+        aggregator.add("__execute-latency.spout:default", 0.5f);
+
+        // ----------------------------------------
+        // Then
+        final List<WidePointAggregator.WidePoint> points = new ArrayList<>(aggregator.getPoints());
+        assertEquals(3, points.size());
+
+        assertEquals("__emit-count", points.get(0).getMeasurement());
+        assertEquals(Collections.singletonMap("stream", "default"), points.get(0).getTags());
+        assertEquals(Collections.singletonMap("value", (Object) 10), points.get(0).getFields());
+
+        assertEquals(Collections.singletonMap("stream", "__ack_init"), points.get(1).getTags());
+        assertEquals(Collections.singletonMap("stream", "spout:default"), points.get(2).getTags());
+    }
+
+    @Test
+    public void itShouldParseTagRulesFromConfiguration() throws Exception {
+        // ----------------------------------------
+        // Given
+        final Map<String, Object> rules = new HashMap<>();
+        rules.put("kafkaOffset", "topic, partition");
+        rules.put("*", Collections.singletonList("kind"));
+
+        // ----------------------------------------
+        // When
+        final WidePointAggregator aggregator = new WidePointAggregator(WidePointAggregator.parseTagRules(rules));
+        aggregator.add("kafkaOffset.events.0.latestTimeOffset", 100L);
+        aggregator.add("kafkaOffset.events.0.earliestTimeOffset", 1L);
+        aggregator.add("GC/PSScavenge.count", 3);
+
+        // ----------------------------------------
+        // Then
+        final List<WidePointAggregator.WidePoint> points = new ArrayList<>(aggregator.getPoints());
+        assertEquals(2, points.size());
+
+        final Map<String, String> expectedTags = new HashMap<>();
+        expectedTags.put("topic", "events");
+        expectedTags.put("partition", "0");
+        assertEquals(expectedTags, points.get(0).getTags());
+        assertEquals(Arrays.asList("latestTimeOffset", "earliestTimeOffset"), new ArrayList<>(points.get(0).getFields().keySet()));
+
+        assertEquals(Collections.singletonMap("kind", "count"), points.get(1).getTags());
+        assertEquals(Collections.singletonMap("value", (Object) 3), points.get(1).getFields());
+    }
+
+    @Test
+    public void itShouldUseDefaultTagRulesWhenConfigurationIsNotAMap() throws Exception {
+        assertEquals(WidePointAggregator.DEFAULT_TAG_RULES, WidePointAggregator.parseTagRules(null));
+        assertEquals(WidePointAggregator.DEFAULT_TAG_RULES, WidePointAggregator.parseTagRules("invalid"));
+    }
+}